@@ -42,9 +42,14 @@ public class DbIterator extends UnmodifiableIterator<Map<String, Object>> {
   private WebPage page;
   private Utf8 batchId;
   private Set<String> commonFields;
+  private long limit;
+  private long count;
+  private String nextKey;
 
-  DbIterator(Result<String, WebPage> res, Set<String> fields, String batchId) {
+  DbIterator(Result<String, WebPage> res, Set<String> fields, String batchId,
+      long limit) {
     this.result = res;
+    this.limit = limit;
     if (batchId != null) {
       this.batchId = new Utf8(batchId);
     }
@@ -86,8 +91,14 @@ public class DbIterator extends UnmodifiableIterator<Map<String, Object>> {
   public Map<String, Object> next() {
     url = result.getKey();
     page = WebPage.newBuilder(result.get()).build();
+    count++;
     try {
       skipNonRelevant();
+      if (hasNext && count >= limit) {
+        // the page is full, the row read ahead starts the next one
+        nextKey = result.getKey();
+        hasNext = false;
+      }
       if (!hasNext) {
         result.close();
       }
@@ -99,6 +110,15 @@ public class DbIterator extends UnmodifiableIterator<Map<String, Object>> {
     return pageAsMap(url, page);
   }
 
+  /**
+   * @return the row key the next page starts with, to be passed as
+   *         continuation key, or null if the query has no more rows. Only
+   *         known once all rows of this page have been read.
+   */
+  public String getNextKey() {
+    return nextKey;
+  }
+
   private Map<String, Object> pageAsMap(String url, WebPage page) {
     Map<String, Object> result = DbPageConverter.convertPage(page, commonFields);
 
@@ -17,38 +17,59 @@
 package org.apache.nutch.api.impl.db;
 
 import java.net.MalformedURLException;
-import java.util.Iterator;
-import java.util.Map;
 import java.util.Set;
 
+import org.apache.avro.util.Utf8;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang.StringUtils;
+import org.apache.gora.filter.FilterOp;
+import org.apache.gora.filter.MapFieldValueFilter;
 import org.apache.gora.query.Query;
 import org.apache.gora.query.Result;
 import org.apache.gora.store.DataStore;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.nutch.api.model.request.DbFilter;
 import org.apache.nutch.metadata.Nutch;
+import org.apache.nutch.storage.Mark;
 import org.apache.nutch.storage.StorageUtils;
 import org.apache.nutch.storage.WebPage;
 import org.apache.nutch.util.TableUtil;
 
+import com.google.common.collect.Sets;
+
 public class DbReader {
   private DataStore<String, WebPage> store;
+  private int defaultPageSize;
+  private int maxPageSize;
 
   public DbReader(Configuration conf, String crawlId) {
+    this(createStore(conf, crawlId), conf);
+  }
+
+  DbReader(DataStore<String, WebPage> store, Configuration conf) {
+    this.store = store;
+    defaultPageSize = conf.getInt("nutch.api.db.page.size", 1000);
+    maxPageSize = conf.getInt("nutch.api.db.page.size.max", 10000);
+  }
+
+  private static DataStore<String, WebPage> createStore(Configuration conf,
+      String crawlId) {
     conf = new Configuration(conf);
     if (crawlId != null) {
       conf.set(Nutch.CRAWL_ID_KEY, crawlId);
     }
     try {
-      store = StorageUtils.createWebStore(conf, String.class, WebPage.class);
+      return StorageUtils.createWebStore(conf, String.class, WebPage.class);
     } catch (Exception e) {
       throw new IllegalStateException("Cannot create webstore!", e);
     }
   }
 
-  public Iterator<Map<String, Object>> runQuery(DbFilter filter) {
+  /**
+   * Runs the query of <code>filter</code>. Returns at most one page of rows,
+   * see {@link DbIterator#getNextKey()} to continue with the next page.
+   */
+  public DbIterator runQuery(DbFilter filter) {
     String startKey = filter.getStartKey();
     String endKey = filter.getEndKey();
 
@@ -57,16 +78,57 @@ public class DbReader {
       endKey = reverseKey(filter.getEndKey());
     }
 
+    if (StringUtils.isNotEmpty(filter.getContinuationKey())) {
+      // a row key, no need to reverse it
+      startKey = filter.getContinuationKey();
+    }
+
+    MapFieldValueFilter<String, WebPage> batchIdFilter =
+        getBatchIdFilter(filter.getBatchId());
     Query<String, WebPage> query = store.newQuery();
-    query.setFields(prepareFields(filter.getFields()));
+    query.setFields(prepareFields(filter.getFields(), batchIdFilter != null));
     if (startKey != null) {
       query.setStartKey(startKey);
       if (endKey != null) {
         query.setEndKey(endKey);
       }
     }
+    if (batchIdFilter != null) {
+      query.setFilter(batchIdFilter);
+    }
+    int pageSize = getPageSize(filter);
+    if (filter.getBatchId() == null) {
+      // one more row to know where the next page starts
+      query.setLimit(pageSize + 1);
+    }
+    // else the iterator skips rows of other batches, and reads on until the
+    // page is full
     Result<String, WebPage> result = store.execute(query);
-    return new DbIterator(result, filter.getFields(), filter.getBatchId());
+    return new DbIterator(result, filter.getFields(), filter.getBatchId(),
+        pageSize);
+  }
+
+  private int getPageSize(DbFilter filter) {
+    int pageSize = filter.getLimit() > 0 ? filter.getLimit() : defaultPageSize;
+    return Math.min(pageSize, maxPageSize);
+  }
+
+  /**
+   * Lets the store select the rows of a batch, the same way as
+   * ParserJob.getBatchIdFilter(). Rows of all batches are still told apart
+   * by the iterator.
+   */
+  private MapFieldValueFilter<String, WebPage> getBatchIdFilter(String batchId) {
+    if (batchId == null || batchId.equals(Nutch.ALL_CRAWL_ID.toString())) {
+      return null;
+    }
+    MapFieldValueFilter<String, WebPage> filter = new MapFieldValueFilter<String, WebPage>();
+    filter.setFieldName(WebPage.Field.MARKERS.toString());
+    filter.setFilterOp(FilterOp.EQUALS);
+    filter.setFilterIfMissing(true);
+    filter.setMapKey(Mark.UPDATEDB_MARK.getName());
+    filter.getOperands().add(new Utf8(batchId));
+    return filter;
   }
 
   private String reverseKey(String key) {
@@ -81,11 +143,16 @@ public class DbReader {
     }
   }
 
-  private String[] prepareFields(Set<String> fields) {
+  private String[] prepareFields(Set<String> fields, boolean withMarkers) {
     if (CollectionUtils.isEmpty(fields)) {
       return null;
     }
     fields.remove("url");
-    return fields.toArray(new String[fields.size()]);
+    Set<String> queryFields = Sets.newHashSet(fields);
+    if (withMarkers) {
+      // the batch id filter reads the markers
+      queryFields.add(WebPage.Field.MARKERS.getName());
+    }
+    return queryFields.toArray(new String[queryFields.size()]);
   }
 }
@@ -24,6 +24,8 @@ public class DbFilter {
   private String endKey;
   private boolean isKeysReversed = false;
   private Set<String> fields;
+  private int limit;
+  private String continuationKey;
 
   public Set<String> getFields() {
     return fields;
@@ -64,4 +66,25 @@ public class DbFilter {
   public void setBatchId(String batchId) {
     this.batchId = batchId;
   }
+
+  /** Maximum number of rows to return, 0 for the server's default. */
+  public int getLimit() {
+    return limit;
+  }
+
+  public void setLimit(int limit) {
+    this.limit = limit;
+  }
+
+  /**
+   * The <code>nextKey</code> of the previous page, to continue a query where
+   * it stopped. Takes the place of the start key.
+   */
+  public String getContinuationKey() {
+    return continuationKey;
+  }
+
+  public void setContinuationKey(String continuationKey) {
+    this.continuationKey = continuationKey;
+  }
 }
@@ -24,6 +24,7 @@ import com.google.common.collect.Lists;
 
 public class DbQueryResult {
   private List<Map<String, Object>> values = Lists.newLinkedList();
+  private String nextKey;
 
   public List<Map<String, Object>> getValues() {
     return Collections.unmodifiableList(values);
@@ -32,4 +33,16 @@ public class DbQueryResult {
   public void addValue(Map<String, Object> next) {
     values.add(next);
   }
+
+  /**
+   * @return the continuation key of the next page, null if this is the last
+   *         page
+   */
+  public String getNextKey() {
+    return nextKey;
+  }
+
+  public void setNextKey(String nextKey) {
+    this.nextKey = nextKey;
+  }
 }
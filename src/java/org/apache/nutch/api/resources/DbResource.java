@@ -16,7 +16,8 @@
  ******************************************************************************/
 package org.apache.nutch.api.resources;
 
-import java.util.Iterator;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Map;
 import java.util.WeakHashMap;
 
@@ -24,29 +25,57 @@ import javax.ws.rs.Consumes;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
+import org.apache.nutch.api.impl.db.DbIterator;
 import org.apache.nutch.api.impl.db.DbReader;
 import org.apache.nutch.api.model.request.DbFilter;
 import org.apache.nutch.api.model.response.DbQueryResult;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.ObjectMapper;
 
 @Path("/db")
 public class DbResource extends AbstractResource {
 
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
   private Map<String, DbReader> readers = new WeakHashMap<String, DbReader>();
 
+  /**
+   * Returns one page of the rows matching the filter, in the format of
+   * {@link DbQueryResult}. Rows are written out as they are read, the page
+   * is never held in memory. If there are more rows, <code>nextKey</code>
+   * is set and can be passed as continuation key to get the next page.
+   */
   @POST
   @Consumes(MediaType.APPLICATION_JSON)
-  public DbQueryResult runQuery(DbFilter filter) {
+  public Response runQuery(DbFilter filter) {
     if (filter == null) {
       throwBadRequestException("Filter cannot be null!");
     }
 
-    DbQueryResult result = new DbQueryResult();
-    Iterator<Map<String, Object>> iterator = getReader().runQuery(filter);
-    while (iterator.hasNext()) {
-      result.addValue(iterator.next());
-    }
-    return result;
+    final DbIterator iterator = getReader().runQuery(filter);
+    StreamingOutput output = new StreamingOutput() {
+      public void write(OutputStream out) throws IOException {
+        JsonGenerator generator = MAPPER.getJsonFactory().createJsonGenerator(
+            out, JsonEncoding.UTF8);
+        generator.writeStartObject();
+        generator.writeArrayFieldStart("values");
+        while (iterator.hasNext()) {
+          Map<String, Object> value = iterator.next();
+          if (value != null) {
+            MAPPER.writeValue(generator, value);
+          }
+        }
+        generator.writeEndArray();
+        generator.writeStringField("nextKey", iterator.getNextKey());
+        generator.writeEndObject();
+        generator.close();
+      }
+    };
+    return Response.ok(output, MediaType.APPLICATION_JSON).build();
   }
 
   private DbReader getReader() {
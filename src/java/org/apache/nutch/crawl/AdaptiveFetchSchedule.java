@@ -42,6 +42,11 @@ import org.apache.nutch.storage.WebPage;
  * <li>the maximum value of fetchInterval may not be bigger than MAX_INTERVAL
  * (default is 365 days).</li>
  * </ul>
+ * <p>A page is considered unchanged if the server answered the conditional
+ * request for it with <code>304 Not Modified</code> (see
+ * {@link org.apache.nutch.net.protocols.ConditionalGet}), or if its signature
+ * did not change. The time of a change the server does not report is taken
+ * to be the fetch time.</p>
  * <p>NOTE: values of DEC_FACTOR and INC_FACTOR higher than 0.4f may destabilize the algorithm,
  * so that the fetch interval either increases or decreases infinitely, with little
  * relevance to the page changes. Please use {@link #main(String[])} method to
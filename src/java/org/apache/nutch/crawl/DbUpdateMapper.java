@@ -46,6 +46,7 @@ extends GoraMapper<String, WebPage, UrlWithScore, NutchWritable> {
   private final List<ScoreDatum> scoreData = new ArrayList<ScoreDatum>();
 
   private Utf8 batchId;
+  private boolean allBatches;
   
   //reuse writables
   private UrlWithScore urlWithScore = new UrlWithScore();
@@ -55,12 +56,21 @@ extends GoraMapper<String, WebPage, UrlWithScore, NutchWritable> {
   @Override
   public void map(String key, WebPage page, Context context)
   throws IOException, InterruptedException {
-   if(Mark.GENERATE_MARK.checkMark(page) == null) {
+    Utf8 mark = Mark.GENERATE_MARK.checkMark(page);
+    if (mark == null) {
       if (LOG.isDebugEnabled()) {
         LOG.debug("Skipping " + TableUtil.unreverseUrl(key) + "; not generated yet");
       }
       return;
     }
+    // the batch filter is only a hint to stores which cannot apply it
+    if (!allBatches && !batchId.equals(mark)) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Skipping " + TableUtil.unreverseUrl(key)
+            + "; different batch id (" + mark + ")");
+      }
+      return;
+    }
   
     String url = TableUtil.unreverseUrl(key);
 
@@ -105,6 +115,7 @@ extends GoraMapper<String, WebPage, UrlWithScore, NutchWritable> {
     scoringFilters = new ScoringFilters(context.getConfiguration());
     pageWritable = new WebPageWritable(context.getConfiguration(), null);
     batchId = new Utf8(context.getConfiguration().get(Nutch.BATCH_NAME_KEY,Nutch.ALL_BATCH_ID_STR));
+    allBatches = batchId.equals(Nutch.ALL_CRAWL_ID);
   }
 
 }
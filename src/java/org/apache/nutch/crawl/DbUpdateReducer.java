@@ -23,6 +23,7 @@ import java.util.List;
 
 import org.apache.avro.util.Utf8;
 import org.apache.gora.mapreduce.GoraReducer;
+import org.apache.gora.store.DataStore;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.util.StringUtils;
@@ -32,6 +33,7 @@ import org.apache.nutch.scoring.ScoreDatum;
 import org.apache.nutch.scoring.ScoringFilterException;
 import org.apache.nutch.scoring.ScoringFilters;
 import org.apache.nutch.storage.Mark;
+import org.apache.nutch.storage.StorageUtils;
 import org.apache.nutch.storage.WebPage;
 import org.apache.nutch.util.TableUtil;
 import org.apache.nutch.util.WebPageWritable;
@@ -52,15 +54,26 @@ extends GoraReducer<UrlWithScore, NutchWritable, String, WebPage> {
   private List<ScoreDatum> inlinkedScoreData = new ArrayList<ScoreDatum>();
   private int maxLinks;
 
+  // link targets outside the batch are read from here
+  DataStore<String, WebPage> store;
+  private String[] linkTargetFields;
+
   @Override
   protected void setup(Context context) throws IOException, InterruptedException {
     Configuration conf = context.getConfiguration();
+    try {
+      store = StorageUtils.createWebStore(conf, String.class, WebPage.class);
+    } catch (ClassNotFoundException e) {
+      throw new IOException(e);
+    }
     retryMax = conf.getInt("db.fetch.retry.max", 3);
     additionsAllowed = conf.getBoolean(CRAWLDB_ADDITIONS_ALLOWED, true);
     maxInterval = conf.getInt("db.fetch.interval.max", 0 );
     schedule = FetchScheduleFactory.getFetchSchedule(conf);
     scoringFilters = new ScoringFilters(conf);
     maxLinks = conf.getInt("db.update.max.inlinks", 10000);
+    linkTargetFields = StorageUtils.toStringArray(
+        DbUpdaterJob.getLinkTargetFields(scoringFilters));
   }
 
   @Override
@@ -93,6 +106,18 @@ extends GoraReducer<UrlWithScore, NutchWritable, String, WebPage> {
       return;
     }
 
+    // only the pages of the batch come from the mapper, link targets outside
+    // of it are looked up before they are taken as new rows
+    boolean inBatch = page != null;
+    if (page == null && !inlinkedScoreData.isEmpty()) {
+      page = store.get(keyUrl, linkTargetFields);
+      if (page != null) {
+        // only the fields updated below are written
+        page.clearDirty();
+        context.getCounter("DbUpdater", "existingLinkTargets").increment(1);
+      }
+    }
+
     if (page == null) { // new row
       if (!additionsAllowed) {
         return;
@@ -105,7 +130,7 @@ extends GoraReducer<UrlWithScore, NutchWritable, String, WebPage> {
       } catch (ScoringFilterException e) {
         page.setScore(0.0f);
       }
-    } else {
+    } else if (inBatch) {
       byte status = page.getStatus().byteValue();
       switch (status) {
       case CrawlStatus.STATUS_FETCHED:         // succesful fetch
@@ -118,7 +143,10 @@ extends GoraReducer<UrlWithScore, NutchWritable, String, WebPage> {
         }
         ByteBuffer prevSig = page.getPrevSignature();
         ByteBuffer signature = page.getSignature();
-        if (prevSig != null && signature != null) {
+        // a 304 response says it all, the signatures are those of the
+        // content fetched before
+        if (status != CrawlStatus.STATUS_NOTMODIFIED
+            && prevSig != null && signature != null) {
           if (SignatureComparator.compare(prevSig, signature) != 0) {
             modified = FetchSchedule.STATUS_MODIFIED;
           } else {
@@ -130,13 +158,20 @@ extends GoraReducer<UrlWithScore, NutchWritable, String, WebPage> {
         long modifiedTime = page.getModifiedTime();
         long prevModifiedTime = page.getPrevModifiedTime();
         CharSequence lastModified = page.getHeaders().get(new Utf8("Last-Modified"));
+        boolean knownModifiedTime = false;
         if ( lastModified != null ){
           try {
             modifiedTime = HttpDateFormat.toLong(lastModified.toString());
             prevModifiedTime = page.getModifiedTime();
+            knownModifiedTime = true;
           } catch (Exception e) {
           }
         }
+        if (!knownModifiedTime && modified == FetchSchedule.STATUS_MODIFIED) {
+          // changed since the last fetch, the server does not say when
+          modifiedTime = fetchTime;
+          prevModifiedTime = page.getModifiedTime();
+        }
         schedule.setFetchSchedule(url, page, prevFetchTime, prevModifiedTime,
             fetchTime, modifiedTime, modified);
         if (maxInterval < page.getFetchInterval())
@@ -190,21 +225,31 @@ extends GoraReducer<UrlWithScore, NutchWritable, String, WebPage> {
                 StringUtils.stringifyException(e));
     }
 
-    // clear markers
+    // clear markers, unless the page belongs to another batch
     // But only delete when they exist. This is much faster for the underlying
     // store. The markers are on the input anyway.
-    if (page.getMetadata().get(FetcherJob.REDIRECT_DISCOVERED) != null) {
-      page.getMetadata().put(FetcherJob.REDIRECT_DISCOVERED, null);
-    }
-    Mark.GENERATE_MARK.removeMarkIfExist(page);
-    Mark.FETCH_MARK.removeMarkIfExist(page);
-    Utf8 parse_mark = Mark.PARSE_MARK.checkMark(page);
-    if (parse_mark != null) {
-      Mark.UPDATEDB_MARK.putMark(page, parse_mark);
-      Mark.PARSE_MARK.removeMark(page);
+    if (inBatch) {
+      if (page.getMetadata().get(FetcherJob.REDIRECT_DISCOVERED) != null) {
+        page.getMetadata().put(FetcherJob.REDIRECT_DISCOVERED, null);
+      }
+      Mark.GENERATE_MARK.removeMarkIfExist(page);
+      Mark.FETCH_MARK.removeMarkIfExist(page);
+      Utf8 parse_mark = Mark.PARSE_MARK.checkMark(page);
+      if (parse_mark != null) {
+        Mark.UPDATEDB_MARK.putMark(page, parse_mark);
+        Mark.PARSE_MARK.removeMark(page);
+      }
     }
 
     context.write(keyUrl, page);
   }
 
+  @Override
+  protected void cleanup(Context context) throws IOException,
+      InterruptedException {
+    if (store != null) {
+      store.close();
+    }
+  }
+
 }
@@ -24,7 +24,6 @@ import java.util.Map;
 import org.apache.avro.util.Utf8;
 import org.apache.gora.filter.FilterOp;
 import org.apache.gora.filter.MapFieldValueFilter;
-import org.apache.gora.filter.SingleFieldValueFilter;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
@@ -90,9 +89,7 @@ public class DbUpdaterJob extends NutchTool implements Tool {
     }
     getConf().set(Nutch.BATCH_NAME_KEY, batchId);
     //job.setBoolean(ALL, updateAll);
-    ScoringFilters scoringFilters = new ScoringFilters(getConf());
-    HashSet<WebPage.Field> fields = new HashSet<WebPage.Field>(FIELDS);
-    fields.addAll(scoringFilters.getFields());
+    Collection<WebPage.Field> fields = getFields(getConf());
     
     currentJob = new NutchJob(getConf(), "update-table");
     if (crawlId != null) {
@@ -116,6 +113,29 @@ public class DbUpdaterJob extends NutchTool implements Tool {
     return results;
   }
 
+  /**
+   * The fields read by the mapper.
+   */
+  static Collection<WebPage.Field> getFields(Configuration conf) {
+    ScoringFilters scoringFilters = new ScoringFilters(conf);
+    HashSet<WebPage.Field> fields = new HashSet<WebPage.Field>(FIELDS);
+    fields.addAll(scoringFilters.getFields());
+    return fields;
+  }
+
+  /**
+   * The fields the reducer reads for link targets which are not part of the
+   * updated batch: markers, metadata and those of the scoring filters.
+   */
+  static Collection<WebPage.Field> getLinkTargetFields(
+      ScoringFilters scoringFilters) {
+    HashSet<WebPage.Field> fields = new HashSet<WebPage.Field>();
+    fields.add(WebPage.Field.MARKERS);
+    fields.add(WebPage.Field.METADATA);
+    fields.addAll(scoringFilters.getFields());
+    return fields;
+  }
+
   private MapFieldValueFilter<String, WebPage> getBatchIdFilter(String batchId) {
     if (batchId.equals(Nutch.ALL_CRAWL_ID.toString())) {
       return null;
@@ -0,0 +1,414 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.crawl;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.avro.util.Utf8;
+import org.apache.gora.mapreduce.GoraMapper;
+import org.apache.gora.mapreduce.GoraReducer;
+import org.apache.gora.store.DataStore;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.nutch.metadata.Nutch;
+import org.apache.nutch.storage.StorageUtils;
+import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.NutchConfiguration;
+import org.apache.nutch.util.NutchJob;
+import org.apache.nutch.util.NutchTool;
+import org.apache.nutch.util.TableUtil;
+import org.apache.nutch.util.TimingUtil;
+import org.apache.nutch.util.ToolUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finds near-duplicate pages by the Hamming distance of their
+ * {@link SimHashSignature}s and marks all but one page of every group of
+ * near-duplicates, so that they are skipped by the {@link
+ * org.apache.nutch.indexer.IndexingJob} and removed from the index by the
+ * {@link org.apache.nutch.indexer.CleaningJob}.
+ * <p>
+ * Comparing all pairs of pages is not feasible, so candidates are found with
+ * a banded LSH index: the 64 bits of a signature are cut into
+ * <code>dedup.simhash.bands</code> bands and pages are grouped by the value
+ * of each band. Two signatures which differ in at most <i>k</i> bits agree
+ * on at least one of <i>k</i>+1 bands, so with at least
+ * <code>dedup.simhash.distance</code> + 1 bands no pair within the distance
+ * is missed. Only pages sharing a band are compared.
+ * <p>
+ * The job runs in two steps:
+ * <ol>
+ * <li>The mapper emits every fetched page with a SimHash signature once per
+ * band. The reducer compares the pages of each band bucket and, for every
+ * pair within the distance, emits the worse page with the better one. The
+ * better page is the one with the higher score, then the shorter URL.
+ * Pages marked by an earlier run are passed through as well.</li>
+ * <li>For every page found this way the {@link #DUPLICATE_OF} metadata is
+ * set to the URL of the page it duplicates; the mark is removed from pages
+ * which are no longer near-duplicates of any other page.</li>
+ * </ol>
+ * Pages with other kinds of signatures are ignored.
+ */
+public class DeduplicationJob extends NutchTool implements Tool {
+
+  public static final Logger LOG = LoggerFactory
+      .getLogger(DeduplicationJob.class);
+
+  /** Metadata holding the URL of the page a page is a near-duplicate of. */
+  public static final Utf8 DUPLICATE_OF = new Utf8("_dup_");
+
+  public static final String DISTANCE_KEY = "dedup.simhash.distance";
+  public static final String BANDS_KEY = "dedup.simhash.bands";
+  public static final String BUCKET_MAX_KEY = "dedup.bucket.max";
+
+  private static final Collection<WebPage.Field> FIELDS = new HashSet<WebPage.Field>();
+
+  static {
+    FIELDS.add(WebPage.Field.STATUS);
+    FIELDS.add(WebPage.Field.SIGNATURE);
+    FIELDS.add(WebPage.Field.SCORE);
+    FIELDS.add(WebPage.Field.METADATA);
+  }
+
+  private static final String BAND_PREFIX = "b";
+  private static final String MARKED_PREFIX = "u";
+
+  /** A page in a band bucket. */
+  public static class Candidate implements Writable {
+    String key;
+    long fingerprint;
+    float score;
+
+    public Candidate() {
+    }
+
+    Candidate(String key, long fingerprint, float score) {
+      this.key = key;
+      this.fingerprint = fingerprint;
+      this.score = score;
+    }
+
+    /** Whether this page is preferred over <code>other</code>. */
+    boolean isBetterThan(Candidate other) {
+      if (score != other.score) {
+        return score > other.score;
+      }
+      if (key.length() != other.key.length()) {
+        return key.length() < other.key.length();
+      }
+      return key.compareTo(other.key) < 0;
+    }
+
+    public void readFields(DataInput in) throws IOException {
+      key = Text.readString(in);
+      fingerprint = in.readLong();
+      score = in.readFloat();
+    }
+
+    public void write(DataOutput out) throws IOException {
+      Text.writeString(out, key);
+      out.writeLong(fingerprint);
+      out.writeFloat(score);
+    }
+  }
+
+  /**
+   * Returns the value of band <code>band</code> of a fingerprint cut into
+   * <code>bands</code> bands. The last band takes the remaining bits.
+   */
+  static long band(long fingerprint, int band, int bands) {
+    int width = 64 / bands;
+    int shift = band * width;
+    if (band == bands - 1) {
+      width = 64 - shift;
+    }
+    long mask = width == 64 ? -1L : (1L << width) - 1;
+    return (fingerprint >>> shift) & mask;
+  }
+
+  public static class DedupMapper extends
+      GoraMapper<String, WebPage, Text, Candidate> {
+
+    private int bands;
+    private Text outKey = new Text();
+
+    @Override
+    protected void setup(Context context) {
+      bands = context.getConfiguration().getInt(BANDS_KEY, 4);
+    }
+
+    @Override
+    public void map(String key, WebPage page, Context context)
+        throws IOException, InterruptedException {
+      if (page.getMetadata().get(DUPLICATE_OF) != null) {
+        outKey.set(MARKED_PREFIX + key);
+        context.write(outKey, new Candidate(key, 0L, 0f));
+      }
+      int status = page.getStatus() == null ? 0 : page.getStatus();
+      if (status != CrawlStatus.STATUS_FETCHED
+          && status != CrawlStatus.STATUS_NOTMODIFIED) {
+        return;
+      }
+      ByteBuffer signature = page.getSignature();
+      if (signature == null
+          || signature.remaining() != SimHashSignature.LENGTH) {
+        return;
+      }
+      long fingerprint = SimHashSignature.toLong(signature.array(),
+          signature.arrayOffset() + signature.position());
+      Candidate candidate = new Candidate(key, fingerprint, page.getScore());
+      for (int i = 0; i < bands; i++) {
+        outKey.set(BAND_PREFIX + i + ":"
+            + Long.toHexString(band(fingerprint, i, bands)));
+        context.write(outKey, candidate);
+      }
+      context.getCounter("DeduplicationJob", "pages").increment(1);
+    }
+  }
+
+  /**
+   * Emits the key of every page of a bucket which has a better page within
+   * the distance, with the URL of that page. Marked pages are emitted with
+   * an empty URL.
+   */
+  public static class DedupReducer extends
+      Reducer<Text, Candidate, Text, Text> {
+
+    private int distance;
+    private int maxBucket;
+    private Text outKey = new Text();
+    private Text outValue = new Text();
+    private List<Candidate> bucket = new ArrayList<Candidate>();
+
+    @Override
+    protected void setup(Context context) {
+      Configuration conf = context.getConfiguration();
+      distance = conf.getInt(DISTANCE_KEY, 3);
+      maxBucket = conf.getInt(BUCKET_MAX_KEY, 1000);
+    }
+
+    @Override
+    protected void reduce(Text key, Iterable<Candidate> values,
+        Context context) throws IOException, InterruptedException {
+      if (key.toString().startsWith(MARKED_PREFIX)) {
+        outKey.set(key.toString().substring(MARKED_PREFIX.length()));
+        outValue.set("");
+        context.write(outKey, outValue);
+        return;
+      }
+      bucket.clear();
+      for (Candidate value : values) {
+        if (bucket.size() == maxBucket) {
+          context.getCounter("DeduplicationJob", "buckets_truncated")
+              .increment(1);
+          break;
+        }
+        // values are reused by the framework
+        bucket.add(new Candidate(value.key, value.fingerprint, value.score));
+      }
+      for (int i = 0; i < bucket.size(); i++) {
+        Candidate a = bucket.get(i);
+        for (int j = i + 1; j < bucket.size(); j++) {
+          Candidate b = bucket.get(j);
+          if (SimHashSignature.distance(a.fingerprint, b.fingerprint) > distance) {
+            continue;
+          }
+          Candidate better = a.isBetterThan(b) ? a : b;
+          Candidate worse = better == a ? b : a;
+          outKey.set(worse.key);
+          outValue.set(TableUtil.unreverseUrl(better.key));
+          context.write(outKey, outValue);
+          context.getCounter("DeduplicationJob", "pairs").increment(1);
+        }
+      }
+    }
+  }
+
+  /**
+   * Sets or removes the {@link #DUPLICATE_OF} mark of the pages emitted by
+   * the {@link DedupReducer}.
+   */
+  public static class MarkReducer extends
+      GoraReducer<Text, Text, String, WebPage> {
+
+    private DataStore<String, WebPage> store;
+    private String[] fields = { WebPage.Field.METADATA.getName() };
+
+    @Override
+    protected void setup(Context context) throws IOException {
+      try {
+        store = StorageUtils.createWebStore(context.getConfiguration(),
+            String.class, WebPage.class);
+      } catch (ClassNotFoundException e) {
+        throw new IOException(e);
+      }
+    }
+
+    @Override
+    protected void cleanup(Context context) throws IOException {
+      store.close();
+    }
+
+    @Override
+    protected void reduce(Text key, Iterable<Text> values, Context context)
+        throws IOException, InterruptedException {
+      String duplicateOf = null;
+      for (Text value : values) {
+        if (value.getLength() == 0) {
+          continue;
+        }
+        String url = value.toString();
+        // any of the better pages will do, pick one deterministically
+        if (duplicateOf == null || url.compareTo(duplicateOf) < 0) {
+          duplicateOf = url;
+        }
+      }
+      String pageKey = key.toString();
+      WebPage page = store.get(pageKey, fields);
+      if (page == null) {
+        return;
+      }
+      Map<CharSequence, ByteBuffer> metadata = page.getMetadata();
+      ByteBuffer current = metadata.get(DUPLICATE_OF);
+      if (duplicateOf == null) {
+        if (current == null) {
+          return;
+        }
+        metadata.put(DUPLICATE_OF, null);
+        context.getCounter("DeduplicationJob", "unmarked").increment(1);
+      } else {
+        ByteBuffer mark = ByteBuffer.wrap(duplicateOf.getBytes("UTF-8"));
+        if (mark.equals(current)) {
+          return;
+        }
+        metadata.put(DUPLICATE_OF, mark);
+        context.getCounter("DeduplicationJob", "marked").increment(1);
+      }
+      context.write(pageKey, page);
+    }
+  }
+
+  public DeduplicationJob() {
+  }
+
+  public DeduplicationJob(Configuration conf) {
+    setConf(conf);
+  }
+
+  @Override
+  public Map<String, Object> run(Map<String, Object> args) throws Exception {
+    String crawlId = (String) args.get(Nutch.ARG_CRAWL);
+    if (crawlId != null) {
+      getConf().set(Nutch.CRAWL_ID_KEY, crawlId);
+    }
+    int distance = getConf().getInt(DISTANCE_KEY, 3);
+    int bands = getConf().getInt(BANDS_KEY, 4);
+    if (bands < 1 || bands > 64) {
+      throw new IllegalArgumentException(BANDS_KEY + " must be in [1, 64]");
+    }
+    if (bands <= distance) {
+      LOG.warn("DeduplicationJob: " + bands + " bands may miss pages within "
+          + "a distance of " + distance + ", use at least " + (distance + 1));
+    }
+    numJobs = 2;
+    Path tmpFolder = new Path(getConf().get("mapred.temp.dir", ".")
+        + "dedup_tmp" + System.currentTimeMillis());
+    FileSystem fileSystem = FileSystem.get(getConf());
+    try {
+      currentJobNum = 0;
+      currentJob = new NutchJob(getConf(), "dedup-find");
+      StorageUtils.initMapperJob(currentJob, FIELDS, Text.class,
+          Candidate.class, DedupMapper.class);
+      currentJob.setReducerClass(DedupReducer.class);
+      currentJob.setOutputKeyClass(Text.class);
+      currentJob.setOutputValueClass(Text.class);
+      currentJob.setOutputFormatClass(SequenceFileOutputFormat.class);
+      FileOutputFormat.setOutputPath(currentJob, tmpFolder);
+      currentJob.waitForCompletion(true);
+      ToolUtil.recordJobStatus(null, currentJob, results);
+      if (!currentJob.isSuccessful()) {
+        return results;
+      }
+
+      currentJobNum = 1;
+      currentJob = new NutchJob(getConf(), "dedup-mark");
+      FileInputFormat.addInputPath(currentJob, tmpFolder);
+      currentJob.setInputFormatClass(SequenceFileInputFormat.class);
+      currentJob.setMapperClass(Mapper.class);
+      currentJob.setMapOutputKeyClass(Text.class);
+      currentJob.setMapOutputValueClass(Text.class);
+      StorageUtils.initReducerJob(currentJob, MarkReducer.class);
+      currentJob.waitForCompletion(true);
+      ToolUtil.recordJobStatus(null, currentJob, results);
+    } finally {
+      fileSystem.delete(tmpFolder, true);
+    }
+    return results;
+  }
+
+  public int dedup(String crawlId) throws Exception {
+    SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    long start = System.currentTimeMillis();
+    LOG.info("DeduplicationJob: starting at " + sdf.format(start));
+    run(ToolUtil.toArgMap(Nutch.ARG_CRAWL, crawlId));
+    long finish = System.currentTimeMillis();
+    LOG.info("DeduplicationJob: finished at " + sdf.format(finish)
+        + ", time elapsed: " + TimingUtil.elapsedTime(start, finish));
+    return 0;
+  }
+
+  public int run(String[] args) throws Exception {
+    String crawlId = null;
+    for (int i = 0; i < args.length; i++) {
+      if ("-crawlId".equals(args[i]) && i + 1 < args.length) {
+        crawlId = args[++i];
+      } else {
+        System.err.println("Usage: DeduplicationJob [-crawlId <id>]");
+        System.err.println("    -crawlId <id> - the id to prefix the schemas to operate on, \n \t \t    (default: storage.crawl.id)");
+        return -1;
+      }
+    }
+    return dedup(crawlId);
+  }
+
+  public static void main(String[] args) throws Exception {
+    int res = ToolRunner.run(NutchConfiguration.create(),
+        new DeduplicationJob(), args);
+    System.exit(res);
+  }
+}
@@ -20,6 +20,7 @@ import org.apache.avro.util.Utf8;
 import org.apache.gora.mapreduce.GoraMapper;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.nutch.crawl.GeneratorJob.SelectorEntry;
+import org.apache.nutch.net.URLCache;
 import org.apache.nutch.net.URLFilterException;
 import org.apache.nutch.net.URLFilters;
 import org.apache.nutch.net.URLNormalizers;
@@ -28,15 +29,160 @@ import org.apache.nutch.scoring.ScoringFilters;
 import org.apache.nutch.storage.Mark;
 import org.apache.nutch.storage.WebPage;
 import org.apache.nutch.util.TableUtil;
+import org.apache.nutch.util.URLUtil;
 
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
 
 public class GeneratorMapper
 extends GoraMapper<String, WebPage, SelectorEntry, WebPage> {
 
+  /** A row held back by the map-side selection. */
+  static class Candidate {
+    final String host;
+    final String key;
+    final String url;
+    final float score;
+    final WebPage page;
+
+    Candidate(String host, String key, String url, float score, WebPage page) {
+      this.host = host;
+      this.key = key;
+      this.url = url;
+      this.score = score;
+      this.page = page;
+    }
+  }
+
+  /**
+   * Orders candidates worst first, the reverse of {@link SelectorEntry}. Rows
+   * may be normalized to the same URL, so ties are broken by the row key.
+   */
+  static final Comparator<Candidate> WORST_FIRST =
+      new Comparator<Candidate>() {
+    public int compare(Candidate c1, Candidate c2) {
+      if (c1.score < c2.score)
+        return -1;
+      else if (c1.score > c2.score)
+        return 1;
+      int cmp = c2.url.compareTo(c1.url);
+      return cmp != 0 ? cmp : c2.key.compareTo(c1.key);
+    }
+  };
+
+  /**
+   * The rows of a map task which can still be selected: its
+   * <code>topN</code> best rows, and the <code>maxCount</code> best rows of
+   * every host. Only the fields written by {@link GeneratorReducer} are kept.
+   */
+  static class MapSelection {
+    private final long topN;
+    private final long maxCount;
+    // null without topN
+    private final TreeSet<Candidate> selected;
+    private final Map<String, TreeSet<Candidate>> selectedByHost =
+        new HashMap<String, TreeSet<Candidate>>();
+    private int size;
+
+    MapSelection(long topN, long maxCount) {
+      this.topN = topN;
+      this.maxCount = maxCount;
+      selected = topN < Long.MAX_VALUE ? new TreeSet<Candidate>(WORST_FIRST)
+          : null;
+    }
+
+    /**
+     * Adds a row unless it can not be selected, and evicts the rows which
+     * can not be selected anymore.
+     * @return the number of rows dropped
+     */
+    int add(String host, String key, String url, float score, WebPage page) {
+      Candidate candidate = new Candidate(host, key, url, score, null);
+      TreeSet<Candidate> hostSet = selectedByHost.get(host);
+      boolean hostFull = maxCount > 0 && hostSet != null
+          && hostSet.size() >= maxCount;
+      if ((selected != null && selected.size() >= topN
+          && WORST_FIRST.compare(candidate, selected.first()) <= 0)
+          || (hostFull && WORST_FIRST.compare(candidate, hostSet.first()) <= 0)) {
+        return 1;
+      }
+      int dropped = 0;
+      if (hostFull) {
+        remove(hostSet.first());
+        dropped++;
+      } else if (selected != null && selected.size() >= topN) {
+        remove(selected.first());
+        dropped++;
+      }
+      candidate = new Candidate(host, key, url, score, copy(page));
+      hostSet = selectedByHost.get(host);
+      if (hostSet == null) {
+        hostSet = new TreeSet<Candidate>(WORST_FIRST);
+        selectedByHost.put(host, hostSet);
+      }
+      hostSet.add(candidate);
+      if (selected != null) {
+        selected.add(candidate);
+      }
+      size++;
+      return dropped;
+    }
+
+    private void remove(Candidate candidate) {
+      TreeSet<Candidate> hostSet = selectedByHost.get(candidate.host);
+      hostSet.remove(candidate);
+      if (hostSet.isEmpty()) {
+        selectedByHost.remove(candidate.host);
+      }
+      if (selected != null) {
+        selected.remove(candidate);
+      }
+      size--;
+    }
+
+    /** The number of rows held. */
+    int size() {
+      return size;
+    }
+
+    /** Returns the rows held, best first, and forgets them. */
+    List<Candidate> drain() {
+      List<Candidate> candidates = new ArrayList<Candidate>(size);
+      for (TreeSet<Candidate> hostSet : selectedByHost.values()) {
+        candidates.addAll(hostSet);
+      }
+      Collections.sort(candidates, Collections.reverseOrder(WORST_FIRST));
+      if (selected != null) {
+        selected.clear();
+      }
+      selectedByHost.clear();
+      size = 0;
+      return candidates;
+    }
+
+    /**
+     * Copies the markers the reducer adds the generate mark to; the record
+     * reader may reuse the page.
+     */
+    private static WebPage copy(WebPage page) {
+      WebPage copy = WebPage.newBuilder().build();
+      for (Map.Entry<CharSequence, CharSequence> e : page.getMarkers()
+          .entrySet()) {
+        copy.getMarkers().put(new Utf8(e.getKey().toString()),
+            new Utf8(e.getValue().toString()));
+      }
+      return copy;
+    }
+  }
+
   private URLFilters filters;
   private URLNormalizers normalizers;
   private boolean filter;
@@ -47,6 +193,14 @@ extends GoraMapper<String, WebPage, SelectorEntry, WebPage> {
   private SelectorEntry entry = new SelectorEntry();
   private int maxDistance;
 
+  // only used if generate.map.select is true
+  private boolean mapSelect;
+  private long topN;
+  private long maxCount;
+  private boolean byDomain;
+  private int maxBuffered;
+  private MapSelection selection;
+
   @Override
   public void map(String reversedUrl, WebPage page,
       Context context) throws IOException, InterruptedException {
@@ -97,10 +251,50 @@ extends GoraMapper<String, WebPage, SelectorEntry, WebPage> {
     } catch (ScoringFilterException e) {
       //ignore
     }
+    if (mapSelect) {
+      select(reversedUrl, url, score, page, context);
+      return;
+    }
     entry.set(url, score);
     context.write(entry, page);
   }
 
+  /**
+   * Keeps the row if it is among the <code>topN</code> best rows of this
+   * map task and among the <code>maxCount</code> best rows of its host.
+   * A row which is not can not be selected by the reducer either. Once
+   * too many rows are held they are written, the reducer selects anyway.
+   */
+  private void select(String reversedUrl, String url, float score,
+      WebPage page, Context context) throws IOException, InterruptedException {
+    String host = byDomain ? URLUtil.getDomainName(url) : URLUtil.getHost(url);
+    int dropped = selection.add(host, reversedUrl, url, score, page);
+    if (dropped > 0) {
+      context.getCounter("Generator", "MAP_DROPPED").increment(dropped);
+    }
+    if (selection.size() >= maxBuffered) {
+      context.getCounter("Generator", "MAP_SELECT_FLUSHED").increment(1);
+      writeSelection(context);
+    }
+  }
+
+  private void writeSelection(Context context)
+      throws IOException, InterruptedException {
+    for (Candidate candidate : selection.drain()) {
+      entry.set(candidate.url, candidate.score);
+      context.write(entry, candidate.page);
+    }
+  }
+
+  @Override
+  protected void cleanup(Context context)
+      throws IOException, InterruptedException {
+    URLCache.reportCounters(context.getConfiguration(), context);
+    if (mapSelect) {
+      writeSelection(context);
+    }
+  }
+
   @Override
   public void setup(Context context) {
     Configuration conf = context.getConfiguration();
@@ -116,5 +310,22 @@ extends GoraMapper<String, WebPage, SelectorEntry, WebPage> {
     curTime = conf.getLong(GeneratorJob.GENERATOR_CUR_TIME, System.currentTimeMillis());
     schedule = FetchScheduleFactory.getFetchSchedule(conf);
     scoringFilters = new ScoringFilters(conf);
+
+    mapSelect = conf.getBoolean(GeneratorJob.GENERATOR_MAP_SELECT, false);
+    topN = conf.getLong(GeneratorJob.GENERATOR_TOP_N, Long.MAX_VALUE);
+    maxCount = conf.getLong(GeneratorJob.GENERATOR_MAX_COUNT, -1);
+    if (mapSelect && topN == Long.MAX_VALUE && maxCount <= 0) {
+      GeneratorJob.LOG.info("Generator: no topN or max count, "
+          + "map-side selection disabled");
+      mapSelect = false;
+    }
+    if (mapSelect) {
+      byDomain = GeneratorJob.GENERATOR_COUNT_VALUE_DOMAIN.equals(conf.get(
+          GeneratorJob.GENERATOR_COUNT_MODE,
+          GeneratorJob.GENERATOR_COUNT_VALUE_HOST));
+      maxBuffered = conf.getInt(GeneratorJob.GENERATOR_MAP_SELECT_MAX_ROWS,
+          100000);
+      selection = new MapSelection(topN, maxCount);
+    }
   }
 }
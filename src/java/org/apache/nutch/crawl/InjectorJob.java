@@ -31,6 +31,7 @@ import org.apache.hadoop.util.StringUtils;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 import org.apache.nutch.metadata.Nutch;
+import org.apache.nutch.net.URLCache;
 import org.apache.nutch.net.URLFilters;
 import org.apache.nutch.net.URLNormalizers;
 import org.apache.nutch.scoring.ScoringFilterException;
@@ -182,6 +183,11 @@ public class InjectorJob extends NutchTool implements Tool {
       context.write(reversedUrl, row);
     }
     }
+
+    @Override
+    protected void cleanup(Context context) {
+      URLCache.reportCounters(context.getConfiguration(), context);
+    }
   }
   
   public InjectorJob() {
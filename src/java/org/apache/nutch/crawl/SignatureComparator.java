@@ -35,6 +35,25 @@ public class SignatureComparator {
                     buf2.array(), buf2.arrayOffset() + buf2.position(), buf2.remaining());
   }
   
+  /**
+   * Returns the number of bits in which two signatures differ, or -1 if
+   * they are missing or of different lengths. Meaningful for signatures like
+   * {@link SimHashSignature}, where similar pages differ in few bits.
+   */
+  public static int distance(ByteBuffer buf1, ByteBuffer buf2) {
+    if (buf1 == null || buf2 == null || buf1.remaining() != buf2.remaining())
+      return -1;
+    byte[] data1 = buf1.array();
+    byte[] data2 = buf2.array();
+    int s1 = buf1.arrayOffset() + buf1.position();
+    int s2 = buf2.arrayOffset() + buf2.position();
+    int res = 0;
+    for (int i = 0; i < buf1.remaining(); i++) {
+      res += Integer.bitCount((data1[s1 + i] ^ data2[s2 + i]) & 0xff);
+    }
+    return res;
+  }
+
   public static int _compare(byte[] data1, int s1, int l1, byte[] data2, int s2, int l2) {
     if (l2 > l1) return -1;
     if (l2 < l1) return 1;
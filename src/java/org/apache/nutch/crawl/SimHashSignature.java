@@ -0,0 +1,225 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.crawl;
+
+import java.util.Collection;
+import java.util.HashSet;
+
+import org.apache.avro.util.Utf8;
+import org.apache.nutch.storage.WebPage;
+
+/**
+ * <p>A 64 bit SimHash of the plain text of a page. Unlike the other
+ * signatures, pages which differ only slightly (a changed date, a different
+ * ad block, some boilerplate) get signatures which differ in only a few bits,
+ * so near-duplicates can be found by the Hamming distance of their
+ * signatures, see {@link DeduplicationJob}. In case there is no text, it
+ * calculates a hash using the {@link MD5Signature}.</p>
+ * <p>The text is split into tokens of consecutive letters and digits, which
+ * are brought to lower case; tokens equal or shorter than
+ * <code>db.signature.simhash.min_token_len</code> are discarded. Every token
+ * is hashed to 64 bits and, for each bit, a counter is incremented if the bit
+ * is set and decremented otherwise, so frequent tokens weigh more. Bit
+ * <i>i</i> of the signature is set if counter <i>i</i> ends up positive.</p>
+ * <p>Tokens are hashed while the text is scanned, straight from the UTF-8
+ * bytes of the page text, so no strings or maps are created per page.</p>
+ */
+public class SimHashSignature extends Signature {
+
+  /** Length in bytes of a SimHash signature. */
+  public static final int LENGTH = 8;
+
+  private final static Collection<WebPage.Field> FIELDS = new HashSet<WebPage.Field>();
+
+  static {
+    FIELDS.add(WebPage.Field.TEXT);
+    FIELDS.add(WebPage.Field.CONTENT);
+  }
+
+  private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  Signature fallback = new MD5Signature();
+
+  @Override
+  public byte[] calculate(WebPage page) {
+    int minTokenLen = getConf().getInt("db.signature.simhash.min_token_len", 2);
+    CharSequence text = page.getText();
+    int[] counts = new int[64];
+    int tokens;
+    if (text instanceof Utf8) {
+      Utf8 utf8 = (Utf8) text;
+      tokens = accumulate(utf8.getBytes(), utf8.getByteLength(), minTokenLen,
+          counts);
+    } else if (text != null) {
+      tokens = accumulate(text, minTokenLen, counts);
+    } else {
+      tokens = 0;
+    }
+    if (tokens == 0) {
+      return fallback.calculate(page);
+    }
+    return toBytes(fingerprint(counts));
+  }
+
+  @Override
+  public Collection<WebPage.Field> getFields() {
+    return FIELDS;
+  }
+
+  /**
+   * Calculates the SimHash of a text.
+   *
+   * @return the fingerprint, 0 if the text has no tokens longer than
+   *         <code>minTokenLen</code>
+   */
+  public static long simHash(CharSequence text, int minTokenLen) {
+    int[] counts = new int[64];
+    accumulate(text, minTokenLen, counts);
+    return fingerprint(counts);
+  }
+
+  /** Tokenizes UTF-8 encoded text, adding every token to the counters. */
+  static int accumulate(byte[] data, int length, int minTokenLen, int[] counts) {
+    int tokens = 0;
+    long hash = FNV_OFFSET;
+    int len = 0;
+    int i = 0;
+    while (i < length) {
+      int b = data[i] & 0xff;
+      int cp;
+      // decode one code point, malformed sequences end up as separators
+      if (b < 0x80) {
+        cp = b;
+        i++;
+      } else if (b >= 0xc0 && b < 0xe0 && i + 1 < length) {
+        cp = ((b & 0x1f) << 6) | (data[i + 1] & 0x3f);
+        i += 2;
+      } else if (b >= 0xe0 && b < 0xf0 && i + 2 < length) {
+        cp = ((b & 0x0f) << 12) | ((data[i + 1] & 0x3f) << 6)
+            | (data[i + 2] & 0x3f);
+        i += 3;
+      } else if (b >= 0xf0 && b < 0xf8 && i + 3 < length) {
+        cp = ((b & 0x07) << 18) | ((data[i + 1] & 0x3f) << 12)
+            | ((data[i + 2] & 0x3f) << 6) | (data[i + 3] & 0x3f);
+        i += 4;
+      } else {
+        cp = ' ';
+        i++;
+      }
+      if (Character.isLetterOrDigit(cp)) {
+        hash = (hash ^ Character.toLowerCase(cp)) * FNV_PRIME;
+        len++;
+      } else if (len > 0) {
+        if (len > minTokenLen) {
+          add(hash, counts);
+          tokens++;
+        }
+        hash = FNV_OFFSET;
+        len = 0;
+      }
+    }
+    if (len > minTokenLen) {
+      add(hash, counts);
+      tokens++;
+    }
+    return tokens;
+  }
+
+  /** Tokenizes a text, adding every token to the counters. */
+  static int accumulate(CharSequence text, int minTokenLen, int[] counts) {
+    int tokens = 0;
+    long hash = FNV_OFFSET;
+    int len = 0;
+    int n = text.length();
+    for (int i = 0; i < n; i++) {
+      int cp = text.charAt(i);
+      if (Character.isHighSurrogate((char) cp) && i + 1 < n
+          && Character.isLowSurrogate(text.charAt(i + 1))) {
+        cp = Character.toCodePoint((char) cp, text.charAt(++i));
+      }
+      if (Character.isLetterOrDigit(cp)) {
+        hash = (hash ^ Character.toLowerCase(cp)) * FNV_PRIME;
+        len++;
+      } else if (len > 0) {
+        if (len > minTokenLen) {
+          add(hash, counts);
+          tokens++;
+        }
+        hash = FNV_OFFSET;
+        len = 0;
+      }
+    }
+    if (len > minTokenLen) {
+      add(hash, counts);
+      tokens++;
+    }
+    return tokens;
+  }
+
+  private static void add(long hash, int[] counts) {
+    // FNV-1a alone leaves the high bits of short tokens poorly mixed
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    for (int bit = 0; bit < 64; bit++) {
+      if (((hash >>> bit) & 1L) != 0) {
+        counts[bit]++;
+      } else {
+        counts[bit]--;
+      }
+    }
+  }
+
+  private static long fingerprint(int[] counts) {
+    long fingerprint = 0L;
+    for (int bit = 0; bit < 64; bit++) {
+      if (counts[bit] > 0) {
+        fingerprint |= 1L << bit;
+      }
+    }
+    return fingerprint;
+  }
+
+  /** Number of bits in which two fingerprints differ. */
+  public static int distance(long a, long b) {
+    return Long.bitCount(a ^ b);
+  }
+
+  public static byte[] toBytes(long fingerprint) {
+    byte[] bytes = new byte[LENGTH];
+    for (int i = LENGTH - 1; i >= 0; i--) {
+      bytes[i] = (byte) fingerprint;
+      fingerprint >>>= 8;
+    }
+    return bytes;
+  }
+
+  /**
+   * @return the fingerprint stored in the first {@link #LENGTH} bytes at
+   *         <code>offset</code>
+   */
+  public static long toLong(byte[] bytes, int offset) {
+    long fingerprint = 0L;
+    for (int i = 0; i < LENGTH; i++) {
+      fingerprint = (fingerprint << 8) | (bytes[offset + i] & 0xff);
+    }
+    return fingerprint;
+  }
+}
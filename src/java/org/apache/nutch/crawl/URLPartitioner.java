@@ -30,6 +30,8 @@ import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.mapreduce.Partitioner;
 import org.apache.nutch.crawl.GeneratorJob.SelectorEntry;
 import org.apache.nutch.fetcher.FetchEntry;
+import org.apache.nutch.net.HostResolver;
+import org.apache.nutch.net.HostResolvers;
 import org.apache.nutch.net.URLNormalizers;
 import org.apache.nutch.storage.WebPage;
 import org.apache.nutch.util.TableUtil;
@@ -55,6 +57,7 @@ public class URLPartitioner implements Configurable {
   private int seed;
   private URLNormalizers normalizers;
   private String mode = PARTITION_MODE_HOST;
+  private HostResolver resolver;
 
   @Override
   public Configuration getConf() {
@@ -73,6 +76,9 @@ public class URLPartitioner implements Configurable {
       mode = PARTITION_MODE_HOST;
     }
     normalizers = new URLNormalizers(conf, URLNormalizers.SCOPE_PARTITION);
+    if (mode.equals(PARTITION_MODE_IP)) {
+      resolver = HostResolvers.get(conf);
+    }
   }
 
   public int getPartition(String urlString, int numReduceTasks) {
@@ -99,7 +105,7 @@ public class URLPartitioner implements Configurable {
         hashCode = URLUtil.getDomainName(url).hashCode();
       } else { // MODE IP
         try {
-          InetAddress address = InetAddress.getByName(url.getHost());
+          InetAddress address = resolver.resolve(url.getHost());
           hashCode = address.getHostAddress().hashCode();
         } catch (UnknownHostException e) {
           GeneratorJob.LOG.info("Couldn't find IP for host: " + url.getHost());
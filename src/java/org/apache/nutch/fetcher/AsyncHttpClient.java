@@ -0,0 +1,354 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.apache.nutch.fetcher;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.avro.util.Utf8;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.metadata.HttpHeaders;
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.metadata.SpellCheckedMetadata;
+import org.apache.nutch.net.protocols.ConditionalGet;
+import org.apache.nutch.protocol.Content;
+import org.apache.nutch.protocol.ProtocolOutput;
+import org.apache.nutch.protocol.ProtocolStatusCodes;
+import org.apache.nutch.protocol.ProtocolStatusUtils;
+import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.Bytes;
+import org.apache.nutch.util.DeflateUtils;
+import org.apache.nutch.util.GZIPUtils;
+import org.apache.nutch.util.MimeUtil;
+import org.mortbay.io.Buffer;
+import org.mortbay.jetty.client.Address;
+import org.mortbay.jetty.client.HttpClient;
+import org.mortbay.jetty.client.HttpExchange;
+import org.mortbay.thread.QueuedThreadPool;
+import org.slf4j.Logger;
+
+/**
+ * A non-blocking HTTP client for the fetcher, based on the selector driven
+ * Jetty {@link HttpClient}. A handful of selector and worker threads can keep
+ * thousands of requests in flight; completed requests are reported through a
+ * {@link Callback}.
+ * <p>
+ * The client reads the same <code>http.*</code> properties as the
+ * protocol-http plugin (agent, accept headers, timeout, content limit and
+ * proxy) and maps response codes to {@link ProtocolOutput} the same way.
+ * Protocol plugins are still used for robots.txt and for URLs with other
+ * schemes.
+ */
+public class AsyncHttpClient {
+
+  public static final Logger LOG = FetcherJob.LOG;
+
+  private static final Utf8 RESPONSE_TIME = new Utf8("_rs_");
+
+  private static final byte[] EMPTY_CONTENT = new byte[0];
+
+  /** Receives the outcome of an asynchronous fetch. */
+  public interface Callback {
+    /**
+     * Called once per fetch, on a thread of the client. Implementations
+     * should hand the result off quickly and not block.
+     */
+    void completed(ProtocolOutput output);
+  }
+
+  private final HttpClient client;
+  private final MimeUtil mimeTypes;
+  private final AtomicInteger inFlight = new AtomicInteger(0);
+  private final String userAgent;
+  private final String accept;
+  private final String acceptLanguage;
+  private final int maxContent;
+  private final boolean responseTime;
+
+  public AsyncHttpClient(Configuration conf) throws IOException {
+    mimeTypes = new MimeUtil(conf);
+    userAgent = getAgentString(conf);
+    accept = conf.get("http.accept",
+        "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8");
+    acceptLanguage = conf.get("http.accept.language",
+        "en-us,en-gb,en;q=0.7,*;q=0.3");
+    maxContent = conf.getInt("http.content.limit", 64 * 1024);
+    responseTime = conf.getBoolean("http.store.responsetime", true);
+    int timeout = conf.getInt("http.timeout", 10000);
+
+    QueuedThreadPool threadPool = new QueuedThreadPool(
+        conf.getInt("fetcher.async.client.threads", 8));
+    threadPool.setDaemon(true);
+    threadPool.setName("AsyncHttpClient");
+
+    client = new HttpClient();
+    client.setConnectorType(HttpClient.CONNECTOR_SELECT_CHANNEL);
+    client.setThreadPool(threadPool);
+    client.setMaxConnectionsPerAddress(
+        conf.getInt("fetcher.threads.per.queue", 1));
+    client.setTimeout(timeout);
+    client.setSoTimeout(timeout);
+    client.setIdleTimeout(timeout);
+    client.setMaxRetries(0);
+    String proxyHost = conf.get("http.proxy.host");
+    if (proxyHost != null && proxyHost.length() > 0) {
+      client.setProxy(new Address(proxyHost,
+          conf.getInt("http.proxy.port", 8080)));
+    }
+    try {
+      client.start();
+    } catch (Exception e) {
+      throw new IOException("Cannot start asynchronous HTTP client", e);
+    }
+  }
+
+  /** Whether the URL can be fetched by this client. */
+  public boolean accepts(URL url) {
+    String scheme = url.getProtocol();
+    return "http".equals(scheme) || "https".equals(scheme);
+  }
+
+  /** Number of fetches started but not completed yet. */
+  public int getInFlight() {
+    return inFlight.get();
+  }
+
+  /**
+   * Starts fetching the URL and returns immediately. The callback is invoked
+   * exactly once, also if the request cannot be sent.
+   */
+  public void fetch(String url, WebPage page, Callback callback) {
+    inFlight.incrementAndGet();
+    Exchange exchange = new Exchange(url, page, callback);
+    try {
+      exchange.setURL(url);
+      exchange.setRequestHeader("User-Agent", userAgent);
+      exchange.setRequestHeader("Accept", accept);
+      exchange.setRequestHeader("Accept-Language", acceptLanguage);
+      exchange.setRequestHeader("Accept-Encoding", "x-gzip, gzip, deflate");
+      String ifModifiedSince = ConditionalGet.getIfModifiedSince(page);
+      if (ifModifiedSince != null) {
+        exchange.setRequestHeader("If-Modified-Since", ifModifiedSince);
+      }
+      String ifNoneMatch = ConditionalGet.getIfNoneMatch(page);
+      if (ifNoneMatch != null) {
+        exchange.setRequestHeader("If-None-Match", ifNoneMatch);
+      }
+      client.send(exchange);
+    } catch (Throwable t) {
+      exchange.fail(t);
+    }
+  }
+
+  public void close() {
+    try {
+      client.stop();
+    } catch (Exception e) {
+      LOG.warn("Failed to stop asynchronous HTTP client", e);
+    }
+  }
+
+  private class Exchange extends HttpExchange {
+    private final String url;
+    private final WebPage page;
+    private final Callback callback;
+    private final long startTime = System.currentTimeMillis();
+    private final Metadata headers = new SpellCheckedMetadata();
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private int code;
+    private boolean done = false;
+
+    Exchange(String url, WebPage page, Callback callback) {
+      this.url = url;
+      this.page = page;
+      this.callback = callback;
+    }
+
+    @Override
+    protected void onResponseStatus(Buffer version, int status, Buffer reason)
+        throws IOException {
+      code = status;
+    }
+
+    @Override
+    protected void onResponseHeader(Buffer name, Buffer value)
+        throws IOException {
+      headers.set(name.toString(), value.toString());
+    }
+
+    @Override
+    protected void onResponseContent(Buffer content) throws IOException {
+      int length = content.length();
+      if (maxContent >= 0 && body.size() + length > maxContent) {
+        // truncate, the rest of the body is discarded
+        length = Math.max(0, maxContent - body.size());
+      }
+      if (length > 0) {
+        byte[] bytes = new byte[length];
+        content.get(bytes, 0, length);
+        body.write(bytes, 0, length);
+      }
+    }
+
+    @Override
+    protected void onResponseComplete() throws IOException {
+      ProtocolOutput output;
+      try {
+        output = toProtocolOutput();
+      } catch (Throwable t) {
+        fail(t);
+        return;
+      }
+      complete(output);
+    }
+
+    @Override
+    protected void onConnectionFailed(Throwable t) {
+      fail(t);
+    }
+
+    @Override
+    protected void onException(Throwable t) {
+      fail(t);
+    }
+
+    @Override
+    protected void onExpire() {
+      complete(new ProtocolOutput(null, ProtocolStatusUtils.makeStatus(
+          ProtocolStatusCodes.EXCEPTION, "Http timeout, url=" + url)));
+    }
+
+    void fail(Throwable t) {
+      LOG.error("Failed with the following error: ", t);
+      complete(new ProtocolOutput(null, ProtocolStatusUtils.makeStatus(
+          ProtocolStatusCodes.EXCEPTION, t.toString())));
+    }
+
+    private void complete(ProtocolOutput output) {
+      synchronized (this) {
+        if (done) {
+          return;
+        }
+        done = true;
+      }
+      try {
+        callback.completed(output);
+      } finally {
+        inFlight.decrementAndGet();
+      }
+    }
+
+    private ProtocolOutput toProtocolOutput() throws IOException {
+      byte[] content = body.toByteArray();
+      String contentEncoding = headers.get(HttpHeaders.CONTENT_ENCODING);
+      if ("gzip".equals(contentEncoding) || "x-gzip".equals(contentEncoding)) {
+        content = maxContent >= 0 ?
+            GZIPUtils.unzipBestEffort(content, maxContent) :
+            GZIPUtils.unzipBestEffort(content);
+        if (content == null) {
+          throw new IOException("unzipBestEffort returned null");
+        }
+      } else if ("deflate".equals(contentEncoding)) {
+        content = DeflateUtils.inflateBestEffort(content, maxContent);
+        if (content == null) {
+          throw new IOException("inflateBestEffort returned null");
+        }
+      }
+
+      if (responseTime) {
+        int elapsedTime = (int) (System.currentTimeMillis() - startTime);
+        page.getMetadata().put(RESPONSE_TIME,
+            ByteBuffer.wrap(Bytes.toBytes(elapsedTime)));
+      }
+      ConditionalGet.setHeaders(page, code, headers);
+
+      URL u = new URL(url);
+      Content c = new Content(url, url,
+          (content == null ? EMPTY_CONTENT : content),
+          headers.get(HttpHeaders.CONTENT_TYPE), headers, mimeTypes);
+
+      // same mapping as in HttpBase.getProtocolOutput()
+      if (code == 200) {
+        return new ProtocolOutput(c);
+      } else if (code >= 300 && code < 400) {
+        String location = headers.get(HttpHeaders.LOCATION);
+        if (location == null) location = "";
+        u = new URL(u, location);
+        int protocolStatusCode;
+        switch (code) {
+        case 302:
+        case 303:
+        case 307:
+          protocolStatusCode = ProtocolStatusCodes.TEMP_MOVED;
+          break;
+        case 304:
+          protocolStatusCode = ProtocolStatusCodes.NOTMODIFIED;
+          break;
+        default:
+          protocolStatusCode = ProtocolStatusCodes.MOVED;
+        }
+        return new ProtocolOutput(c,
+            ProtocolStatusUtils.makeStatus(protocolStatusCode, u));
+      } else if (code == 400) {
+        return new ProtocolOutput(c,
+            ProtocolStatusUtils.makeStatus(ProtocolStatusCodes.GONE, u));
+      } else if (code == 401) {
+        return new ProtocolOutput(c, ProtocolStatusUtils.makeStatus(
+            ProtocolStatusCodes.ACCESS_DENIED, "Authentication required: " + url));
+      } else if (code == 404) {
+        return new ProtocolOutput(c,
+            ProtocolStatusUtils.makeStatus(ProtocolStatusCodes.NOTFOUND, u));
+      } else if (code == 410) {
+        return new ProtocolOutput(c, ProtocolStatusUtils.makeStatus(
+            ProtocolStatusCodes.GONE, "Http: " + code + " url=" + u));
+      } else {
+        return new ProtocolOutput(c, ProtocolStatusUtils.makeStatus(
+            ProtocolStatusCodes.EXCEPTION, "Http code=" + code + ", url=" + u));
+      }
+    }
+  }
+
+  private static String getAgentString(Configuration conf) {
+    String agentName = conf.get("http.agent.name");
+    String agentVersion = conf.get("http.agent.version");
+    String agentDesc = conf.get("http.agent.description");
+    String agentURL = conf.get("http.agent.url");
+    String agentEmail = conf.get("http.agent.email");
+
+    StringBuilder buf = new StringBuilder();
+    buf.append(agentName);
+    if (agentVersion != null) {
+      buf.append("/").append(agentVersion);
+    }
+    StringBuilder comment = new StringBuilder();
+    for (String part : new String[] { agentDesc, agentURL, agentEmail }) {
+      if (part != null && part.length() != 0) {
+        if (comment.length() > 0) {
+          comment.append("; ");
+        }
+        comment.append(part);
+      }
+    }
+    if (comment.length() > 0) {
+      buf.append(" (").append(comment).append(")");
+    }
+    return buf.toString();
+  }
+}
@@ -73,6 +73,10 @@ public class FetcherJob extends NutchTool implements Tool {
     FIELDS.add(WebPage.Field.MARKERS);
     FIELDS.add(WebPage.Field.REPR_URL);
     FIELDS.add(WebPage.Field.FETCH_TIME);
+    // conditional GET
+    FIELDS.add(WebPage.Field.STATUS);
+    FIELDS.add(WebPage.Field.MODIFIED_TIME);
+    FIELDS.add(WebPage.Field.HEADERS);
   }
 
   /**
@@ -195,6 +199,7 @@ public class FetcherJob extends NutchTool implements Tool {
         FetchEntry.class, FetcherMapper.class, FetchEntryPartitioner.class,
         batchIdFilter, false);
     StorageUtils.initReducerJob(currentJob, FetcherReducer.class);
+    currentJob.setOutputFormatClass(FetcherOutputFormat.class);
     if (numTasks == null || numTasks < 1) {
       currentJob.setNumReduceTasks(currentJob.getConfiguration().getInt("mapred.map.tasks",
           currentJob.getNumReduceTasks()));
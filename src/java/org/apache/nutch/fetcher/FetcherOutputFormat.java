@@ -0,0 +1,78 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.fetcher;
+
+import java.io.IOException;
+
+import org.apache.gora.mapreduce.GoraOutputFormat;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.OutputCommitter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputCommitter;
+import org.apache.nutch.crawl.GeneratorJob;
+import org.apache.nutch.metadata.Nutch;
+import org.apache.nutch.storage.WebPage;
+
+/**
+ * Writes fetched pages to the web table like {@link GoraOutputFormat}, and
+ * commits the WARC files written with <code>fetcher.warc.dir</code>.
+ * <p>
+ * Every task attempt writes its WARC files to a work directory of its own
+ * (see {@link #getWarcWorkPath(TaskAttemptContext)}), which is moved to the
+ * WARC directory of the batch only when the attempt is committed. Failed
+ * and killed attempts leave no files behind.
+ */
+public class FetcherOutputFormat extends GoraOutputFormat<String, WebPage> {
+
+  public static final String WARC_DIR = "fetcher.warc.dir";
+
+  /**
+   * The directory of the WARC files of the batch being fetched, or null if
+   * no WARC files are written.
+   */
+  public static Path getWarcDir(Configuration conf) {
+    String warcDir = conf.get(WARC_DIR, "");
+    if (warcDir.length() == 0) {
+      return null;
+    }
+    String batchId = conf.get(GeneratorJob.BATCH_ID, Nutch.ALL_BATCH_ID_STR);
+    return new Path(warcDir,
+        Nutch.ALL_BATCH_ID_STR.equals(batchId) ? "all" : batchId);
+  }
+
+  /**
+   * The directory a task attempt writes its WARC files to, as committed by
+   * the output committer of the attempt.
+   */
+  public static Path getWarcWorkPath(TaskAttemptContext context)
+      throws IOException {
+    return new FileOutputCommitter(getWarcDir(context.getConfiguration()),
+        context).getWorkPath();
+  }
+
+  @Override
+  public OutputCommitter getOutputCommitter(TaskAttemptContext context)
+      throws IOException, InterruptedException {
+    Path warcDir = getWarcDir(context.getConfiguration());
+    if (warcDir == null) {
+      return super.getOutputCommitter(context);
+    }
+    // the web table needs no commit
+    return new FileOutputCommitter(warcDir, context);
+  }
+}
@@ -20,19 +20,28 @@ import crawlercommons.robots.BaseRobotRules;
 import org.apache.avro.util.Utf8;
 import org.apache.gora.mapreduce.GoraReducer;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
 import org.apache.nutch.crawl.CrawlStatus;
 import org.apache.nutch.host.HostDb;
+import org.apache.nutch.net.CachingHostResolver;
+import org.apache.nutch.net.HostResolver;
+import org.apache.nutch.net.HostResolvers;
+import org.apache.nutch.net.URLCache;
+import org.apache.nutch.net.SystemHostResolver;
 import org.apache.nutch.net.URLFilterException;
 import org.apache.nutch.net.URLFilters;
 import org.apache.nutch.net.URLNormalizers;
 import org.apache.nutch.parse.ParseUtil;
+import org.apache.nutch.parse.ParserWorkerPool;
 import org.apache.nutch.parse.ParserJob;
 import org.apache.nutch.protocol.*;
 import org.apache.nutch.storage.Host;
 import org.apache.nutch.storage.Mark;
 import org.apache.nutch.storage.ProtocolStatus;
 import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.tools.arc.WarcFileWriter;
 import org.apache.nutch.util.TableUtil;
 import org.apache.nutch.util.URLUtil;
 import org.slf4j.Logger;
@@ -43,6 +52,13 @@ import java.net.URL;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -73,14 +89,35 @@ extends GoraReducer<IntWritable, FetchEntry, String, WebPage> {
   private ParseUtil parseUtil;
   private boolean skipTruncated;
 
+  // only set if fetcher.warc.dir is set
+  private WarcFileWriter warcWriter;
+
+  public static final String ENGINE_THREADED = "threaded";
+  public static final String ENGINE_ASYNC = "async";
+
+  // only set if fetcher.engine is async
+  private AsyncHttpClient asyncClient;
+  private final BlockingQueue<AsyncResult> asyncResults =
+      new LinkedBlockingQueue<AsyncResult>();
+  private int maxInFlight;
+
+  // only set if fetcher.parse is true and fetcher.parse.threads > 0
+  private ParseStage parseStage;
+
+  // robots.txt cache stats already added to the counters
+  private long robotsHits, robotsMisses, robotsEvictions;
+  private long dnsHits, dnsMisses, dnsFailures, dnsLookupTime;
+
   /**
    * This class described the item to be fetched.
    */
-  private static class FetchItem {
+  static class FetchItem {
     WebPage page;
     String queueID;
     String url;
     URL u;
+    // when the request was sent, 0 if it has not been
+    long fetchStart;
 
     public FetchItem(String url, WebPage page, URL u, String queueID) {
       this.page = page;
@@ -94,6 +131,14 @@ extends GoraReducer<IntWritable, FetchEntry, String, WebPage> {
      * address pair or protocol+domain pair.
      */
     public static FetchItem create(String url, WebPage page, String queueMode) {
+      return create(url, page, queueMode, new SystemHostResolver());
+    }
+
+    /** Create an item, resolving hosts with <code>resolver</code> if the
+     * queue mode is byIP.
+     */
+    public static FetchItem create(String url, WebPage page, String queueMode,
+        HostResolver resolver) {
       String queueID;
       URL u = null;
       try {
@@ -106,7 +151,7 @@ extends GoraReducer<IntWritable, FetchEntry, String, WebPage> {
       String host;
       if (FetchItemQueues.QUEUE_MODE_IP.equalsIgnoreCase(queueMode)) {
         try {
-          final InetAddress addr = InetAddress.getByName(u.getHost());
+          final InetAddress addr = resolver.resolve(u.getHost());
           host = addr.getHostAddress();
         } catch (final UnknownHostException e) {
           // unable to resolve it, so don't fall back to host name
@@ -144,13 +189,21 @@ extends GoraReducer<IntWritable, FetchEntry, String, WebPage> {
    * a proto/hostname or proto/IP pair). It also keeps track of requests in
    * progress and elapsed time between requests.
    */
-  private static class FetchItemQueue {
+  static class FetchItemQueue {
     List<FetchItem> queue = Collections.synchronizedList(new LinkedList<FetchItem>());
     Set<FetchItem>  inProgress = Collections.synchronizedSet(new HashSet<FetchItem>());
     AtomicLong nextFetchTime = new AtomicLong();
     long crawlDelay;
     long minCrawlDelay;
     int maxThreads;
+    // the following two are only used by the delay scheduler, guarded by this
+    boolean scheduled = false;
+    boolean retired = false;
+    // the following are only used by the adaptive policy, guarded by this
+    long robotsDelay = 0;
+    double avgResponseTime = 0;
+    double errorRate = 0;
+    long samples = 0;
 
     public FetchItemQueue(Configuration conf, int maxThreads, long crawlDelay, long minCrawlDelay) {
       this.maxThreads = maxThreads;
@@ -230,16 +283,109 @@ extends GoraReducer<IntWritable, FetchEntry, String, WebPage> {
       queue.clear();
       return presize;
     }
+
+    /**
+     * Updates the moving averages of response time and error rate with the
+     * outcome of a request, and derives the delay and number of threads of
+     * the queue from them: the delay is a multiple of the average response
+     * time, stretched by up to four times while requests fail. Threads are
+     * added one at a time while the host answers without errors and halved
+     * when errors show up. Caller must hold the lock on this queue.
+     */
+    void adapt(long responseTime, boolean error, FetchItemQueues policy) {
+      if (samples == 0) {
+        avgResponseTime = responseTime;
+      } else {
+        avgResponseTime += ADAPTIVE_SMOOTHING * (responseTime - avgResponseTime);
+      }
+      errorRate += ADAPTIVE_SMOOTHING * ((error ? 1 : 0) - errorRate);
+      samples++;
+
+      long delay = (long) (policy.adaptiveFactor * avgResponseTime
+          * (1 + 3 * errorRate));
+      delay = Math.min(Math.max(delay, policy.adaptiveMinDelay),
+          policy.adaptiveMaxDelay);
+      // never faster than robots.txt asks for
+      delay = Math.max(delay, robotsDelay);
+      crawlDelay = delay;
+      minCrawlDelay = delay;
+
+      if (robotsDelay > 0) {
+        maxThreads = 1;
+      } else if (errorRate > ADAPTIVE_ERROR_RATE) {
+        maxThreads = Math.max(1, maxThreads / 2);
+      } else if (samples % ADAPTIVE_SAMPLES == 0
+          && errorRate < ADAPTIVE_ERROR_RATE / 4) {
+        maxThreads = Math.min(maxThreads + 1, policy.adaptiveMaxThreads);
+      }
+    }
+
+    /** Takes over what another queue of the same host has learnt. */
+    void adaptFrom(FetchItemQueue other) {
+      crawlDelay = other.crawlDelay;
+      minCrawlDelay = other.minCrawlDelay;
+      maxThreads = other.maxThreads;
+      robotsDelay = other.robotsDelay;
+      avgResponseTime = other.avgResponseTime;
+      errorRate = other.errorRate;
+      samples = other.samples;
+    }
+  }
+
+  // smoothing of the moving averages kept by the adaptive policy
+  private static final double ADAPTIVE_SMOOTHING = 0.2;
+  // error rate above which the adaptive policy removes threads
+  private static final double ADAPTIVE_ERROR_RATE = 0.1;
+  // number of responses between two thread increases
+  private static final int ADAPTIVE_SAMPLES = 10;
+
+  /**
+   * Entry of the delay scheduler: a queue together with the time at which it
+   * was expected to become eligible when it was scheduled. The time is a
+   * snapshot, so that the ordering of the {@link DelayQueue} stays stable
+   * while the queue's <code>nextFetchTime</code> moves on.
+   */
+  private static class ScheduledQueue implements Delayed {
+    final String id;
+    final FetchItemQueue fiq;
+    final long readyAt;
+
+    public ScheduledQueue(String id, FetchItemQueue fiq, long readyAt) {
+      this.id = id;
+      this.fiq = fiq;
+      this.readyAt = readyAt;
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+      return unit.convert(readyAt - System.currentTimeMillis(),
+          TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public int compareTo(Delayed o) {
+      long other = ((ScheduledQueue) o).readyAt;
+      return readyAt < other ? -1 : (readyAt == other ? 0 : 1);
+    }
   }
 
   /**
    * Convenience class - a collection of queues that keeps track of the total
    * number of items, and provides items eligible for fetching from any queue.
+   * <p>
+   * With <code>fetcher.queue.scheduler=scan</code> (the default) every call to
+   * {@link #getFetchItem()} walks all queues under a lock. With
+   * <code>fetcher.queue.scheduler=delay</code> queues which have items to
+   * hand out are kept in a {@link DelayQueue} ordered by their
+   * <code>nextFetchTime</code>, and threads block in
+   * {@link #awaitFetchItem(long)} until one of them is eligible.
    */
-  private static class FetchItemQueues {
+  static class FetchItemQueues {
     @SuppressWarnings("unused")
     public static final String DEFAULT_ID = "default";
-    Map<String, FetchItemQueue> queues = new HashMap<String, FetchItemQueue>();
+    Map<String, FetchItemQueue> queues = new ConcurrentHashMap<String, FetchItemQueue>();
+    DelayQueue<ScheduledQueue> readyQueues = new DelayQueue<ScheduledQueue>();
+    boolean delayScheduler = false;
     AtomicInteger totalSize = new AtomicInteger(0);
     int maxThreads;
     String queueMode;
@@ -249,12 +395,35 @@ extends GoraReducer<IntWritable, FetchEntry, String, WebPage> {
     long timelimit = -1;
     
     boolean useHostSettings = false;
+    // the host table, read for the host settings and written with the
+    // adapted settings; guarded by hostDbLock and closed by close()
     HostDb hostDb = null;
+    private boolean hostDbClosed = false;
+    private final Object hostDbLock = new Object();
+
+    // only used in queue mode byIP
+    CachingHostResolver resolver = null;
+
+    // only used if fetcher.queue.adaptive is true
+    boolean adaptive = false;
+    float adaptiveFactor;
+    long adaptiveMinDelay;
+    long adaptiveMaxDelay;
+    int adaptiveMaxThreads;
+    boolean adaptiveStore = false;
+    int adaptiveMaxHosts = 10000;
+    // queues which have adapted, kept after they are reaped, least recently
+    // adapted first; guarded by itself
+    LinkedHashMap<String, FetchItemQueue> adaptedQueues =
+        new LinkedHashMap<String, FetchItemQueue>(16, 0.75f, true);
 
     public static final String QUEUE_MODE_HOST = "byHost";
     public static final String QUEUE_MODE_DOMAIN = "byDomain";
     public static final String QUEUE_MODE_IP = "byIP";
 
+    public static final String SCHEDULER_SCAN = "scan";
+    public static final String SCHEDULER_DELAY = "delay";
+
     public FetchItemQueues(Configuration conf) throws IOException {
       this.conf = conf;
       this.maxThreads = conf.getInt("fetcher.threads.per.queue", 1);
@@ -266,6 +435,19 @@ extends GoraReducer<IntWritable, FetchEntry, String, WebPage> {
         queueMode = QUEUE_MODE_HOST;
       }
       LOG.info("Using queue mode : "+queueMode);
+      if (queueMode.equals(QUEUE_MODE_IP)) {
+        resolver = HostResolvers.get(conf);
+      }
+
+      String scheduler = conf.get("fetcher.queue.scheduler", SCHEDULER_SCAN);
+      if (SCHEDULER_DELAY.equals(scheduler)) {
+        delayScheduler = true;
+      } else if (!SCHEDULER_SCAN.equals(scheduler)) {
+        LOG.error("Unknown queue scheduler : " + scheduler + " - forcing to "
+            + SCHEDULER_SCAN);
+      }
+      LOG.info("Using queue scheduler : "
+          + (delayScheduler ? SCHEDULER_DELAY : SCHEDULER_SCAN));
       
       // Optionally enable host specific queue behavior 
       if (queueMode.equals(QUEUE_MODE_HOST)) {
@@ -280,6 +462,28 @@ extends GoraReducer<IntWritable, FetchEntry, String, WebPage> {
       this.crawlDelay = (long) (conf.getFloat("fetcher.server.delay", 1.0f) * 1000);
       this.minCrawlDelay = (long) (conf.getFloat("fetcher.server.min.delay", 0.0f) * 1000);
       this.timelimit = conf.getLong("fetcher.timelimit", -1);
+
+      adaptive = conf.getBoolean("fetcher.queue.adaptive", false);
+      if (adaptive) {
+        adaptiveFactor = conf.getFloat("fetcher.queue.adaptive.factor", 2.0f);
+        adaptiveMinDelay = (long) (conf.getFloat(
+            "fetcher.queue.adaptive.min.delay", 0.5f) * 1000);
+        adaptiveMaxDelay = (long) (conf.getFloat(
+            "fetcher.queue.adaptive.max.delay", 30.0f) * 1000);
+        adaptiveMaxThreads = Math.max(maxThreads,
+            conf.getInt("fetcher.queue.adaptive.max.threads", 4));
+        adaptiveStore = conf.getBoolean("fetcher.queue.adaptive.store", false);
+        adaptiveMaxHosts = Math.max(1,
+            conf.getInt("fetcher.queue.adaptive.max.hosts", 10000));
+        if (adaptiveStore && !queueMode.equals(QUEUE_MODE_HOST)) {
+          LOG.warn("Adaptive queue settings are only stored in queue mode "
+              + QUEUE_MODE_HOST);
+          adaptiveStore = false;
+        }
+        LOG.info("Adaptive queue delay between " + adaptiveMinDelay + " and "
+            + adaptiveMaxDelay + " ms, up to " + adaptiveMaxThreads
+            + " threads per queue");
+      }
     }
 
     public int getTotalSize() {
@@ -290,15 +494,54 @@ extends GoraReducer<IntWritable, FetchEntry, String, WebPage> {
       return queues.size();
     }
 
+    /**
+     * Starts resolving the hosts of urls which are about to be added, so
+     * that their lookups run concurrently. Only does something in queue mode
+     * byIP.
+     */
+    public void prefetchHosts(List<String> urls) {
+      if (resolver == null) {
+        return;
+      }
+      List<String> hosts = new ArrayList<String>(urls.size());
+      for (String url : urls) {
+        String host = URLUtil.getHost(url);
+        if (host != null && host.length() > 0) {
+          hosts.add(host);
+        }
+      }
+      resolver.prefetch(hosts);
+    }
+
     public void addFetchItem(String url, WebPage page) {
-      final FetchItem it = FetchItem.create(url, page, queueMode);
+      final FetchItem it = resolver == null
+          ? FetchItem.create(url, page, queueMode)
+          : FetchItem.create(url, page, queueMode, resolver);
       if (it != null) addFetchItem(it);
     }
 
-    public synchronized void addFetchItem(FetchItem it) {
-      final FetchItemQueue fiq = getFetchItemQueue(it.queueID);
-      fiq.addFetchItem(it);
-      totalSize.incrementAndGet();
+    public void addFetchItem(FetchItem it) {
+      if (!delayScheduler) {
+        synchronized (this) {
+          final FetchItemQueue fiq = getFetchItemQueue(it.queueID);
+          fiq.addFetchItem(it);
+          totalSize.incrementAndGet();
+        }
+        return;
+      }
+      while (true) {
+        final FetchItemQueue fiq = getFetchItemQueue(it.queueID);
+        synchronized (fiq) {
+          if (fiq.retired) {
+            // reaped in the meantime, pick up its replacement
+            continue;
+          }
+          fiq.addFetchItem(it);
+          totalSize.incrementAndGet();
+          schedule(it.queueID, fiq);
+          return;
+        }
+      }
     }
 
     public void finishFetchItem(FetchItem it) {
@@ -311,10 +554,25 @@ extends GoraReducer<IntWritable, FetchEntry, String, WebPage> {
         LOG.warn("Attempting to finish item from unknown queue: " + it);
         return;
       }
-      fiq.finishFetchItem(it, asap);
+      if (!delayScheduler) {
+        fiq.finishFetchItem(it, asap);
+        return;
+      }
+      synchronized (fiq) {
+        fiq.finishFetchItem(it, asap);
+        schedule(it.queueID, fiq);
+      }
+    }
+
+    public FetchItemQueue getFetchItemQueue(String id) {
+      FetchItemQueue fiq = queues.get(id);
+      if (fiq != null) {
+        return fiq;
+      }
+      return createFetchItemQueue(id);
     }
 
-    public synchronized FetchItemQueue getFetchItemQueue(String id) {
+    private synchronized FetchItemQueue createFetchItemQueue(String id) {
       FetchItemQueue fiq = queues.get(id);
       if (fiq == null) {
         // Create a new queue
@@ -322,7 +580,12 @@ extends GoraReducer<IntWritable, FetchEntry, String, WebPage> {
           // Use host specific queue settings (if defined in the host table)
           try {
             String hostname = id.substring(id.indexOf("://")+3);
-            Host host = hostDb.getByHostName(hostname);
+            Host host = null;
+            synchronized (hostDbLock) {
+              if (!hostDbClosed) {
+                host = hostDb.getByHostName(hostname);
+              }
+            }
             if (host != null) {
               fiq = new FetchItemQueue(conf,
                                        host.getInt("q_mt", maxThreads),
@@ -338,12 +601,241 @@ extends GoraReducer<IntWritable, FetchEntry, String, WebPage> {
           // Use queue defaults
           fiq = new FetchItemQueue(conf, maxThreads, crawlDelay, minCrawlDelay);
         }
+        if (adaptive) {
+          final FetchItemQueue adapted;
+          synchronized (adaptedQueues) {
+            adapted = adaptedQueues.get(id);
+          }
+          if (adapted != null) {
+            synchronized (adapted) {
+              fiq.adaptFrom(adapted);
+            }
+          }
+        }
         queues.put(id, fiq);
       }
       return fiq;
     }
 
-    public synchronized FetchItem getFetchItem() {
+    public FetchItem getFetchItem() {
+      if (delayScheduler) {
+        try {
+          return pollFetchItem(0);
+        } catch (InterruptedException e) {
+          return null;
+        }
+      }
+      return scanFetchItem();
+    }
+
+    /**
+     * Waits up to <code>timeout</code> milliseconds for an item to become
+     * eligible for fetching. The scan scheduler merely sleeps, as it has no
+     * way of knowing when a queue becomes ready.
+     */
+    public FetchItem awaitFetchItem(long timeout) throws InterruptedException {
+      if (delayScheduler) {
+        return pollFetchItem(timeout);
+      }
+      Thread.sleep(timeout);
+      return null;
+    }
+
+    private FetchItem pollFetchItem(long timeout) throws InterruptedException {
+      final long deadline = System.currentTimeMillis() + timeout;
+      while (true) {
+        final long remaining = deadline - System.currentTimeMillis();
+        final ScheduledQueue sq = remaining > 0 ?
+            readyQueues.poll(remaining, TimeUnit.MILLISECONDS) :
+            readyQueues.poll();
+        if (sq == null) {
+          return null;
+        }
+        final FetchItemQueue fiq = sq.fiq;
+        synchronized (fiq) {
+          fiq.scheduled = false;
+          if (fiq.getQueueSize() == 0 && fiq.getInProgressSize() == 0) {
+            // reap empty queues, but only once their crawl delay has passed
+            if (fiq.nextFetchTime.get() <= System.currentTimeMillis()) {
+              fiq.retired = true;
+              queues.remove(sq.id);
+            } else {
+              schedule(sq.id, fiq);
+            }
+            continue;
+          }
+          final FetchItem fit = fiq.getFetchItem();
+          // re-enters the scheduler if more items can be handed out, or waits
+          // for the next addFetchItem() / finishFetchItem() otherwise
+          schedule(sq.id, fiq);
+          if (fit != null) {
+            totalSize.decrementAndGet();
+            return fit;
+          }
+        }
+      }
+    }
+
+    /**
+     * Puts the queue into the delay scheduler if it is not already there and
+     * it can either hand out an item or be reaped. Caller must hold the lock
+     * on <code>fiq</code>.
+     */
+    private void schedule(String id, FetchItemQueue fiq) {
+      if (fiq.scheduled || fiq.retired) {
+        return;
+      }
+      final boolean idle = fiq.getInProgressSize() == 0;
+      final boolean empty = fiq.getQueueSize() == 0;
+      if ((!empty && fiq.getInProgressSize() < fiq.maxThreads)
+          || (empty && idle)) {
+        fiq.scheduled = true;
+        readyQueues.add(new ScheduledQueue(id, fiq, fiq.nextFetchTime.get()));
+      }
+    }
+
+    /**
+     * Lets the adaptive policy, if enabled, learn from the outcome of a
+     * request. Must be called before the item is finished.
+     */
+    public void recordResponse(FetchItem it, long responseTime,
+        boolean error) {
+      if (!adaptive) {
+        return;
+      }
+      final FetchItemQueue fiq = queues.get(it.queueID);
+      if (fiq == null) {
+        return;
+      }
+      synchronized (fiq) {
+        fiq.adapt(responseTime, error, this);
+      }
+      String evictedId = null;
+      FetchItemQueue evicted = null;
+      synchronized (adaptedQueues) {
+        adaptedQueues.put(it.queueID, fiq);
+        if (adaptedQueues.size() > adaptiveMaxHosts) {
+          // forget the host which has not been fetched for the longest time
+          final Iterator<Map.Entry<String, FetchItemQueue>> i =
+              adaptedQueues.entrySet().iterator();
+          final Map.Entry<String, FetchItemQueue> eldest = i.next();
+          evictedId = eldest.getKey();
+          evicted = eldest.getValue();
+          i.remove();
+        }
+      }
+      if (evicted != null && adaptiveStore) {
+        // keep what was learnt about the host
+        try {
+          storeAdaptedQueue(evictedId, evicted);
+        } catch (IOException e) {
+          LOG.error("Error while storing adaptive queue settings", e);
+        }
+      }
+    }
+
+    /** Applies a Crawl-Delay from robots.txt to the queue. */
+    public void setRobotsDelay(FetchItemQueue fiq, long delay) {
+      if (!adaptive) {
+        fiq.crawlDelay = delay;
+        return;
+      }
+      synchronized (fiq) {
+        fiq.robotsDelay = delay;
+        fiq.crawlDelay = Math.max(fiq.crawlDelay, delay);
+        fiq.minCrawlDelay = Math.max(fiq.minCrawlDelay, delay);
+        fiq.maxThreads = 1;
+      }
+    }
+
+    /**
+     * Writes the delay and number of threads learnt by the adaptive policy
+     * to the host table, where they are picked up by the next fetch with
+     * <code>fetcher.queue.use.host.settings</code> enabled.
+     */
+    public void storeAdaptedSettings() {
+      if (!adaptiveStore) {
+        return;
+      }
+      final Map<String, FetchItemQueue> adapted;
+      synchronized (adaptedQueues) {
+        adapted = new HashMap<String, FetchItemQueue>(adaptedQueues);
+        adaptedQueues.clear();
+      }
+      try {
+        int stored = 0;
+        for (Map.Entry<String, FetchItemQueue> e : adapted.entrySet()) {
+          if (storeAdaptedQueue(e.getKey(), e.getValue())) {
+            stored++;
+          }
+        }
+        if (stored > 0) {
+          LOG.info("Stored adaptive queue settings of " + stored + " hosts");
+        }
+      } catch (IOException e) {
+        LOG.error("Error while storing adaptive queue settings", e);
+      }
+    }
+
+    /**
+     * Writes the settings of a single adapted queue to the host table.
+     * Settings adapted after {@link #close()} are dropped.
+     *
+     * @return false if the host table is already closed
+     */
+    private boolean storeAdaptedQueue(String id, FetchItemQueue fiq)
+        throws IOException {
+      final String hostname = id.substring(id.indexOf("://") + 3);
+      final String key = TableUtil.reverseHost(hostname);
+      synchronized (hostDbLock) {
+        if (hostDbClosed) {
+          LOG.warn("Host table closed, not storing the settings of " + id);
+          return false;
+        }
+        if (hostDb == null) {
+          hostDb = new HostDb(conf);
+        }
+        Host host = hostDb.get(key);
+        if (host == null) {
+          host = Host.newBuilder().build();
+        }
+        synchronized (fiq) {
+          putHostValue(host, "q_cd", fiq.crawlDelay);
+          putHostValue(host, "q_mcd", fiq.minCrawlDelay);
+          putHostValue(host, "q_mt", fiq.maxThreads);
+        }
+        hostDb.put(key, host);
+      }
+      return true;
+    }
+
+    /**
+     * Closes the host table. Called once, after the last adapted settings
+     * are stored; the host table is not used afterwards.
+     */
+    public void close() {
+      synchronized (hostDbLock) {
+        if (hostDbClosed) {
+          return;
+        }
+        hostDbClosed = true;
+        if (hostDb != null) {
+          try {
+            hostDb.close();
+          } catch (IOException e) {
+            LOG.error("Error while closing the host table", e);
+          }
+          hostDb = null;
+        }
+      }
+    }
+
+    private static void putHostValue(Host host, String key, long value) {
+      host.getMetadata().put(new Utf8(key),
+          ByteBuffer.wrap(Long.toString(value).getBytes()));
+    }
+
+    private synchronized FetchItem scanFetchItem() {
       final Iterator<Map.Entry<String, FetchItemQueue>> it =
         queues.entrySet().iterator();
       while (it.hasNext()) {
@@ -404,6 +896,20 @@ extends GoraReducer<IntWritable, FetchEntry, String, WebPage> {
     }
   }
 
+  /**
+   * A fetch completed by the {@link AsyncHttpClient}, waiting to be written
+   * out by a {@link FetcherThread}.
+   */
+  private static class AsyncResult {
+    final FetchItem fit;
+    final ProtocolOutput output;
+
+    public AsyncResult(FetchItem fit, ProtocolOutput output) {
+      this.fit = fit;
+      this.output = output;
+    }
+  }
+
   /**
    * This class picks items from queues and fetches the pages.
    */
@@ -434,8 +940,11 @@ extends GoraReducer<IntWritable, FetchEntry, String, WebPage> {
     }
 
     @Override
-    @SuppressWarnings("fallthrough")
     public void run() {
+      if (asyncClient != null) {
+        runAsync();
+        return;
+      }
       activeThreads.incrementAndGet(); // count threads
 
       FetchItem fit = null;
@@ -448,119 +957,34 @@ extends GoraReducer<IntWritable, FetchEntry, String, WebPage> {
               if (LOG.isDebugEnabled()) {
                 LOG.debug(getName() + " fetchQueues.getFetchItem() was null, spin-waiting ...");
               }
-              // spin-wait.
+              // spin-wait, or block on the scheduler until a queue is ready
               spinWaiting.incrementAndGet();
               try {
-                Thread.sleep(500);
+                fit = fetchQueues.awaitFetchItem(500);
               } catch (final Exception e) {}
               spinWaiting.decrementAndGet();
-              continue;
+              if (fit == null) {
+                continue;
+              }
             } else {
               // all done, finish this thread
               return;
             }
           }
           lastRequestStart.set(System.currentTimeMillis());
-          if (fit.page.getReprUrl() == null) {
-            reprUrl = fit.url;
-          } else {
-            reprUrl = TableUtil.toString(fit.page.getReprUrl());
-          }
+          setReprUrl(fit);
           try {
             LOG.info("fetching " + fit.url + " (queue crawl delay=" + 
                       fetchQueues.getFetchItemQueue(fit.queueID).crawlDelay + "ms)"); 
 
             // fetch the page
             final Protocol protocol = this.protocolFactory.getProtocol(fit.url);
-            final BaseRobotRules rules = protocol.getRobotRules(fit.url, fit.page);
-            if (!rules.isAllowed(fit.u.toString())) {
-              // unblock
-              fetchQueues.finishFetchItem(fit, true);
-              if (LOG.isDebugEnabled()) {
-                LOG.debug("Denied by robots.txt: " + fit.url);
-              }
-              output(fit, null, ProtocolStatusUtils.STATUS_ROBOTS_DENIED,
-                  CrawlStatus.STATUS_GONE);
+            if (!checkRobotRules(fit, protocol)) {
               continue;
             }
-            if (rules.getCrawlDelay() > 0) {
-              if (rules.getCrawlDelay() > maxCrawlDelay && maxCrawlDelay >= 0) {
-                // unblock
-                fetchQueues.finishFetchItem(fit, true);
-                LOG.debug("Crawl-Delay for " + fit.url + " too long (" + rules.getCrawlDelay() + "), skipping");
-                output(fit, null, ProtocolStatusUtils.STATUS_ROBOTS_DENIED, CrawlStatus.STATUS_GONE);
-                continue;
-              } else {
-                final FetchItemQueue fiq = fetchQueues.getFetchItemQueue(fit.queueID);
-                fiq.crawlDelay = rules.getCrawlDelay();
-                if (LOG.isDebugEnabled()) {
-                  LOG.info("Crawl delay for queue: " + fit.queueID + " is set to " + fiq.crawlDelay + " as per robots.txt. url: " + fit.url);
-                }
-              }
-            }
+            fit.fetchStart = System.currentTimeMillis();
             final ProtocolOutput output = protocol.getProtocolOutput(fit.url, fit.page);
-            final ProtocolStatus status = output.getStatus();
-            final Content content = output.getContent();
-            // unblock queue
-            fetchQueues.finishFetchItem(fit);
-
-            context.getCounter("FetcherStatus", ProtocolStatusUtils.getName(status.getCode())).increment(1);
-
-            int length = 0;
-            if (content!=null && content.getContent()!=null) length= content.getContent().length;
-            updateStatus(length);
-
-            switch(status.getCode()) {
-
-            case ProtocolStatusCodes.WOULDBLOCK:
-              // retry ?
-              fetchQueues.addFetchItem(fit);
-              break;
-
-            case ProtocolStatusCodes.SUCCESS:        // got a page
-              output(fit, content, status, CrawlStatus.STATUS_FETCHED);
-              break;
-
-            case ProtocolStatusCodes.MOVED:         // redirect
-            case ProtocolStatusCodes.TEMP_MOVED:
-              byte code;
-              boolean temp;
-              if (status.getCode() == ProtocolStatusCodes.MOVED) {
-                code = CrawlStatus.STATUS_REDIR_PERM;
-                temp = false;
-              } else {
-                code = CrawlStatus.STATUS_REDIR_TEMP;
-                temp = true;
-              }
-              final String newUrl = ProtocolStatusUtils.getMessage(status);
-              handleRedirect(fit.url, newUrl, temp,  FetcherJob.PROTOCOL_REDIR, fit.page);
-              output(fit, content, status, code);
-              break;
-            case ProtocolStatusCodes.EXCEPTION:
-              logFetchFailure(fit.url, ProtocolStatusUtils.getMessage(status));
-              /* FALLTHROUGH */
-            case ProtocolStatusCodes.RETRY:          // retry
-            case ProtocolStatusCodes.BLOCKED:
-              output(fit, null, status, CrawlStatus.STATUS_RETRY);
-              break;
-
-            case ProtocolStatusCodes.GONE:           // gone
-            case ProtocolStatusCodes.NOTFOUND:
-            case ProtocolStatusCodes.ACCESS_DENIED:
-            case ProtocolStatusCodes.ROBOTS_DENIED:
-              output(fit, null, status, CrawlStatus.STATUS_GONE);
-              break;
-
-            case ProtocolStatusCodes.NOTMODIFIED:
-              output(fit, null, status, CrawlStatus.STATUS_NOTMODIFIED);
-              break;
-
-            default:
-              if (LOG.isWarnEnabled()) {
-                LOG.warn("Unknown ProtocolStatus: " + status.getCode());
-              }
-              output(fit, null, status, CrawlStatus.STATUS_RETRY);
-            }
+            processProtocolOutput(fit, output);
 
           } catch (final Throwable t) {                 // unexpected exception
             // unblock
@@ -580,6 +1004,224 @@ extends GoraReducer<IntWritable, FetchEntry, String, WebPage> {
       }
     }
 
+    /**
+     * Main loop of the async engine: the thread starts fetches on the
+     * {@link AsyncHttpClient} as long as fewer than
+     * <code>fetcher.async.max.inflight</code> are in flight, and writes out
+     * the results as they come back. Items are taken from the same queues
+     * and are subject to the same robots.txt checks as in the threaded
+     * engine.
+     */
+    private void runAsync() {
+      activeThreads.incrementAndGet(); // count threads
+      try {
+        while (true) {
+          AsyncResult result = asyncResults.poll();
+          if (result != null) {
+            processAsyncResult(result);
+            continue;
+          }
+          FetchItem fit = null;
+          if (asyncClient.getInFlight() < maxInFlight) {
+            fit = fetchQueues.getFetchItem();
+          }
+          if (fit != null) {
+            startAsyncFetch(fit);
+            continue;
+          }
+          if (feeder.isAlive() || fetchQueues.getTotalSize() > 0
+              || asyncClient.getInFlight() > 0 || !asyncResults.isEmpty()) {
+            spinWaiting.incrementAndGet();
+            try {
+              result = asyncResults.poll(100, TimeUnit.MILLISECONDS);
+            } catch (final InterruptedException e) {}
+            spinWaiting.decrementAndGet();
+            if (result != null) {
+              processAsyncResult(result);
+            }
+          } else {
+            // all done, finish this thread
+            return;
+          }
+        }
+      } catch (final Throwable e) {
+        LOG.error("fetcher throwable caught", e);
+      } finally {
+        activeThreads.decrementAndGet(); // count threads
+        LOG.info("-finishing thread " + getName() + ", activeThreads=" + activeThreads);
+      }
+    }
+
+    private void startAsyncFetch(final FetchItem fit)
+    throws IOException, InterruptedException {
+      lastRequestStart.set(System.currentTimeMillis());
+      setReprUrl(fit);
+      try {
+        LOG.info("fetching " + fit.url + " (queue crawl delay=" +
+                  fetchQueues.getFetchItemQueue(fit.queueID).crawlDelay + "ms)");
+
+        final Protocol protocol = this.protocolFactory.getProtocol(fit.url);
+        if (!checkRobotRules(fit, protocol)) {
+          return;
+        }
+        fit.fetchStart = System.currentTimeMillis();
+        if (!asyncClient.accepts(fit.u)) {
+          // other schemes are fetched by their protocol plugin
+          processProtocolOutput(fit,
+              protocol.getProtocolOutput(fit.url, fit.page));
+          return;
+        }
+        asyncClient.fetch(fit.url, fit.page, new AsyncHttpClient.Callback() {
+          public void completed(ProtocolOutput output) {
+            asyncResults.add(new AsyncResult(fit, output));
+          }
+        });
+      } catch (final Throwable t) {                 // unexpected exception
+        // unblock
+        fetchQueues.finishFetchItem(fit);
+        LOG.error("Unexpected error for " + fit.url, t);
+        output(fit, null, ProtocolStatusUtils.STATUS_FAILED,
+            CrawlStatus.STATUS_RETRY);
+      }
+    }
+
+    private void processAsyncResult(AsyncResult result)
+    throws IOException, InterruptedException {
+      final FetchItem fit = result.fit;
+      setReprUrl(fit);
+      try {
+        processProtocolOutput(fit, result.output);
+      } catch (final Throwable t) {                 // unexpected exception
+        // unblock
+        fetchQueues.finishFetchItem(fit);
+        LOG.error("Unexpected error for " + fit.url, t);
+        output(fit, null, ProtocolStatusUtils.STATUS_FAILED,
+            CrawlStatus.STATUS_RETRY);
+      }
+    }
+
+    private void setReprUrl(FetchItem fit) {
+      if (fit.page.getReprUrl() == null) {
+        reprUrl = fit.url;
+      } else {
+        reprUrl = TableUtil.toString(fit.page.getReprUrl());
+      }
+    }
+
+    /**
+     * Checks robots.txt for the item and applies its Crawl-Delay to the
+     * queue. If the item must not be fetched, it is finished and written out
+     * as denied, and false is returned.
+     */
+    private boolean checkRobotRules(FetchItem fit, Protocol protocol)
+    throws IOException, InterruptedException {
+      final BaseRobotRules rules = protocol.getRobotRules(fit.url, fit.page);
+      if (!rules.isAllowed(fit.u.toString())) {
+        // unblock
+        fetchQueues.finishFetchItem(fit, true);
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Denied by robots.txt: " + fit.url);
+        }
+        output(fit, null, ProtocolStatusUtils.STATUS_ROBOTS_DENIED,
+            CrawlStatus.STATUS_GONE);
+        return false;
+      }
+      if (rules.getCrawlDelay() > 0) {
+        if (rules.getCrawlDelay() > maxCrawlDelay && maxCrawlDelay >= 0) {
+          // unblock
+          fetchQueues.finishFetchItem(fit, true);
+          LOG.debug("Crawl-Delay for " + fit.url + " too long (" + rules.getCrawlDelay() + "), skipping");
+          output(fit, null, ProtocolStatusUtils.STATUS_ROBOTS_DENIED, CrawlStatus.STATUS_GONE);
+          return false;
+        } else {
+          final FetchItemQueue fiq = fetchQueues.getFetchItemQueue(fit.queueID);
+          fetchQueues.setRobotsDelay(fiq, rules.getCrawlDelay());
+          if (LOG.isDebugEnabled()) {
+            LOG.info("Crawl delay for queue: " + fit.queueID + " is set to " + fiq.crawlDelay + " as per robots.txt. url: " + fit.url);
+          }
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Finishes the item in its queue and writes it out according to the
+     * status of the protocol output.
+     */
+    @SuppressWarnings("fallthrough")
+    private void processProtocolOutput(FetchItem fit, ProtocolOutput output)
+    throws IOException, InterruptedException, URLFilterException {
+      final ProtocolStatus status = output.getStatus();
+      final Content content = output.getContent();
+      if (fit.fetchStart > 0) {
+        final int code = status.getCode();
+        fetchQueues.recordResponse(fit,
+            System.currentTimeMillis() - fit.fetchStart,
+            code == ProtocolStatusCodes.EXCEPTION
+            || code == ProtocolStatusCodes.RETRY);
+      }
+      // unblock queue
+      fetchQueues.finishFetchItem(fit);
+
+      context.getCounter("FetcherStatus", ProtocolStatusUtils.getName(status.getCode())).increment(1);
+
+      int length = 0;
+      if (content!=null && content.getContent()!=null) length= content.getContent().length;
+      updateStatus(length);
+
+      switch(status.getCode()) {
+
+      case ProtocolStatusCodes.WOULDBLOCK:
+        // retry ?
+        fetchQueues.addFetchItem(fit);
+        break;
+
+      case ProtocolStatusCodes.SUCCESS:        // got a page
+        output(fit, content, status, CrawlStatus.STATUS_FETCHED);
+        break;
+
+      case ProtocolStatusCodes.MOVED:         // redirect
+      case ProtocolStatusCodes.TEMP_MOVED:
+        byte code;
+        boolean temp;
+        if (status.getCode() == ProtocolStatusCodes.MOVED) {
+          code = CrawlStatus.STATUS_REDIR_PERM;
+          temp = false;
+        } else {
+          code = CrawlStatus.STATUS_REDIR_TEMP;
+          temp = true;
+        }
+        final String newUrl = ProtocolStatusUtils.getMessage(status);
+        handleRedirect(fit.url, newUrl, temp,  FetcherJob.PROTOCOL_REDIR, fit.page);
+        output(fit, content, status, code);
+        break;
+      case ProtocolStatusCodes.EXCEPTION:
+        logFetchFailure(fit.url, ProtocolStatusUtils.getMessage(status));
+        /* FALLTHROUGH */
+      case ProtocolStatusCodes.RETRY:          // retry
+      case ProtocolStatusCodes.BLOCKED:
+        output(fit, null, status, CrawlStatus.STATUS_RETRY);
+        break;
+
+      case ProtocolStatusCodes.GONE:           // gone
+      case ProtocolStatusCodes.NOTFOUND:
+      case ProtocolStatusCodes.ACCESS_DENIED:
+      case ProtocolStatusCodes.ROBOTS_DENIED:
+        output(fit, null, status, CrawlStatus.STATUS_GONE);
+        break;
+
+      case ProtocolStatusCodes.NOTMODIFIED:
+        output(fit, null, status, CrawlStatus.STATUS_NOTMODIFIED);
+        break;
+
+      default:
+        if (LOG.isWarnEnabled()) {
+          LOG.warn("Unknown ProtocolStatus: " + status.getCode());
+        }
+        output(fit, null, status, CrawlStatus.STATUS_RETRY);
+      }
+    }
+
     private void handleRedirect(String url, String newUrl,
         boolean temp, String redirType, WebPage page)
     throws URLFilterException, IOException, InterruptedException {
@@ -636,15 +1278,24 @@ extends GoraReducer<IntWritable, FetchEntry, String, WebPage> {
       }
       Mark.FETCH_MARK.putMark(fit.page, Mark.GENERATE_MARK.checkMark(fit.page));
       String key = TableUtil.reverseUrl(fit.url);
+      if (warcWriter != null && content != null) {
+        warcWriter.write(fit.url, fit.page);
+      }
 
+      boolean removeContent = content != null && !storingContent;
       if (parse) {
         if (!skipTruncated || (skipTruncated && !ParserJob.isTruncated(fit.url, fit.page))) {
+          if (parseStage != null) {
+            // blocks while the parse stage is saturated
+            parseStage.put(key, fit.page, removeContent);
+            return;
+          }
           parseUtil.process(key, fit.page);
         }
       }
       //remove content if storingContent is false. Content is added to fit.page above 
       //for ParseUtil be able to parse it. 
-      if(content != null && !storingContent){
+      if (removeContent) {
         fit.page.setContent(ByteBuffer.wrap(new byte[0]));
       }
       context.write(key, fit.page);
@@ -657,6 +1308,174 @@ extends GoraReducer<IntWritable, FetchEntry, String, WebPage> {
   }
 
 
+  /**
+   * The bounded parse stage: fetched pages wait in a queue of limited size
+   * until a parser thread parses and writes them out, so that slow parses do
+   * not hold up fetcher threads. Fetcher threads block while the queue is
+   * full, which throttles fetching to the parse rate.
+   */
+  static class ParseStage {
+
+    /**
+     * A fetched page waiting to be parsed by a {@link ParserThread}.
+     */
+    private static class ParseItem {
+      final String key;
+      final WebPage page;
+      final boolean removeContent;
+
+      public ParseItem(String key, WebPage page, boolean removeContent) {
+        this.key = key;
+        this.page = page;
+        this.removeContent = removeContent;
+      }
+    }
+
+    private final ParseUtil parseUtil;
+    private final TaskInputOutputContext<?, ?, String, WebPage> context;
+    private final BlockingQueue<ParseItem> queue;
+    private final List<ParserThread> threads = new ArrayList<ParserThread>();
+    private final AtomicInteger parsed = new AtomicInteger(0);
+    private final long putTimeout;
+    private volatile boolean done = false;
+
+    public ParseStage(ParseUtil parseUtil,
+        TaskInputOutputContext<?, ?, String, WebPage> context,
+        int threadCount, int queueSize, long putTimeout) {
+      this.parseUtil = parseUtil;
+      this.context = context;
+      this.putTimeout = putTimeout;
+      queue = new ArrayBlockingQueue<ParseItem>(queueSize);
+      for (int i = 0; i < threadCount; i++) {
+        threads.add(new ParserThread(i));
+      }
+    }
+
+    public void start() {
+      for (ParserThread pt : threads) {
+        pt.start();
+      }
+    }
+
+    /**
+     * Queues a page for parsing, blocks while the queue is full. The page is
+     * parsed in the calling thread instead if no parser thread is left, or
+     * if the queue had no room for <code>putTimeout</code> milliseconds.
+     */
+    public void put(String key, WebPage page, boolean removeContent)
+        throws IOException, InterruptedException {
+      final ParseItem item = new ParseItem(key, page, removeContent);
+      final long deadline = System.currentTimeMillis() + putTimeout;
+      while (true) {
+        if (!isAlive()) {
+          LOG.error("No parser thread left, parsing " + key + " in "
+              + Thread.currentThread().getName());
+          parse(item);
+          return;
+        }
+        final long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+          LOG.warn("No room in the parse queue for " + putTimeout
+              + " ms, parsing " + key + " in "
+              + Thread.currentThread().getName());
+          parse(item);
+          return;
+        }
+        if (queue.offer(item, Math.min(remaining, 1000),
+            TimeUnit.MILLISECONDS)) {
+          return;
+        }
+      }
+    }
+
+    /** Lets the parser threads end once the queue is empty. */
+    public void finish() {
+      done = true;
+    }
+
+    /** Returns true as long as one of the parser threads is running. */
+    public boolean isAlive() {
+      for (ParserThread pt : threads) {
+        if (pt.isAlive()) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Parses the pages left in the queue in the calling thread, once the
+     * parser threads are gone. Returns the number of pages parsed.
+     */
+    public int drain() throws IOException, InterruptedException {
+      int count = 0;
+      ParseItem item;
+      while ((item = queue.poll()) != null) {
+        parse(item);
+        count++;
+      }
+      return count;
+    }
+
+    private void parse(ParseItem item)
+        throws IOException, InterruptedException {
+      try {
+        parseUtil.process(item.key, item.page);
+      } catch (final Throwable t) {
+        LOG.error("Unexpected error parsing " + item.key, t);
+      }
+      parsed.incrementAndGet();
+      if (item.removeContent) {
+        item.page.setContent(ByteBuffer.wrap(new byte[0]));
+      }
+      context.write(item.key, item.page);
+    }
+
+    public List<? extends Thread> getThreads() {
+      return threads;
+    }
+
+    public int getParsed() {
+      return parsed.get();
+    }
+
+    public int getQueueSize() {
+      return queue.size();
+    }
+
+    /**
+     * This class parses fetched pages taken from the parse queue and writes
+     * them out.
+     */
+    private class ParserThread extends Thread {
+
+      public ParserThread(int num) {
+        this.setDaemon(true);
+        this.setName("ParserThread" + num);
+      }
+
+      @Override
+      public void run() {
+        try {
+          while (true) {
+            final ParseItem item = queue.poll(500, TimeUnit.MILLISECONDS);
+            if (item == null) {
+              if (done) {
+                return;
+              }
+              continue;
+            }
+            parse(item);
+          }
+        } catch (final Throwable e) {
+          LOG.error("parser throwable caught", e);
+        } finally {
+          LOG.info("-finishing thread " + getName());
+        }
+      }
+    }
+  }
+
   /**
    * This class feeds the queues with input items, and re-fills them as
    * items are consumed by FetcherThread-s.
@@ -715,14 +1534,20 @@ extends GoraReducer<IntWritable, FetchEntry, String, WebPage> {
           if (LOG.isDebugEnabled()) {
             LOG.debug("-feeding " + feed + " input urls ...");
           }
+          List<String> urls = new ArrayList<String>();
+          List<WebPage> pages = new ArrayList<WebPage>();
           while (feed > 0 && currentIter.hasNext()) {
             FetchEntry entry = currentIter.next();
-            final String url =
-              TableUtil.unreverseUrl(entry.getKey());
-            queues.addFetchItem(url, entry.getWebPage());
+            urls.add(TableUtil.unreverseUrl(entry.getKey()));
+            pages.add(entry.getWebPage());
             feed--;
             cnt++;
           }
+          // look up the hosts of the whole batch at once, not one by one
+          queues.prefetchHosts(urls);
+          for (int i = 0; i < urls.size(); i++) {
+            queues.addFetchItem(urls.get(i), pages.get(i));
+          }
           if (currentIter.hasNext()) {
             continue; // finish items in current list before reading next key
           }
@@ -742,9 +1567,9 @@ extends GoraReducer<IntWritable, FetchEntry, String, WebPage> {
   }
 
   private void reportAndLogStatus(Context context, float actualPages, 
-      int actualBytes, int totalSize) throws IOException {
+      int actualBytes, int totalSize, float actualParsed) throws IOException {
     StringBuilder status = new StringBuilder();
-    long elapsed = (System.currentTimeMillis() - start)/1000;
+    long elapsed = Math.max(1, (System.currentTimeMillis() - start)/1000);
     status.append(spinWaiting).append("/").append(activeThreads).append(" spinwaiting/active, ");
     status.append(pages).append(" pages, ").append(errors).append(" errors, ");
     status.append(Math.round((((float)pages.get())*10)/elapsed)/10.0).append(" ");
@@ -753,25 +1578,123 @@ extends GoraReducer<IntWritable, FetchEntry, String, WebPage> {
     status.append(Math.round(((float)actualBytes)*8)/1024).append(" kb/s, ");
     status.append(totalSize).append(" URLs in ");
     status.append(this.fetchQueues.getQueueCount()).append(" queues");
+    if (parseStage != null) {
+      status.append(", ").append(parseStage.getParsed()).append(" parsed, ");
+      status.append(Math.round((((float)parseStage.getParsed())*10)/elapsed)/10.0).append(" ");
+      status.append(Math.round((actualParsed*10)/10.0)).append(" parsed/s, ");
+      status.append(parseStage.getQueueSize()).append(" waiting for parse");
+    }
     String toString = status.toString();
     context.setStatus(toString);
     LOG.info(toString);
   }
 
+  /**
+   * Adds the robots.txt cache stats gathered since the last call to the
+   * counters. The cache is shared by the whole JVM, the first call only
+   * records the stats left by earlier tasks run in the same JVM.
+   */
+  private void reportRobotsCacheStats(Context context, boolean first) {
+    RobotRulesCache cache = RobotRulesParser.getCache();
+    if (cache == null) {
+      return;
+    }
+    if (first) {
+      robotsHits = cache.getHits();
+      robotsMisses = cache.getMisses();
+      robotsEvictions = cache.getEvictions();
+      return;
+    }
+    long hits = cache.getHits();
+    long misses = cache.getMisses();
+    long evictions = cache.getEvictions();
+    context.getCounter("RobotsCache", "hits").increment(hits - robotsHits);
+    context.getCounter("RobotsCache", "misses").increment(misses - robotsMisses);
+    context.getCounter("RobotsCache", "evictions").increment(
+        evictions - robotsEvictions);
+    robotsHits = hits;
+    robotsMisses = misses;
+    robotsEvictions = evictions;
+  }
+
+  /**
+   * Adds the stats of the host resolver gathered since the last call to the
+   * counters, like {@link #reportRobotsCacheStats(Context, boolean)}. Only
+   * used in queue mode byIP.
+   */
+  private void reportResolverStats(Context context, boolean first) {
+    CachingHostResolver resolver = fetchQueues.resolver;
+    if (resolver == null) {
+      return;
+    }
+    if (first) {
+      dnsHits = resolver.getHits();
+      dnsMisses = resolver.getMisses();
+      dnsFailures = resolver.getFailures();
+      dnsLookupTime = resolver.getLookupTime();
+      return;
+    }
+    long hits = resolver.getHits();
+    long misses = resolver.getMisses();
+    long failures = resolver.getFailures();
+    long lookupTime = resolver.getLookupTime();
+    context.getCounter("DNS", "hits").increment(hits - dnsHits);
+    context.getCounter("DNS", "misses").increment(misses - dnsMisses);
+    context.getCounter("DNS", "failures").increment(failures - dnsFailures);
+    context.getCounter("DNS", "lookup_ms").increment(lookupTime - dnsLookupTime);
+    dnsHits = hits;
+    dnsMisses = misses;
+    dnsFailures = failures;
+    dnsLookupTime = lookupTime;
+  }
+
   @Override
   public void run(Context context)
   throws IOException, InterruptedException {
     Configuration conf = context.getConfiguration();
     this.fetchQueues = new FetchItemQueues(conf);
+    reportRobotsCacheStats(context, true);
+    reportResolverStats(context, true);
     int threadCount = conf.getInt("fetcher.threads.fetch", 10);
     parse = conf.getBoolean(FetcherJob.PARSE_KEY, false);
     storingContent=conf.getBoolean("fetcher.store.content", true);
+    if (FetcherOutputFormat.getWarcDir(conf) != null) {
+      // published by the output committer once the attempt succeeds
+      Path dir = FetcherOutputFormat.getWarcWorkPath(context);
+      warcWriter = new WarcFileWriter(conf, dir.getFileSystem(conf), dir,
+          String.format("fetch-%05d",
+              context.getTaskAttemptID().getTaskID().getId()));
+      LOG.info("Fetcher: writing WARC files to "
+          + FetcherOutputFormat.getWarcDir(conf));
+    }
     if (parse) {
       skipTruncated=conf.getBoolean(ParserJob.SKIP_TRUNCATED, true);
       parseUtil = new ParseUtil(conf);
     }
     LOG.info("Fetcher: threads: " + threadCount);
 
+    int parseThreadCount = conf.getInt("fetcher.parse.threads", 0);
+    if (parse && parseThreadCount > 0) {
+      int parseQueueSize = conf.getInt("fetcher.parse.queue.size", 100);
+      long parseQueueTimeout = conf.getLong("fetcher.parse.queue.timeout", 60)
+          * 1000;
+      LOG.info("Fetcher: parser threads: " + parseThreadCount
+          + ", parse queue size: " + parseQueueSize);
+      parseStage = new ParseStage(parseUtil, context, parseThreadCount,
+          parseQueueSize, parseQueueTimeout);
+      parseStage.start();
+    }
+
+    String engine = conf.get("fetcher.engine", ENGINE_THREADED);
+    if (ENGINE_ASYNC.equals(engine)) {
+      maxInFlight = conf.getInt("fetcher.async.max.inflight", 1000);
+      asyncClient = new AsyncHttpClient(conf);
+      LOG.info("Fetcher: async engine, max in flight: " + maxInFlight);
+    } else if (!ENGINE_THREADED.equals(engine)) {
+      LOG.error("Unknown fetcher engine : " + engine + " - forcing to "
+          + ENGINE_THREADED);
+    }
+
     int maxFeedPerThread = conf.getInt("fetcher.queue.depth.multiplier", 50);
     feeder = new QueueFeeder(context, fetchQueues, threadCount * maxFeedPerThread);
     feeder.start();
@@ -787,6 +1710,7 @@ extends GoraReducer<IntWritable, FetchEntry, String, WebPage> {
     // Used for threshold check, holds pages and bytes processed in the last sec
     float pagesLastSec;
     int bytesLastSec;
+    float parsedLastSec;
 
     int throughputThresholdCurrentSequence = 0;
 
@@ -801,6 +1725,7 @@ extends GoraReducer<IntWritable, FetchEntry, String, WebPage> {
     do {                                          // wait for threads to exit
       pagesLastSec = pages.get();
       bytesLastSec = (int)bytes.get();
+      parsedLastSec = parseStage == null ? 0 : parseStage.getParsed();
       final int secondsToSleep = 5;
       try {
         Thread.sleep(secondsToSleep * 1000);
@@ -808,9 +1733,16 @@ extends GoraReducer<IntWritable, FetchEntry, String, WebPage> {
 
       pagesLastSec = (pages.get() - pagesLastSec)/secondsToSleep;
       bytesLastSec = ((int)bytes.get() - bytesLastSec)/secondsToSleep;
+      parsedLastSec = ((parseStage == null ? 0 : parseStage.getParsed())
+          - parsedLastSec)/secondsToSleep;
 
       int fetchQueuesTotalSize = fetchQueues.getTotalSize();
-      reportAndLogStatus(context, pagesLastSec, bytesLastSec, fetchQueuesTotalSize);
+      reportAndLogStatus(context, pagesLastSec, bytesLastSec, fetchQueuesTotalSize,
+          parsedLastSec);
+      reportRobotsCacheStats(context, false);
+      reportResolverStats(context, false);
+      URLCache.reportCounters(conf, context);
+      ParserWorkerPool.reportCounters(conf, context);
       
       boolean feederAlive = feeder.isAlive();
       if (!feederAlive && fetchQueuesTotalSize < 5) {
@@ -872,11 +1804,91 @@ extends GoraReducer<IntWritable, FetchEntry, String, WebPage> {
             }
           }
         }
+        closeAsyncClient();
+        fetchQueues.storeAdaptedSettings();
+        finishParsing(context, timeout);
+        closeParserWorkers(context);
+        closeWarcWriter();
+        cleanup(context);
         return;
       }
 
     } while (activeThreads.get() > 0);
     LOG.info("-activeThreads=" + activeThreads);
+    reportRobotsCacheStats(context, false);
+    reportResolverStats(context, false);
+    URLCache.reportCounters(conf, context);
+    closeAsyncClient();
+    fetchQueues.storeAdaptedSettings();
+    finishParsing(context, timeout);
+    closeParserWorkers(context);
+    closeWarcWriter();
+    cleanup(context);
+  }
+
+  /** Closes the host table, after the adapted settings are stored. */
+  @Override
+  protected void cleanup(Context context) {
+    fetchQueues.close();
+  }
+
+  /** Reports the last parser worker counters and ends the workers. */
+  private void closeParserWorkers(Context context) {
+    ParserWorkerPool.reportCounters(context.getConfiguration(), context);
+    ParserWorkerPool.close(context.getConfiguration());
+  }
+
+  /**
+   * Lets the parser threads drain the parse queue and waits for them to
+   * finish, reporting progress meanwhile. Gives up on parser threads which
+   * make no progress for <code>timeout</code> milliseconds.
+   */
+  private void finishParsing(Context context, long timeout)
+      throws IOException, InterruptedException {
+    if (parseStage == null) {
+      return;
+    }
+    parseStage.finish();
+    long lastProgress = System.currentTimeMillis();
+    int lastParsed = parseStage.getParsed();
+    for (Thread pt : parseStage.getThreads()) {
+      while (pt.isAlive()) {
+        final int secondsToSleep = 5;
+        try {
+          pt.join(secondsToSleep * 1000);
+        } catch (InterruptedException e) {}
+        int parsed = parseStage.getParsed();
+        reportAndLogStatus(context, 0, 0, fetchQueues.getTotalSize(),
+            ((float) (parsed - lastParsed)) / secondsToSleep);
+        if (parsed != lastParsed) {
+          lastParsed = parsed;
+          lastProgress = System.currentTimeMillis();
+        } else if (System.currentTimeMillis() - lastProgress > timeout) {
+          LOG.warn("Aborting with " + parseStage.getQueueSize()
+              + " pages waiting for parse, " + pt.getName() + " hung.");
+          return;
+        }
+      }
+    }
+    // left behind by parser threads which died
+    int drained = parseStage.drain();
+    if (drained > 0) {
+      LOG.warn("Parsed " + drained + " pages left in the parse queue");
+    }
+  }
+
+  private void closeAsyncClient() {
+    if (asyncClient != null) {
+      asyncClient.close();
+      asyncClient = null;
+    }
+  }
+
+  private void closeWarcWriter() throws IOException {
+    if (warcWriter != null) {
+      LOG.info("Fetcher: archived " + warcWriter.getRecords() + " responses");
+      warcWriter.close();
+    }
   }
 }
 
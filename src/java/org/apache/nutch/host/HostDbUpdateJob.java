@@ -26,6 +26,7 @@ import org.apache.gora.query.Query;
 import org.apache.gora.store.DataStore;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 import org.apache.nutch.metadata.Nutch;
@@ -48,25 +49,86 @@ public class HostDbUpdateJob implements Tool {
 
   public static final Logger LOG = LoggerFactory
       .getLogger(HostDbUpdateJob.class);
-  private static final Collection<WebPage.Field> FIELDS = new HashSet<WebPage.Field>();
 
-  private Configuration conf;
+  /** The number of hosts kept in the inlink and outlink counts of a host. */
+  public static final String MAX_LINK_HOSTS = "hostdb.update.max.link.hosts";
+  public static final int DEFAULT_MAX_LINK_HOSTS = 1000;
 
-  static {
-    FIELDS.add(WebPage.Field.STATUS);
-  }
+  private Configuration conf;
 
   /**
-   * Maps each WebPage to a host key.
+   * Counts the pages of a host and their links to and from other hosts. As
+   * the rows come sorted by reversed URL, the pages of a host follow each
+   * other, and their statistics are written once the next host starts.
    */
-  public static class Mapper extends GoraMapper<String, WebPage, Text, WebPage> {
+  public static class Mapper extends
+      GoraMapper<String, WebPage, Text, HostStats> {
+
+    private String currentHost;
+    private HostStats stats = new HostStats();
+    private int maxLinkHosts;
+
+    @Override
+    protected void setup(Context context) {
+      maxLinkHosts = context.getConfiguration().getInt(MAX_LINK_HOSTS,
+          DEFAULT_MAX_LINK_HOSTS);
+    }
 
     @Override
     protected void map(String key, WebPage value, Context context)
         throws IOException, InterruptedException {
 
       String reversedHost = TableUtil.getReversedHost(key);
-      context.write(new Text(reversedHost), value);
+      if (!reversedHost.equals(currentHost)) {
+        flush(context);
+        currentHost = reversedHost;
+      }
+      stats.addPage(value);
+      if (maxLinkHosts >= 0 && stats.getLinkHostCount() > 2 * maxLinkHosts) {
+        stats.limitLinkHosts(maxLinkHosts);
+      }
+    }
+
+    @Override
+    protected void cleanup(Context context) throws IOException,
+        InterruptedException {
+      flush(context);
+    }
+
+    private void flush(Context context) throws IOException,
+        InterruptedException {
+      if (currentHost == null) {
+        return;
+      }
+      stats.limitLinkHosts(maxLinkHosts);
+      context.write(new Text(currentHost), stats);
+      stats.clear();
+    }
+  }
+
+  /**
+   * Adds up the statistics of the pages of a host from one map task.
+   */
+  public static class Combiner extends
+      Reducer<Text, HostStats, Text, HostStats> {
+
+    private int maxLinkHosts;
+
+    @Override
+    protected void setup(Context context) {
+      maxLinkHosts = context.getConfiguration().getInt(MAX_LINK_HOSTS,
+          DEFAULT_MAX_LINK_HOSTS);
+    }
+
+    @Override
+    protected void reduce(Text key, Iterable<HostStats> values,
+        Context context) throws IOException, InterruptedException {
+      HostStats total = new HostStats();
+      for (HostStats stats : values) {
+        total.add(stats);
+      }
+      total.limitLinkHosts(maxLinkHosts);
+      context.write(key, total);
     }
   }
 
@@ -89,9 +151,12 @@ public class HostDbUpdateJob implements Tool {
 
   public void updateHosts(boolean buildLinkDb) throws Exception {
 
+    // only the fields counted, nothing else is read or shuffled
+    Collection<WebPage.Field> fields = new HashSet<WebPage.Field>();
+    fields.add(WebPage.Field.STATUS);
     if (buildLinkDb) {
-      FIELDS.add(WebPage.Field.INLINKS);
-      FIELDS.add(WebPage.Field.OUTLINKS);
+      fields.add(WebPage.Field.INLINKS);
+      fields.add(WebPage.Field.OUTLINKS);
     }
 
     NutchJob job = new NutchJob(getConf(), "hostdb-update");
@@ -100,11 +165,12 @@ public class HostDbUpdateJob implements Tool {
     DataStore<String, WebPage> pageStore = StorageUtils.createWebStore(
         job.getConfiguration(), String.class, WebPage.class);
     Query<String, WebPage> query = pageStore.newQuery();
-    query.setFields(StorageUtils.toStringArray(FIELDS)); // Note: pages without
+    query.setFields(StorageUtils.toStringArray(fields)); // Note: pages without
                                                          // these fields are
                                                          // skipped
-    GoraMapper.initMapperJob(job, query, pageStore, Text.class, WebPage.class,
-        HostDbUpdateJob.Mapper.class, null, true);
+    GoraMapper.initMapperJob(job, query, pageStore, Text.class,
+        HostStats.class, HostDbUpdateJob.Mapper.class, null, true);
+    job.setCombinerClass(HostDbUpdateJob.Combiner.class);
 
     // === Reduce ===
     DataStore<String, Host> hostStore = StorageUtils.createWebStore(
@@ -19,74 +19,51 @@ package org.apache.nutch.host;
 import org.apache.avro.util.Utf8;
 import org.apache.gora.mapreduce.GoraReducer;
 import org.apache.hadoop.io.Text;
-import org.apache.nutch.crawl.CrawlStatus;
 import org.apache.nutch.storage.Host;
-import org.apache.nutch.storage.WebPage;
-import org.apache.nutch.util.Histogram;
-import org.apache.nutch.util.URLUtil;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.Set;
+import java.util.Map;
 
 /**
- * Combines all WebPages with the same host key to create a Host object, 
- * with some statistics.
+ * Adds up the statistics of the pages with the same host key to create a
+ * Host object.
  */
-public class HostDbUpdateReducer extends GoraReducer<Text, WebPage, String, Host> {
-  
+public class HostDbUpdateReducer extends GoraReducer<Text, HostStats, String, Host> {
+
+  private int maxLinkHosts;
+
+  @Override
+  protected void setup(Context context) {
+    maxLinkHosts = context.getConfiguration().getInt(
+        HostDbUpdateJob.MAX_LINK_HOSTS, HostDbUpdateJob.DEFAULT_MAX_LINK_HOSTS);
+  }
+
   @Override
-  protected void reduce(Text key, Iterable<WebPage> values, Context context)
+  protected void reduce(Text key, Iterable<HostStats> values, Context context)
     throws IOException, InterruptedException {
     
-    int numPages = 0;
-    int numFetched = 0;
-    boolean buildLinkDb = true;
-    
-    Histogram<String> inlinkCount = new Histogram<String>();
-    Histogram<String> outlinkCount = new Histogram<String>();
-    
-    for (WebPage page: values) {
-      // count number of pages
-      numPages++;     
-      // count number of fetched pages
-      if (page.getStatus() == CrawlStatus.STATUS_FETCHED) {
-        numFetched++;
-      }
-      
-      // build host link db
-      // TODO: limit number of links
-      if (buildLinkDb) {
-        if (page.getInlinks() != null) {
-          Set<CharSequence> inlinks = page.getInlinks().keySet();
-          for (CharSequence inlink: inlinks) {
-            String host = URLUtil.getHost(inlink.toString());
-            inlinkCount.add(host);
-          }
-        }
-        if (page.getOutlinks() != null) {
-          Set<CharSequence> outlinks = page.getOutlinks().keySet();
-          for (CharSequence outlink: outlinks) {
-            String host = URLUtil.getHost(outlink.toString());
-            outlinkCount.add(host);
-          }
-        }
-      }
+    HostStats stats = new HostStats();
+    for (HostStats value: values) {
+      stats.add(value);
     }
+    stats.limitLinkHosts(maxLinkHosts);
     
-    // output host data
-    Host host = new Host();
-    host.getMetadata().put(new Utf8("p"),ByteBuffer.wrap(Integer.toString(numPages).getBytes()));
-    if (numFetched > 0) {
-      host.getMetadata().put(new Utf8("f"),ByteBuffer.wrap(Integer.toString(numFetched).getBytes()));
+    context.write(key.toString(), toHost(stats));
+  }
+
+  static Host toHost(HostStats stats) {
+    Host host = Host.newBuilder().build();
+    host.getMetadata().put(new Utf8("p"),ByteBuffer.wrap(Integer.toString(stats.getPages()).getBytes()));
+    if (stats.getFetched() > 0) {
+      host.getMetadata().put(new Utf8("f"),ByteBuffer.wrap(Integer.toString(stats.getFetched()).getBytes()));
     }
-    for (String inlink: inlinkCount.getKeys()) {
-      host.getInlinks().put(new Utf8(inlink), new Utf8(Integer.toString(inlinkCount.getCount(inlink))));
+    for (Map.Entry<String, Integer> inlink: stats.getInlinks().entrySet()) {
+      host.getInlinks().put(new Utf8(inlink.getKey()), new Utf8(inlink.getValue().toString()));
     }
-    for (String outlink: outlinkCount.getKeys()) {
-      host.getInlinks().put(new Utf8(outlink), new Utf8(Integer.toString(outlinkCount.getCount(outlink))));
+    for (Map.Entry<String, Integer> outlink: stats.getOutlinks().entrySet()) {
+      host.getOutlinks().put(new Utf8(outlink.getKey()), new Utf8(outlink.getValue().toString()));
     }
-    
-    context.write(key.toString(), host);
+    return host;
   }
 }
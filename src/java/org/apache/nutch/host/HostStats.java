@@ -0,0 +1,185 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.apache.nutch.host;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.nutch.crawl.CrawlStatus;
+import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.URLUtil;
+
+/**
+ * The statistics of the pages of a host, or of some of them: the number of
+ * pages and of fetched pages, and the number of links from and to every
+ * other host. Partial statistics are added up to the ones of a host.
+ * <p>
+ * The link histograms may be limited to the hosts with most links, in
+ * which case the counts of the hosts kept are exact only if they were kept
+ * in every part.
+ */
+public class HostStats implements Writable {
+
+  private int pages;
+  private int fetched;
+  private final Map<String, Integer> inlinks = new HashMap<String, Integer>();
+  private final Map<String, Integer> outlinks = new HashMap<String, Integer>();
+
+  /** Adds a page, with its links if the page has them. */
+  public void addPage(WebPage page) {
+    pages++;
+    Integer status = page.getStatus();
+    if (status != null && status.intValue() == CrawlStatus.STATUS_FETCHED) {
+      fetched++;
+    }
+    if (page.getInlinks() != null) {
+      for (CharSequence inlink : page.getInlinks().keySet()) {
+        addLinks(inlinks, URLUtil.getHost(inlink.toString()), 1);
+      }
+    }
+    if (page.getOutlinks() != null) {
+      for (CharSequence outlink : page.getOutlinks().keySet()) {
+        addLinks(outlinks, URLUtil.getHost(outlink.toString()), 1);
+      }
+    }
+  }
+
+  /** Adds the statistics of other pages of the host. */
+  public void add(HostStats other) {
+    pages += other.pages;
+    fetched += other.fetched;
+    for (Map.Entry<String, Integer> e : other.inlinks.entrySet()) {
+      addLinks(inlinks, e.getKey(), e.getValue());
+    }
+    for (Map.Entry<String, Integer> e : other.outlinks.entrySet()) {
+      addLinks(outlinks, e.getKey(), e.getValue());
+    }
+  }
+
+  private static void addLinks(Map<String, Integer> links, String host,
+      int count) {
+    if (host == null || host.length() == 0) {
+      return;
+    }
+    Integer old = links.get(host);
+    links.put(host, old == null ? count : old + count);
+  }
+
+  /**
+   * Keeps the link counts of at most <code>max</code> hosts each for inlinks
+   * and outlinks, the ones with most links.
+   *
+   * @param max
+   *          the number of hosts to keep, -1 to keep all
+   */
+  public void limitLinkHosts(int max) {
+    limit(inlinks, max);
+    limit(outlinks, max);
+  }
+
+  private static void limit(Map<String, Integer> links, int max) {
+    if (max < 0 || links.size() <= max) {
+      return;
+    }
+    List<Map.Entry<String, Integer>> entries = new ArrayList<Map.Entry<String, Integer>>(
+        links.entrySet());
+    Collections.sort(entries, new Comparator<Map.Entry<String, Integer>>() {
+      @Override
+      public int compare(Map.Entry<String, Integer> e1,
+          Map.Entry<String, Integer> e2) {
+        return e2.getValue().compareTo(e1.getValue());
+      }
+    });
+    for (Map.Entry<String, Integer> e : entries.subList(max, entries.size())) {
+      links.remove(e.getKey());
+    }
+  }
+
+  /** The larger of the number of inlink and of outlink hosts. */
+  public int getLinkHostCount() {
+    return Math.max(inlinks.size(), outlinks.size());
+  }
+
+  public int getPages() {
+    return pages;
+  }
+
+  public int getFetched() {
+    return fetched;
+  }
+
+  /** The number of links to pages of the host by host linking. */
+  public Map<String, Integer> getInlinks() {
+    return inlinks;
+  }
+
+  /** The number of links from pages of the host by host linked to. */
+  public Map<String, Integer> getOutlinks() {
+    return outlinks;
+  }
+
+  public void clear() {
+    pages = 0;
+    fetched = 0;
+    inlinks.clear();
+    outlinks.clear();
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    WritableUtils.writeVInt(out, pages);
+    WritableUtils.writeVInt(out, fetched);
+    writeLinks(out, inlinks);
+    writeLinks(out, outlinks);
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    clear();
+    pages = WritableUtils.readVInt(in);
+    fetched = WritableUtils.readVInt(in);
+    readLinks(in, inlinks);
+    readLinks(in, outlinks);
+  }
+
+  private static void writeLinks(DataOutput out, Map<String, Integer> links)
+      throws IOException {
+    WritableUtils.writeVInt(out, links.size());
+    for (Map.Entry<String, Integer> e : links.entrySet()) {
+      Text.writeString(out, e.getKey());
+      WritableUtils.writeVInt(out, e.getValue());
+    }
+  }
+
+  private static void readLinks(DataInput in, Map<String, Integer> links)
+      throws IOException {
+    int size = WritableUtils.readVInt(in);
+    for (int i = 0; i < size; i++) {
+      links.put(Text.readString(in), WritableUtils.readVInt(in));
+    }
+  }
+}
@@ -33,6 +33,7 @@ import org.apache.hadoop.mapreduce.lib.output.NullOutputFormat;
 import org.apache.hadoop.util.ToolRunner;
 import org.apache.hadoop.util.Tool;
 import org.apache.nutch.crawl.CrawlStatus;
+import org.apache.nutch.crawl.DeduplicationJob;
 import org.apache.nutch.metadata.Nutch;
 import org.apache.nutch.storage.StorageUtils;
 import org.apache.nutch.storage.WebPage;
@@ -52,6 +53,7 @@ public class CleaningJob extends NutchTool implements Tool {
   
   static {
     FIELDS.add(WebPage.Field.STATUS);
+    FIELDS.add(WebPage.Field.METADATA);
   }
   
   @Override
@@ -88,6 +90,7 @@ public class CleaningJob extends NutchTool implements Tool {
         throws IOException, InterruptedException {
       try {
         if (page.getStatus() == CrawlStatus.STATUS_GONE
+            || page.getMetadata().get(DeduplicationJob.DUPLICATE_OF) != null
             || filters.remove(key, page)) {
           context.write(key, page);
         }
@@ -100,7 +103,6 @@ public class CleaningJob extends NutchTool implements Tool {
   public static class CleanReducer extends
       Reducer<String, WebPage, NullWritable, NullWritable> {
     private int numDeletes = 0;
-    private static final int NUM_MAX_DELETE_REQUEST = 1000;
     private boolean commit;
     IndexWriters writers = null;
 
@@ -17,6 +17,7 @@
 package org.apache.nutch.indexer;
 
 import java.io.IOException;
+import java.util.Map;
 
 import org.apache.hadoop.conf.Configurable;
 import org.apache.hadoop.conf.Configuration;
@@ -31,6 +32,11 @@ public interface IndexWriter extends Configurable, Pluggable {
 
   public void write(NutchDocument doc) throws IOException;
   
+  /**
+   * Deletes the document with the given id. Implementations may buffer
+   * deletes and send them in batches; buffered deletes must be sent at the
+   * latest by {@link #commit()} or {@link #close()}.
+   */
   public void delete(String key) throws IOException;
   
   public void update(NutchDocument doc) throws IOException;
@@ -38,6 +44,13 @@ public interface IndexWriter extends Configurable, Pluggable {
   public void commit() throws IOException;
 
   public void close() throws IOException;
+
+  /**
+   * Returns the counters kept by this writer, by name, such as the number of
+   * requests sent. The indexing task adds them to the job counters once the
+   * writer is closed.
+   */
+  public Map<String, Long> getCounters();
   
   /** Returns a String describing the IndexWriter instance and the specific parameters it can take */
   public String describe();
@@ -18,8 +18,10 @@ package org.apache.nutch.indexer;
 
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.Map;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.apache.nutch.indexer.NutchDocument;
 import org.apache.nutch.plugin.Extension;
 import org.apache.nutch.plugin.ExtensionPoint;
@@ -131,6 +133,20 @@ public class IndexWriters {
     }
   }
 
+  /**
+   * Adds the counters of the writers to those of the task, in a group named
+   * after each writer.
+   */
+  public void reportCounters(TaskAttemptContext context) {
+    for (int i = 0; i < this.indexWriters.length; i++) {
+      String group = this.indexWriters[i].getClass().getSimpleName();
+      for (Map.Entry<String, Long> e : this.indexWriters[i].getCounters()
+          .entrySet()) {
+        context.getCounter(group, e.getKey()).increment(e.getValue());
+      }
+    }
+  }
+
   // lists the active IndexWriters and their configuration
   public String describe() throws IOException {
     StringBuffer buffer = new StringBuffer();
@@ -52,6 +52,7 @@ public class IndexerOutputFormat extends OutputFormat<String, NutchDocument> {
       public void close(TaskAttemptContext context) throws IOException,
       InterruptedException {
           writers.close();
+          writers.reportCounters(context);
         }
     };
   }
@@ -33,6 +33,7 @@ import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.util.StringUtils;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
+import org.apache.nutch.crawl.DeduplicationJob;
 import org.apache.nutch.crawl.GeneratorJob;
 import org.apache.nutch.indexer.solr.SolrConstants;
 import org.apache.nutch.metadata.Nutch;
@@ -64,6 +65,7 @@ public class IndexingJob extends NutchTool implements Tool {
     FIELDS.add(WebPage.Field.PARSE_STATUS);
     FIELDS.add(WebPage.Field.SCORE);
     FIELDS.add(WebPage.Field.MARKERS);
+    FIELDS.add(WebPage.Field.METADATA);
   }
 
   public static class IndexerMapper extends
@@ -109,6 +111,15 @@ public class IndexingJob extends NutchTool implements Tool {
         return;
       }
 
+      if (page.getMetadata().get(DeduplicationJob.DUPLICATE_OF) != null) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Skipping " + TableUtil.unreverseUrl(key)
+              + "; near-duplicate of another page");
+        }
+        context.getCounter("IndexerJob", "DuplicateCount").increment(1);
+        return;
+      }
+
       NutchDocument doc = indexUtil.index(key, page);
       if (doc == null) {
         return;
@@ -48,4 +48,8 @@ public interface HttpHeaders {
 
   public final static String LOCATION = "Location";
 
+  public final static String CONNECTION = "Connection";
+
+  public final static String ETAG = "ETag";
+
 }
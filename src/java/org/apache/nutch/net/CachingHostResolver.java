@@ -0,0 +1,241 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.net;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.apache.hadoop.conf.Configuration;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * A {@link HostResolver} which caches the addresses returned by another
+ * resolver.
+ * <p>
+ * The cache holds at most <code>dns.cache.size</code> hosts, least recently
+ * used first out. Addresses expire after <code>dns.cache.ttl</code> seconds,
+ * hosts which could not be resolved after the shorter
+ * <code>dns.cache.negative.ttl</code>. Only one lookup runs at a time for a
+ * host, concurrent callers wait for its result.
+ * <p>
+ * {@link #prefetch(Collection)} resolves hosts which will be asked for soon
+ * on a pool of <code>dns.resolver.threads</code> threads, so that the
+ * lookups of a batch of URLs run in parallel instead of one after the other.
+ */
+public class CachingHostResolver implements HostResolver {
+
+  public static final Logger LOG = LoggerFactory.getLogger(CachingHostResolver.class);
+
+  private static class Entry {
+    /** null if the host could not be resolved */
+    final InetAddress address;
+    final long expires;
+
+    Entry(InetAddress address, long expires) {
+      this.address = address;
+      this.expires = expires;
+    }
+  }
+
+  private Configuration conf;
+  private HostResolver resolver;
+  private Cache<String, Entry> cache;
+  private long ttl;
+  private long negativeTtl;
+  private ExecutorService prefetcher;
+
+  private final AtomicLong hits = new AtomicLong(0);
+  private final AtomicLong misses = new AtomicLong(0);
+  private final AtomicLong failures = new AtomicLong(0);
+  private final AtomicLong lookupTime = new AtomicLong(0);
+
+  public CachingHostResolver() {
+  }
+
+  /** Caches the addresses returned by <code>resolver</code>. */
+  public CachingHostResolver(HostResolver resolver) {
+    this.resolver = resolver;
+  }
+
+  public InetAddress resolve(String host) throws UnknownHostException {
+    final String key = host.toLowerCase();
+    Entry entry = cache.getIfPresent(key);
+    if (entry != null) {
+      if (entry.expires > System.currentTimeMillis()) {
+        hits.incrementAndGet();
+        return address(host, entry);
+      }
+      // only drop the expired entry, not one a concurrent lookup just put
+      cache.asMap().remove(key, entry);
+    }
+    final boolean[] loaded = new boolean[1];
+    try {
+      entry = cache.get(key, new Callable<Entry>() {
+        public Entry call() {
+          loaded[0] = true;
+          return lookup(key);
+        }
+      });
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    } catch (UncheckedExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+    if (loaded[0]) {
+      misses.incrementAndGet();
+    } else {
+      // waited for the lookup of another thread
+      hits.incrementAndGet();
+    }
+    return address(host, entry);
+  }
+
+  private Entry lookup(String host) {
+    long start = System.currentTimeMillis();
+    InetAddress address = null;
+    try {
+      address = resolver.resolve(host);
+    } catch (UnknownHostException e) {
+      failures.incrementAndGet();
+    }
+    long now = System.currentTimeMillis();
+    lookupTime.addAndGet(now - start);
+    return new Entry(address, now + (address == null ? negativeTtl : ttl));
+  }
+
+  private static InetAddress address(String host, Entry entry)
+      throws UnknownHostException {
+    if (entry.address == null) {
+      throw new UnknownHostException(host);
+    }
+    return entry.address;
+  }
+
+  /**
+   * Starts resolving the hosts not yet cached in the background. Returns
+   * immediately, a later {@link #resolve(String)} of one of the hosts waits
+   * for its lookup to complete. Does nothing if there are no prefetch
+   * threads.
+   */
+  public void prefetch(Collection<String> hosts) {
+    if (prefetcher == null) {
+      return;
+    }
+    Set<String> seen = new HashSet<String>();
+    for (String host : hosts) {
+      final String key = host.toLowerCase();
+      if (!seen.add(key) || cache.getIfPresent(key) != null) {
+        continue;
+      }
+      prefetcher.execute(new Runnable() {
+        public void run() {
+          try {
+            resolve(key);
+          } catch (UnknownHostException e) {
+            // cached as unresolvable, reported when asked for
+          } catch (RuntimeException e) {
+            LOG.warn("Prefetching " + key + " failed: " + e.toString());
+          }
+        }
+      });
+    }
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /** Lookups which did not return an address. */
+  public long getFailures() {
+    return failures.get();
+  }
+
+  /** Total time spent in lookups, in milliseconds. */
+  public long getLookupTime() {
+    return lookupTime.get();
+  }
+
+  public long size() {
+    return cache.size();
+  }
+
+  @Override
+  public String toString() {
+    return "size=" + size() + ", hits=" + getHits() + ", misses="
+        + getMisses() + ", failures=" + getFailures() + ", lookupTime="
+        + getLookupTime() + "ms";
+  }
+
+  public Configuration getConf() {
+    return conf;
+  }
+
+  public void setConf(Configuration conf) {
+    this.conf = conf;
+    if (resolver == null) {
+      Class<? extends HostResolver> clazz = conf.getClass(
+          "dns.resolver.class", SystemHostResolver.class, HostResolver.class);
+      try {
+        resolver = clazz.newInstance();
+      } catch (Exception e) {
+        throw new RuntimeException("Couldn't create " + clazz.getName(), e);
+      }
+      resolver.setConf(conf);
+    }
+    ttl = conf.getLong("dns.cache.ttl", 3600) * 1000;
+    negativeTtl = conf.getLong("dns.cache.negative.ttl", 60) * 1000;
+    cache = CacheBuilder.newBuilder()
+        .maximumSize(conf.getInt("dns.cache.size", 10000))
+        .concurrencyLevel(16)
+        .build();
+    int threads = conf.getInt("dns.resolver.threads", 8);
+    if (threads > 0) {
+      // the pool threads are daemons, tasks never need to shut it down
+      ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads,
+          60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+          new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+              Thread t = new Thread(r, "HostResolver");
+              t.setDaemon(true);
+              return t;
+            }
+          });
+      pool.allowCoreThreadTimeOut(true);
+      prefetcher = pool;
+    }
+  }
+}
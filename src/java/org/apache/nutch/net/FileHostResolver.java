@@ -0,0 +1,97 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.net;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Resolves host names from a file in the format of <code>/etc/hosts</code>:
+ * an IP address followed by one or more host names per line, lines starting
+ * with <code>#</code> are comments. The file is named by
+ * <code>dns.resolver.file</code> and looked up on the classpath first.
+ * <p>
+ * Hosts not listed in the file can not be resolved. Meant for tests and for
+ * crawls of a known set of hosts, it never queries a name server.
+ */
+public class FileHostResolver implements HostResolver {
+
+  public static final Logger LOG = LoggerFactory.getLogger(FileHostResolver.class);
+
+  private Configuration conf;
+  private final Map<String, InetAddress> hosts =
+      new HashMap<String, InetAddress>();
+
+  public InetAddress resolve(String host) throws UnknownHostException {
+    InetAddress address = hosts.get(host.toLowerCase());
+    if (address == null) {
+      throw new UnknownHostException(host);
+    }
+    return address;
+  }
+
+  public Configuration getConf() {
+    return conf;
+  }
+
+  public void setConf(Configuration conf) {
+    this.conf = conf;
+    hosts.clear();
+    String file = conf.get("dns.resolver.file", "dns-hosts.txt");
+    Reader reader = conf.getConfResourceAsReader(file);
+    try {
+      if (reader == null) {
+        reader = new FileReader(file);
+      }
+      readHosts(reader);
+    } catch (IOException e) {
+      LOG.error("Cannot read host file " + file + ": " + e.toString());
+    }
+  }
+
+  private void readHosts(Reader reader) throws IOException {
+    BufferedReader in = new BufferedReader(reader);
+    try {
+      String line;
+      while ((line = in.readLine()) != null) {
+        line = line.trim();
+        if (line.length() == 0 || line.startsWith("#")) {
+          continue;
+        }
+        String[] fields = line.split("\\s+");
+        // an IP literal is not looked up
+        InetAddress address = InetAddress.getByName(fields[0]);
+        for (int i = 1; i < fields.length; i++) {
+          hosts.put(fields[i].toLowerCase(),
+              InetAddress.getByAddress(fields[i], address.getAddress()));
+        }
+      }
+    } finally {
+      in.close();
+    }
+  }
+}
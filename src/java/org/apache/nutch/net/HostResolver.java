@@ -0,0 +1,38 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.net;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import org.apache.hadoop.conf.Configurable;
+
+/**
+ * Resolves host names to addresses. Used wherever URLs are grouped by IP
+ * address, e.g. by the byIP partition and fetch queue modes. The
+ * implementation is chosen with <code>dns.resolver.class</code>, see
+ * {@link HostResolvers}.
+ */
+public interface HostResolver extends Configurable {
+
+  /**
+   * @return the address of <code>host</code>
+   * @throws UnknownHostException
+   *           if the host can not be resolved
+   */
+  InetAddress resolve(String host) throws UnknownHostException;
+}
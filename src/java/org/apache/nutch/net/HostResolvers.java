@@ -0,0 +1,49 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.net;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.util.ObjectCache;
+
+/**
+ * Creates and caches the {@link HostResolver} of a configuration. The
+ * resolver named by <code>dns.resolver.class</code> is wrapped in a
+ * {@link CachingHostResolver}, which all users of the configuration share.
+ */
+public class HostResolvers {
+
+  public static final Logger LOG = LoggerFactory.getLogger(HostResolvers.class);
+
+  private HostResolvers() {}                   // no public ctor
+
+  /** Return the caching resolver of <code>conf</code>. */
+  public static synchronized CachingHostResolver get(Configuration conf) {
+    String key = CachingHostResolver.class.getName();
+    ObjectCache objectCache = ObjectCache.get(conf);
+    CachingHostResolver resolver = (CachingHostResolver) objectCache.getObject(key);
+    if (resolver == null) {
+      LOG.info("Using HostResolver impl: "
+          + conf.get("dns.resolver.class", SystemHostResolver.class.getName()));
+      resolver = new CachingHostResolver();
+      resolver.setConf(conf);
+      objectCache.setObject(key, resolver);
+    }
+    return resolver;
+  }
+}
@@ -0,0 +1,210 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.net;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.apache.nutch.util.ObjectCache;
+
+/**
+ * Remembers the results of URL normalizers and filters for URLs seen
+ * before, such as the navigation links found on every page of a site.
+ * <p>
+ * The cache is a fixed number of slots, a URL (and scope) goes into the slot
+ * given by its 64 bit fingerprint and replaces whatever was there. A slot is
+ * a single <code>long</code>, the fingerprint with the result in its lowest
+ * bits: accepted or unchanged, rejected, or changed. Only the URLs a
+ * normalizer changed are kept as strings. Lookups and updates take no locks,
+ * the cache is shared by all threads of a task.
+ * <p>
+ * The caches are enabled by <code>urlnormalizer.cache.size</code> and
+ * <code>urlfilter.cache.size</code>, their hits and misses are reported as
+ * counters of the group {@link #COUNTER_GROUP}.
+ */
+public class URLCache {
+
+  public static final String NORMALIZER_CACHE_SIZE = "urlnormalizer.cache.size";
+  public static final String FILTER_CACHE_SIZE = "urlfilter.cache.size";
+
+  public static final String COUNTER_GROUP = "URLCache";
+
+  /** The URL is accepted, or not changed. */
+  static final int SAME = 1;
+  /** The URL is rejected, or normalized to null. */
+  static final int NULL = 2;
+  /** The URL is normalized to another one. */
+  static final int CHANGED = 3;
+
+  private static final long RESULT_MASK = 3L;
+
+  private final String name;
+  private final int mask;
+  private final AtomicLongArray slots;
+  private volatile AtomicReferenceArray<Changed> changed;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /** A URL normalized to another one. */
+  private static class Changed {
+    final long key;
+    final String url;
+
+    Changed(long key, String url) {
+      this.key = key;
+      this.url = url;
+    }
+  }
+
+  /**
+   * @param name
+   *          the name of the cache in counters
+   * @param size
+   *          the number of slots, rounded up to a power of two
+   */
+  URLCache(String name, int size) {
+    this.name = name;
+    int slots = Integer.highestOneBit(Math.max(size - 1, 1)) << 1;
+    this.mask = slots - 1;
+    this.slots = new AtomicLongArray(slots);
+  }
+
+  /**
+   * The normalizer cache of a configuration, or null if disabled.
+   */
+  static URLCache getNormalizerCache(Configuration conf) {
+    return get(conf, "normalize", NORMALIZER_CACHE_SIZE);
+  }
+
+  /**
+   * The filter cache of a configuration, or null if disabled.
+   */
+  static URLCache getFilterCache(Configuration conf) {
+    return get(conf, "filter", FILTER_CACHE_SIZE);
+  }
+
+  private static URLCache get(Configuration conf, String name, String sizeKey) {
+    int size = conf.getInt(sizeKey, 0);
+    if (size <= 0) {
+      return null;
+    }
+    ObjectCache objectCache = ObjectCache.get(conf);
+    synchronized (objectCache) {
+      String key = URLCache.class.getName() + "_" + name;
+      URLCache cache = (URLCache) objectCache.getObject(key);
+      if (cache == null) {
+        cache = new URLCache(name, size);
+        objectCache.setObject(key, cache);
+      }
+      return cache;
+    }
+  }
+
+  /**
+   * Adds the hits and misses of the caches of a configuration since the
+   * last call to the counters of a task.
+   */
+  public static void reportCounters(Configuration conf,
+      TaskInputOutputContext<?, ?, ?, ?> context) {
+    URLCache[] caches = { getNormalizerCache(conf), getFilterCache(conf) };
+    for (URLCache cache : caches) {
+      if (cache != null) {
+        context.getCounter(COUNTER_GROUP, cache.name + " hits").increment(
+            cache.hits.getAndSet(0));
+        context.getCounter(COUNTER_GROUP, cache.name + " misses").increment(
+            cache.misses.getAndSet(0));
+      }
+    }
+  }
+
+  /** A 64 bit fingerprint of a scope and a URL, FNV-1a with a final mix. */
+  static long fingerprint(String scope, String url) {
+    long h = 0xcbf29ce484222325L;
+    if (scope != null) {
+      for (int i = 0; i < scope.length(); i++) {
+        h = (h ^ scope.charAt(i)) * 0x100000001b3L;
+      }
+      h = (h ^ 0xffff) * 0x100000001b3L;
+    }
+    for (int i = 0; i < url.length(); i++) {
+      h = (h ^ url.charAt(i)) * 0x100000001b3L;
+    }
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    // never the empty slot
+    return (h & ~RESULT_MASK) == 0 ? 4 : h & ~RESULT_MASK;
+  }
+
+  private int index(long key) {
+    return (int) (key >>> 32 ^ key >>> 2) & mask;
+  }
+
+  /**
+   * The cached result for a key, {@link #SAME}, {@link #NULL},
+   * {@link #CHANGED}, or 0 if not cached.
+   */
+  int lookup(long key) {
+    long slot = slots.get(index(key));
+    if ((slot & ~RESULT_MASK) == key) {
+      hits.incrementAndGet();
+      return (int) (slot & RESULT_MASK);
+    }
+    misses.incrementAndGet();
+    return 0;
+  }
+
+  /** The URL a key was normalized to, or null if no longer cached. */
+  String lookupChanged(long key) {
+    AtomicReferenceArray<Changed> changed = this.changed;
+    Changed entry = changed == null ? null : changed.get(index(key));
+    return entry != null && entry.key == key ? entry.url : null;
+  }
+
+  /** Caches {@link #SAME} or {@link #NULL} for a key. */
+  void put(long key, int result) {
+    slots.set(index(key), key | result);
+  }
+
+  /** Caches the URL a key was normalized to. */
+  void putChanged(long key, String url) {
+    AtomicReferenceArray<Changed> changed = this.changed;
+    if (changed == null) {
+      synchronized (this) {
+        if (this.changed == null) {
+          this.changed = new AtomicReferenceArray<Changed>(slots.length());
+        }
+        changed = this.changed;
+      }
+    }
+    int index = index(key);
+    changed.set(index, new Changed(key, url));
+    slots.set(index, key | CHANGED);
+  }
+
+  long getHits() {
+    return hits.get();
+  }
+
+  long getMisses() {
+    return misses.get();
+  }
+}
@@ -33,6 +33,7 @@ public class URLFilters {
 
   public static final String URLFILTER_ORDER = "urlfilter.order";
   private URLFilter[] filters;
+  private URLCache cache;
 
   public URLFilters(Configuration conf) {
     String order = conf.get(URLFILTER_ORDER);
@@ -78,10 +79,32 @@ public class URLFilters {
       }
       this.filters = (URLFilter[]) objectCache.getObject(URLFilter.class.getName());
     }
+    this.cache = URLCache.getFilterCache(conf);
   }
 
   /** Run all defined filters. Assume logical AND. */
   public String filter(String urlString) throws URLFilterException {
+    if (cache == null || urlString == null) {
+      return filterAll(urlString);
+    }
+    long key = URLCache.fingerprint(null, urlString);
+    switch (cache.lookup(key)) {
+    case URLCache.SAME:
+      return urlString;
+    case URLCache.NULL:
+      return null;
+    default:
+    }
+    String filtered = filterAll(urlString);
+    if (filtered == null) {
+      cache.put(key, URLCache.NULL);
+    } else if (filtered.equals(urlString)) {
+      cache.put(key, URLCache.SAME);
+    }
+    return filtered;
+  }
+
+  private String filterAll(String urlString) throws URLFilterException {
     for (int i = 0; i < this.filters.length; i++) {
       if (urlString == null)
         return null;
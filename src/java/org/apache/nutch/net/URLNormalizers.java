@@ -112,6 +112,8 @@ public final class URLNormalizers {
   
   private int loopCount;
 
+  private URLCache cache;
+
   public URLNormalizers(Configuration conf, String scope) {
     this.conf = conf;
     this.extensionPoint = PluginRepository.get(conf).getExtensionPoint(
@@ -135,6 +137,7 @@ public final class URLNormalizers {
     }
     
     loopCount = conf.getInt("urlnormalizer.loop.count", 1);
+    cache = URLCache.getNormalizerCache(conf);
   }
 
   /**
@@ -278,6 +281,36 @@ public final class URLNormalizers {
    */
   public String normalize(String urlString, String scope)
           throws MalformedURLException {
+    if (cache == null || urlString == null) {
+      return normalizeAll(urlString, scope);
+    }
+    long key = URLCache.fingerprint(scope, urlString);
+    switch (cache.lookup(key)) {
+    case URLCache.SAME:
+      return urlString;
+    case URLCache.NULL:
+      return null;
+    case URLCache.CHANGED:
+      String changed = cache.lookupChanged(key);
+      if (changed != null) {
+        return changed;
+      }
+      break;
+    default:
+    }
+    String normalized = normalizeAll(urlString, scope);
+    if (normalized == null) {
+      cache.put(key, URLCache.NULL);
+    } else if (normalized.equals(urlString)) {
+      cache.put(key, URLCache.SAME);
+    } else {
+      cache.putChanged(key, normalized);
+    }
+    return normalized;
+  }
+
+  private String normalizeAll(String urlString, String scope)
+          throws MalformedURLException {
     // optionally loop several times, and break if no further changes
     String initialString = urlString;
     for (int k = 0; k < loopCount; k++) {
@@ -0,0 +1,117 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.net.protocols;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.avro.util.Utf8;
+import org.apache.nutch.crawl.CrawlStatus;
+import org.apache.nutch.metadata.HttpHeaders;
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.storage.WebPage;
+
+/**
+ * Conditional GET requests for pages fetched before.
+ * <p>
+ * A page whose content is in the web table is requested with
+ * <code>If-Modified-Since</code> (its modified time) and
+ * <code>If-None-Match</code> (the <code>ETag</code> it was served with), so
+ * that the server can answer with a <code>304 Not Modified</code> instead
+ * of the content. As a 304 response has no body, the content in the web
+ * table is kept, and the headers of the response are merged into the ones
+ * stored with the page.
+ */
+public class ConditionalGet {
+
+  private ConditionalGet() {
+  }
+
+  /**
+   * Whether the content of the page is known, so that it makes sense to
+   * only ask for it if it changed. Pages to be refetched by force have been
+   * reset to unfetched.
+   */
+  private static boolean hasContent(WebPage page) {
+    Integer status = page.getStatus();
+    return status != null
+        && (status.intValue() == CrawlStatus.STATUS_FETCHED
+        || status.intValue() == CrawlStatus.STATUS_NOTMODIFIED);
+  }
+
+  /**
+   * The value of the <code>If-Modified-Since</code> header to request the
+   * page with, or null.
+   */
+  public static String getIfModifiedSince(WebPage page) {
+    if (!hasContent(page) || page.getModifiedTime() == null
+        || page.getModifiedTime() <= 0) {
+      return null;
+    }
+    return HttpDateFormat.toString(page.getModifiedTime());
+  }
+
+  /**
+   * The value of the <code>If-None-Match</code> header to request the page
+   * with, or null.
+   */
+  public static String getIfNoneMatch(WebPage page) {
+    if (!hasContent(page) || page.getHeaders() == null) {
+      return null;
+    }
+    CharSequence etag = page.getHeaders().get(new Utf8(HttpHeaders.ETAG));
+    if (etag == null) {
+      // stored under the name the server used
+      for (Map.Entry<CharSequence, CharSequence> header : page.getHeaders()
+          .entrySet()) {
+        if (HttpHeaders.ETAG.equalsIgnoreCase(header.getKey().toString())) {
+          etag = header.getValue();
+          break;
+        }
+      }
+    }
+    if (etag == null || etag.length() == 0) {
+      return null;
+    }
+    return etag.toString();
+  }
+
+  /**
+   * Stores the headers of a response with the page. The headers of a
+   * <code>304 Not Modified</code> response update the stored ones, all
+   * other responses replace them.
+   */
+  public static void setHeaders(WebPage page, int code, Metadata headers) {
+    if (code != 304) {
+      page.getHeaders().clear();
+    } else {
+      Iterator<CharSequence> stored = page.getHeaders().keySet().iterator();
+      while (stored.hasNext()) {
+        String name = stored.next().toString();
+        for (String key : headers.names()) {
+          if (key.equalsIgnoreCase(name)) {
+            stored.remove();
+            break;
+          }
+        }
+      }
+    }
+    for (String key : headers.names()) {
+      page.getHeaders().put(new Utf8(key), new Utf8(headers.get(key)));
+    }
+  }
+}
@@ -111,6 +111,19 @@ public class ParseFilters {
     return parse;
   }
 
+  /**
+   * @return true if one of the filters reads the DOM tree, see
+   *         {@link DOMParseFilter}
+   */
+  public boolean needsDOM() {
+    for (ParseFilter parseFilter : parseFilters) {
+      if (parseFilter instanceof DOMParseFilter) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   public Collection<WebPage.Field> getFields() {
     Collection<WebPage.Field> fields = new HashSet<WebPage.Field>();
     for (ParseFilter htmlParseFilter : parseFilters) {
@@ -71,6 +71,8 @@ public class ParseUtil extends Configured {
   /** Parser timeout set to 30 sec by default. Set -1 to deactivate **/
   private int maxParseTime;
   private ExecutorService executorService;
+  /** Parses in child processes if <code>parser.isolated</code> is set */
+  private ParserWorkerPool workerPool;
   
   /**
    *
@@ -99,19 +101,26 @@ public class ParseUtil extends Configured {
     ignoreExternalLinks = conf.getBoolean("db.ignore.external.links", false);
     executorService = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
       .setNameFormat("parse-%d").setDaemon(true).build());
+    workerPool = ParserWorkerPool.get(conf);
   }
 
   /**
    * Performs a parse by iterating through a List of preferred {@link Parser}s
    * until a successful parse is performed and a {@link Parse} object is
    * returned. If the parse is unsuccessful, a message is logged to the
-   * <code>WARNING</code> level, and an empty parse is returned.
+   * <code>WARNING</code> level, and an empty parse is returned. With
+   * <code>parser.isolated</code> set this is done in a
+   * {@link ParserWorkerPool} worker.
    *
    * @throws ParserNotFound If there is no suitable parser found. 
    * @throws ParseException If there is an error parsing.
    */
   public Parse parse(String url, WebPage page) throws ParserNotFound, 
       ParseException {
+    if (workerPool != null) {
+      return workerPool.parse(url, page);
+    }
+
     Parser[] parsers = null;
 
     String contentType = TableUtil.toString(page.getContentType());
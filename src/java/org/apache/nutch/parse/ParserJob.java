@@ -36,6 +36,7 @@ import org.apache.nutch.crawl.SignatureFactory;
 import org.apache.nutch.crawl.URLWebPage;
 import org.apache.nutch.metadata.HttpHeaders;
 import org.apache.nutch.metadata.Nutch;
+import org.apache.nutch.net.URLCache;
 import org.apache.nutch.storage.Mark;
 import org.apache.nutch.storage.ParseStatus;
 import org.apache.nutch.storage.StorageUtils;
@@ -141,7 +142,14 @@ public class ParserJob extends NutchTool implements Tool {
       }
 
       context.write(key, page);
-    }    
+    }
+
+    @Override
+    protected void cleanup(Context context) {
+      URLCache.reportCounters(context.getConfiguration(), context);
+      ParserWorkerPool.reportCounters(context.getConfiguration(), context);
+      ParserWorkerPool.close(context.getConfiguration());
+    }
   }
   
   public ParserJob() {
@@ -0,0 +1,201 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.parse;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.apache.gora.util.IOUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.nutch.storage.ParseStatus;
+import org.apache.nutch.storage.WebPage;
+
+/**
+ * The child process of a {@link ParserWorkerPool}, parsing the pages sent by
+ * the parent one at a time.
+ * <p>
+ * The protocol, over the standard input and output of the child: the parent
+ * sends its configuration, the child answers with its process id. Then for
+ * every page the parent sends the URL and the page, the child answers with
+ * the parse and the page as changed by the parsers, or with the reason no
+ * parse could be made. Records are Avro binary, everything else is written
+ * as {@link DataOutput}. The child exits at the end of its input.
+ * <p>
+ * Pages are parsed by {@link ParseUtil}, or by the {@link Parser} whose class
+ * is given as the argument, as tests do.
+ */
+public class ParserWorker {
+
+  /** The parse and the page follow. */
+  static final byte PARSE = 0;
+  /** No parser for the content, the message follows. */
+  static final byte NOT_FOUND = 1;
+  /** Parsing failed, the message follows. */
+  static final byte ERROR = 2;
+
+  private ParserWorker() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    // anything printed by parsers must not end up in the protocol
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(FileDescriptor.out)));
+    System.setOut(System.err);
+    DataInputStream in = new DataInputStream(new BufferedInputStream(
+        System.in));
+
+    Configuration conf = new Configuration(false);
+    conf.readFields(in);
+    // runaway parses are handled by the parent
+    conf.setBoolean(ParserWorkerPool.ISOLATED, false);
+    conf.setInt("parser.timeout", -1);
+    ParseUtil parseUtil = null;
+    Parser parser = null;
+    if (args.length > 0) {
+      parser = (Parser) Class.forName(args[0]).newInstance();
+      parser.setConf(conf);
+    } else {
+      parseUtil = new ParseUtil(conf);
+    }
+
+    String name = ManagementFactory.getRuntimeMXBean().getName();
+    Text.writeString(out, name.substring(0, Math.max(name.indexOf('@'), 0)));
+    out.flush();
+
+    while (in.read() >= 0) {
+      String url = Text.readString(in);
+      WebPage page = readPage(in);
+      ByteBuffer content = page.getContent();
+      try {
+        Parse parse = parser != null ? parser.getParse(url, page)
+            : parseUtil.parse(url, page);
+        out.writeByte(PARSE);
+        writeParse(out, parse);
+        // the content is large and usually left as it is
+        boolean contentKept = page.getContent() == content;
+        out.writeBoolean(contentKept);
+        if (contentKept) {
+          page.setContent(null);
+        }
+        writePage(out, page);
+      } catch (ParserNotFound e) {
+        out.writeByte(NOT_FOUND);
+        Text.writeString(out, String.valueOf(e.getMessage()));
+      } catch (Throwable t) {
+        out.writeByte(ERROR);
+        Text.writeString(out, t.toString());
+      }
+      out.flush();
+    }
+  }
+
+  /** Sends a page to parse. */
+  static void writeRequest(DataOutput out, String url, WebPage page)
+      throws IOException {
+    out.writeByte(0);
+    Text.writeString(out, url);
+    writePage(out, page);
+  }
+
+  static void writePage(DataOutput out, WebPage page) throws IOException {
+    writeBytes(out, IOUtils.serialize(
+        new SpecificDatumWriter<WebPage>(WebPage.SCHEMA$), WebPage.SCHEMA$,
+        page));
+  }
+
+  static WebPage readPage(DataInput in) throws IOException {
+    return IOUtils.deserialize(readBytes(in),
+        new SpecificDatumReader<WebPage>(WebPage.SCHEMA$), WebPage.SCHEMA$,
+        WebPage.newBuilder().build());
+  }
+
+  static void writeParse(DataOutput out, Parse parse) throws IOException {
+    writeString(out, parse.getText());
+    writeString(out, parse.getTitle());
+    Outlink[] outlinks = parse.getOutlinks();
+    WritableUtils.writeVInt(out, outlinks == null ? -1 : outlinks.length);
+    if (outlinks != null) {
+      for (Outlink outlink : outlinks) {
+        outlink.write(out);
+      }
+    }
+    ParseStatus status = parse.getParseStatus();
+    out.writeBoolean(status != null);
+    if (status != null) {
+      writeBytes(out, IOUtils.serialize(
+          new SpecificDatumWriter<ParseStatus>(ParseStatus.SCHEMA$),
+          ParseStatus.SCHEMA$, status));
+    }
+  }
+
+  static Parse readParse(DataInput in) throws IOException {
+    Parse parse = new Parse();
+    parse.setText(readString(in));
+    parse.setTitle(readString(in));
+    int count = WritableUtils.readVInt(in);
+    if (count >= 0) {
+      Outlink[] outlinks = new Outlink[count];
+      for (int i = 0; i < count; i++) {
+        outlinks[i] = Outlink.read(in);
+      }
+      parse.setOutlinks(outlinks);
+    }
+    if (in.readBoolean()) {
+      parse.setParseStatus(IOUtils.deserialize(readBytes(in),
+          new SpecificDatumReader<ParseStatus>(ParseStatus.SCHEMA$),
+          ParseStatus.SCHEMA$, ParseStatus.newBuilder().build()));
+    }
+    return parse;
+  }
+
+  private static void writeString(DataOutput out, String s)
+      throws IOException {
+    out.writeBoolean(s != null);
+    if (s != null) {
+      Text.writeString(out, s);
+    }
+  }
+
+  private static String readString(DataInput in) throws IOException {
+    return in.readBoolean() ? Text.readString(in) : null;
+  }
+
+  private static void writeBytes(DataOutput out, byte[] bytes)
+      throws IOException {
+    WritableUtils.writeVInt(out, bytes.length);
+    out.write(bytes);
+  }
+
+  private static byte[] readBytes(DataInput in) throws IOException {
+    byte[] bytes = new byte[WritableUtils.readVInt(in)];
+    in.readFully(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,549 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.parse;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.ObjectCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Parses pages in child JVMs, so that a parse which runs away can be ended
+ * by killing its process, which a thread cannot be.
+ * <p>
+ * The pool has a fixed number of workers, each a {@link ParserWorker}
+ * process with its own heap limit, started when first needed. A parse goes
+ * to whichever worker is idle. If a parse takes longer than
+ * <code>parser.timeout</code> seconds its worker is killed and the page gets
+ * a failed parse status; a worker which died is started again for the next
+ * parse. Workers are also replaced after
+ * <code>parser.isolated.worker.max.parses</code> parses, to bound what
+ * parsers leak.
+ * <p>
+ * Enabled by <code>parser.isolated</code>. The pool is shared by all threads
+ * of a task, timeouts, kills and restarts are reported as counters of the
+ * group {@link #COUNTER_GROUP}. Tasks {@link #close(Configuration)} the pool
+ * when done, which ends the workers.
+ */
+public class ParserWorkerPool {
+
+  public static final Logger LOG = LoggerFactory
+      .getLogger(ParserWorkerPool.class);
+
+  public static final String ISOLATED = "parser.isolated";
+  public static final String WORKERS = "parser.isolated.workers";
+  public static final String WORKER_HEAP = "parser.isolated.worker.heap";
+  public static final String WORKER_OPTS = "parser.isolated.worker.opts";
+  public static final String WORKER_MAX_PARSES = "parser.isolated.worker.max.parses";
+
+  public static final String COUNTER_GROUP = "ParserWorkers";
+
+  /** How long a worker may take to exit before it is killed hard. */
+  private static final long KILL_GRACE_MS = 2000;
+
+  private static final String CACHE_KEY = ParserWorkerPool.class.getName();
+
+  private final Configuration conf;
+  private final int maxParseTime;
+  private final int maxParses;
+  private final List<String> command;
+  private final List<Worker> workers = new ArrayList<Worker>();
+  private final BlockingQueue<Worker> idle = new LinkedBlockingQueue<Worker>();
+  private final ScheduledExecutorService watchdog;
+  private final Thread shutdownHook;
+  private volatile boolean closed;
+
+  private final AtomicLong timeouts = new AtomicLong();
+  private final AtomicLong kills = new AtomicLong();
+  private final AtomicLong restarts = new AtomicLong();
+
+  /**
+   * @param command
+   *          the command line starting a worker
+   */
+  ParserWorkerPool(Configuration conf, List<String> command) {
+    this.conf = conf;
+    this.command = command;
+    maxParseTime = conf.getInt("parser.timeout", 30);
+    maxParses = conf.getInt(WORKER_MAX_PARSES, 0);
+    int size = Math.max(conf.getInt(WORKERS, 2), 1);
+    for (int i = 0; i < size; i++) {
+      Worker worker = new Worker(i);
+      workers.add(worker);
+      idle.add(worker);
+    }
+    watchdog = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("parser-watchdog")
+            .setDaemon(true).build());
+    // in case the task ends without closing the pool
+    shutdownHook = new Thread("parser-workers-shutdown") {
+      @Override
+      public void run() {
+        for (Worker worker : workers) {
+          worker.destroy();
+        }
+      }
+    };
+    Runtime.getRuntime().addShutdownHook(shutdownHook);
+  }
+
+  /**
+   * The pool of a configuration, or null if parsing in child processes is
+   * disabled.
+   */
+  public static ParserWorkerPool get(Configuration conf) {
+    if (!conf.getBoolean(ISOLATED, false)) {
+      return null;
+    }
+    ObjectCache objectCache = ObjectCache.get(conf);
+    synchronized (objectCache) {
+      ParserWorkerPool pool = (ParserWorkerPool) objectCache
+          .getObject(CACHE_KEY);
+      if (pool == null) {
+        pool = new ParserWorkerPool(conf, buildCommand(conf));
+        objectCache.setObject(CACHE_KEY, pool);
+      }
+      return pool;
+    }
+  }
+
+  /** The pool of a configuration if there is one, without creating it. */
+  private static ParserWorkerPool lookup(Configuration conf) {
+    ObjectCache objectCache = ObjectCache.get(conf);
+    synchronized (objectCache) {
+      return (ParserWorkerPool) objectCache.getObject(CACHE_KEY);
+    }
+  }
+
+  /**
+   * Closes the pool of a configuration, if there is one, ending its workers.
+   * A later {@link #get(Configuration)} creates a new pool.
+   */
+  public static void close(Configuration conf) {
+    ParserWorkerPool pool;
+    ObjectCache objectCache = ObjectCache.get(conf);
+    synchronized (objectCache) {
+      pool = (ParserWorkerPool) objectCache.getObject(CACHE_KEY);
+      objectCache.setObject(CACHE_KEY, null);
+    }
+    if (pool != null) {
+      pool.close();
+    }
+  }
+
+  /**
+   * Adds the timeouts, kills and restarts of the workers of a configuration
+   * since the last call to the counters of a task.
+   */
+  public static void reportCounters(Configuration conf,
+      TaskInputOutputContext<?, ?, ?, ?> context) {
+    ParserWorkerPool pool = lookup(conf);
+    if (pool != null) {
+      context.getCounter(COUNTER_GROUP, "timeouts").increment(
+          pool.timeouts.getAndSet(0));
+      context.getCounter(COUNTER_GROUP, "kills").increment(
+          pool.kills.getAndSet(0));
+      context.getCounter(COUNTER_GROUP, "restarts").increment(
+          pool.restarts.getAndSet(0));
+    }
+  }
+
+  /**
+   * The command line starting a worker, with the class path of this JVM.
+   *
+   * @param args
+   *          the arguments of the worker
+   */
+  static List<String> buildCommand(Configuration conf, String... args) {
+    List<String> command = new ArrayList<String>();
+    command.add(System.getProperty("java.home") + File.separator + "bin"
+        + File.separator + "java");
+    String heap = conf.get(WORKER_HEAP, "512m").trim();
+    if (heap.length() > 0) {
+      command.add("-Xmx" + heap);
+    }
+    // a worker out of memory is of no use any more
+    command.add("-XX:OnOutOfMemoryError=kill -9 %p");
+    for (String opt : conf.get(WORKER_OPTS, "").trim().split("\\s+")) {
+      if (opt.length() > 0) {
+        command.add(opt);
+      }
+    }
+    for (String property : new String[] { "hadoop.log.dir", "hadoop.log.file" }) {
+      if (System.getProperty(property) != null) {
+        command.add("-D" + property + "=" + System.getProperty(property));
+      }
+    }
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(ParserWorker.class.getName());
+    for (String arg : args) {
+      command.add(arg);
+    }
+    return command;
+  }
+
+  /**
+   * Parses a page in a worker, waiting for one to be idle. The page is
+   * changed as the parsers changed it.
+   *
+   * @throws ParserNotFound
+   *           If there is no suitable parser found.
+   * @throws ParseException
+   *           If there is an error parsing, no worker could be started, or
+   *           the pool is closed.
+   */
+  public Parse parse(String url, WebPage page) throws ParserNotFound,
+      ParseException {
+    if (closed) {
+      throw new ParseException("Parser worker pool is closed");
+    }
+    Worker worker;
+    try {
+      worker = idle.take();
+    } catch (InterruptedException e) {
+      throw new ParseException(e);
+    }
+    try {
+      return worker.parse(url, page);
+    } finally {
+      if (closed) {
+        worker.stop();
+      }
+      idle.add(worker);
+    }
+  }
+
+  /**
+   * Ends the workers: idle ones are stopped, the ones still parsing are
+   * killed.
+   */
+  void close() {
+    closed = true;
+    List<Worker> stopped = new ArrayList<Worker>();
+    idle.drainTo(stopped);
+    for (Worker worker : stopped) {
+      worker.stop();
+    }
+    for (Worker worker : workers) {
+      if (!stopped.contains(worker)) {
+        worker.destroy();
+      }
+    }
+    watchdog.shutdownNow();
+    try {
+      Runtime.getRuntime().removeShutdownHook(shutdownHook);
+    } catch (IllegalStateException e) {
+      // shutting down already
+    }
+  }
+
+  long getTimeouts() {
+    return timeouts.get();
+  }
+
+  long getKills() {
+    return kills.get();
+  }
+
+  long getRestarts() {
+    return restarts.get();
+  }
+
+  /**
+   * Copies the fields of a page as changed by parsers in a worker to the
+   * page, and marks them dirty.
+   *
+   * @param contentKept
+   *          whether the content was left as it was, and not sent back
+   */
+  static void copyChanges(WebPage parsed, WebPage page, boolean contentKept) {
+    // field 0 is the dirty bits
+    for (int i = 1; i < page.getFieldsCount(); i++) {
+      if (contentKept && i == WebPage.Field.CONTENT.getIndex()) {
+        continue;
+      }
+      Object value = parsed.get(i);
+      Object old = page.get(i);
+      if (value == null ? old != null : !value.equals(old)) {
+        page.put(i, value);
+        page.setDirty(i);
+      }
+    }
+  }
+
+  /** Whether a process has exited. */
+  private static boolean exited(Process process) {
+    try {
+      process.exitValue();
+      return true;
+    } catch (IllegalThreadStateException e) {
+      return false;
+    }
+  }
+
+  /** A child process and the streams to it, one parse at a time. */
+  private class Worker {
+    private final int id;
+    private volatile Process process;
+    private volatile String pid;
+    private DataInputStream in;
+    private DataOutputStream out;
+    private int parses;
+    private boolean started;
+
+    Worker(int id) {
+      this.id = id;
+    }
+
+    Parse parse(String url, WebPage page) throws ParserNotFound,
+        ParseException {
+      try {
+        start();
+        try {
+          send(url, page);
+        } catch (IOException e) {
+          // died while idle
+          LOG.warn("Parser worker " + id + " has gone away: " + e);
+          stop();
+          start();
+          send(url, page);
+        }
+      } catch (IOException e) {
+        stop();
+        throw new ParseException("Could not start parser worker " + id, e);
+      }
+
+      // cleared by whoever ends this parse first, the answer or the watchdog
+      final AtomicBoolean parsing = new AtomicBoolean(true);
+      ScheduledFuture<?> deadline = null;
+      if (maxParseTime != -1) {
+        try {
+          deadline = watchdog.schedule(new Runnable() {
+            @Override
+            public void run() {
+              if (parsing.compareAndSet(true, false)) {
+                timeouts.incrementAndGet();
+                kill();
+              }
+            }
+          }, maxParseTime, TimeUnit.SECONDS);
+        } catch (RejectedExecutionException e) {
+          stop();
+          throw new ParseException("Parser worker pool is closed");
+        }
+      }
+      Parse parse = null;
+      IOException failure = null;
+      boolean timedOut;
+      try {
+        parse = receive(page);
+      } catch (IOException e) {
+        failure = e;
+      } finally {
+        // whatever the answer, the parse is over
+        timedOut = !parsing.compareAndSet(true, false);
+        if (deadline != null) {
+          deadline.cancel(false);
+        }
+        if (timedOut || failure != null) {
+          stop();
+        }
+      }
+      if (timedOut && failure != null) {
+        LOG.warn("Parsing " + url + " timed out after " + maxParseTime
+            + "s, killed parser worker " + id);
+        return ParseStatusUtils.getEmptyParse(new ParseException(
+            "Parsing timed out after " + maxParseTime + "s"), conf);
+      } else if (failure != null) {
+        LOG.warn("Parser worker " + id + " died parsing " + url + ": "
+            + failure);
+        return ParseStatusUtils.getEmptyParse(new ParseException(
+            "Parser worker died: " + failure), conf);
+      }
+      if (maxParses > 0 && ++parses >= maxParses) {
+        stop();
+      }
+      return parse;
+    }
+
+    private void send(String url, WebPage page) throws IOException {
+      ParserWorker.writeRequest(out, url, page);
+      out.flush();
+    }
+
+    private Parse receive(WebPage page) throws IOException, ParserNotFound,
+        ParseException {
+      byte type = in.readByte();
+      if (type == ParserWorker.NOT_FOUND) {
+        throw new ParserNotFound(Text.readString(in));
+      } else if (type == ParserWorker.ERROR) {
+        throw new ParseException(Text.readString(in));
+      }
+      Parse parse = ParserWorker.readParse(in);
+      boolean contentKept = in.readBoolean();
+      copyChanges(ParserWorker.readPage(in), page, contentKept);
+      return parse;
+    }
+
+    private void start() throws IOException {
+      if (process != null) {
+        return;
+      }
+      if (started) {
+        restarts.incrementAndGet();
+      }
+      started = true;
+      parses = 0;
+      pid = null;
+      process = new ProcessBuilder(command).start();
+      final BufferedReader err = new BufferedReader(new InputStreamReader(
+          process.getErrorStream()));
+      Thread logger = new Thread("parser-worker-" + id + "-log") {
+        @Override
+        public void run() {
+          try {
+            String line;
+            while ((line = err.readLine()) != null) {
+              LOG.info("[worker " + id + "] " + line);
+            }
+          } catch (IOException e) {
+            // the worker is gone
+          }
+        }
+      };
+      logger.setDaemon(true);
+      logger.start();
+      out = new DataOutputStream(new BufferedOutputStream(
+          process.getOutputStream()));
+      in = new DataInputStream(new BufferedInputStream(
+          process.getInputStream()));
+      conf.write(out);
+      out.flush();
+      pid = Text.readString(in);
+      LOG.info("Started parser worker " + id + " (pid " + pid + ")");
+    }
+
+    /**
+     * Ends the process by closing its input, killing it if it does not exit.
+     * Only called by the thread using the worker.
+     */
+    void stop() {
+      if (process == null) {
+        return;
+      }
+      try {
+        out.close();
+      } catch (IOException e) {
+        // already gone
+      }
+      if (!waitFor(process)) {
+        destroy();
+      }
+      process = null;
+    }
+
+    /**
+     * Asks the process to exit and has the watchdog kill it hard if it has
+     * not after the grace period. Does not wait.
+     */
+    void kill() {
+      final Process process = this.process;
+      final String pid = this.pid;
+      if (process == null || exited(process)) {
+        return;
+      }
+      kills.incrementAndGet();
+      process.destroy();
+      try {
+        watchdog.schedule(new Runnable() {
+          @Override
+          public void run() {
+            if (!exited(process)) {
+              killHard(pid);
+            }
+          }
+        }, KILL_GRACE_MS, TimeUnit.MILLISECONDS);
+      } catch (RejectedExecutionException e) {
+        // closed, the pool kills what is left
+      }
+    }
+
+    /** Kills the process, hard if it does not exit in time, and waits. */
+    void destroy() {
+      Process process = this.process;
+      if (process == null || exited(process)) {
+        return;
+      }
+      kills.incrementAndGet();
+      process.destroy();
+      if (!waitFor(process)) {
+        killHard(pid);
+      }
+    }
+
+    private void killHard(String pid) {
+      if (pid == null || pid.length() == 0) {
+        return;
+      }
+      try {
+        Runtime.getRuntime().exec(new String[] { "kill", "-9", pid });
+      } catch (IOException e) {
+        LOG.warn("Could not kill parser worker " + id + ": " + e);
+      }
+    }
+
+    /** Whether the process exited within the grace period. */
+    private boolean waitFor(Process process) {
+      long end = System.currentTimeMillis() + KILL_GRACE_MS;
+      while (!exited(process) && System.currentTimeMillis() < end) {
+        try {
+          Thread.sleep(50);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+      return exited(process);
+    }
+  }
+}
@@ -0,0 +1,188 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import crawlercommons.robots.BaseRobotRules;
+
+/**
+ * A bounded cache of robots.txt rules, keyed by protocol, host and port.
+ * <p>
+ * Entries are evicted least recently used first once the cache holds
+ * <code>maxSize</code> entries. Rules taken from a robots.txt file expire
+ * after <code>ttl</code> milliseconds; rules which only stand in for a
+ * robots.txt that could not be fetched (server errors, timeouts) expire
+ * after the shorter <code>negativeTtl</code>, so that such a host is tried
+ * again soon but not for every single URL.
+ * <p>
+ * Reads do not take a global lock. On a miss only one thread fetches the
+ * robots.txt of a host, concurrent callers for the same host wait for its
+ * result.
+ */
+public class RobotRulesCache {
+
+  /**
+   * Fetches and parses the robots.txt of a host on a cache miss.
+   */
+  public interface Loader {
+    /**
+     * @return {@link Result#of(BaseRobotRules)}, or
+     *         {@link Result#failed(BaseRobotRules)} if robots.txt could not
+     *         be fetched
+     */
+    Result load() throws Exception;
+  }
+
+  /** The outcome of a {@link Loader#load()}. */
+  public static class Result {
+    final BaseRobotRules rules;
+    final boolean negative;
+
+    private Result(BaseRobotRules rules, boolean negative) {
+      this.rules = rules;
+      this.negative = negative;
+    }
+
+    /** Rules taken from a robots.txt or its (definite) absence. */
+    public static Result of(BaseRobotRules rules) {
+      return new Result(rules, false);
+    }
+
+    /** Rules used because robots.txt could not be fetched at this time. */
+    public static Result failed(BaseRobotRules rules) {
+      return new Result(rules, true);
+    }
+  }
+
+  private static class Entry {
+    final BaseRobotRules rules;
+    final long expires;
+
+    Entry(BaseRobotRules rules, long expires) {
+      this.rules = rules;
+      this.expires = expires;
+    }
+  }
+
+  private final Cache<String, Entry> cache;
+  private final long ttl;
+  private final long negativeTtl;
+
+  private final AtomicLong hits = new AtomicLong(0);
+  private final AtomicLong misses = new AtomicLong(0);
+  private final AtomicLong expirations = new AtomicLong(0);
+
+  public RobotRulesCache(int maxSize, long ttl, long negativeTtl) {
+    this.ttl = ttl;
+    this.negativeTtl = negativeTtl;
+    this.cache = CacheBuilder.newBuilder()
+        .maximumSize(maxSize)
+        .concurrencyLevel(16)
+        .build();
+  }
+
+  /**
+   * Returns the cached rules for <code>key</code>, calling the loader on a
+   * miss. Only one loader runs at a time for a given key.
+   */
+  public BaseRobotRules get(String key, final Loader loader)
+      throws Exception {
+    Entry entry = cache.getIfPresent(key);
+    if (entry != null) {
+      if (entry.expires > System.currentTimeMillis()) {
+        hits.incrementAndGet();
+        return entry.rules;
+      }
+      // only drop the expired entry, not one a concurrent loader just put
+      if (cache.asMap().remove(key, entry)) {
+        expirations.incrementAndGet();
+      }
+    }
+    final boolean[] loaded = new boolean[1];
+    try {
+      entry = cache.get(key, new Callable<Entry>() {
+        public Entry call() throws Exception {
+          loaded[0] = true;
+          Result result = loader.load();
+          long now = System.currentTimeMillis();
+          return new Entry(result.rules,
+              now + (result.negative ? negativeTtl : ttl));
+        }
+      });
+    } catch (ExecutionException e) {
+      throw asException(e.getCause());
+    } catch (UncheckedExecutionException e) {
+      throw asException(e.getCause());
+    }
+    if (loaded[0]) {
+      misses.incrementAndGet();
+    } else {
+      // waited for the loader of another thread
+      hits.incrementAndGet();
+    }
+    return entry.rules;
+  }
+
+  /** Caches the rules of a host learnt while loading the rules of another. */
+  public void put(String key, BaseRobotRules rules) {
+    cache.put(key, new Entry(rules, System.currentTimeMillis() + ttl));
+  }
+
+  public void clear() {
+    cache.invalidateAll();
+  }
+
+  public long size() {
+    return cache.size();
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /** Entries dropped because the cache was full or they expired. */
+  public long getEvictions() {
+    return cache.stats().evictionCount() + expirations.get();
+  }
+
+  @Override
+  public String toString() {
+    return "size=" + size() + ", hits=" + getHits() + ", misses="
+        + getMisses() + ", evictions=" + getEvictions();
+  }
+
+  private static Exception asException(Throwable t) {
+    if (t instanceof Exception) {
+      return (Exception) t;
+    }
+    if (t instanceof Error) {
+      throw (Error) t;
+    }
+    return new RuntimeException(t);
+  }
+}
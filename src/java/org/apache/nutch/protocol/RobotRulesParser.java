@@ -23,7 +23,6 @@ import java.io.FileReader;
 import java.io.LineNumberReader;
 import java.net.URL;
 import java.util.ArrayList;
-import java.util.Hashtable;
 import java.util.StringTokenizer;
 
 // Commons Logging imports
@@ -51,7 +50,11 @@ public abstract class RobotRulesParser implements Configurable {
 
   public static final Logger LOG = LoggerFactory.getLogger(RobotRulesParser.class);
 
-  protected static final Hashtable<String, BaseRobotRules> CACHE = new Hashtable<String, BaseRobotRules> ();
+  /**
+   * Rules cache shared by all parsers of this JVM, sized by the
+   * configuration of the first parser created.
+   */
+  protected static volatile RobotRulesCache CACHE;
 
   /**
    *  A {@link BaseRobotRules} object appropriate for use
@@ -90,6 +93,8 @@ public abstract class RobotRulesParser implements Configurable {
     }
     agentNames = agentName;
 
+    initCache(conf);
+
     // If there are any other agents specified, append those to the list of agents
     String otherAgents = conf.get("http.robots.agents");
     if(otherAgents != null && !otherAgents.trim().isEmpty()) {
@@ -109,6 +114,22 @@ public abstract class RobotRulesParser implements Configurable {
     }
   }
 
+  private static synchronized void initCache(Configuration conf) {
+    if (CACHE == null) {
+      CACHE = new RobotRulesCache(conf.getInt("robots.cache.size", 10000),
+          conf.getLong("robots.cache.ttl", 86400) * 1000,
+          conf.getLong("robots.cache.negative.ttl", 300) * 1000);
+    }
+  }
+
+  /**
+   * Returns the rules cache shared by all parsers, or <code>null</code> if no
+   * parser has been configured yet.
+   */
+  public static RobotRulesCache getCache() {
+    return CACHE;
+  }
+
   /**
    * Get the {@link Configuration} object
    */
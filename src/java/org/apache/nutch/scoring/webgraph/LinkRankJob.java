@@ -0,0 +1,607 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.scoring.webgraph;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.apache.avro.util.Utf8;
+import org.apache.gora.mapreduce.GoraMapper;
+import org.apache.gora.mapreduce.GoraReducer;
+import org.apache.gora.store.DataStore;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.GenericWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.nutch.metadata.Nutch;
+import org.apache.nutch.storage.StorageUtils;
+import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.Bytes;
+import org.apache.nutch.util.NutchConfiguration;
+import org.apache.nutch.util.NutchJob;
+import org.apache.nutch.util.NutchTool;
+import org.apache.nutch.util.TableUtil;
+import org.apache.nutch.util.TimingUtil;
+import org.apache.nutch.util.ToolUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Computes the PageRank of all pages in the web table from their outlinks
+ * and stores it in the {@link #LINK_RANK} metadata of the pages, where the
+ * scoring-link plugin picks it up.
+ * <p>
+ * The job runs in these steps:
+ * <ol>
+ * <li><i>ids</i>: every page and every outlink target gets an integer
+ * id.</li>
+ * <li><i>graph</i>: the links are translated to ids and written as a binary
+ * graph of {@link Node}s, together with a file mapping ids back to
+ * URLs.</li>
+ * <li><i>iterations</i>: power iterations over the graph until the total
+ * change of the ranks falls below <code>linkrank.convergence</code> or
+ * <code>linkrank.iterations</code> iterations are done. The rank of pages
+ * without outlinks is spread evenly over all pages.</li>
+ * <li><i>update</i>: the ranks are written back to the web table, scaled so
+ * that the average page has a rank of 1.</li>
+ * </ol>
+ * Outlink targets which are not in the web table take part in the
+ * computation but are not added to it.
+ */
+public class LinkRankJob extends NutchTool implements Tool {
+
+  public static final Logger LOG = LoggerFactory.getLogger(LinkRankJob.class);
+
+  /** Metadata holding the rank of a page, as a float. */
+  public static final Utf8 LINK_RANK = new Utf8("_lr_");
+
+  public static final String NODES_KEY = "linkrank.nodes";
+  public static final String DANGLING_KEY = "linkrank.dangling";
+
+  private static final String COUNTER_GROUP = "LinkRank";
+
+  /** Counters hold sums of ranks as fixed point numbers. */
+  private static final double COUNTER_SCALE = 1e15;
+
+  private static final Collection<WebPage.Field> FIELDS = new HashSet<WebPage.Field>();
+
+  static {
+    FIELDS.add(WebPage.Field.OUTLINKS);
+  }
+
+  private static final Text NO_SOURCE = new Text();
+
+  /** Marks a URL which is a page of the web table, rather than its id. */
+  private static final int PAGE = Integer.MIN_VALUE;
+
+  /**
+   * Emits every page with an empty value, and every outlink target with the
+   * page linking to it.
+   */
+  public static class IdMapper extends GoraMapper<String, WebPage, Text, Text> {
+
+    private Text source = new Text();
+    private Text target = new Text();
+
+    @Override
+    public void map(String key, WebPage page, Context context)
+        throws IOException, InterruptedException {
+      source.set(key);
+      context.write(source, NO_SOURCE);
+      Map<CharSequence, CharSequence> outlinks = page.getOutlinks();
+      if (outlinks == null) {
+        return;
+      }
+      for (CharSequence toUrl : outlinks.keySet()) {
+        String toKey;
+        try {
+          toKey = TableUtil.reverseUrl(toUrl.toString());
+        } catch (MalformedURLException e) {
+          continue;
+        }
+        if (toKey.equals(key)) {
+          continue;
+        }
+        target.set(toKey);
+        context.write(target, source);
+      }
+    }
+  }
+
+  /**
+   * Gives every URL an id, which is unique over all reduce tasks. Emits the
+   * URL with the complement of its id, so that it can be told apart from
+   * the links, and with {@link #PAGE} if it is a page of the web table. Emits
+   * every page linking to the URL with the id.
+   */
+  public static class IdReducer extends Reducer<Text, Text, Text, IntWritable> {
+
+    private long next = 0;
+    private int partition;
+    private int partitions;
+    private IntWritable id = new IntWritable();
+
+    @Override
+    protected void setup(Context context) {
+      partition = context.getTaskAttemptID().getTaskID().getId();
+      partitions = context.getNumReduceTasks();
+    }
+
+    @Override
+    protected void reduce(Text key, Iterable<Text> values, Context context)
+        throws IOException, InterruptedException {
+      long value = next++ * partitions + partition;
+      // the complement of the largest id would be PAGE
+      if (value >= Integer.MAX_VALUE) {
+        throw new IOException("Too many nodes for integer ids");
+      }
+      id.set(~(int) value);
+      context.write(key, id);
+      id.set((int) value);
+      boolean page = false;
+      for (Text source : values) {
+        if (source.getLength() > 0) {
+          context.write(source, id);
+        } else {
+          page = true;
+        }
+      }
+      if (page) {
+        id.set(PAGE);
+        context.write(key, id);
+      }
+      context.getCounter(COUNTER_GROUP, "nodes").increment(1);
+    }
+  }
+
+  /**
+   * Collects the ids of the outlink targets of each URL into its graph
+   * node, and writes the URL of every id to the <code>urls</code> output.
+   */
+  public static class GraphReducer extends
+      Reducer<Text, IntWritable, IntWritable, Node> {
+
+    private float initialRank;
+    private int[] targets = new int[16];
+    private IntWritable id = new IntWritable();
+    private MultipleOutputs<IntWritable, Node> outputs;
+
+    @Override
+    protected void setup(Context context) {
+      initialRank = 1.0f / context.getConfiguration().getLong(NODES_KEY, 1);
+      outputs = new MultipleOutputs<IntWritable, Node>(context);
+    }
+
+    @Override
+    protected void cleanup(Context context) throws IOException,
+        InterruptedException {
+      outputs.close();
+    }
+
+    @Override
+    protected void reduce(Text key, Iterable<IntWritable> values,
+        Context context) throws IOException, InterruptedException {
+      int count = 0;
+      boolean page = false;
+      for (IntWritable value : values) {
+        int v = value.get();
+        if (v == PAGE) {
+          page = true;
+          continue;
+        }
+        if (v < 0) {
+          id.set(~v);
+          continue;
+        }
+        if (count == targets.length) {
+          targets = Arrays.copyOf(targets, count * 2);
+        }
+        targets[count++] = v;
+      }
+      // several outlinks may point to the same page once reversed
+      Arrays.sort(targets, 0, count);
+      int unique = 0;
+      for (int i = 0; i < count; i++) {
+        if (unique == 0 || targets[i] != targets[unique - 1]) {
+          targets[unique++] = targets[i];
+        }
+      }
+      context.write(id, new Node(initialRank, Arrays.copyOf(targets, unique),
+          page));
+      outputs.write("urls", id, key, "urls/part");
+      if (unique == 0) {
+        context.getCounter(COUNTER_GROUP, "dangling").increment(1);
+      }
+      context.getCounter(COUNTER_GROUP, "links").increment(unique);
+    }
+  }
+
+  /** Sends an equal share of the rank of a node along each of its links. */
+  public static class RankMapper extends
+      Mapper<IntWritable, Node, IntWritable, Node> {
+
+    private IntWritable target = new IntWritable();
+    private Node share = Node.contribution(0f);
+
+    @Override
+    protected void map(IntWritable key, Node node, Context context)
+        throws IOException, InterruptedException {
+      context.write(key, node);
+      int[] outlinks = node.getOutlinks();
+      if (outlinks.length == 0) {
+        return;
+      }
+      share.setRank(node.getRank() / outlinks.length);
+      for (int outlink : outlinks) {
+        target.set(outlink);
+        context.write(target, share);
+      }
+    }
+  }
+
+  /** Sums up the contributions to a node on the map side. */
+  public static class RankCombiner extends
+      Reducer<IntWritable, Node, IntWritable, Node> {
+
+    private Node sum = Node.contribution(0f);
+
+    @Override
+    protected void reduce(IntWritable key, Iterable<Node> values,
+        Context context) throws IOException, InterruptedException {
+      double total = 0;
+      boolean contributions = false;
+      for (Node value : values) {
+        if (value.isContribution()) {
+          total += value.getRank();
+          contributions = true;
+        } else {
+          context.write(key, value);
+        }
+      }
+      if (contributions) {
+        sum.setRank((float) total);
+        context.write(key, sum);
+      }
+    }
+  }
+
+  /**
+   * Calculates the new rank of a node from the contributions it received
+   * and the rank of the pages without outlinks in the previous iteration.
+   */
+  public static class RankReducer extends
+      Reducer<IntWritable, Node, IntWritable, Node> {
+
+    private float damping;
+    private float base;
+    private float danglingShare;
+
+    @Override
+    protected void setup(Context context) {
+      Configuration conf = context.getConfiguration();
+      long nodes = conf.getLong(NODES_KEY, 1);
+      damping = conf.getFloat("linkrank.damping.factor", 0.85f);
+      base = (1.0f - damping) / nodes;
+      danglingShare = conf.getFloat(DANGLING_KEY, 0f) / nodes;
+    }
+
+    @Override
+    protected void reduce(IntWritable key, Iterable<Node> values,
+        Context context) throws IOException, InterruptedException {
+      double total = 0;
+      float previous = 0f;
+      int[] outlinks = null;
+      boolean page = false;
+      for (Node value : values) {
+        if (value.isContribution()) {
+          total += value.getRank();
+        } else {
+          previous = value.getRank();
+          outlinks = value.getOutlinks();
+          page = value.isPage();
+        }
+      }
+      if (outlinks == null) {
+        context.getCounter(COUNTER_GROUP, "missing_nodes").increment(1);
+        return;
+      }
+      float rank = (float) (base + damping * (total + danglingShare));
+      context.write(key, new Node(rank, outlinks, page));
+      context.getCounter(COUNTER_GROUP, "delta").increment(
+          Math.round(Math.abs(rank - previous) * COUNTER_SCALE));
+      if (outlinks.length == 0) {
+        context.getCounter(COUNTER_GROUP, "dangling_rank").increment(
+            Math.round(rank * COUNTER_SCALE));
+      }
+    }
+  }
+
+  /** Either the URL or the rank of a node. */
+  public static class UrlOrRank extends GenericWritable {
+
+    @SuppressWarnings("unchecked")
+    private static Class<? extends Writable>[] CLASSES =
+        (Class<? extends Writable>[]) new Class<?>[] {
+      Text.class,
+      FloatWritable.class
+    };
+
+    public UrlOrRank() {
+    }
+
+    public UrlOrRank(Writable instance) {
+      set(instance);
+    }
+
+    @Override
+    protected Class<? extends Writable>[] getTypes() {
+      return CLASSES;
+    }
+  }
+
+  /**
+   * Brings together the URL and the final rank of every page. Outlink
+   * targets which are not in the web table get no rank, so the update does
+   * not look them up.
+   */
+  public static class JoinMapper extends
+      Mapper<IntWritable, Writable, IntWritable, UrlOrRank> {
+
+    @Override
+    protected void map(IntWritable key, Writable value, Context context)
+        throws IOException, InterruptedException {
+      if (value instanceof Node) {
+        Node node = (Node) value;
+        if (node.isPage()) {
+          context.write(key, new UrlOrRank(new FloatWritable(node.getRank())));
+        }
+      } else {
+        context.write(key, new UrlOrRank(value));
+      }
+    }
+  }
+
+  /** Stores the rank of each page which is in the web table. */
+  public static class UpdateReducer extends
+      GoraReducer<IntWritable, UrlOrRank, String, WebPage> {
+
+    private DataStore<String, WebPage> store;
+    private String[] fields = { WebPage.Field.METADATA.getName() };
+    private long nodes;
+
+    @Override
+    protected void setup(Context context) throws IOException {
+      nodes = context.getConfiguration().getLong(NODES_KEY, 1);
+      try {
+        store = StorageUtils.createWebStore(context.getConfiguration(),
+            String.class, WebPage.class);
+      } catch (ClassNotFoundException e) {
+        throw new IOException(e);
+      }
+    }
+
+    @Override
+    protected void cleanup(Context context) throws IOException {
+      store.close();
+    }
+
+    @Override
+    protected void reduce(IntWritable key, Iterable<UrlOrRank> values,
+        Context context) throws IOException, InterruptedException {
+      String url = null;
+      float rank = -1f;
+      for (UrlOrRank value : values) {
+        Writable w = value.get();
+        if (w instanceof Text) {
+          url = w.toString();
+        } else {
+          rank = ((FloatWritable) w).get();
+        }
+      }
+      // outlink targets which are not pages come without a rank
+      if (url == null || rank < 0) {
+        return;
+      }
+      WebPage page = store.get(url, fields);
+      if (page == null) {
+        return;
+      }
+      page.getMetadata().put(LINK_RANK,
+          ByteBuffer.wrap(Bytes.toBytes(rank * nodes)));
+      context.write(url, page);
+      context.getCounter(COUNTER_GROUP, "updated").increment(1);
+    }
+  }
+
+  public LinkRankJob() {
+  }
+
+  public LinkRankJob(Configuration conf) {
+    setConf(conf);
+  }
+
+  @Override
+  public Map<String, Object> run(Map<String, Object> args) throws Exception {
+    String crawlId = (String) args.get(Nutch.ARG_CRAWL);
+    if (crawlId != null) {
+      getConf().set(Nutch.CRAWL_ID_KEY, crawlId);
+    }
+    int iterations = getConf().getInt("linkrank.iterations", 10);
+    float convergence = getConf().getFloat("linkrank.convergence", 0.0001f);
+    numJobs = iterations + 3;
+    currentJobNum = 0;
+
+    Path tmpFolder = new Path(getConf().get("mapred.temp.dir", ".")
+        + "linkrank_tmp" + System.currentTimeMillis());
+    Path idsDir = new Path(tmpFolder, "ids");
+    Path graphDir = new Path(tmpFolder, "graph");
+    FileSystem fileSystem = FileSystem.get(getConf());
+    try {
+      currentJob = new NutchJob(getConf(), "linkrank-ids");
+      StorageUtils.initMapperJob(currentJob, FIELDS, Text.class, Text.class,
+          IdMapper.class);
+      currentJob.setReducerClass(IdReducer.class);
+      setSequenceFileOutput(currentJob, idsDir, Text.class, IntWritable.class);
+      if (!runJob()) {
+        return results;
+      }
+      long nodes = getCounter("nodes");
+      if (nodes == 0) {
+        LOG.info("LinkRankJob: no pages in the web table");
+        return results;
+      }
+      getConf().setLong(NODES_KEY, nodes);
+
+      currentJob = new NutchJob(getConf(), "linkrank-graph");
+      FileInputFormat.addInputPath(currentJob, idsDir);
+      currentJob.setInputFormatClass(SequenceFileInputFormat.class);
+      currentJob.setMapperClass(Mapper.class);
+      currentJob.setMapOutputKeyClass(Text.class);
+      currentJob.setMapOutputValueClass(IntWritable.class);
+      currentJob.setReducerClass(GraphReducer.class);
+      setSequenceFileOutput(currentJob, graphDir, IntWritable.class, Node.class);
+      MultipleOutputs.addNamedOutput(currentJob, "urls",
+          SequenceFileOutputFormat.class, IntWritable.class, Text.class);
+      if (!runJob()) {
+        return results;
+      }
+      LOG.info("LinkRankJob: " + nodes + " nodes, " + getCounter("links")
+          + " links");
+      fileSystem.delete(idsDir, true);
+      // the first iteration starts with a rank of 1/N for every node
+      float dangling = (float) getCounter("dangling") / nodes;
+
+      Path nodesDir = new Path(graphDir, "part-*");
+      Path previousDir = null;
+      for (int i = 1; i <= iterations; i++) {
+        getConf().setFloat(DANGLING_KEY, dangling);
+        Path outputDir = new Path(tmpFolder, "iteration-" + i);
+        currentJob = new NutchJob(getConf(), "linkrank-iteration-" + i);
+        FileInputFormat.addInputPath(currentJob, nodesDir);
+        currentJob.setInputFormatClass(SequenceFileInputFormat.class);
+        currentJob.setMapperClass(RankMapper.class);
+        currentJob.setCombinerClass(RankCombiner.class);
+        currentJob.setReducerClass(RankReducer.class);
+        setSequenceFileOutput(currentJob, outputDir, IntWritable.class,
+            Node.class);
+        if (!runJob()) {
+          return results;
+        }
+        if (previousDir != null) {
+          fileSystem.delete(previousDir, true);
+        }
+        previousDir = outputDir;
+        nodesDir = outputDir;
+        dangling = (float) (getCounter("dangling_rank") / COUNTER_SCALE);
+        double delta = getCounter("delta") / COUNTER_SCALE;
+        LOG.info("LinkRankJob: iteration " + i + ", change " + delta);
+        if (delta < convergence) {
+          LOG.info("LinkRankJob: converged after " + i + " iterations");
+          break;
+        }
+      }
+
+      currentJobNum = numJobs - 1;
+      currentJob = new NutchJob(getConf(), "linkrank-update");
+      FileInputFormat.addInputPath(currentJob, nodesDir);
+      FileInputFormat.addInputPath(currentJob, new Path(graphDir, "urls"));
+      currentJob.setInputFormatClass(SequenceFileInputFormat.class);
+      currentJob.setMapperClass(JoinMapper.class);
+      currentJob.setMapOutputKeyClass(IntWritable.class);
+      currentJob.setMapOutputValueClass(UrlOrRank.class);
+      StorageUtils.initReducerJob(currentJob, UpdateReducer.class);
+      runJob();
+    } finally {
+      fileSystem.delete(tmpFolder, true);
+    }
+    return results;
+  }
+
+  private static void setSequenceFileOutput(Job job, Path dir,
+      Class<?> keyClass, Class<?> valueClass) {
+    job.setOutputKeyClass(keyClass);
+    job.setOutputValueClass(valueClass);
+    job.setOutputFormatClass(SequenceFileOutputFormat.class);
+    FileOutputFormat.setOutputPath(job, dir);
+  }
+
+  private boolean runJob() throws Exception {
+    currentJob.waitForCompletion(true);
+    ToolUtil.recordJobStatus(currentJob.getJobName(), currentJob, results);
+    currentJobNum++;
+    return currentJob.isSuccessful();
+  }
+
+  private long getCounter(String name) throws IOException {
+    return currentJob.getCounters().findCounter(COUNTER_GROUP, name)
+        .getValue();
+  }
+
+  public int rank(String crawlId) throws Exception {
+    SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    long start = System.currentTimeMillis();
+    LOG.info("LinkRankJob: starting at " + sdf.format(start));
+    run(ToolUtil.toArgMap(Nutch.ARG_CRAWL, crawlId));
+    long finish = System.currentTimeMillis();
+    LOG.info("LinkRankJob: finished at " + sdf.format(finish)
+        + ", time elapsed: " + TimingUtil.elapsedTime(start, finish));
+    return 0;
+  }
+
+  public int run(String[] args) throws Exception {
+    String crawlId = null;
+    for (int i = 0; i < args.length; i++) {
+      if ("-crawlId".equals(args[i]) && i + 1 < args.length) {
+        crawlId = args[++i];
+      } else if ("-iterations".equals(args[i]) && i + 1 < args.length) {
+        getConf().setInt("linkrank.iterations", Integer.parseInt(args[++i]));
+      } else {
+        System.err.println("Usage: LinkRankJob [-crawlId <id>] [-iterations <n>]");
+        System.err.println("    -crawlId <id>     - the id to prefix the schemas to operate on, \n \t \t    (default: storage.crawl.id)");
+        System.err.println("    -iterations <n>   - maximum number of iterations (default: linkrank.iterations)");
+        return -1;
+      }
+    }
+    return rank(crawlId);
+  }
+
+  public static void main(String[] args) throws Exception {
+    int res = ToolRunner.run(NutchConfiguration.create(), new LinkRankJob(),
+        args);
+    System.exit(res);
+  }
+}
@@ -0,0 +1,110 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.scoring.webgraph;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+
+/**
+ * A node of the link graph, keyed by its integer id: its current rank, the
+ * ids of the nodes it links to and whether it is a page of the web table
+ * rather than an outlink target only. A node without outlinks is a dangling
+ * node. During an iteration of the {@link LinkRankJob}, the rank sent along
+ * a link is a <i>contribution</i>, which has no outlinks at all.
+ */
+public class Node implements Writable {
+
+  private static final int[] NO_OUTLINKS = new int[0];
+
+  private float rank;
+  private int[] outlinks;
+  private boolean page;
+
+  public Node() {
+  }
+
+  public Node(float rank, int[] outlinks, boolean page) {
+    this.rank = rank;
+    this.outlinks = outlinks;
+    this.page = page;
+  }
+
+  /** A share of the rank of a node linking to the receiving node. */
+  public static Node contribution(float rank) {
+    return new Node(rank, null, false);
+  }
+
+  public float getRank() {
+    return rank;
+  }
+
+  public void setRank(float rank) {
+    this.rank = rank;
+  }
+
+  /**
+   * The ids this node links to, empty for a dangling node and null for a
+   * contribution.
+   */
+  public int[] getOutlinks() {
+    return outlinks;
+  }
+
+  /** Whether the node is a page of the web table, false for a contribution. */
+  public boolean isPage() {
+    return page;
+  }
+
+  public boolean isContribution() {
+    return outlinks == null;
+  }
+
+  public void readFields(DataInput in) throws IOException {
+    rank = in.readFloat();
+    int count = in.readInt();
+    if (count < 0) {
+      outlinks = null;
+      page = false;
+      return;
+    }
+    if (count == 0) {
+      outlinks = NO_OUTLINKS;
+    } else {
+      outlinks = new int[count];
+      for (int i = 0; i < count; i++) {
+        outlinks[i] = in.readInt();
+      }
+    }
+    page = in.readBoolean();
+  }
+
+  public void write(DataOutput out) throws IOException {
+    out.writeFloat(rank);
+    if (outlinks == null) {
+      out.writeInt(-1);
+      return;
+    }
+    out.writeInt(outlinks.length);
+    for (int outlink : outlinks) {
+      out.writeInt(outlink);
+    }
+    out.writeBoolean(page);
+  }
+}
@@ -0,0 +1,371 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.tools.arc;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.avro.util.Utf8;
+import org.apache.gora.mapreduce.GoraOutputFormat;
+import org.apache.gora.store.DataStore;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.nutch.crawl.CrawlStatus;
+import org.apache.nutch.crawl.DbUpdaterJob;
+import org.apache.nutch.crawl.GeneratorJob;
+import org.apache.nutch.fetcher.FetcherJob;
+import org.apache.nutch.metadata.Nutch;
+import org.apache.nutch.net.URLFilters;
+import org.apache.nutch.net.URLNormalizers;
+import org.apache.nutch.protocol.ProtocolStatusCodes;
+import org.apache.nutch.protocol.ProtocolStatusUtils;
+import org.apache.nutch.scoring.ScoringFilterException;
+import org.apache.nutch.scoring.ScoringFilters;
+import org.apache.nutch.storage.Mark;
+import org.apache.nutch.storage.ProtocolStatus;
+import org.apache.nutch.storage.StorageUtils;
+import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.DeflateUtils;
+import org.apache.nutch.util.GZIPUtils;
+import org.apache.nutch.util.MimeUtil;
+import org.apache.nutch.util.NutchConfiguration;
+import org.apache.nutch.util.NutchJob;
+import org.apache.nutch.util.NutchTool;
+import org.apache.nutch.util.TableUtil;
+import org.apache.nutch.util.TimingUtil;
+import org.apache.nutch.util.ToolUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Imports the responses archived in ARC and WARC files into the web table,
+ * as if they had just been fetched.
+ * <p>
+ * Every imported page gets the generate and fetch marks of a new batch, so
+ * the batch can be parsed with the {@link org.apache.nutch.parse.ParserJob}
+ * and then handed to the {@link DbUpdaterJob} like a batch of the
+ * {@link FetcherJob}. URLs are normalized and filtered. Successful
+ * responses are stored with their content and headers, redirects with
+ * their target as outlink, and 401, 403, 404 and 410 responses as gone;
+ * other responses are skipped.
+ */
+public class ArchiveImportJob extends NutchTool implements Tool {
+
+  public static final Logger LOG = LoggerFactory.getLogger(ArchiveImportJob.class);
+
+  private static final String COUNTER_GROUP = "ArchiveImport";
+
+  public static class ImportMapper extends
+      Mapper<LongWritable, ArchiveRecord, String, WebPage> {
+
+    private URLNormalizers normalizers;
+    private URLFilters filters;
+    private ScoringFilters scoringFilters;
+    private int interval;
+    private float scoreInjected;
+    private int contentLimit;
+    private MimeUtil mimeTypes;
+    private Utf8 batchId;
+
+    private long started;
+    private long pages;
+    private long bytes;
+
+    @Override
+    protected void setup(Context context) {
+      Configuration conf = context.getConfiguration();
+      normalizers = new URLNormalizers(conf, URLNormalizers.SCOPE_FETCHER);
+      filters = new URLFilters(conf);
+      scoringFilters = new ScoringFilters(conf);
+      interval = conf.getInt("db.fetch.interval.default", 2592000);
+      scoreInjected = conf.getFloat("db.score.injected", 1.0f);
+      contentLimit = conf.getInt("http.content.limit", 64 * 1024);
+      mimeTypes = new MimeUtil(conf);
+      batchId = new Utf8(conf.get(GeneratorJob.BATCH_ID));
+      started = System.currentTimeMillis();
+    }
+
+    @Override
+    protected void map(LongWritable offset, ArchiveRecord record,
+        Context context) throws IOException, InterruptedException {
+      context.getCounter(COUNTER_GROUP, "records").increment(1);
+      if (!record.hasContent()) {
+        context.getCounter(COUNTER_GROUP, "skipped_type").increment(1);
+        return;
+      }
+      String url = filter(record.getUrl());
+      if (url == null) {
+        context.getCounter(COUNTER_GROUP, "filtered").increment(1);
+        return;
+      }
+
+      int code = record.getHttpStatus();
+      byte status;
+      ProtocolStatus protocolStatus;
+      boolean keepContent = false;
+      String redirect = null;
+      if (code >= 200 && code < 300) {
+        status = CrawlStatus.STATUS_FETCHED;
+        protocolStatus = ProtocolStatusUtils.STATUS_SUCCESS;
+        keepContent = true;
+      } else if (code == 300 || code == 301 || code == 308
+          || code == 302 || code == 303 || code == 307) {
+        boolean temp = code == 302 || code == 303 || code == 307;
+        status = temp ? CrawlStatus.STATUS_REDIR_TEMP
+            : CrawlStatus.STATUS_REDIR_PERM;
+        redirect = getRedirect(url, record.getHeader("Location"));
+        protocolStatus = ProtocolStatusUtils.makeStatus(
+            temp ? ProtocolStatusCodes.TEMP_MOVED : ProtocolStatusCodes.MOVED,
+            redirect == null ? "" : redirect);
+        keepContent = true;
+      } else if (code == 404) {
+        status = CrawlStatus.STATUS_GONE;
+        protocolStatus = ProtocolStatusUtils.STATUS_NOTFOUND;
+      } else if (code == 410) {
+        status = CrawlStatus.STATUS_GONE;
+        protocolStatus = ProtocolStatusUtils.STATUS_GONE;
+      } else if (code == 401 || code == 403) {
+        status = CrawlStatus.STATUS_GONE;
+        protocolStatus = ProtocolStatusUtils.makeStatus(
+            ProtocolStatusCodes.ACCESS_DENIED);
+      } else {
+        context.getCounter(COUNTER_GROUP, "skipped_status").increment(1);
+        return;
+      }
+
+      long fetchTime = record.getDate() > 0 ? record.getDate()
+          : System.currentTimeMillis();
+      WebPage page = WebPage.newBuilder().build();
+      page.setStatus((int) status);
+      page.setProtocolStatus(protocolStatus);
+      page.setFetchTime(fetchTime);
+      page.setPrevFetchTime(fetchTime);
+      page.setFetchInterval(interval);
+      page.setBaseUrl(new Utf8(url));
+      for (Map.Entry<String, String> header : record.getHeaders().entrySet()) {
+        page.getHeaders().put(new Utf8(header.getKey()),
+            new Utf8(header.getValue()));
+      }
+      if (keepContent) {
+        byte[] content = decode(record);
+        page.setContent(ByteBuffer.wrap(content));
+        String contentType = mimeTypes.autoResolveContentType(
+            record.getContentType(), url, content);
+        if (contentType != null) {
+          page.setContentType(new Utf8(contentType));
+        }
+        pages++;
+        bytes += content.length;
+        context.getCounter(COUNTER_GROUP, "content_bytes").increment(
+            content.length);
+      }
+      if (redirect != null) {
+        page.getOutlinks().put(new Utf8(redirect), new Utf8());
+        page.getMetadata().put(FetcherJob.REDIRECT_DISCOVERED,
+            TableUtil.YES_VAL);
+      }
+      page.setScore(scoreInjected);
+      try {
+        scoringFilters.injectedScore(url, page);
+      } catch (ScoringFilterException e) {
+        LOG.warn("Cannot filter injected score for url " + url + ": "
+            + e.getMessage());
+      }
+      page.getMarkers().put(DbUpdaterJob.DISTANCE, new Utf8("0"));
+      Mark.GENERATE_MARK.putMark(page, batchId);
+      Mark.FETCH_MARK.putMark(page, batchId);
+      context.write(TableUtil.reverseUrl(url), page);
+      context.getCounter(COUNTER_GROUP, "imported").increment(1);
+
+      if (pages % 1000 == 0) {
+        context.setStatus(throughput(pages, bytes,
+            System.currentTimeMillis() - started));
+      }
+    }
+
+    @Override
+    protected void cleanup(Context context) {
+      String rates = throughput(pages, bytes,
+          System.currentTimeMillis() - started);
+      context.setStatus(rates);
+      LOG.info("ArchiveImportJob: " + rates);
+    }
+
+    private String filter(String url) {
+      if (url == null) {
+        return null;
+      }
+      try {
+        url = normalizers.normalize(url, URLNormalizers.SCOPE_FETCHER);
+        return filters.filter(url);
+      } catch (Exception e) {
+        LOG.warn("Skipping " + url + ": " + e);
+        return null;
+      }
+    }
+
+    private String getRedirect(String url, String location) {
+      if (location == null) {
+        return null;
+      }
+      String target;
+      try {
+        target = new URL(new URL(url), location).toString();
+      } catch (IOException e) {
+        return null;
+      }
+      target = filter(target);
+      return url.equals(target) ? null : target;
+    }
+
+    /** Removes the content encoding the server applied. */
+    private byte[] decode(ArchiveRecord record) {
+      byte[] content = record.getContent();
+      String encoding = record.getHeader("Content-Encoding");
+      if (encoding != null) {
+        encoding = encoding.trim().toLowerCase();
+        if ("gzip".equals(encoding) || "x-gzip".equals(encoding)) {
+          byte[] decoded = contentLimit >= 0 ? GZIPUtils.unzipBestEffort(
+              content, contentLimit) : GZIPUtils.unzipBestEffort(content);
+          content = decoded == null ? content : decoded;
+        } else if ("deflate".equals(encoding)) {
+          byte[] decoded = contentLimit >= 0 ? DeflateUtils.inflateBestEffort(
+              content, contentLimit) : DeflateUtils.inflateBestEffort(content);
+          content = decoded == null ? content : decoded;
+        }
+      }
+      if (contentLimit >= 0 && content.length > contentLimit) {
+        byte[] truncated = new byte[contentLimit];
+        System.arraycopy(content, 0, truncated, 0, contentLimit);
+        content = truncated;
+      }
+      return content;
+    }
+  }
+
+  static String throughput(long records, long bytes, long elapsed) {
+    double seconds = Math.max(elapsed, 1) / 1000.0;
+    return records + " records, " + bytes + " bytes in "
+        + TimingUtil.elapsedTime(0, elapsed) + " ("
+        + Math.round(records / seconds) + " records/s, "
+        + Math.round(bytes / seconds) + " bytes/s)";
+  }
+
+  public ArchiveImportJob() {
+  }
+
+  public ArchiveImportJob(Configuration conf) {
+    setConf(conf);
+  }
+
+  @Override
+  public Map<String, Object> run(Map<String, Object> args) throws Exception {
+    Object path = args.get(Nutch.ARG_SEEDDIR);
+    Path input = path instanceof Path ? (Path) path : new Path(path.toString());
+    String crawlId = (String) args.get(Nutch.ARG_CRAWL);
+    if (crawlId != null) {
+      getConf().set(Nutch.CRAWL_ID_KEY, crawlId);
+    }
+    String batchId = (String) args.get(Nutch.ARG_BATCH);
+    if (batchId == null) {
+      batchId = (System.currentTimeMillis() / 1000) + "-"
+          + Math.abs(new Random().nextInt());
+    }
+    getConf().set(GeneratorJob.BATCH_ID, batchId);
+
+    numJobs = 1;
+    currentJobNum = 0;
+    currentJob = new NutchJob(getConf(), "import " + input);
+    FileInputFormat.addInputPath(currentJob, input);
+    currentJob.setInputFormatClass(ArchiveInputFormat.class);
+    currentJob.setMapperClass(ImportMapper.class);
+    currentJob.setMapOutputKeyClass(String.class);
+    currentJob.setMapOutputValueClass(WebPage.class);
+    currentJob.setOutputFormatClass(GoraOutputFormat.class);
+    DataStore<String, WebPage> store = StorageUtils.createWebStore(
+        currentJob.getConfiguration(), String.class, WebPage.class);
+    GoraOutputFormat.setOutput(currentJob, store, true);
+    currentJob.setNumReduceTasks(0);
+
+    long start = System.currentTimeMillis();
+    currentJob.waitForCompletion(true);
+    long elapsed = System.currentTimeMillis() - start;
+    ToolUtil.recordJobStatus(null, currentJob, results);
+    results.put(GeneratorJob.BATCH_ID, batchId);
+
+    long imported = currentJob.getCounters()
+        .findCounter(COUNTER_GROUP, "imported").getValue();
+    long bytes = currentJob.getCounters()
+        .findCounter(COUNTER_GROUP, "content_bytes").getValue();
+    LOG.info("ArchiveImportJob: imported " + throughput(imported, bytes, elapsed));
+    return results;
+  }
+
+  public String importArchives(Path input, String batchId) throws Exception {
+    SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    long start = System.currentTimeMillis();
+    LOG.info("ArchiveImportJob: starting at " + sdf.format(start));
+    LOG.info("ArchiveImportJob: importing " + input);
+    Map<String, Object> results = run(ToolUtil.toArgMap(
+        Nutch.ARG_SEEDDIR, input, Nutch.ARG_BATCH, batchId));
+    batchId = (String) results.get(GeneratorJob.BATCH_ID);
+    long finish = System.currentTimeMillis();
+    LOG.info("ArchiveImportJob: batch id " + batchId
+        + ", parse and update it like a fetched batch");
+    LOG.info("ArchiveImportJob: finished at " + sdf.format(finish)
+        + ", time elapsed: " + TimingUtil.elapsedTime(start, finish));
+    return batchId;
+  }
+
+  public int run(String[] args) throws Exception {
+    if (args.length < 1) {
+      System.err.println("Usage: ArchiveImportJob <arc_dir> [-batchId <id>] [-crawlId <id>]");
+      System.err.println("    <arc_dir>     - directory of ARC and WARC files, optionally gzipped per record");
+      System.err.println("    -batchId <id> - the batch id to mark the pages with (default: a new one)");
+      System.err.println("    -crawlId <id> - the id to prefix the schemas to operate on, \n \t \t    (default: storage.crawl.id)");
+      return -1;
+    }
+    String batchId = null;
+    for (int i = 1; i < args.length; i++) {
+      if ("-batchId".equals(args[i]) && i + 1 < args.length) {
+        batchId = args[++i];
+      } else if ("-crawlId".equals(args[i]) && i + 1 < args.length) {
+        getConf().set(Nutch.CRAWL_ID_KEY, args[++i]);
+      } else {
+        System.err.println("Unrecognized arg " + args[i]);
+        return -1;
+      }
+    }
+    importArchives(new Path(args[0]), batchId);
+    return 0;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int res = ToolRunner.run(NutchConfiguration.create(),
+        new ArchiveImportJob(), args);
+    System.exit(res);
+  }
+}
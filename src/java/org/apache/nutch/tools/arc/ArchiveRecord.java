@@ -0,0 +1,343 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.tools.arc;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * A record of an ARC or WARC file: the archived response for a URL.
+ * <p>
+ * Records are parsed from their raw bytes with {@link #parse(byte[], int)}.
+ * For WARC files only <code>response</code> and <code>resource</code>
+ * records carry content; other records (<code>warcinfo</code>,
+ * <code>request</code>, <code>metadata</code>, ...) and the
+ * <code>filedesc</code> header of ARC files are returned with their type
+ * only. If the archived block is an HTTP response, its status line and
+ * headers are split off the content, and chunked transfer encoding is
+ * removed.
+ */
+public class ArchiveRecord {
+
+  public static final String TYPE_RESPONSE = "response";
+  public static final String TYPE_RESOURCE = "resource";
+  public static final String TYPE_FILEDESC = "filedesc";
+
+  private String type;
+  private String url;
+  private long date;
+  private String contentType;
+  private int httpStatus;
+  private Map<String, String> headers = new LinkedHashMap<String, String>();
+  private byte[] content;
+
+  /** Parses dates of WARC (ISO 8601) and ARC (yyyyMMddHHmmss) headers. */
+  private final SimpleDateFormat warcDate;
+  private final SimpleDateFormat arcDate;
+
+  public ArchiveRecord() {
+    warcDate = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.ROOT);
+    warcDate.setTimeZone(TimeZone.getTimeZone("UTC"));
+    arcDate = new SimpleDateFormat("yyyyMMddHHmmss", Locale.ROOT);
+    arcDate.setTimeZone(TimeZone.getTimeZone("UTC"));
+  }
+
+  /** The WARC record type, {@link #TYPE_RESPONSE} for ARC records. */
+  public String getType() {
+    return type;
+  }
+
+  public String getUrl() {
+    return url;
+  }
+
+  /** The time the response was archived, in milliseconds. */
+  public long getDate() {
+    return date;
+  }
+
+  public String getContentType() {
+    return contentType;
+  }
+
+  /** The HTTP status code, 200 if the block is not an HTTP response. */
+  public int getHttpStatus() {
+    return httpStatus;
+  }
+
+  /** The HTTP response headers, empty if the block is not a response. */
+  public Map<String, String> getHeaders() {
+    return headers;
+  }
+
+  public String getHeader(String name) {
+    for (Map.Entry<String, String> header : headers.entrySet()) {
+      if (header.getKey().equalsIgnoreCase(name)) {
+        return header.getValue();
+      }
+    }
+    return null;
+  }
+
+  /** The payload of the response. */
+  public byte[] getContent() {
+    return content;
+  }
+
+  public boolean hasContent() {
+    return TYPE_RESPONSE.equals(type) || TYPE_RESOURCE.equals(type);
+  }
+
+  /**
+   * Parses a complete record, from the first header line to the end of its
+   * block.
+   *
+   * @throws IOException if the record is malformed
+   */
+  public void parse(byte[] data, int length) throws IOException {
+    type = null;
+    url = null;
+    date = 0;
+    contentType = null;
+    httpStatus = 200;
+    headers.clear();
+    content = null;
+    if (startsWith(data, 0, length, "WARC/")) {
+      parseWarc(data, length);
+    } else {
+      parseArc(data, length);
+    }
+  }
+
+  private void parseWarc(byte[] data, int length) throws IOException {
+    int pos = lineEnd(data, 0, length);
+    long contentLength = -1;
+    String blockType = null;
+    while (true) {
+      int end = lineEnd(data, pos, length);
+      String line = trimmedLine(data, pos, end);
+      pos = end;
+      if (line.length() == 0) {
+        break;
+      }
+      int colon = line.indexOf(':');
+      if (colon < 0) {
+        continue;
+      }
+      String name = line.substring(0, colon).trim();
+      String value = line.substring(colon + 1).trim();
+      if (name.equalsIgnoreCase("WARC-Type")) {
+        type = value;
+      } else if (name.equalsIgnoreCase("WARC-Target-URI")) {
+        // some writers wrap the URI in angle brackets
+        if (value.startsWith("<") && value.endsWith(">")) {
+          value = value.substring(1, value.length() - 1);
+        }
+        url = value;
+      } else if (name.equalsIgnoreCase("WARC-Date")) {
+        date = parseDate(warcDate, value);
+      } else if (name.equalsIgnoreCase("Content-Type")) {
+        blockType = value;
+      } else if (name.equalsIgnoreCase("Content-Length")) {
+        contentLength = parseLength(value);
+      }
+      if (pos >= length) {
+        break;
+      }
+    }
+    if (type == null) {
+      throw new IOException("WARC record without WARC-Type");
+    }
+    if (!hasContent()) {
+      return;
+    }
+    int blockEnd = contentLength < 0 ? length
+        : (int) Math.min(length, pos + contentLength);
+    if (blockType != null && blockType.startsWith("application/http")) {
+      parseHttp(data, pos, blockEnd);
+    } else {
+      contentType = blockType;
+      content = copy(data, pos, blockEnd);
+    }
+  }
+
+  private void parseArc(byte[] data, int length) throws IOException {
+    int pos = lineEnd(data, 0, length);
+    String[] fields = trimmedLine(data, 0, pos).split(" ");
+    if (fields.length < 5) {
+      throw new IOException("Malformed ARC header: "
+          + trimmedLine(data, 0, pos));
+    }
+    url = fields[0];
+    if (url.startsWith("filedesc:")) {
+      type = TYPE_FILEDESC;
+      return;
+    }
+    type = TYPE_RESPONSE;
+    date = parseDate(arcDate, fields[2]);
+    contentType = fields[3];
+    long contentLength = parseLength(fields[fields.length - 1]);
+    int blockEnd = (int) Math.min(length, pos + contentLength);
+    if (startsWith(data, pos, blockEnd, "HTTP/")) {
+      String arcType = contentType;
+      parseHttp(data, pos, blockEnd);
+      if (contentType == null) {
+        contentType = arcType;
+      }
+    } else {
+      content = copy(data, pos, blockEnd);
+    }
+  }
+
+  /** Splits an HTTP response into status, headers and payload. */
+  private void parseHttp(byte[] data, int pos, int end) throws IOException {
+    int lineEnd = lineEnd(data, pos, end);
+    String[] status = trimmedLine(data, pos, lineEnd).split(" ");
+    if (status.length < 2) {
+      throw new IOException("Malformed HTTP status line");
+    }
+    try {
+      httpStatus = Integer.parseInt(status[1]);
+    } catch (NumberFormatException e) {
+      throw new IOException("Malformed HTTP status line");
+    }
+    pos = lineEnd;
+    String last = null;
+    while (pos < end) {
+      lineEnd = lineEnd(data, pos, end);
+      String line = trimmedLine(data, pos, lineEnd);
+      boolean continuation = pos < end
+          && (data[pos] == ' ' || data[pos] == '\t');
+      pos = lineEnd;
+      if (line.length() == 0) {
+        break;
+      }
+      if (continuation && last != null) {
+        headers.put(last, headers.get(last) + " " + line);
+        continue;
+      }
+      int colon = line.indexOf(':');
+      if (colon < 0) {
+        continue;
+      }
+      last = line.substring(0, colon).trim();
+      String value = line.substring(colon + 1).trim();
+      String previous = headers.get(last);
+      headers.put(last, previous == null ? value : previous + ", " + value);
+    }
+    String type = getHeader("Content-Type");
+    if (type != null) {
+      contentType = type;
+    }
+    String encoding = getHeader("Transfer-Encoding");
+    if (encoding != null && encoding.toLowerCase(Locale.ROOT).contains("chunked")) {
+      content = dechunk(data, pos, end);
+    } else {
+      content = copy(data, pos, end);
+    }
+  }
+
+  /** Removes chunked transfer encoding, keeping what is there if truncated. */
+  static byte[] dechunk(byte[] data, int pos, int end) {
+    byte[] out = new byte[end - pos];
+    int length = 0;
+    while (pos < end) {
+      int lineEnd = lineEnd(data, pos, end);
+      String line = trimmedLine(data, pos, lineEnd);
+      int semicolon = line.indexOf(';');
+      if (semicolon >= 0) {
+        line = line.substring(0, semicolon);
+      }
+      int size;
+      try {
+        size = Integer.parseInt(line.trim(), 16);
+      } catch (NumberFormatException e) {
+        break;
+      }
+      pos = lineEnd;
+      if (size <= 0) {
+        break;
+      }
+      size = Math.min(size, end - pos);
+      System.arraycopy(data, pos, out, length, size);
+      length += size;
+      pos = lineEnd(data, pos + size, end);
+    }
+    return copy(out, 0, length);
+  }
+
+  private static long parseDate(SimpleDateFormat format, String value) {
+    try {
+      return format.parse(value).getTime();
+    } catch (ParseException e) {
+      return 0;
+    }
+  }
+
+  private static long parseLength(String value) throws IOException {
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      throw new IOException("Malformed record length: " + value);
+    }
+  }
+
+  /** Returns the position after the next LF, or <code>end</code>. */
+  static int lineEnd(byte[] data, int pos, int end) {
+    while (pos < end) {
+      if (data[pos++] == '\n') {
+        return pos;
+      }
+    }
+    return end;
+  }
+
+  private static String trimmedLine(byte[] data, int start, int end) {
+    while (end > start && (data[end - 1] == '\n' || data[end - 1] == '\r')) {
+      end--;
+    }
+    // header lines are ASCII, anything else is mapped one byte to one char
+    char[] chars = new char[end - start];
+    for (int i = start; i < end; i++) {
+      chars[i - start] = (char) (data[i] & 0xff);
+    }
+    return new String(chars).trim();
+  }
+
+  static boolean startsWith(byte[] data, int pos, int end, String prefix) {
+    if (end - pos < prefix.length()) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length(); i++) {
+      if (data[pos + i] != prefix.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static byte[] copy(byte[] data, int start, int end) {
+    byte[] copy = new byte[Math.max(0, end - start)];
+    System.arraycopy(data, start, copy, 0, copy.length);
+    return copy;
+  }
+}
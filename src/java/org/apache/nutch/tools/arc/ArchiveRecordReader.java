@@ -0,0 +1,429 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.tools.arc;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the records of an ARC or WARC file. The key is the offset of the
+ * record in the file.
+ * <p>
+ * Compressed files (<code>.arc.gz</code>, <code>.warc.gz</code>) hold every
+ * record in a gzip member of its own. Members are inflated one after the
+ * other, and as the inflater reports where a member ends the next one is
+ * read from there, without scanning. A split which does not start at the
+ * beginning of the file first looks for the next gzip header; a candidate
+ * only counts once it inflates to a record and matches the CRC of its
+ * trailer, so compressed bytes which look like a gzip header are skipped.
+ * A split reads all records whose member starts before its end.
+ * <p>
+ * Uncompressed files are not split and are read record by record using the
+ * lengths in the record headers.
+ */
+public class ArchiveRecordReader extends RecordReader<LongWritable, ArchiveRecord> {
+
+  public static final Logger LOG = LoggerFactory.getLogger(ArchiveRecordReader.class);
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private FSDataInputStream in;
+  private boolean compressed;
+  private long start;
+  private long end;
+
+  /** The bytes read from the file, starting at file position bufStart. */
+  private byte[] buf = new byte[BUFFER_SIZE];
+  private long bufStart;
+  private int bufLen;
+  private int bufPos;
+
+  /** The raw bytes of the current record. */
+  private byte[] record = new byte[BUFFER_SIZE];
+  private int recordLen;
+
+  /** The compressed size of the member read last. */
+  private long memberLength;
+
+  private final Inflater inflater = new Inflater(true);
+  private final CRC32 crc = new CRC32();
+
+  private LongWritable key = new LongWritable();
+  private ArchiveRecord value = new ArchiveRecord();
+  private long bytesRead;
+  private boolean synced;
+
+  @Override
+  public void initialize(InputSplit genericSplit, TaskAttemptContext context)
+      throws IOException {
+    FileSplit split = (FileSplit) genericSplit;
+    Configuration conf = context.getConfiguration();
+    Path path = split.getPath();
+    FileSystem fs = path.getFileSystem(conf);
+    initialize(fs.open(path), ArchiveInputFormat.isCompressed(path),
+        split.getStart(), split.getStart() + split.getLength());
+  }
+
+  void initialize(FSDataInputStream in, boolean compressed, long start,
+      long end) throws IOException {
+    this.in = in;
+    this.compressed = compressed;
+    this.start = start;
+    this.end = end;
+    seek(start);
+    synced = start == 0;
+  }
+
+  @Override
+  public boolean nextKeyValue() throws IOException {
+    while (position() < end) {
+      long offset = position();
+      if (!compressed) {
+        if (!readPlainRecord()) {
+          return false;
+        }
+      } else if (!synced || !readMember()) {
+        // at the start of a split, or garbage between members
+        seek(offset);
+        if (!syncMember()) {
+          return false;
+        }
+        offset = position() - memberLength;
+        if (offset >= end) {
+          return false;
+        }
+      }
+      synced = true;
+      bytesRead += position() - offset;
+      try {
+        value.parse(record, recordLen);
+      } catch (IOException e) {
+        LOG.warn("Skipping malformed record at offset " + offset + ": "
+            + e.getMessage());
+        continue;
+      }
+      key.set(offset);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Looks for the next gzip member which inflates to a valid record.
+   *
+   * @return false at the end of the file
+   */
+  private boolean syncMember() throws IOException {
+    while (true) {
+      if (!ensure(3)) {
+        return false;
+      }
+      if ((buf[bufPos] & 0xff) == 0x1f && (buf[bufPos + 1] & 0xff) == 0x8b
+          && buf[bufPos + 2] == 8) {
+        long candidate = position();
+        if (position() >= end) {
+          // the member belongs to the next split
+          memberLength = 0;
+          return true;
+        }
+        if (readMember()) {
+          return true;
+        }
+        seek(candidate + 1);
+      } else {
+        bufPos++;
+      }
+    }
+  }
+
+  /**
+   * Inflates the gzip member at the current position into the record
+   * buffer.
+   *
+   * @return false if there is no valid member at the current position, in
+   *         which case the position is undefined
+   */
+  private boolean readMember() throws IOException {
+    long memberStart = position();
+    recordLen = 0;
+    try {
+      if (!readGzipHeader()) {
+        return false;
+      }
+      inflater.reset();
+      crc.reset();
+      while (!inflater.finished()) {
+        if (inflater.needsInput()) {
+          if (!ensure(1)) {
+            return false;
+          }
+          inflater.setInput(buf, bufPos, bufLen - bufPos);
+          bufPos = bufLen;
+        }
+        if (recordLen == record.length) {
+          record = Arrays.copyOf(record, record.length * 2);
+        }
+        int n = inflater.inflate(record, recordLen, record.length - recordLen);
+        if (n == 0 && inflater.needsDictionary()) {
+          return false;
+        }
+        recordLen += n;
+      }
+      // hand back the input the inflater did not need
+      bufPos = bufLen - inflater.getRemaining();
+      crc.update(record, 0, recordLen);
+      if (!ensure(8)) {
+        return false;
+      }
+      long storedCrc = readIntLE() & 0xffffffffL;
+      long storedSize = readIntLE() & 0xffffffffL;
+      if (storedCrc != crc.getValue()
+          || storedSize != (recordLen & 0xffffffffL)) {
+        return false;
+      }
+    } catch (DataFormatException e) {
+      return false;
+    }
+    memberLength = position() - memberStart;
+    return true;
+  }
+
+  private boolean readGzipHeader() throws IOException {
+    if (!ensure(10)) {
+      return false;
+    }
+    if ((buf[bufPos] & 0xff) != 0x1f || (buf[bufPos + 1] & 0xff) != 0x8b
+        || buf[bufPos + 2] != 8) {
+      return false;
+    }
+    int flags = buf[bufPos + 3] & 0xff;
+    bufPos += 10;
+    if ((flags & 4) != 0) { // FEXTRA
+      if (!ensure(2)) {
+        return false;
+      }
+      int xlen = (buf[bufPos] & 0xff) | ((buf[bufPos + 1] & 0xff) << 8);
+      bufPos += 2;
+      if (!skip(xlen)) {
+        return false;
+      }
+    }
+    if ((flags & 8) != 0 && !skipZeroTerminated()) { // FNAME
+      return false;
+    }
+    if ((flags & 16) != 0 && !skipZeroTerminated()) { // FCOMMENT
+      return false;
+    }
+    if ((flags & 2) != 0 && !skip(2)) { // FHCRC
+      return false;
+    }
+    return true;
+  }
+
+  /** Reads an uncompressed record using the length in its header. */
+  private boolean readPlainRecord() throws IOException {
+    // skip the blank lines separating records
+    while (ensure(1) && (buf[bufPos] == '\r' || buf[bufPos] == '\n')) {
+      bufPos++;
+    }
+    recordLen = 0;
+    if (!readLine()) {
+      return false;
+    }
+    long length;
+    if (ArchiveRecord.startsWith(record, 0, recordLen, "WARC/")) {
+      length = -1;
+      while (true) {
+        int lineStart = recordLen;
+        if (!readLine()) {
+          return false;
+        }
+        String line = new String(record, lineStart, recordLen - lineStart,
+            "ISO-8859-1").trim();
+        if (line.length() == 0) {
+          break;
+        }
+        if (line.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+          length = parseLength(line.substring(15));
+        }
+      }
+      if (length < 0) {
+        throw new IOException("WARC record without Content-Length at "
+            + position());
+      }
+    } else {
+      String header = new String(record, 0, recordLen, "ISO-8859-1").trim();
+      length = parseLength(header.substring(header.lastIndexOf(' ') + 1));
+    }
+    if (recordLen + length > Integer.MAX_VALUE) {
+      throw new IOException("Record too large at " + position());
+    }
+    int total = (int) (recordLen + length);
+    if (record.length < total) {
+      record = Arrays.copyOf(record, Math.max(total, record.length * 2));
+    }
+    while (recordLen < total) {
+      if (!ensure(1)) {
+        break;
+      }
+      int n = Math.min(total - recordLen, bufLen - bufPos);
+      System.arraycopy(buf, bufPos, record, recordLen, n);
+      recordLen += n;
+      bufPos += n;
+    }
+    return true;
+  }
+
+  private static long parseLength(String value) throws IOException {
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      throw new IOException("Malformed record length: " + value);
+    }
+  }
+
+  /** Appends the next line, including its LF, to the record buffer. */
+  private boolean readLine() throws IOException {
+    boolean any = false;
+    while (ensure(1)) {
+      byte b = buf[bufPos++];
+      if (recordLen == record.length) {
+        record = Arrays.copyOf(record, record.length * 2);
+      }
+      record[recordLen++] = b;
+      any = true;
+      if (b == '\n') {
+        break;
+      }
+    }
+    return any;
+  }
+
+  private boolean skipZeroTerminated() throws IOException {
+    while (ensure(1)) {
+      if (buf[bufPos++] == 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean skip(int n) throws IOException {
+    while (n > 0) {
+      if (!ensure(1)) {
+        return false;
+      }
+      int skipped = Math.min(n, bufLen - bufPos);
+      bufPos += skipped;
+      n -= skipped;
+    }
+    return true;
+  }
+
+  private int readIntLE() {
+    int value = (buf[bufPos] & 0xff) | ((buf[bufPos + 1] & 0xff) << 8)
+        | ((buf[bufPos + 2] & 0xff) << 16) | ((buf[bufPos + 3] & 0xff) << 24);
+    bufPos += 4;
+    return value;
+  }
+
+  private long position() {
+    return bufStart + bufPos;
+  }
+
+  private void seek(long pos) throws IOException {
+    if (pos >= bufStart && pos <= bufStart + bufLen) {
+      bufPos = (int) (pos - bufStart);
+      return;
+    }
+    in.seek(pos);
+    bufStart = pos;
+    bufLen = 0;
+    bufPos = 0;
+  }
+
+  /**
+   * Makes sure at least <code>n</code> unread bytes are in the buffer.
+   *
+   * @return false if the file ends before
+   */
+  private boolean ensure(int n) throws IOException {
+    if (bufLen - bufPos >= n) {
+      return true;
+    }
+    // move the unread bytes to the front, then fill up
+    int unread = bufLen - bufPos;
+    System.arraycopy(buf, bufPos, buf, 0, unread);
+    bufStart += bufPos;
+    bufPos = 0;
+    bufLen = unread;
+    while (bufLen < n) {
+      int read = in.read(buf, bufLen, buf.length - bufLen);
+      if (read < 0) {
+        return false;
+      }
+      bufLen += read;
+    }
+    return true;
+  }
+
+  @Override
+  public LongWritable getCurrentKey() {
+    return key;
+  }
+
+  @Override
+  public ArchiveRecord getCurrentValue() {
+    return value;
+  }
+
+  /** The number of bytes of the file consumed by the records read so far. */
+  public long getBytesRead() {
+    return bytesRead;
+  }
+
+  @Override
+  public float getProgress() {
+    if (end == start) {
+      return 0.0f;
+    }
+    return Math.min(1.0f, (position() - start) / (float) (end - start));
+  }
+
+  @Override
+  public void close() throws IOException {
+    inflater.end();
+    if (in != null) {
+      in.close();
+    }
+  }
+}
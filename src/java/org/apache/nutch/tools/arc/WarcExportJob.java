@@ -0,0 +1,186 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.tools.arc;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.apache.avro.util.Utf8;
+import org.apache.gora.mapreduce.GoraMapper;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.nutch.crawl.GeneratorJob;
+import org.apache.nutch.metadata.Nutch;
+import org.apache.nutch.storage.Mark;
+import org.apache.nutch.storage.StorageUtils;
+import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.NutchConfiguration;
+import org.apache.nutch.util.NutchJob;
+import org.apache.nutch.util.NutchTool;
+import org.apache.nutch.util.TableUtil;
+import org.apache.nutch.util.TimingUtil;
+import org.apache.nutch.util.ToolUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Exports the fetched content of the web table to compressed WARC files,
+ * rolled by size and indexed by record offset (see {@link WarcFileWriter}).
+ * <p>
+ * Later passes can then read the content sequentially from the file system,
+ * e.g. with the {@link ArchiveInputFormat} or the {@link ArchiveImportJob},
+ * instead of scanning the store. Either all pages or the pages of a batch
+ * are exported; a batch is recognized by its fetch mark, or by its update
+ * mark once it has been parsed and updated. To archive content which is not
+ * kept in the store (<code>fetcher.store.content=false</code>), let the
+ * fetcher write the WARC files instead, see <code>fetcher.warc.dir</code>.
+ */
+public class WarcExportJob extends NutchTool implements Tool {
+
+  public static final Logger LOG = LoggerFactory.getLogger(WarcExportJob.class);
+
+  private static final String COUNTER_GROUP = "WarcExport";
+
+  private static final Collection<WebPage.Field> FIELDS = new HashSet<WebPage.Field>();
+
+  static {
+    FIELDS.add(WebPage.Field.STATUS);
+    FIELDS.add(WebPage.Field.FETCH_TIME);
+    FIELDS.add(WebPage.Field.PREV_FETCH_TIME);
+    FIELDS.add(WebPage.Field.CONTENT);
+    FIELDS.add(WebPage.Field.CONTENT_TYPE);
+    FIELDS.add(WebPage.Field.HEADERS);
+    FIELDS.add(WebPage.Field.MARKERS);
+  }
+
+  public static class ExportMapper extends
+      GoraMapper<String, WebPage, String, WebPage> {
+
+    private Utf8 batchId;
+
+    @Override
+    protected void setup(Context context) {
+      String id = context.getConfiguration().get(GeneratorJob.BATCH_ID,
+          Nutch.ALL_BATCH_ID_STR);
+      batchId = Nutch.ALL_BATCH_ID_STR.equals(id) ? null : new Utf8(id);
+    }
+
+    @Override
+    protected void map(String key, WebPage page, Context context)
+        throws IOException, InterruptedException {
+      if (batchId != null && !batchId.equals(Mark.FETCH_MARK.checkMark(page))
+          && !batchId.equals(Mark.UPDATEDB_MARK.checkMark(page))) {
+        return;
+      }
+      if (WarcFileWriter.httpStatus(page) < 0 || page.getContent() == null
+          || !page.getContent().hasRemaining()) {
+        context.getCounter(COUNTER_GROUP, "skipped").increment(1);
+        return;
+      }
+      context.write(TableUtil.unreverseUrl(key), page);
+      context.getCounter(COUNTER_GROUP, "records").increment(1);
+      context.getCounter(COUNTER_GROUP, "content_bytes").increment(
+          page.getContent().remaining());
+    }
+  }
+
+  public WarcExportJob() {
+  }
+
+  public WarcExportJob(Configuration conf) {
+    setConf(conf);
+  }
+
+  @Override
+  public Map<String, Object> run(Map<String, Object> args) throws Exception {
+    Object path = args.get(Nutch.ARG_OUTPUT);
+    Path output = path instanceof Path ? (Path) path : new Path(path.toString());
+    String crawlId = (String) args.get(Nutch.ARG_CRAWL);
+    if (crawlId != null) {
+      getConf().set(Nutch.CRAWL_ID_KEY, crawlId);
+    }
+    String batchId = (String) args.get(Nutch.ARG_BATCH);
+    getConf().set(GeneratorJob.BATCH_ID,
+        batchId == null ? Nutch.ALL_BATCH_ID_STR : batchId);
+
+    numJobs = 1;
+    currentJobNum = 0;
+    currentJob = new NutchJob(getConf(), "export " + output);
+    StorageUtils.initMapperJob(currentJob, FIELDS, String.class,
+        WebPage.class, ExportMapper.class);
+    currentJob.setNumReduceTasks(0);
+    currentJob.setOutputFormatClass(WarcOutputFormat.class);
+    FileOutputFormat.setOutputPath(currentJob, output);
+    currentJob.waitForCompletion(true);
+    ToolUtil.recordJobStatus(null, currentJob, results);
+    return results;
+  }
+
+  public void export(Path output, String batchId) throws Exception {
+    SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    long start = System.currentTimeMillis();
+    LOG.info("WarcExportJob: starting at " + sdf.format(start));
+    LOG.info("WarcExportJob: exporting "
+        + (batchId == null ? "all pages" : "batch " + batchId) + " to "
+        + output);
+    run(ToolUtil.toArgMap(Nutch.ARG_OUTPUT, output, Nutch.ARG_BATCH, batchId));
+    long records = currentJob.getCounters()
+        .findCounter(COUNTER_GROUP, "records").getValue();
+    long finish = System.currentTimeMillis();
+    LOG.info("WarcExportJob: exported " + records + " records");
+    LOG.info("WarcExportJob: finished at " + sdf.format(finish)
+        + ", time elapsed: " + TimingUtil.elapsedTime(start, finish));
+  }
+
+  public int run(String[] args) throws Exception {
+    if (args.length < 1) {
+      System.err.println("Usage: WarcExportJob <out_dir> [-batchId <id> | -all] [-crawlId <id>]");
+      System.err.println("    <out_dir>     - directory to write the WARC files and their index to");
+      System.err.println("    -batchId <id> - export the pages of this batch only");
+      System.err.println("    -all          - export all pages with content (default)");
+      System.err.println("    -crawlId <id> - the id to prefix the schemas to operate on, \n \t \t    (default: storage.crawl.id)");
+      return -1;
+    }
+    String batchId = null;
+    for (int i = 1; i < args.length; i++) {
+      if ("-batchId".equals(args[i]) && i + 1 < args.length) {
+        batchId = args[++i];
+      } else if ("-all".equals(args[i])) {
+        batchId = null;
+      } else if ("-crawlId".equals(args[i]) && i + 1 < args.length) {
+        getConf().set(Nutch.CRAWL_ID_KEY, args[++i]);
+      } else {
+        System.err.println("Unrecognized arg " + args[i]);
+        return -1;
+      }
+    }
+    export(new Path(args[0]), batchId);
+    return 0;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int res = ToolRunner.run(NutchConfiguration.create(),
+        new WarcExportJob(), args);
+    System.exit(res);
+  }
+}
@@ -0,0 +1,157 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.tools.arc;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.nutch.crawl.CrawlStatus;
+import org.apache.nutch.storage.Mark;
+import org.apache.nutch.storage.WebPage;
+
+/**
+ * Writes fetched pages to size-rolled, compressed WARC files in a directory,
+ * together with an index of the records.
+ * <p>
+ * The files are named <code>&lt;name&gt;-00000.warc.gz</code>,
+ * <code>&lt;name&gt;-00001.warc.gz</code>, ...; a file is closed and the
+ * next one started once it has grown beyond
+ * <code>warc.export.file.size</code> bytes. The index
+ * <code>&lt;name&gt;.idx</code> has a line per record, with the tab
+ * separated URL, WARC date, file name, offset and compressed length of the
+ * record, so a record can be read without scanning the file.
+ * <p>
+ * Pages are written if they have content and were fetched or redirected.
+ * Writing is synchronized, several threads may share a writer.
+ */
+public class WarcFileWriter {
+
+  public static final String FILE_SIZE_KEY = "warc.export.file.size";
+  public static final String COMPRESSION_LEVEL_KEY = "warc.export.compression.level";
+
+  private final FileSystem fs;
+  private final Path dir;
+  private final String name;
+  private final long maxSize;
+  private final int level;
+  private final String software;
+
+  private WarcWriter writer;
+  private String fileName;
+  private int files;
+  private Writer index;
+  private long records;
+  private boolean closed;
+
+  public WarcFileWriter(Configuration conf, FileSystem fs, Path dir,
+      String name) throws IOException {
+    this.fs = fs;
+    this.dir = dir;
+    this.name = name;
+    maxSize = conf.getLong(FILE_SIZE_KEY, 1024L * 1024 * 1024);
+    level = conf.getInt(COMPRESSION_LEVEL_KEY, 6);
+    software = conf.get("http.agent.name", "") + " (Nutch)";
+    index = new OutputStreamWriter(fs.create(new Path(dir, name + ".idx")),
+        "UTF-8");
+  }
+
+  /**
+   * The HTTP status to archive a page with, or -1 if the page has no
+   * response worth archiving.
+   */
+  public static int httpStatus(WebPage page) {
+    if (page.getStatus() == null) {
+      return -1;
+    }
+    switch (page.getStatus().intValue()) {
+    case CrawlStatus.STATUS_FETCHED:
+      return 200;
+    case CrawlStatus.STATUS_REDIR_PERM:
+      return 301;
+    case CrawlStatus.STATUS_REDIR_TEMP:
+      return 302;
+    default:
+      return -1;
+    }
+  }
+
+  /**
+   * The time the page was fetched: its fetch time until the page is
+   * updated, which moves it to the previous fetch time.
+   */
+  public static long fetchDate(WebPage page) {
+    if (Mark.FETCH_MARK.checkMark(page) != null || page.getPrevFetchTime() == null
+        || page.getPrevFetchTime() <= 0) {
+      return page.getFetchTime();
+    }
+    return page.getPrevFetchTime();
+  }
+
+  /**
+   * Writes a page.
+   *
+   * @return false if the page has no response to archive, or the writer
+   *         is closed
+   */
+  public synchronized boolean write(String url, WebPage page)
+      throws IOException {
+    int status = httpStatus(page);
+    if (closed || status < 0 || page.getContent() == null) {
+      return false;
+    }
+    if (writer == null) {
+      fileName = String.format("%s-%05d.warc.gz", name, files++);
+      OutputStream out = fs.create(new Path(dir, fileName));
+      writer = new WarcWriter(out, level);
+      writer.writeWarcinfo(fileName, software);
+    }
+    long date = fetchDate(page);
+    long offset = writer.writeResponse(url, date, status, page.getHeaders(),
+        page.getContentType() == null ? null : page.getContentType().toString(),
+        page.getContent());
+    index.write(url + "\t" + writer.formatDate(date) + "\t" + fileName + "\t"
+        + offset + "\t" + (writer.getPosition() - offset) + "\n");
+    records++;
+    if (writer.getPosition() >= maxSize) {
+      writer.close();
+      writer = null;
+    }
+    return true;
+  }
+
+  /** The number of records written. */
+  public synchronized long getRecords() {
+    return records;
+  }
+
+  public synchronized void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    if (writer != null) {
+      writer.close();
+      writer = null;
+    }
+    index.close();
+  }
+}
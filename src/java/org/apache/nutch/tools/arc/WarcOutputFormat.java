@@ -0,0 +1,55 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.tools.arc;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputCommitter;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.nutch.storage.WebPage;
+
+/**
+ * Writes pages, keyed by their URL, to WARC files. Every task writes its
+ * own files and index, see {@link WarcFileWriter}.
+ */
+public class WarcOutputFormat extends FileOutputFormat<String, WebPage> {
+
+  @Override
+  public RecordWriter<String, WebPage> getRecordWriter(
+      TaskAttemptContext context) throws IOException {
+    Configuration conf = context.getConfiguration();
+    Path dir = ((FileOutputCommitter) getOutputCommitter(context)).getWorkPath();
+    final WarcFileWriter writer = new WarcFileWriter(conf,
+        dir.getFileSystem(conf), dir, getUniqueFile(context, "part", ""));
+    return new RecordWriter<String, WebPage>() {
+
+      @Override
+      public void write(String url, WebPage page) throws IOException {
+        writer.write(url, page);
+      }
+
+      @Override
+      public void close(TaskAttemptContext context) throws IOException {
+        writer.close();
+      }
+    };
+  }
+}
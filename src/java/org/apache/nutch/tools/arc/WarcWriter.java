@@ -0,0 +1,248 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.tools.arc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.UUID;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes WARC records, every record compressed into a gzip member of its
+ * own, so that a record can be read from its offset alone and the files can
+ * be split by the {@link ArchiveInputFormat}.
+ * <p>
+ * The records are deflated as they are written, the payload straight from
+ * its buffer; one deflater is reused for all records.
+ */
+public class WarcWriter {
+
+  private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, 8, 0, 0, 0,
+      0, 0, 0, (byte) 0xff };
+  private static final byte[] CRLF = { '\r', '\n' };
+
+  private final OutputStream out;
+  private final Deflater deflater;
+  private final CRC32 crc = new CRC32();
+  private final byte[] deflated = new byte[64 * 1024];
+  private final ByteArrayOutputStream header = new ByteArrayOutputStream();
+  private final SimpleDateFormat warcDate;
+  private long position;
+  private long memberSize;
+
+  public WarcWriter(OutputStream out) {
+    this(out, Deflater.DEFAULT_COMPRESSION);
+  }
+
+  public WarcWriter(OutputStream out, int level) {
+    this.out = out;
+    deflater = new Deflater(level, true);
+    warcDate = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.ROOT);
+    warcDate.setTimeZone(TimeZone.getTimeZone("UTC"));
+  }
+
+  /** The number of compressed bytes written so far. */
+  public long getPosition() {
+    return position;
+  }
+
+  public String formatDate(long date) {
+    return warcDate.format(new Date(date));
+  }
+
+  /**
+   * Writes the <code>warcinfo</code> record which starts a WARC file.
+   *
+   * @return the offset of the record
+   */
+  public long writeWarcinfo(String filename, String software)
+      throws IOException {
+    byte[] block = ("software: " + software + "\r\nformat: WARC File Format 1.0\r\n")
+        .getBytes("UTF-8");
+    header.reset();
+    ascii("WARC/1.0\r\n");
+    field("WARC-Type", "warcinfo");
+    field("WARC-Record-ID", recordId());
+    field("WARC-Date", formatDate(System.currentTimeMillis()));
+    field("WARC-Filename", filename);
+    field("Content-Type", "application/warc-fields");
+    field("Content-Length", Integer.toString(block.length));
+    header.write(CRLF);
+    long offset = position;
+    beginMember();
+    deflate(header.toByteArray(), 0, header.size());
+    deflate(block, 0, block.length);
+    deflate(CRLF, 0, 2);
+    deflate(CRLF, 0, 2);
+    endMember();
+    return offset;
+  }
+
+  /**
+   * Writes a <code>response</code> record holding an HTTP response. The
+   * content is written as is: transfer and content encoding headers are
+   * dropped and <code>Content-Length</code> is set to its length.
+   *
+   * @param contentType
+   *          added as <code>Content-Type</code> header unless the headers
+   *          have one, may be null
+   * @return the offset of the record
+   */
+  public long writeResponse(String url, long date, int status,
+      Map<CharSequence, CharSequence> headers, String contentType,
+      ByteBuffer content) throws IOException {
+    int length = content == null ? 0 : content.remaining();
+
+    // the HTTP status line and headers start the block
+    header.reset();
+    ascii("HTTP/1.1 " + status + " " + reason(status) + "\r\n");
+    boolean hasType = false;
+    if (headers != null) {
+      for (Map.Entry<CharSequence, CharSequence> e : headers.entrySet()) {
+        String name = e.getKey().toString();
+        if (name.equalsIgnoreCase("Content-Length")
+            || name.equalsIgnoreCase("Content-Encoding")
+            || name.equalsIgnoreCase("Transfer-Encoding")) {
+          continue;
+        }
+        hasType |= name.equalsIgnoreCase("Content-Type");
+        field(name, e.getValue() == null ? "" : e.getValue().toString());
+      }
+    }
+    if (!hasType && contentType != null) {
+      field("Content-Type", contentType);
+    }
+    field("Content-Length", Integer.toString(length));
+    header.write(CRLF);
+    byte[] http = header.toByteArray();
+
+    header.reset();
+    ascii("WARC/1.0\r\n");
+    field("WARC-Type", "response");
+    field("WARC-Record-ID", recordId());
+    field("WARC-Date", formatDate(date));
+    field("WARC-Target-URI", url);
+    field("Content-Type", "application/http; msgtype=response");
+    field("Content-Length", Long.toString(http.length + (long) length));
+    header.write(CRLF);
+
+    long offset = position;
+    beginMember();
+    deflate(header.toByteArray(), 0, header.size());
+    deflate(http, 0, http.length);
+    if (length > 0) {
+      if (content.hasArray()) {
+        deflate(content.array(), content.arrayOffset() + content.position(),
+            length);
+      } else {
+        byte[] bytes = new byte[length];
+        content.duplicate().get(bytes);
+        deflate(bytes, 0, length);
+      }
+    }
+    deflate(CRLF, 0, 2);
+    deflate(CRLF, 0, 2);
+    endMember();
+    return offset;
+  }
+
+  public void close() throws IOException {
+    deflater.end();
+    out.close();
+  }
+
+  private static String reason(int status) {
+    switch (status) {
+    case 200: return "OK";
+    case 301: return "Moved Permanently";
+    case 302: return "Found";
+    case 303: return "See Other";
+    case 304: return "Not Modified";
+    case 307: return "Temporary Redirect";
+    case 308: return "Permanent Redirect";
+    case 404: return "Not Found";
+    case 410: return "Gone";
+    default: return "";
+    }
+  }
+
+  private static String recordId() {
+    return "<urn:uuid:" + UUID.randomUUID() + ">";
+  }
+
+  private void field(String name, String value) throws IOException {
+    // header values must not break the record into lines
+    header.write(name.getBytes("UTF-8"));
+    header.write(':');
+    header.write(' ');
+    header.write(value.replace('\r', ' ').replace('\n', ' ').getBytes("UTF-8"));
+    header.write(CRLF);
+  }
+
+  private void ascii(String s) throws IOException {
+    header.write(s.getBytes("US-ASCII"));
+  }
+
+  private void beginMember() throws IOException {
+    write(GZIP_HEADER, 0, GZIP_HEADER.length);
+    deflater.reset();
+    crc.reset();
+    memberSize = 0;
+  }
+
+  private void deflate(byte[] data, int offset, int length) throws IOException {
+    crc.update(data, offset, length);
+    memberSize += length;
+    deflater.setInput(data, offset, length);
+    while (!deflater.needsInput()) {
+      int n = deflater.deflate(deflated);
+      write(deflated, 0, n);
+    }
+  }
+
+  private void endMember() throws IOException {
+    deflater.finish();
+    while (!deflater.finished()) {
+      int n = deflater.deflate(deflated);
+      write(deflated, 0, n);
+    }
+    byte[] trailer = new byte[8];
+    writeIntLE(trailer, 0, (int) crc.getValue());
+    writeIntLE(trailer, 4, (int) memberSize);
+    write(trailer, 0, trailer.length);
+  }
+
+  private static void writeIntLE(byte[] b, int offset, int value) {
+    b[offset] = (byte) value;
+    b[offset + 1] = (byte) (value >>> 8);
+    b[offset + 2] = (byte) (value >>> 16);
+    b[offset + 3] = (byte) (value >>> 24);
+  }
+
+  private void write(byte[] data, int offset, int length) throws IOException {
+    out.write(data, offset, length);
+    position += length;
+  }
+}
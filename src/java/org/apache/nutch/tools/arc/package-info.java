@@ -17,6 +17,8 @@
 
 /**
  * Tools to read the
- * <a href="http://archive.org/web/researcher/ArcFileFormat.php">Arc file format</a>.
+ * <a href="http://archive.org/web/researcher/ArcFileFormat.php">Arc file format</a>
+ * and the WARC file format, and to import archived responses into the web
+ * table ({@link org.apache.nutch.tools.arc.ArchiveImportJob}).
  */
 package org.apache.nutch.tools.arc;
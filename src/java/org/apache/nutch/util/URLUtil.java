@@ -27,6 +27,39 @@ import org.apache.nutch.util.domain.DomainSuffixes;
 /** Utility class for URL analysis */
 public class URLUtil {
 
+  /**
+   * The last URL parsed by each thread. URL filters look at the same URL one
+   * after the other, and share the parsed URL this way.
+   */
+  private static final ThreadLocal<ParsedURL> LAST_PARSED = new ThreadLocal<ParsedURL>();
+
+  private static class ParsedURL {
+    final String spec;
+    final URL url;
+
+    ParsedURL(String spec, URL url) {
+      this.spec = spec;
+      this.url = url;
+    }
+  }
+
+  /**
+   * Parses a URL, the URL parsed last by this thread is reused if it is the
+   * same.
+   * @param url the url to parse
+   * @return the parsed url
+   * @throws MalformedURLException
+   */
+  public static URL toURL(String url) throws MalformedURLException {
+    ParsedURL last = LAST_PARSED.get();
+    if (last != null && last.spec.equals(url)) {
+      return last.url;
+    }
+    URL parsed = new URL(url);
+    LAST_PARSED.set(new ParsedURL(url, parsed));
+    return parsed;
+  }
+
   /**
    * Resolve relative URL-s and fix a java.net.URL error
    * in handling of URLs with pure query targets.
@@ -114,7 +147,7 @@ public class URLUtil {
    * @throws MalformedURLException
    */
   public static String getDomainName(String url) throws MalformedURLException {
-    return getDomainName(new URL(url));
+    return getDomainName(toURL(url));
   }
 
   /** Returns whether the given urls have the same domain name.
@@ -139,7 +172,7 @@ public class URLUtil {
   */
   public static boolean isSameDomainName(String url1, String url2)
     throws MalformedURLException {
-    return isSameDomainName(new URL(url1), new URL(url2));
+    return isSameDomainName(toURL(url1), toURL(url2));
   }
 
   /** Returns the {@link DomainSuffix} corresponding to the
@@ -169,7 +202,7 @@ public class URLUtil {
    * last public part of the hostname
    */
   public static DomainSuffix getDomainSuffix(String url) throws MalformedURLException {
-    return getDomainSuffix(new URL(url));
+    return getDomainSuffix(toURL(url));
   }
 
   /** Partitions of the hostname of the url by "."  */
@@ -185,7 +218,7 @@ public class URLUtil {
   /** Partitions of the hostname of the url by "."
    * @throws MalformedURLException */
   public static String[] getHostBatches(String url) throws MalformedURLException {
-   return getHostBatches(new URL(url));
+   return getHostBatches(toURL(url));
   }
 
   /**
@@ -353,7 +386,7 @@ public class URLUtil {
    */
   public static String getHost(String url) {
     try {
-      return new URL(url).getHost().toLowerCase();
+      return toURL(url).getHost().toLowerCase();
     }
     catch (MalformedURLException e) {
       return null;
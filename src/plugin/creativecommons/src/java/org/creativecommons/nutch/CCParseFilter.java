@@ -39,7 +39,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 
 /** Adds metadata identifying the Creative Commons license used, if any. */
-public class CCParseFilter implements ParseFilter {
+public class CCParseFilter implements DOMParseFilter {
   public static final Logger LOG = LoggerFactory.getLogger(CCParseFilter.class);
 
   /** Walks DOM tree, looking for RDF in comments and licenses in anchors. */
@@ -1,11 +1,16 @@
 package com.atlantbh.nutch.filter.xpath;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Pattern;
 
 import org.apache.commons.lang.StringEscapeUtils;
 import org.w3c.dom.Node;
 
 public class FilterUtils {
+
+	// Compiled regexes, the same few are matched on every page
+	private static final ConcurrentMap<String, Pattern> patterns = new ConcurrentHashMap<String, Pattern>();
 	
 	/**
 	 * Returns the same value. If null returns the defaultValue.
@@ -29,7 +34,7 @@ public class FilterUtils {
 		// Extract data
 		String value = null;
 		if (node instanceof Node) {
-			value = ((Node) node).getTextContent();
+			value = getTextContent((Node) node);
 		} else {
 			value = String.valueOf(node);
 		}
@@ -37,6 +42,40 @@ public class FilterUtils {
 		return value;
 	}
 	
+	/**
+	 * Same as {@link Node#getTextContent()}, but leaves out the content of
+	 * script elements.
+	 */
+	private static String getTextContent(Node node) {
+		switch (node.getNodeType()) {
+		case Node.ELEMENT_NODE:
+		case Node.DOCUMENT_FRAGMENT_NODE:
+			StringBuilder stringBuilder = new StringBuilder();
+			appendTextContent(node, stringBuilder);
+			return stringBuilder.toString();
+		default:
+			return node.getTextContent();
+		}
+	}
+
+	private static void appendTextContent(Node node, StringBuilder stringBuilder) {
+		for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+			switch (child.getNodeType()) {
+			case Node.ELEMENT_NODE:
+				if (!"script".equalsIgnoreCase(child.getNodeName())) {
+					appendTextContent(child, stringBuilder);
+				}
+				break;
+			case Node.TEXT_NODE:
+			case Node.CDATA_SECTION_NODE:
+				stringBuilder.append(child.getNodeValue());
+				break;
+			default:
+				break;
+			}
+		}
+	}
+
 	/**
 	 * Check's if the url math the regex. Regex null safe.
 	 * 
@@ -49,7 +88,11 @@ public class FilterUtils {
 		// Compile regex pattern
 		Pattern pattern = null;
 		if(regex != null) {
-			pattern = Pattern.compile(regex);
+			pattern = patterns.get(regex);
+			if (pattern == null) {
+				pattern = Pattern.compile(regex);
+				patterns.putIfAbsent(regex, pattern);
+			}
 		} 
 					
 		if(pattern != null) {
@@ -0,0 +1,79 @@
+package com.atlantbh.nutch.filter.xpath;
+
+import org.jaxen.BaseXPath;
+import org.jaxen.JaxenException;
+import org.jaxen.dom.DocumentNavigator;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Node;
+
+/**
+ * An XPath expression evaluated against the DOM tree built by the HTML
+ * parser, usually a DocumentFragment which is not attached to its document.
+ * Absolute paths start at the root of the tree the context node belongs to.
+ * Element and attribute names are matched in lower case and without a
+ * namespace, the way HtmlCleaner presents them, so that the same expressions
+ * work on trees built by NekoHTML and TagSoup.
+ * <p>
+ * Instances are compiled once and may be evaluated by several threads.
+ */
+public class HtmlXPath extends BaseXPath {
+
+	private static final long serialVersionUID = 1L;
+
+	public HtmlXPath(String xpathExpr) throws JaxenException {
+		super(xpathExpr, HtmlNavigator.INSTANCE);
+	}
+
+	static class HtmlNavigator extends DocumentNavigator {
+
+		private static final long serialVersionUID = 1L;
+
+		static final HtmlNavigator INSTANCE = new HtmlNavigator();
+
+		@Override
+		public Object getDocumentNode(Object contextNode) {
+			Node node = (Node) contextNode;
+			if (node instanceof Attr) {
+				node = ((Attr) node).getOwnerElement();
+			}
+			while (node.getParentNode() != null) {
+				node = node.getParentNode();
+			}
+			return node;
+		}
+
+		@Override
+		public String getElementNamespaceUri(Object element) {
+			return "";
+		}
+
+		@Override
+		public String getElementName(Object element) {
+			return lowerCase(super.getElementName(element));
+		}
+
+		@Override
+		public String getElementQName(Object element) {
+			return lowerCase(super.getElementQName(element));
+		}
+
+		@Override
+		public String getAttributeNamespaceUri(Object attr) {
+			return "";
+		}
+
+		@Override
+		public String getAttributeName(Object attr) {
+			return lowerCase(super.getAttributeName(attr));
+		}
+
+		@Override
+		public String getAttributeQName(Object attr) {
+			return lowerCase(super.getAttributeQName(attr));
+		}
+
+		private static String lowerCase(String name) {
+			return name == null ? null : name.toLowerCase();
+		}
+	}
+}
@@ -7,10 +7,16 @@ import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -24,9 +30,9 @@ import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.log4j.Logger;
 import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.parse.DOMParseFilter;
 import org.apache.nutch.parse.HTMLMetaTags;
 import org.apache.nutch.parse.Parse;
-import org.apache.nutch.parse.ParseFilter;
 import org.apache.nutch.parse.ParseStatusCodes;
 import org.apache.nutch.parse.ParseStatusUtils;
 import org.apache.nutch.storage.WebPage;
@@ -61,7 +67,7 @@ import com.atlantbh.nutch.filter.xpath.config.XPathIndexerPropertiesField;
  * @version 1.4
  * @since Apache Nutch 1.4
  */
-public class XPathHtmlParserFilter implements ParseFilter {
+public class XPathHtmlParserFilter implements DOMParseFilter {
 	
 	// Constants
 	private static final Logger log = Logger.getLogger(XPathHtmlParserFilter.class);
@@ -85,6 +91,14 @@ public class XPathHtmlParserFilter implements ParseFilter {
 	private HtmlCleaner cleaner;
 	private DomSerializer domSerializer;
 	private DocumentBuilder documentBuilder;
+	
+	// Compiled xpath expressions, for the parser's DOM tree and for documents parsed here
+	private final ConcurrentMap<String, XPath> htmlXPaths = new ConcurrentHashMap<String, XPath>();
+	private final ConcurrentMap<String, XPath> xmlXPaths = new ConcurrentHashMap<String, XPath>();
+	
+	// Evaluation time (ns) and count per xpath expression
+	private final ConcurrentMap<String, AtomicLong> evaluationTimes = new ConcurrentHashMap<String, AtomicLong>();
+	private final ConcurrentMap<String, AtomicLong> evaluationCounts = new ConcurrentHashMap<String, AtomicLong>();
 
 	public XPathHtmlParserFilter() {
 		init();
@@ -116,8 +130,113 @@ public class XPathHtmlParserFilter implements ParseFilter {
 	private void initConfig() {
 
 		// Initialize configuration
-		xpathFilterConfiguration  = XPathFilterConfiguration.getInstance(configuration);
+		initConfig(XPathFilterConfiguration.getInstance(configuration));
+	}
+	
+	/**
+	 * Uses the given expressions instead of those read from the file set by filter.xpath.file.
+	 */
+	void setConf(Configuration configuration, XPathFilterConfiguration xpathFilterConfiguration) {
+		this.configuration = configuration;
+		initConfig(xpathFilterConfiguration);
+	}
+	
+	private void initConfig(XPathFilterConfiguration xpathFilterConfiguration) {
+		
+		this.xpathFilterConfiguration = xpathFilterConfiguration;
 		defaultEncoding = configuration.get("parser.character.encoding.default", "UTF-8");
+		
+		// Compile all expressions up front
+		htmlXPaths.clear();
+		xmlXPaths.clear();
+		if(xpathFilterConfiguration == null) {
+			return;
+		}
+		for(XPathIndexerProperties xPathIndexerProperties : xpathFilterConfiguration.getXPathIndexerPropertiesList()) {
+			List<String> expressions = new ArrayList<String>();
+			if(xPathIndexerProperties.getPageContentFilterXPath() != null) {
+				expressions.add(xPathIndexerProperties.getPageContentFilterXPath());
+			}
+			for(XPathIndexerPropertiesField xPathIndexerPropertiesField : xPathIndexerProperties.getXPathIndexerPropertiesFieldList()) {
+				expressions.add(xPathIndexerPropertiesField.getXPath());
+			}
+			for(String expression : expressions) {
+				try {
+					getXPath(expression, true);
+					getXPath(expression, false);
+				} catch (JaxenException e) {
+					log.error("XPath error in " + expression + ": " + e.getMessage());
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Returns the compiled expression, compiling it on first use.
+	 * 
+	 * @param html True for the DOM tree of the HTML parser, see {@link HtmlXPath}.
+	 */
+	private XPath getXPath(String expression, boolean html) throws JaxenException {
+		ConcurrentMap<String, XPath> xPaths = html ? htmlXPaths : xmlXPaths;
+		XPath xPath = xPaths.get(expression);
+		if(xPath == null) {
+			xPath = html ? new HtmlXPath(expression) : new DOMXPath(expression);
+			xPaths.putIfAbsent(expression, xPath);
+		}
+		return xPath;
+	}
+	
+	/**
+	 * Evaluates the expression and records the time it took.
+	 */
+	private List<?> selectNodes(String expression, Object root, boolean html) throws JaxenException {
+		XPath xPath = getXPath(expression, html);
+		long start = System.nanoTime();
+		List<?> nodeList = xPath.selectNodes(root);
+		addTime(evaluationTimes, expression, System.nanoTime() - start);
+		addTime(evaluationCounts, expression, 1);
+		return nodeList;
+	}
+	
+	private static void addTime(ConcurrentMap<String, AtomicLong> map, String expression, long value) {
+		AtomicLong total = map.get(expression);
+		if(total == null) {
+			map.putIfAbsent(expression, new AtomicLong());
+			total = map.get(expression);
+		}
+		total.addAndGet(value);
+	}
+	
+	/**
+	 * @return Total time in nanoseconds spent evaluating the expression.
+	 */
+	public long getEvaluationTime(String expression) {
+		AtomicLong time = evaluationTimes.get(expression);
+		return time == null ? 0 : time.get();
+	}
+	
+	/**
+	 * @return Number of times the expression was evaluated.
+	 */
+	public long getEvaluationCount(String expression) {
+		AtomicLong count = evaluationCounts.get(expression);
+		return count == null ? 0 : count.get();
+	}
+	
+	/**
+	 * @return One line per expression with its number of evaluations, total and average time.
+	 */
+	public String getTimingReport() {
+		StringBuilder report = new StringBuilder();
+		Map<String, AtomicLong> sorted = new TreeMap<String, AtomicLong>(evaluationTimes);
+		for(Map.Entry<String, AtomicLong> entry : sorted.entrySet()) {
+			long count = getEvaluationCount(entry.getKey());
+			double millis = entry.getValue().get() / 1000000.0;
+			report.append(entry.getKey()).append(": ").append(count).append(" calls, ")
+				.append(String.format("%.3f", millis)).append(" ms total, ")
+				.append(String.format("%.3f", count == 0 ? 0 : millis / count)).append(" ms avg\n");
+		}
+		return report.toString();
 	}
 
 	@Override
@@ -144,6 +263,34 @@ public class XPathHtmlParserFilter implements ParseFilter {
 	}
 	
 	
+	/**
+	 * Checks that the tree of the HTML parser has a single html element at its top, with all text
+	 * inside of it, as the tree of HtmlCleaner has. NekoHTML leaves text in front of the first tag
+	 * outside of the html element, where expressions starting at /html would miss it.
+	 */
+	static boolean hasHtmlRoot(DocumentFragment doc) {
+		boolean html = false;
+		for(Node node = doc.getFirstChild(); node != null; node = node.getNextSibling()) {
+			switch(node.getNodeType()) {
+			case Node.ELEMENT_NODE:
+				if(html || !"html".equalsIgnoreCase(node.getNodeName())) {
+					return false;
+				}
+				html = true;
+				break;
+			case Node.TEXT_NODE:
+			case Node.CDATA_SECTION_NODE:
+				if(!FilterUtils.isMadeOf(node.getNodeValue(), " \n\r\t")) {
+					return false;
+				}
+				break;
+			default:
+				// comments, doctype and processing instructions are not part of HtmlCleaner's tree either
+			}
+		}
+		return html;
+	}
+	
 	@Override
 	public Parse filter(String url, WebPage page, Parse parse,
 			HTMLMetaTags metaTags, DocumentFragment doc) {
@@ -151,30 +298,41 @@ public class XPathHtmlParserFilter implements ParseFilter {
 		byte[] rawContent = page.getContent().array();
 		Metadata metadata = new Metadata();
 		try {
-			Document cleanedXmlHtml = documentBuilder.newDocument();
-			if(htmlMimeTypes.contains(page.getContentType().toString())) {
-		
+			// The tree the expressions are evaluated against
+			Object root;
+			boolean html = false;
+			if(htmlMimeTypes.contains(page.getContentType().toString()) && doc != null && hasHtmlRoot(doc)) {
 				
-				String encoding = defaultEncoding;
-				ByteBuffer buffer = page.getMetadata().get(new Utf8(Metadata.ORIGINAL_CHAR_ENCODING));
-				if(buffer != null)
-					encoding = Bytes.toString(buffer.array());
-				
-				// Create reader so the input can be read in UTF-8
-				Reader rawContentReader = new InputStreamReader(new ByteArrayInputStream(rawContent), encoding);
+				// Use the DOM tree of the HTML parser as it is, it is shared with other filters
+				root = doc;
+				html = true;
+			} else {
+				Document cleanedXmlHtml = documentBuilder.newDocument();
+				if(htmlMimeTypes.contains(page.getContentType().toString())) {
+			
+					
+					String encoding = defaultEncoding;
+					ByteBuffer buffer = page.getMetadata().get(new Utf8(Metadata.ORIGINAL_CHAR_ENCODING));
+					if(buffer != null)
+						encoding = Bytes.toString(buffer.array());
+					
+					// Create reader so the input can be read in UTF-8
+					Reader rawContentReader = new InputStreamReader(new ByteArrayInputStream(rawContent), encoding);
+					
+					// Use the cleaner to "clean" the HTML and return it as a TagNode object
+					TagNode tagNode = cleaner.clean(rawContentReader);
+					cleanedXmlHtml = domSerializer.createDOM(tagNode);
+				} else if(page.getContentType().toString().contains(new StringBuilder("/xml")) || page.getContentType().toString().contains(new StringBuilder("+xml"))) {
+					
+					// Parse as xml - don't clean
+					cleanedXmlHtml = documentBuilder.parse(new InputSource(new ByteArrayInputStream(rawContent)));	
+				} 
 				
-				// Use the cleaner to "clean" the HTML and return it as a TagNode object
-				TagNode tagNode = cleaner.clean(rawContentReader);
-				cleanedXmlHtml = domSerializer.createDOM(tagNode);
-			} else if(page.getContentType().toString().contains(new StringBuilder("/xml")) || page.getContentType().toString().contains(new StringBuilder("+xml"))) {
+				removeAll(cleanedXmlHtml, Node.ELEMENT_NODE, "script");
 				
-				// Parse as xml - don't clean
-				cleanedXmlHtml = documentBuilder.parse(new InputSource(new ByteArrayInputStream(rawContent)));	
-			} 
-			
-			removeAll(cleanedXmlHtml, Node.ELEMENT_NODE, "script");
-			
-			cleanedXmlHtml.normalize();
+				cleanedXmlHtml.normalize();
+				root = cleanedXmlHtml;
+			}
 			
 			// Once the HTML is cleaned, then you can run your XPATH expressions on the node, 
 			// which will then return an array of TagNode objects 
@@ -185,14 +343,13 @@ public class XPathHtmlParserFilter implements ParseFilter {
 				//****************************
 				// CORE XPATH EVALUATION
 				//****************************
-				if(pageToProcess(xPathIndexerProperties, cleanedXmlHtml, page.getBaseUrl().toString())) {
+				if(pageToProcess(xPathIndexerProperties, root, html, page.getBaseUrl().toString())) {
 					
 					List<XPathIndexerPropertiesField> xPathIndexerPropertiesFieldList = xPathIndexerProperties.getXPathIndexerPropertiesFieldList();
 					for(XPathIndexerPropertiesField xPathIndexerPropertiesField : xPathIndexerPropertiesFieldList) {
 						
 						// Evaluate xpath			
-						XPath xPath = new DOMXPath(xPathIndexerPropertiesField.getXPath());
-						List nodeList = xPath.selectNodes(cleanedXmlHtml);
+						List<?> nodeList = selectNodes(xPathIndexerPropertiesField.getXPath(), root, html);
 						
 						// Trim?
 						boolean trim = FilterUtils.getNullSafe(xPathIndexerPropertiesField.getTrimXPathData(), true);
@@ -241,6 +398,10 @@ public class XPathHtmlParserFilter implements ParseFilter {
 				}
 			}
 			
+			if(log.isDebugEnabled()) {
+				log.debug("XPath evaluation times:\n" + getTimingReport());
+			}
+			
 		} catch (IOException e) {
 			// This can never happen because it's an in memory stream
 		} catch(PatternSyntaxException e) {
@@ -264,7 +425,7 @@ public class XPathHtmlParserFilter implements ParseFilter {
 		return parse;
 	}
 	
-	private boolean pageToProcess(XPathIndexerProperties xPathIndexerProperties, Document cleanedXmlHtml, String url) throws JaxenException {
+	private boolean pageToProcess(XPathIndexerProperties xPathIndexerProperties, Object root, boolean html, String url) throws JaxenException {
 
 		boolean processPage = true;
 
@@ -283,8 +444,7 @@ public class XPathHtmlParserFilter implements ParseFilter {
 		// *************************************
 
 		if (xPathIndexerProperties.getPageContentFilterXPath() != null) {
-			XPath xPathPageContentFilter = new DOMXPath(xPathIndexerProperties.getPageContentFilterXPath());
-			List pageContentFilterNodeList = xPathPageContentFilter.selectNodes(cleanedXmlHtml);
+			List<?> pageContentFilterNodeList = selectNodes(xPathIndexerProperties.getPageContentFilterXPath(), root, html);
 			boolean trim = FilterUtils.getNullSafe(xPathIndexerProperties.isTrimPageContentFilterXPathData(), true);
 			
 			if (FilterUtils.getNullSafe(xPathIndexerProperties.isConcatPageContentFilterXPathData(), false)) {
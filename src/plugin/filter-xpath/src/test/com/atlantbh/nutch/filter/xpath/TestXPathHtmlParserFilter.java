@@ -0,0 +1,191 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atlantbh.nutch.filter.xpath;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.avro.util.Utf8;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.html.dom.HTMLDocumentImpl;
+import org.apache.nutch.parse.HTMLMetaTags;
+import org.apache.nutch.parse.Parse;
+import org.apache.nutch.parse.html.DOMBuilder;
+import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.Bytes;
+import org.apache.nutch.util.NutchConfiguration;
+import org.cyberneko.html.parsers.DOMFragmentParser;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.DocumentFragment;
+import org.xml.sax.InputSource;
+
+import com.atlantbh.nutch.filter.xpath.config.FieldType;
+import com.atlantbh.nutch.filter.xpath.config.XPathFilterConfiguration;
+import com.atlantbh.nutch.filter.xpath.config.XPathIndexerProperties;
+import com.atlantbh.nutch.filter.xpath.config.XPathIndexerPropertiesField;
+
+/**
+ * Compares the values extracted from the DOM trees of NekoHTML and TagSoup,
+ * as built by parse-html, with those extracted from the tree of HtmlCleaner.
+ */
+public class TestXPathHtmlParserFilter {
+
+	private static final String[] EXPRESSIONS = {
+		"/html/head/title",
+		"/html/body/div[2]/p",
+		"//div[@id='main']/p",
+		"//DIV[@ID='main']/P",
+		"//a/@href",
+		"/html/body",
+		"count(//p)",
+		"//p[contains(., 'second')]/text()",
+		"//table//td",
+	};
+
+	private static final String FULL_PAGE = "<!DOCTYPE html>\n"
+		+ "<html><head><title>A title</title>"
+		+ "<script>var x = 'script text';</script></head>\n"
+		+ "<BODY><div>header</div>\n"
+		+ "<DIV ID=\"main\"><p>first <b>paragraph</b></p>"
+		+ "<p>second &amp; <a HREF=\"/link\">link</a></p></DIV>\n"
+		+ "<table><tr><td>cell 1<td>cell 2</table>"
+		+ "<script>document.write('more script');</script>"
+		+ "</BODY></html>";
+
+	private static final String NO_HEAD = "<html><body><div>header</div>"
+		+ "<div id=\"main\"><p>first</p><p>second</p></div></body></html>";
+
+	private Configuration conf;
+	private XPathHtmlParserFilter filter;
+
+	@Before
+	public void setUp() {
+		conf = NutchConfiguration.create();
+		List<XPathIndexerPropertiesField> fields = new ArrayList<XPathIndexerPropertiesField>();
+		for (int i = 0; i < EXPRESSIONS.length; i++) {
+			XPathIndexerPropertiesField field = new XPathIndexerPropertiesField("field" + i, EXPRESSIONS[i], FieldType.STRING);
+			field.setConcat(true);
+			field.setConcatDelimiter("|");
+			fields.add(field);
+		}
+		List<XPathIndexerProperties> properties = new ArrayList<XPathIndexerProperties>();
+		properties.add(new XPathIndexerProperties(fields));
+		filter = new XPathHtmlParserFilter();
+		filter.setConf(conf, new XPathFilterConfiguration(properties));
+	}
+
+	/** Runs the filter, returns the extracted values by field name. */
+	private Map<String, String> filter(String html, DocumentFragment doc) {
+		WebPage page = WebPage.newBuilder().build();
+		page.setBaseUrl(new Utf8("http://example.com/"));
+		page.setContent(ByteBuffer.wrap(Bytes.toBytes(html)));
+		page.setContentType(new Utf8("text/html"));
+		filter.filter("http://example.com/", page, new Parse(), new HTMLMetaTags(), doc);
+		Map<String, String> values = new TreeMap<String, String>();
+		for (Map.Entry<CharSequence, ByteBuffer> e : page.getMetadata().entrySet()) {
+			values.put(e.getKey().toString(), Bytes.toString(e.getValue()));
+		}
+		return values;
+	}
+
+	/** Same parser settings as parse-html with parser.html.impl=neko. */
+	private static DocumentFragment parseNeko(String html) throws Exception {
+		DOMFragmentParser parser = new DOMFragmentParser();
+		parser.setFeature("http://cyberneko.org/html/features/scanner/allow-selfclosing-iframe", true);
+		parser.setFeature("http://cyberneko.org/html/features/augmentations", true);
+		parser.setProperty("http://cyberneko.org/html/properties/default-encoding", "UTF-8");
+		parser.setFeature("http://cyberneko.org/html/features/scanner/ignore-specified-charset", true);
+		parser.setFeature("http://cyberneko.org/html/features/balance-tags/ignore-outside-content", false);
+		parser.setFeature("http://cyberneko.org/html/features/balance-tags/document-fragment", true);
+		HTMLDocumentImpl doc = new HTMLDocumentImpl();
+		doc.setErrorChecking(false);
+		DocumentFragment frag = doc.createDocumentFragment();
+		parser.parse(input(html), frag);
+		return frag;
+	}
+
+	/** Same parser settings as parse-html with parser.html.impl=tagsoup. */
+	private static DocumentFragment parseTagSoup(String html) throws Exception {
+		HTMLDocumentImpl doc = new HTMLDocumentImpl();
+		DocumentFragment frag = doc.createDocumentFragment();
+		DOMBuilder builder = new DOMBuilder(doc, frag);
+		org.ccil.cowan.tagsoup.Parser reader = new org.ccil.cowan.tagsoup.Parser();
+		reader.setContentHandler(builder);
+		reader.setFeature(org.ccil.cowan.tagsoup.Parser.ignoreBogonsFeature, true);
+		reader.setFeature(org.ccil.cowan.tagsoup.Parser.bogonsEmptyFeature, false);
+		reader.setProperty("http://xml.org/sax/properties/lexical-handler", builder);
+		reader.parse(input(html));
+		return frag;
+	}
+
+	private static InputSource input(String html) {
+		InputSource input = new InputSource(new ByteArrayInputStream(Bytes.toBytes(html)));
+		input.setEncoding("UTF-8");
+		return input;
+	}
+
+	private void testPage(String html) throws Exception {
+		Map<String, String> cleaned = filter(html, null);
+		assertEquals(cleaned, filter(html, parseNeko(html)));
+		assertEquals(cleaned, filter(html, parseTagSoup(html)));
+	}
+
+	@Test
+	public void testFullPage() throws Exception {
+		Map<String, String> values = filter(FULL_PAGE, null);
+		assertEquals("A title", values.get("field0"));
+		assertEquals("first paragraph|second & link", values.get("field1"));
+		assertEquals("/link", values.get("field4"));
+		assertEquals("2.0", values.get("field6"));
+		assertFalse(values.get("field5").contains("script"));
+		testPage(FULL_PAGE);
+	}
+
+	@Test
+	public void testNoHead() throws Exception {
+		testPage(NO_HEAD);
+	}
+
+	@Test
+	public void testBodyOnly() throws Exception {
+		testPage("<div>header</div><div id=\"main\"><p>first</p>"
+			+ "<p>second <a href=\"/link\">link</a></p></div>");
+	}
+
+	@Test
+	public void testTextBeforeBody() throws Exception {
+		String html = "some text<div id=\"main\"><p>first</p></div><p>second</p>";
+		// NekoHTML leaves the text outside of the html element
+		assertFalse(XPathHtmlParserFilter.hasHtmlRoot(parseNeko(html)));
+		assertTrue(XPathHtmlParserFilter.hasHtmlRoot(parseTagSoup(html)));
+		testPage(html);
+	}
+
+	@Test
+	public void testUnbalancedTags() throws Exception {
+		testPage("<html><head><title>A title</head><body>"
+			+ "<div>header<div id=main><p>first<p>second <i>link</div>"
+			+ "<table><tr><td>cell 1<tr><td>cell 2</table><br></body></html>");
+	}
+}
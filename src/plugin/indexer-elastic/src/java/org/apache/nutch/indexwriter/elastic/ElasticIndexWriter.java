@@ -22,6 +22,7 @@ import static org.elasticsearch.node.NodeBuilder.nodeBuilder;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import org.apache.commons.lang.StringUtils;
@@ -67,6 +68,7 @@ public class ElasticIndexWriter implements IndexWriter {
   private int maxBulkDocs;
   private int maxBulkLength;
   private long indexedDocs = 0;
+  private long deletedDocs = 0;
   private int bulkDocs = 0;
   private int bulkLength = 0;
   private boolean createNewBulk = false;
@@ -166,10 +168,24 @@ public class ElasticIndexWriter implements IndexWriter {
       builder.setIndex(defaultIndex);
       builder.setType("doc");
       builder.setId(key);
-      builder.execute().actionGet();
+
+      // Add this delete request to the bulk request
+      bulk.add(builder);
+      deletedDocs++;
+      bulkDocs++;
+      bulkLength += key.length();
     } catch (ElasticsearchException e) {
       throw makeIOException(e);
     }
+
+    if (bulkDocs >= maxBulkDocs || bulkLength >= maxBulkLength) {
+      LOG.info("Processing bulk request [docs = " + bulkDocs + ", length = "
+          + bulkLength + ", total deleted docs = " + deletedDocs
+          + ", last deleted doc in bulk = '" + key + "']");
+      // Flush the bulk of delete requests
+      createNewBulk = true;
+      commit();
+    }
   }
 
   public static IOException makeIOException(ElasticsearchException e) {
@@ -221,7 +237,8 @@ public class ElasticIndexWriter implements IndexWriter {
   public void close() throws IOException {
     // Flush pending requests
     LOG.info("Processing remaining requests [docs = " + bulkDocs
-        + ", length = " + bulkLength + ", total docs = " + indexedDocs + "]");
+        + ", length = " + bulkLength + ", total docs = " + indexedDocs
+        + ", total deleted docs = " + deletedDocs + "]");
     createNewBulk = false;
     commit();
     // flush one more time to finalize the last bulk
@@ -236,6 +253,14 @@ public class ElasticIndexWriter implements IndexWriter {
     }
   }
 
+  @Override
+  public Map<String, Long> getCounters() {
+    Map<String, Long> counters = new LinkedHashMap<String, Long>();
+    counters.put("indexedDocs", indexedDocs);
+    counters.put("deletedDocs", deletedDocs);
+    return counters;
+  }
+
   @Override
   public String describe() {
     StringBuffer sb = new StringBuffer("ElasticIndexWriter\n");
@@ -25,6 +25,14 @@ public interface SolrConstants {
   
   public static final String COMMIT_INDEX = SOLR_PREFIX + "commit.index";
 
+  public static final String DELETE_SIZE = SOLR_PREFIX + "delete.size";
+
+  public static final String ASYNC_THREADS = SOLR_PREFIX + "async.threads";
+
+  public static final String RETRY_MAX = SOLR_PREFIX + "retry.max";
+
+  public static final String RETRY_BACKOFF = SOLR_PREFIX + "retry.backoff";
+
   public static final String MAPPING_FILE = SOLR_PREFIX + "mapping.file";
 
   public static final String USE_AUTH = SOLR_PREFIX + "auth";
@@ -17,9 +17,20 @@
 package org.apache.nutch.indexwriter.solr;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,6 +41,7 @@ import org.apache.nutch.indexer.IndexWriter;
 import org.apache.solr.client.solrj.SolrServer;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.impl.HttpSolrServer;
+import org.apache.solr.common.SolrException;
 import org.apache.solr.common.SolrInputDocument;
 
 public class SolrIndexWriter implements IndexWriter {
@@ -45,16 +57,54 @@ public class SolrIndexWriter implements IndexWriter {
   private final List<SolrInputDocument> inputDocs = new ArrayList<SolrInputDocument>();
 
   private int batchSize;
+  private final Set<String> deleteIds = new LinkedHashSet<String>();
+  private int deleteBatchSize;
   private int numDeletes = 0;
   private boolean delete = false;
 
   protected static long documentCount = 0;
 
+  private int maxRetries;
+  private long retryBackoff;
+
+  // only set if solr.async.threads > 0
+  private ExecutorService senders;
+  private Semaphore sendPermits;
+  private int maxInFlight;
+  private volatile IOException sendFailure;
+
+  private final AtomicInteger batchesInFlight = new AtomicInteger(0);
+  private final AtomicLong batchesSent = new AtomicLong(0);
+  private final AtomicLong retries = new AtomicLong(0);
+
   @Override
   public void open(Configuration conf) throws IOException {
-    solr = SolrUtils.getHttpSolrServer(conf);
+    open(conf, SolrUtils.getHttpSolrServer(conf));
+  }
+
+  void open(Configuration conf, HttpSolrServer solr) throws IOException {
+    this.solr = solr;
     batchSize = conf.getInt(SolrConstants.COMMIT_SIZE, 1000);
+    deleteBatchSize = conf.getInt(SolrConstants.DELETE_SIZE, 1000);
     solrMapping = SolrMappingReader.getInstance(conf);
+    maxRetries = conf.getInt(SolrConstants.RETRY_MAX, 3);
+    retryBackoff = conf.getLong(SolrConstants.RETRY_BACKOFF, 1000);
+    int threads = conf.getInt(SolrConstants.ASYNC_THREADS, 0);
+    if (threads > 0) {
+      // one batch per sender thread plus one waiting for each
+      maxInFlight = threads * 2;
+      sendPermits = new Semaphore(maxInFlight);
+      senders = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger(0);
+
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "solr-sender-" + count.incrementAndGet());
+          t.setDaemon(true);
+          return t;
+        }
+      });
+      LOG.info("Sending batches to SOLR with " + threads + " threads");
+    }
   }
 
   @Override
@@ -76,16 +126,152 @@ public class SolrIndexWriter implements IndexWriter {
       }
     }
     inputDoc.setDocumentBoost(doc.getScore());
+    // the document replaces any older one, a delete buffered before would
+    // only be sent after it
+    String id = doc.getFieldValue(SolrConstants.ID_FIELD);
+    if (id != null) {
+      deleteIds.remove(id);
+    }
     inputDocs.add(inputDoc);
     documentCount++;
     if (inputDocs.size() >= batchSize) {
+      send(new ArrayList<SolrInputDocument>(inputDocs));
+      inputDocs.clear();
+    }
+  }
+
+  /**
+   * Adds a batch of documents, in a sender thread if there are any. Blocks
+   * while all sender threads are busy and another batch is waiting for each.
+   */
+  private void send(final List<SolrInputDocument> docs) throws IOException {
+    checkSendFailure();
+    if (senders == null) {
+      add(docs);
+      return;
+    }
+    try {
+      sendPermits.acquire();
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException("Interrupted while waiting to send");
+    }
+    batchesInFlight.incrementAndGet();
+    senders.execute(new Runnable() {
+      public void run() {
+        try {
+          add(docs);
+        } catch (IOException e) {
+          LOG.error("Failed to add " + docs.size() + " documents", e);
+          if (sendFailure == null) {
+            sendFailure = e;
+          }
+        } finally {
+          batchesInFlight.decrementAndGet();
+          sendPermits.release();
+        }
+      }
+    });
+  }
+
+  /** A request to SOLR which may be sent again after a transient error. */
+  private interface Request {
+    void send() throws SolrServerException, IOException;
+  }
+
+  /** Adds a batch of documents, retrying after transient errors. */
+  private void add(final List<SolrInputDocument> docs) throws IOException {
+    String what = "Adding " + Integer.toString(docs.size()) + " documents";
+    LOG.info(what);
+    retrying(what, new Request() {
+      public void send() throws SolrServerException, IOException {
+        solr.add(docs);
+      }
+    });
+    batchesSent.incrementAndGet();
+  }
+
+  /**
+   * Deletes the buffered ids, retrying after transient errors. Documents
+   * added before are sent and acknowledged first, so that a delete never
+   * overtakes an add of the same id.
+   */
+  private void deleteBuffered() throws IOException {
+    if (deleteIds.isEmpty()) {
+      return;
+    }
+    if (!inputDocs.isEmpty()) {
+      send(new ArrayList<SolrInputDocument>(inputDocs));
+      inputDocs.clear();
+    }
+    flush();
+    final List<String> ids = new ArrayList<String>(deleteIds);
+    deleteIds.clear();
+    String what = "Deleting " + Integer.toString(ids.size()) + " documents";
+    LOG.info(what);
+    retrying(what, new Request() {
+      public void send() throws SolrServerException, IOException {
+        solr.deleteById(ids);
+      }
+    });
+    numDeletes += ids.size();
+  }
+
+  private void retrying(String what, Request request) throws IOException {
+    long backoff = retryBackoff;
+    for (int attempt = 0; ; attempt++) {
+      Exception failure;
       try {
-        LOG.info("Adding " + Integer.toString(inputDocs.size()) + " documents");
-        solr.add(inputDocs);
+        request.send();
+        return;
       } catch (final SolrServerException e) {
-        throw new IOException(e);
+        // could not talk to the server
+        if (attempt >= maxRetries) {
+          throw makeIOException(e);
+        }
+        failure = e;
+      } catch (final SolrException e) {
+        if (attempt >= maxRetries || !isTransient(e)) {
+          throw new IOException(e);
+        }
+        failure = e;
       }
-      inputDocs.clear();
+      retries.incrementAndGet();
+      LOG.warn(what + " failed, retrying in " + backoff + " ms: "
+          + failure.toString());
+      try {
+        Thread.sleep(backoff);
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException("Interrupted while retrying");
+      }
+      backoff *= 2;
+    }
+  }
+
+  private static boolean isTransient(SolrException e) {
+    int code = e.code();
+    return code == 502 || code == 503 || code == 504;
+  }
+
+  /** Waits until all batches handed to the sender threads are added. */
+  private void flush() throws IOException {
+    if (senders != null) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Waiting for " + getBatchesInFlight()
+            + " batches in flight");
+      }
+      try {
+        sendPermits.acquire(maxInFlight);
+        sendPermits.release(maxInFlight);
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException("Interrupted while flushing");
+      }
+    }
+    checkSendFailure();
+  }
+
+  private void checkSendFailure() throws IOException {
+    if (sendFailure != null) {
+      throw sendFailure;
     }
   }
 
@@ -93,17 +279,50 @@ public class SolrIndexWriter implements IndexWriter {
   public void close() throws IOException {
     try {
       if (!inputDocs.isEmpty()) {
-        LOG.info("Adding " + Integer.toString(inputDocs.size()) + " documents");
-        solr.add(inputDocs);
+        send(new ArrayList<SolrInputDocument>(inputDocs));
         inputDocs.clear();
-      } else if (numDeletes > 0) {
+      }
+      flush();
+      deleteBuffered();
+      if (numDeletes > 0) {
         LOG.info("Deleted " + Integer.toString(numDeletes) + " documents");
       }
-    } catch (final SolrServerException e) {
-      throw new IOException(e);
+    } finally {
+      if (senders != null) {
+        senders.shutdown();
+      }
+      logStats();
     }
   }
 
+  private void logStats() {
+    LOG.info("Sent " + getBatchesSent() + " batches to SOLR, "
+        + getRetries() + " retries, " + getBatchesInFlight()
+        + " batches in flight");
+  }
+
+  /** Number of batches waiting for or being added by a sender thread. */
+  public int getBatchesInFlight() {
+    return batchesInFlight.get();
+  }
+
+  public long getBatchesSent() {
+    return batchesSent.get();
+  }
+
+  public long getRetries() {
+    return retries.get();
+  }
+
+  @Override
+  public Map<String, Long> getCounters() {
+    Map<String, Long> counters = new LinkedHashMap<String, Long>();
+    counters.put("batchesSent", getBatchesSent());
+    counters.put("retries", getRetries());
+    counters.put("deletedDocs", (long) numDeletes);
+    return counters;
+  }
+
   @Override
   public Configuration getConf() {
     return config;
@@ -126,11 +345,9 @@ public class SolrIndexWriter implements IndexWriter {
   @Override
   public void delete(String key) throws IOException {
     if (delete) {
-      try {
-        solr.deleteById(key);
-        numDeletes++;
-      } catch (final SolrServerException e) {
-        throw makeIOException(e);
+      deleteIds.add(key);
+      if (deleteIds.size() >= deleteBatchSize) {
+        deleteBuffered();
       }
     }
   }
@@ -142,9 +359,12 @@ public class SolrIndexWriter implements IndexWriter {
 
   @Override
   public void commit() throws IOException {
+    flush();
+    deleteBuffered();
     try {
       solr.commit();
       LOG.info("Total " + documentCount + (documentCount > 1 ? " documents are " : " document is ") + "added.");
+      logStats();
     } catch (SolrServerException e) {
       throw makeIOException(e);
     }
@@ -163,6 +383,14 @@ public class SolrIndexWriter implements IndexWriter {
         .append(" : URL of the SOLR instance (mandatory)\n");
     sb.append("\t").append(SolrConstants.COMMIT_SIZE)
         .append(" : buffer size when sending to SOLR (default 1000)\n");
+    sb.append("\t").append(SolrConstants.DELETE_SIZE)
+        .append(" : number of ids deleted in one request (default 1000)\n");
+    sb.append("\t").append(SolrConstants.ASYNC_THREADS)
+        .append(" : number of threads sending batches, 0 sends them from the calling thread (default 0)\n");
+    sb.append("\t").append(SolrConstants.RETRY_MAX)
+        .append(" : number of retries of a batch after a transient error (default 3)\n");
+    sb.append("\t").append(SolrConstants.RETRY_BACKOFF)
+        .append(" : milliseconds before the first retry, doubled for each retry (default 1000)\n");
     sb.append("\t")
         .append(SolrConstants.MAPPING_FILE)
         .append(
@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.indexwriter.solr;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.indexer.CleaningJob;
+import org.apache.nutch.indexer.NutchDocument;
+import org.apache.nutch.util.NutchConfiguration;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.impl.HttpSolrServer;
+import org.apache.solr.client.solrj.response.UpdateResponse;
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/** Unit tests for the ordering of adds and deletes of SolrIndexWriter. */
+public class TestSolrIndexWriter {
+
+  /** Records the requests instead of sending them, adds are slow. */
+  private static class RecordingSolrServer extends HttpSolrServer {
+    final List<String> requests =
+        Collections.synchronizedList(new ArrayList<String>());
+
+    RecordingSolrServer() {
+      super("http://localhost:8983/solr");
+    }
+
+    @Override
+    public UpdateResponse add(Collection<SolrInputDocument> docs)
+        throws SolrServerException, IOException {
+      try {
+        Thread.sleep(200);
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+      for (SolrInputDocument doc : docs) {
+        requests.add("add " + doc.getFieldValue("id"));
+      }
+      return new UpdateResponse();
+    }
+
+    @Override
+    public UpdateResponse deleteById(List<String> ids)
+        throws SolrServerException, IOException {
+      for (String id : ids) {
+        requests.add("delete " + id);
+      }
+      return new UpdateResponse();
+    }
+  }
+
+  private Configuration conf;
+  private RecordingSolrServer solr;
+
+  @Before
+  public void setUp() {
+    conf = NutchConfiguration.create();
+    conf.set(SolrConstants.SERVER_URL, "http://localhost:8983/solr");
+    conf.setBoolean(CleaningJob.ARG_COMMIT, true);
+    conf.setInt(SolrConstants.ASYNC_THREADS, 2);
+    solr = new RecordingSolrServer();
+  }
+
+  private SolrIndexWriter open() throws IOException {
+    SolrIndexWriter writer = new SolrIndexWriter();
+    writer.setConf(conf);
+    writer.open(conf, solr);
+    return writer;
+  }
+
+  private static NutchDocument doc(String id) {
+    NutchDocument doc = new NutchDocument();
+    doc.add("id", id);
+    return doc;
+  }
+
+  @Test
+  public void testAddThenDelete() throws Exception {
+    conf.setInt(SolrConstants.COMMIT_SIZE, 1);
+    conf.setInt(SolrConstants.DELETE_SIZE, 1);
+    SolrIndexWriter writer = open();
+    // the add is still in flight when the delete is sent
+    writer.write(doc("a"));
+    writer.delete("a");
+    writer.close();
+    assertEquals("[add a, delete a]", solr.requests.toString());
+  }
+
+  @Test
+  public void testBufferedAddThenDelete() throws Exception {
+    conf.setInt(SolrConstants.COMMIT_SIZE, 10);
+    conf.setInt(SolrConstants.DELETE_SIZE, 10);
+    SolrIndexWriter writer = open();
+    writer.write(doc("a"));
+    writer.delete("a");
+    writer.close();
+    assertEquals("[add a, delete a]", solr.requests.toString());
+  }
+
+  @Test
+  public void testDeleteThenAdd() throws Exception {
+    conf.setInt(SolrConstants.COMMIT_SIZE, 10);
+    conf.setInt(SolrConstants.DELETE_SIZE, 10);
+    SolrIndexWriter writer = open();
+    writer.delete("a");
+    writer.delete("b");
+    // a comes back, its buffered delete is dropped
+    writer.write(doc("a"));
+    writer.close();
+    assertEquals("[add a, delete b]", solr.requests.toString());
+    assertEquals(1L, writer.getCounters().get("deletedDocs").longValue());
+  }
+}
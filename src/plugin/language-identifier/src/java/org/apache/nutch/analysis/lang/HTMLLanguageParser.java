@@ -24,7 +24,7 @@ import org.apache.nutch.metadata.Metadata;
 import org.apache.nutch.net.protocols.Response;
 import org.apache.nutch.parse.HTMLMetaTags;
 import org.apache.nutch.parse.Parse;
-import org.apache.nutch.parse.ParseFilter;
+import org.apache.nutch.parse.DOMParseFilter;
 import org.apache.nutch.storage.WebPage;
 import org.apache.nutch.storage.WebPage.Field;
 import org.apache.nutch.util.Bytes;
@@ -45,7 +45,7 @@ import java.util.*;
  * Adds metadata identifying language of document if found We could also run
  * statistical analysis here but we'd miss all other formats
  */
-public class HTMLLanguageParser implements ParseFilter {
+public class HTMLLanguageParser implements DOMParseFilter {
 
   public static final Logger LOG = LoggerFactory.getLogger(HTMLLanguageParser.class);
 
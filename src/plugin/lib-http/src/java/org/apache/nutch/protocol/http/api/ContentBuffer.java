@@ -0,0 +1,251 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.http.api;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the body of a response, decoding gzip and deflate content encoding
+ * while reading, and stops at the content limit.
+ * <p>
+ * If the length of the content is known up front (a <code>Content-Length</code>
+ * and no content encoding) and not too large, the content is read straight
+ * into an array of that size, which is handed on as is. Otherwise it is read
+ * into a growable buffer kept per thread for the next response, and copied
+ * out once. The buffer grows as the content arrives, a length given by the
+ * server never makes it larger than {@link #MAX_PRESIZE} up front. The
+ * compressed content is never held in memory as a whole, and no more of it is
+ * read than needed to fill the content limit.
+ * <p>
+ * As before, decoding is best effort: if the compressed content is corrupt
+ * or cut off, what could be decoded is kept. Errors reading the body itself
+ * are thrown.
+ */
+public class ContentBuffer {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ContentBuffer.class);
+
+  /** Buffers which grew beyond this size are not kept for the next response. */
+  static final int MAX_POOLED_SIZE = 1024 * 1024;
+
+  /** The most allocated for the content before it arrives. */
+  static final int MAX_PRESIZE = MAX_POOLED_SIZE;
+
+  private static final ThreadLocal<ContentBuffer> POOL = new ThreadLocal<ContentBuffer>() {
+    @Override
+    protected ContentBuffer initialValue() {
+      return new ContentBuffer();
+    }
+  };
+
+  private byte[] buf = new byte[HttpBase.BUFFER_SIZE];
+  private int length;
+  private boolean truncated;
+  private boolean decodingFailed;
+
+  /** The buffer of the current thread. */
+  public static ContentBuffer get() {
+    return POOL.get();
+  }
+
+  /** Whether the content of the last response was cut at the limit. */
+  public boolean isTruncated() {
+    return truncated;
+  }
+
+  /**
+   * Whether the content of the last response could not be decoded to its
+   * end.
+   */
+  public boolean isDecodingFailed() {
+    return decodingFailed;
+  }
+
+  /**
+   * Reads the content of a response.
+   *
+   * @param body
+   *          the body, ending where the body ends
+   * @param contentEncoding
+   *          the <code>Content-Encoding</code> of the response, may be null
+   * @param contentLength
+   *          the <code>Content-Length</code> of the response, -1 if unknown
+   * @param limit
+   *          the maximum length of the (decoded) content, -1 for no limit
+   * @return the content
+   */
+  public byte[] read(InputStream body, String contentEncoding,
+      int contentLength, int limit) throws IOException {
+    truncated = false;
+    decodingFailed = false;
+    if (limit < 0) {
+      limit = Integer.MAX_VALUE;
+    }
+    String encoding = contentEncoding == null ? null
+        : contentEncoding.trim().toLowerCase();
+    boolean gzip = "gzip".equals(encoding) || "x-gzip".equals(encoding);
+    boolean deflate = "deflate".equals(encoding);
+    if (!gzip && !deflate) {
+      if (contentLength >= 0 && contentLength <= limit
+          && contentLength <= MAX_PRESIZE) {
+        return readFully(body, contentLength);
+      }
+      truncated = contentLength > limit;
+      return readGrowing(body, limit, Math.max(contentLength, 0), null);
+    }
+
+    // decode while reading, telling errors of the body from decoding errors
+    final BodyInputStream source = new BodyInputStream(body);
+    InputStream decoded;
+    try {
+      decoded = gzip ? new GZIPInputStream(source, HttpBase.BUFFER_SIZE)
+          : inflaterStream(source);
+    } catch (IOException e) {
+      if (source.failed) {
+        throw e;
+      }
+      // not compressed after all, or no body
+      decodingFailed = true;
+      return new byte[0];
+    }
+    try {
+      // expect content about four times as large as compressed
+      return readGrowing(decoded, limit,
+          (int) Math.min(Math.max(contentLength, 0) * 4L, limit), source);
+    } finally {
+      // frees the inflater, the body is left open
+      decoded.close();
+    }
+  }
+
+  /** Inflates zlib wrapped as well as raw deflate content. */
+  private static InputStream inflaterStream(InputStream in) throws IOException {
+    PushbackInputStream pushback = new PushbackInputStream(in, 2);
+    byte[] head = new byte[2];
+    int n = 0;
+    while (n < 2) {
+      int read = pushback.read(head, n, 2 - n);
+      if (read < 0) {
+        break;
+      }
+      n += read;
+    }
+    pushback.unread(head, 0, n);
+    boolean zlib = n == 2 && (head[0] & 0x0f) == 8
+        && (((head[0] & 0xff) << 8) | (head[1] & 0xff)) % 31 == 0;
+    return new InflaterInputStream(pushback, new Inflater(!zlib),
+        HttpBase.BUFFER_SIZE);
+  }
+
+  private static byte[] readFully(InputStream in, int contentLength)
+      throws IOException {
+    byte[] content = new byte[contentLength];
+    int length = 0;
+    while (length < contentLength) {
+      int read = in.read(content, length, contentLength - length);
+      if (read < 0) {
+        // the connection closed early
+        return Arrays.copyOf(content, length);
+      }
+      length += read;
+    }
+    return content;
+  }
+
+  private byte[] readGrowing(InputStream in, int limit, int expectedLength,
+      BodyInputStream source) throws IOException {
+    length = 0;
+    expectedLength = Math.min(Math.min(expectedLength, limit), MAX_PRESIZE);
+    if (buf.length < expectedLength) {
+      buf = new byte[expectedLength];
+    }
+    try {
+      while (length < limit) {
+        if (length == buf.length) {
+          buf = Arrays.copyOf(buf,
+              (int) Math.min(limit, Math.max(buf.length * 2L, 1024)));
+        }
+        int read = in.read(buf, length, Math.min(buf.length, limit) - length);
+        if (read < 0) {
+          break;
+        }
+        length += read;
+      }
+      if (length == limit && !truncated) {
+        truncated = in.read() >= 0;
+      }
+    } catch (IOException e) {
+      if (source == null || source.failed) {
+        throw e;
+      }
+      decodingFailed = true;
+      LOG.debug("Kept " + length + " bytes of content which"
+          + " could not be decoded to its end: " + e);
+    }
+    byte[] content = Arrays.copyOf(buf, length);
+    if (buf.length > MAX_POOLED_SIZE) {
+      buf = new byte[HttpBase.BUFFER_SIZE];
+    }
+    return content;
+  }
+
+  /**
+   * Remembers whether reading the body failed, and leaves the body open when
+   * closed.
+   */
+  private static class BodyInputStream extends FilterInputStream {
+    boolean failed;
+
+    BodyInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      try {
+        return super.read();
+      } catch (IOException e) {
+        failed = true;
+        throw e;
+      }
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      try {
+        return super.read(b, off, len);
+      } catch (IOException e) {
+        failed = true;
+        throw e;
+      }
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+}
@@ -18,10 +18,10 @@
 package org.apache.nutch.protocol.http.api;
 
 import crawlercommons.robots.BaseRobotRules;
-import crawlercommons.robots.SimpleRobotRules;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.nutch.net.protocols.Response;
 import org.apache.nutch.protocol.Protocol;
+import org.apache.nutch.protocol.RobotRulesCache;
 import org.apache.nutch.protocol.RobotRulesParser;
 import org.apache.nutch.storage.WebPage;
 import org.slf4j.Logger;
@@ -65,7 +65,8 @@ public class HttpRobotRulesParser extends RobotRulesParser {
    * Robot rules are cached for a unique combination of host, protocol, and
    * port. If no rules are found in the cache, a HTTP request is send to fetch
    * {{protocol://host:port/robots.txt}}. The robots.txt is then parsed and the
-   * rules are cached to avoid re-fetching and re-parsing it again.
+   * rules are cached to avoid re-fetching and re-parsing it again. Concurrent
+   * requests for the rules of the same host wait for a single fetch.
    * 
    * @param http
    *          The {@link Protocol} object
@@ -74,66 +75,68 @@ public class HttpRobotRulesParser extends RobotRulesParser {
    *
    * @return {@link BaseRobotRules} holding the rules from robots.txt
    */
-  public BaseRobotRules getRobotRulesSet(Protocol http, URL url) {
-
-    String cacheKey = getCacheKey(url);
-    BaseRobotRules robotRules = (SimpleRobotRules) CACHE.get(cacheKey);
+  public BaseRobotRules getRobotRulesSet(final Protocol http, final URL url) {
+    try {
+      return CACHE.get(getCacheKey(url), new RobotRulesCache.Loader() {
+        public RobotRulesCache.Result load() {
+          return fetchRules(http, url);
+        }
+      });
+    } catch (Exception e) {
+      LOG.info("Couldn't get robots.txt for " + url + ": " + e.toString());
+      return EMPTY_RULES;
+    }
+  }
 
-    boolean cacheRule = true;
-    
-    if (robotRules == null) {                     // cache miss
+  private RobotRulesCache.Result fetchRules(Protocol http, URL url) {
+    if (LOG.isTraceEnabled()) { LOG.trace("cache miss " + url); }
+    try {
       URL redir = null;
-      if (LOG.isTraceEnabled()) { LOG.trace("cache miss " + url); }
-      try {
-        Response response = ((HttpBase)http).getResponse(new URL(url, "/robots.txt"),
-                                             WebPage.newBuilder().build(), true);
-        // try one level of redirection ?
-        if (response.getCode() == 301 || response.getCode() == 302) {
-          String redirection = response.getHeader("Location");
-          if (redirection == null) {
-            // some versions of MS IIS are known to mangle this header
-            redirection = response.getHeader("location");
-          }
-          if (redirection != null) {
-            if (!redirection.startsWith("http")) {
-              // RFC says it should be absolute, but apparently it isn't
-              redir = new URL(url, redirection);
-            } else {
-              redir = new URL(redirection);
-            }
-            
-            response = ((HttpBase)http).getResponse(redir, WebPage.newBuilder().build(), true);
+      Response response = ((HttpBase)http).getResponse(new URL(url, "/robots.txt"),
+                                           WebPage.newBuilder().build(), true);
+      // try one level of redirection ?
+      if (response.getCode() == 301 || response.getCode() == 302) {
+        String redirection = response.getHeader("Location");
+        if (redirection == null) {
+          // some versions of MS IIS are known to mangle this header
+          redirection = response.getHeader("location");
+        }
+        if (redirection != null) {
+          if (!redirection.startsWith("http")) {
+            // RFC says it should be absolute, but apparently it isn't
+            redir = new URL(url, redirection);
+          } else {
+            redir = new URL(redirection);
           }
+          
+          response = ((HttpBase)http).getResponse(redir, WebPage.newBuilder().build(), true);
         }
+      }
 
-        if (response.getCode() == 200)               // found rules: parse them
-          robotRules =  parseRules(url.toString(), response.getContent(), 
-                                   response.getHeader("Content-Type"), 
-                                   agentNames);
+      BaseRobotRules robotRules;
+      if (response.getCode() == 200)               // found rules: parse them
+        robotRules =  parseRules(url.toString(), response.getContent(), 
+                                 response.getHeader("Content-Type"), 
+                                 agentNames);
 
-        else if ( (response.getCode() == 403) && (!allowForbidden) )
-          robotRules = FORBID_ALL_RULES;            // use forbid all
-        else if (response.getCode() >= 500) {
-          cacheRule = false;
-          robotRules = EMPTY_RULES;
-        }else                                        
-          robotRules = EMPTY_RULES;                 // use default rules
-      } catch (Throwable t) {
-        if (LOG.isInfoEnabled()) {
-          LOG.info("Couldn't get robots.txt for " + url + ": " + t.toString());
-        }
-        cacheRule = false;
-        robotRules = EMPTY_RULES;
-      }
+      else if ( (response.getCode() == 403) && (!allowForbidden) )
+        robotRules = FORBID_ALL_RULES;            // use forbid all
+      else if (response.getCode() >= 500) {
+        // server error: retry after the negative TTL
+        return RobotRulesCache.Result.failed(EMPTY_RULES);
+      } else                                        
+        robotRules = EMPTY_RULES;                 // use default rules
 
-      if (cacheRule) {
-        CACHE.put(cacheKey, robotRules);  // cache rules for host
-        if (redir != null && !redir.getHost().equalsIgnoreCase(url.getHost())) {
-          // cache also for the redirected host
-          CACHE.put(getCacheKey(redir), robotRules);
-        }
+      if (redir != null && !redir.getHost().equalsIgnoreCase(url.getHost())) {
+        // cache also for the redirected host
+        CACHE.put(getCacheKey(redir), robotRules);
+      }
+      return RobotRulesCache.Result.of(robotRules);
+    } catch (Throwable t) {
+      if (LOG.isInfoEnabled()) {
+        LOG.info("Couldn't get robots.txt for " + url + ": " + t.toString());
       }
+      return RobotRulesCache.Result.failed(EMPTY_RULES);
     }
-    return robotRules;
   }
 }
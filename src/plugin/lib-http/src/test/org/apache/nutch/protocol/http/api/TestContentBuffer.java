@@ -0,0 +1,151 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.http.api;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/** Unit tests for ContentBuffer. */
+public class TestContentBuffer {
+
+  private static byte[] text(int length) {
+    byte[] text = new byte[length];
+    for (int i = 0; i < length; i++) {
+      text[i] = (byte) ('a' + i % 26);
+    }
+    return text;
+  }
+
+  private static byte[] gzip(byte[] content) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    GZIPOutputStream out = new GZIPOutputStream(bytes);
+    out.write(content);
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  private static byte[] deflate(byte[] content, boolean raw)
+      throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DeflaterOutputStream out = new DeflaterOutputStream(bytes, new Deflater(
+        Deflater.DEFAULT_COMPRESSION, raw));
+    out.write(content);
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  @Test
+  public void testPlain() throws IOException {
+    ContentBuffer buffer = ContentBuffer.get();
+    byte[] text = text(100000);
+    assertArrayEquals(text, buffer.read(new ByteArrayInputStream(text), null,
+        text.length, -1));
+    assertArrayEquals(text, buffer.read(new ByteArrayInputStream(text), null,
+        -1, 200000));
+    assertFalse(buffer.isTruncated());
+
+    // cut at the limit, known length or not
+    byte[] cut = Arrays.copyOf(text, 1000);
+    assertArrayEquals(cut, buffer.read(new ByteArrayInputStream(text), null,
+        text.length, 1000));
+    assertTrue(buffer.isTruncated());
+    assertArrayEquals(cut, buffer.read(new ByteArrayInputStream(text), null,
+        -1, 1000));
+    assertTrue(buffer.isTruncated());
+    assertArrayEquals(text, buffer.read(new ByteArrayInputStream(text), null,
+        -1, text.length));
+    assertFalse(buffer.isTruncated());
+  }
+
+  @Test
+  public void testDecoding() throws IOException {
+    ContentBuffer buffer = ContentBuffer.get();
+    byte[] text = text(100000);
+    byte[][] encoded = { gzip(text), deflate(text, false), deflate(text, true) };
+    String[] encodings = { "x-gzip", "deflate", "deflate" };
+    for (int i = 0; i < encoded.length; i++) {
+      assertArrayEquals(text, buffer.read(new ByteArrayInputStream(
+          encoded[i]), encodings[i], encoded[i].length, -1));
+      assertFalse(buffer.isTruncated());
+      assertFalse(buffer.isDecodingFailed());
+
+      // the limit applies to the decoded content
+      assertArrayEquals(Arrays.copyOf(text, 5000), buffer.read(
+          new ByteArrayInputStream(encoded[i]), encodings[i], -1, 5000));
+      assertTrue(buffer.isTruncated());
+    }
+  }
+
+  @Test
+  public void testCorrupt() throws IOException {
+    ContentBuffer buffer = ContentBuffer.get();
+    byte[] text = text(100000);
+    byte[] gzip = gzip(text);
+    // what could be decoded is kept
+    byte[] content = buffer.read(new ByteArrayInputStream(gzip, 0,
+        gzip.length / 2), "gzip", -1, -1);
+    assertTrue(buffer.isDecodingFailed());
+    assertTrue(content.length > 0);
+    assertArrayEquals(Arrays.copyOf(text, content.length), content);
+
+    // not compressed at all
+    assertEquals(0, buffer.read(new ByteArrayInputStream(text), "gzip", -1,
+        -1).length);
+    assertTrue(buffer.isDecodingFailed());
+
+    // errors reading the body are thrown
+    InputStream failing = new InputStream() {
+      private int read;
+      @Override
+      public int read() throws IOException {
+        if (read == 100) {
+          throw new IOException("connection reset");
+        }
+        return text(101)[read++] & 0xff;
+      }
+    };
+    try {
+      buffer.read(failing, null, -1, -1);
+      fail();
+    } catch (IOException e) {
+      assertEquals("connection reset", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testBogusContentLength() throws IOException {
+    ContentBuffer buffer = ContentBuffer.get();
+    byte[] text = text(3 * ContentBuffer.MAX_PRESIZE);
+
+    // no memory is taken for content which does not arrive
+    assertArrayEquals(text, buffer.read(new ByteArrayInputStream(text), null,
+        2000000000, -1));
+    assertFalse(buffer.isTruncated());
+    assertArrayEquals(text, buffer.read(new ByteArrayInputStream(gzip(text)),
+        "gzip", 2000000000, -1));
+  }
+}
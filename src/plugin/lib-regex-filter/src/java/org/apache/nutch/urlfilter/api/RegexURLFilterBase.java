@@ -110,6 +110,13 @@ public abstract class RegexURLFilterBase implements URLFilter {
    */
   protected abstract RegexRule createRule(boolean sign, String regex);
   
+  /**
+   * Returns the rules, in the order they are tried.
+   */
+  protected List<RegexRule> getRules() {
+    return rules;
+  }
+
   /**
    * Returns the name of the file of rules to use for
    * a particular implementation.
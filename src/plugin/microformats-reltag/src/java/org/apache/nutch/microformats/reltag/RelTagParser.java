@@ -30,7 +30,7 @@ import org.apache.avro.util.Utf8;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.nutch.indexer.NutchDocument;
 import org.apache.nutch.parse.HTMLMetaTags;
-import org.apache.nutch.parse.ParseFilter;
+import org.apache.nutch.parse.DOMParseFilter;
 import org.apache.nutch.parse.Parse;
 import org.apache.nutch.storage.WebPage;
 import org.apache.nutch.storage.WebPage.Field;
@@ -49,7 +49,7 @@ import org.w3c.dom.NodeList;
  *      http://www.microformats.org/wiki/rel-tag</a>
  * @author J&eacute;r&ocirc;me Charron
  */
-public class RelTagParser implements ParseFilter {
+public class RelTagParser implements DOMParseFilter {
 
   public static final Logger LOG = LoggerFactory.getLogger(RelTagParser.class);
 
@@ -22,6 +22,7 @@ import java.net.MalformedURLException;
 import java.util.Collection;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Map;
 
 import org.apache.nutch.parse.Outlink;
 import org.apache.nutch.util.NodeWalker;
@@ -87,6 +88,11 @@ public class DOMContentUtils {
     }
   }
   
+  /** The link tags and attributes outlinks are taken from, by tag name. */
+  Map<String, LinkParams> getLinkParams() {
+    return linkParams;
+  }
+
   /**
    * This method takes a {@link StringBuilder} and a DOM {@link Node},
    * and will append all the content text found beneath the DOM node to 
@@ -0,0 +1,345 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.parse.html;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.nutch.parse.HTMLMetaTags;
+import org.apache.nutch.parse.Outlink;
+import org.apache.nutch.parse.html.DOMContentUtils.LinkParams;
+import org.apache.nutch.util.URLUtil;
+import org.xml.sax.Attributes;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Extracts the text, title, base URL, meta directives and outlinks of a page
+ * from the SAX events of an HTML parser, in a single pass and without
+ * building a DOM tree. The results are those {@link DOMContentUtils} and
+ * {@link HTMLMetaProcessor} give on the DOM built from the same events.
+ */
+class HtmlContentHandler extends DefaultHandler implements LexicalHandler {
+
+  /** A link element whose anchor text is being collected. */
+  private static class OpenLink {
+    final LinkParams params;
+    final int depth;
+    final int index;
+    final String target;
+    final StringBuilder text = new StringBuilder();
+    /**
+     * Kinds of the first children: 'E' a nested element of the same name,
+     * 'e' another element, 'W' whitespace, 'T' text, 'c' a comment
+     */
+    final StringBuilder children = new StringBuilder();
+    int anchors;
+    boolean aborted;
+
+    OpenLink(LinkParams params, int depth, int index, String target) {
+      this.params = params;
+      this.depth = depth;
+      this.index = index;
+      this.target = target;
+    }
+
+    void child(char kind) {
+      if (children.length() < 4) {
+        children.append(kind);
+      }
+    }
+
+    /**
+     * Same as DOMContentUtils.shouldThrowAwayLink(): links without content
+     * and the empty links nekohtml leaves around nested links.
+     */
+    boolean throwAway() {
+      String c = children.toString();
+      if (c.length() == 0) {
+        return params.childLen != 0;
+      }
+      return c.equals("E") || c.equals("EW") || c.equals("WE")
+          || c.equals("WEW");
+    }
+  }
+
+  private final Map<String, LinkParams> linkParams;
+  private final HTMLMetaTags metaTags;
+  private final URL currURL;
+
+  private final StringBuilder text = new StringBuilder();
+  private final StringBuilder title = new StringBuilder();
+  private URL base;
+
+  private final StringBuilder chars = new StringBuilder();
+  private int depth;
+  private int skipDepth;
+  private int bodyDepth;
+  private boolean bodySeen;
+  private int titleDepth;
+  private boolean titleSeen;
+
+  private final List<OpenLink> open = new ArrayList<OpenLink>();
+  /** target and anchor text of each link, null if thrown away */
+  private final List<String[]> links = new ArrayList<String[]>();
+
+  HtmlContentHandler(Map<String, LinkParams> linkParams,
+      HTMLMetaTags metaTags, URL currURL) {
+    this.linkParams = linkParams;
+    this.metaTags = metaTags;
+    this.currURL = currURL;
+  }
+
+  /** @return the text of the page, as DOMContentUtils.getText() */
+  public String getText() {
+    return text.toString();
+  }
+
+  /** @return the text of the first title before the body */
+  public String getTitle() {
+    return title.toString();
+  }
+
+  /** @return the href of the first BASE tag, or null */
+  public URL getBase() {
+    return base;
+  }
+
+  /**
+   * Adds the links of the page, resolved against <code>base</code>, to
+   * <code>outlinks</code>, as DOMContentUtils.getOutlinks().
+   */
+  public void getOutlinks(URL base, ArrayList<Outlink> outlinks) {
+    for (String[] link : links) {
+      if (link == null) {
+        continue;
+      }
+      try {
+        URL url = URLUtil.resolveURL(base, link[0]);
+        outlinks.add(new Outlink(url.toString(), link[1]));
+      } catch (MalformedURLException e) {
+        // don't care
+      }
+    }
+  }
+
+  @Override
+  public void startDocument() {
+    metaTags.reset();
+  }
+
+  @Override
+  public void endDocument() {
+    flushText();
+  }
+
+  @Override
+  public void startElement(String uri, String localName, String qName,
+      Attributes attrs) {
+    flushText();
+    String name = name(localName, qName);
+    depth++;
+    for (OpenLink link : open) {
+      if (link.depth == depth - 1) {
+        link.child(link.params.elName.equals(name) ? 'E' : 'e');
+      }
+    }
+
+    if ("script".equals(name) || "style".equals(name)) {
+      skipDepth++;
+    } else if ("body".equals(name)) {
+      bodySeen = true;
+      if (bodyDepth == 0) {
+        bodyDepth = depth;
+      }
+    } else if ("title".equals(name)) {
+      if (!bodySeen && !titleSeen) {
+        titleSeen = true;
+        titleDepth = depth;
+      }
+    } else if ("meta".equals(name)) {
+      if (bodyDepth == 0) {
+        HTMLMetaProcessor.processMeta(metaTags, value(attrs, "name"),
+            value(attrs, "http-equiv"), value(attrs, "content"), currURL);
+      }
+    } else if ("base".equals(name)) {
+      String href = value(attrs, "href");
+      if (bodyDepth == 0 && href != null) {
+        HTMLMetaProcessor.processBase(metaTags, href, currURL);
+      }
+      if (!bodySeen && base == null && href != null) {
+        try {
+          base = new URL(href);
+        } catch (MalformedURLException e) {}
+      }
+    }
+
+    if ("a".equals(name)) {
+      // anchor text stops at a nested anchor
+      for (OpenLink link : open) {
+        if (++link.anchors > 1) {
+          link.aborted = true;
+        }
+      }
+    }
+
+    LinkParams params = linkParams.get(name);
+    if (params != null) {
+      String target = null;
+      boolean noFollow = false;
+      boolean post = false;
+      for (int i = 0; i < attrs.getLength(); i++) {
+        String attrName = name(attrs.getLocalName(i), attrs.getQName(i));
+        String attrValue = attrs.getValue(i);
+        if (params.attrName.equalsIgnoreCase(attrName)) {
+          target = attrValue;
+        } else if ("rel".equals(attrName)
+            && "nofollow".equalsIgnoreCase(attrValue)) {
+          noFollow = true;
+        } else if ("method".equals(attrName)
+            && "post".equalsIgnoreCase(attrValue)) {
+          post = true;
+        }
+      }
+      OpenLink link = new OpenLink(params, depth, links.size(),
+          noFollow || post ? null : target);
+      if ("a".equals(name)) {
+        link.anchors = 1;
+      }
+      open.add(link);
+      links.add(null);
+    }
+  }
+
+  @Override
+  public void endElement(String uri, String localName, String qName) {
+    flushText();
+    String name = name(localName, qName);
+    if (!open.isEmpty()) {
+      OpenLink link = open.get(open.size() - 1);
+      if (link.depth == depth) {
+        open.remove(open.size() - 1);
+        if (link.target != null && !link.throwAway()) {
+          links.set(link.index,
+              new String[] { link.target, link.text.toString().trim() });
+        }
+      }
+    }
+    if (("script".equals(name) || "style".equals(name)) && skipDepth > 0) {
+      skipDepth--;
+    } else if (titleDepth == depth) {
+      titleDepth = 0;
+    } else if (bodyDepth == depth) {
+      bodyDepth = 0;
+    }
+    depth--;
+  }
+
+  @Override
+  public void characters(char[] ch, int start, int length) {
+    chars.append(ch, start, length);
+  }
+
+  @Override
+  public void ignorableWhitespace(char[] ch, int start, int length) {
+    chars.append(ch, start, length);
+  }
+
+  /**
+   * A text node ends at the next tag or comment: appends the cleaned up
+   * text to the page text, the title and the anchor texts it belongs to.
+   */
+  private void flushText() {
+    if (chars.length() == 0) {
+      return;
+    }
+    String value = chars.toString();
+    chars.setLength(0);
+    boolean whitespace = true;
+    for (int i = 0; i < value.length() && whitespace; i++) {
+      whitespace = Character.isWhitespace(value.charAt(i));
+    }
+    for (OpenLink link : open) {
+      if (link.depth == depth) {
+        link.child(whitespace ? 'W' : 'T');
+      }
+    }
+    if (skipDepth > 0) {
+      return;
+    }
+    value = value.replaceAll("\\s+", " ").trim();
+    if (value.length() == 0) {
+      return;
+    }
+    append(text, value);
+    if (titleDepth > 0) {
+      append(title, value);
+    }
+    for (OpenLink link : open) {
+      if (!link.aborted) {
+        append(link.text, value);
+      }
+    }
+  }
+
+  private static void append(StringBuilder sb, String value) {
+    if (sb.length() > 0) sb.append(' ');
+    sb.append(value);
+  }
+
+  private static String name(String localName, String qName) {
+    String name = localName != null && localName.length() > 0 ? localName
+        : qName;
+    return name.toLowerCase();
+  }
+
+  private static String value(Attributes attrs, String name) {
+    for (int i = 0; i < attrs.getLength(); i++) {
+      if (name.equals(name(attrs.getLocalName(i), attrs.getQName(i)))) {
+        return attrs.getValue(i);
+      }
+    }
+    return null;
+  }
+
+  // LexicalHandler
+
+  public void comment(char[] ch, int start, int length) {
+    // a comment separates text nodes
+    flushText();
+    for (OpenLink link : open) {
+      if (link.depth == depth) {
+        link.child('c');
+      }
+    }
+  }
+
+  public void startDTD(String name, String publicId, String systemId) {}
+
+  public void endDTD() {}
+
+  public void startEntity(String name) {}
+
+  public void endEntity(String name) {}
+
+  public void startCDATA() {}
+
+  public void endCDATA() {}
+}
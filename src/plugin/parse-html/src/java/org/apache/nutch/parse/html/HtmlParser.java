@@ -59,6 +59,7 @@ import org.w3c.dom.DOMException;
 import org.w3c.dom.DocumentFragment;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
 
 public class HtmlParser implements Parser {
   public static final Logger LOG = LoggerFactory.getLogger("org.apache.nutch.parse.html");
@@ -165,6 +166,8 @@ public class HtmlParser implements Parser {
 
   private String cachingPolicy;
 
+  private boolean streaming;
+
   public Parse getParse(String url, WebPage page) {
     HTMLMetaTags metaTags = new HTMLMetaTags();
 
@@ -181,7 +184,8 @@ public class HtmlParser implements Parser {
     Outlink[] outlinks = new Outlink[0];
 
     // parse the content
-    DocumentFragment root;
+    DocumentFragment root = null;
+    HtmlContentHandler handler = null;
     try {
       ByteBuffer contentInOctets = page.getContent();
       InputSource input = new InputSource(new ByteArrayInputStream(contentInOctets.array(),
@@ -197,7 +201,12 @@ public class HtmlParser implements Parser {
 
       input.setEncoding(encoding);
       if (LOG.isTraceEnabled()) { LOG.trace("Parsing..."); }
-      root = parse(input);
+      if (streaming) {
+        handler = new HtmlContentHandler(utils.getLinkParams(), metaTags, base);
+        parseStreaming(input, handler);
+      } else {
+        root = parse(input);
+      }
     } catch (IOException e) {
       LOG.error("Failed with the following IOException: ", e);
       return ParseStatusUtils.getEmptyParse(e, getConf());
@@ -213,27 +222,38 @@ public class HtmlParser implements Parser {
     }
 
     // get meta directives
-    HTMLMetaProcessor.getMetaTags(metaTags, root, base);
+    if (handler == null) {
+      HTMLMetaProcessor.getMetaTags(metaTags, root, base);
+    }
     if (LOG.isTraceEnabled()) {
       LOG.trace("Meta tags for " + base + ": " + metaTags.toString());
     }
     // check meta directives
     if (!metaTags.getNoIndex()) {               // okay to index
       StringBuilder sb = new StringBuilder();
-      if (LOG.isTraceEnabled()) { LOG.trace("Getting text..."); }
-      utils.getText(sb, root);          // extract text
-      text = sb.toString();
-      sb.setLength(0);
-      if (LOG.isTraceEnabled()) { LOG.trace("Getting title..."); }
-      utils.getTitle(sb, root);         // extract title
-      title = sb.toString().trim();
+      if (handler != null) {
+        text = handler.getText();
+        title = handler.getTitle().trim();
+      } else {
+        if (LOG.isTraceEnabled()) { LOG.trace("Getting text..."); }
+        utils.getText(sb, root);          // extract text
+        text = sb.toString();
+        sb.setLength(0);
+        if (LOG.isTraceEnabled()) { LOG.trace("Getting title..."); }
+        utils.getTitle(sb, root);         // extract title
+        title = sb.toString().trim();
+      }
     }
 
     if (!metaTags.getNoFollow()) {              // okay to follow links
       ArrayList<Outlink> l = new ArrayList<Outlink>();   // extract outlinks
-      URL baseTag = utils.getBase(root);
+      URL baseTag = handler != null ? handler.getBase() : utils.getBase(root);
       if (LOG.isTraceEnabled()) { LOG.trace("Getting links..."); }
-      utils.getOutlinks(baseTag!=null?baseTag:base, l, root);
+      if (handler != null) {
+        handler.getOutlinks(baseTag!=null?baseTag:base, l);
+      } else {
+        utils.getOutlinks(baseTag!=null?baseTag:base, l, root);
+      }
       outlinks = l.toArray(new Outlink[l.size()]);
       if (LOG.isTraceEnabled()) {
         LOG.trace("found "+outlinks.length+" outlinks in "+ url);
@@ -265,6 +285,41 @@ public class HtmlParser implements Parser {
     else return parseNeko(input);
   }
 
+  /**
+   * Parses the input into SAX events only, no DOM tree is built. Uses the
+   * same parser and settings as {@link #parse(InputSource)}.
+   */
+  private void parseStreaming(InputSource input, HtmlContentHandler handler)
+      throws Exception {
+    XMLReader reader;
+    if (parserImpl.equalsIgnoreCase("tagsoup")) {
+      reader = new org.ccil.cowan.tagsoup.Parser();
+      reader.setFeature(org.ccil.cowan.tagsoup.Parser.ignoreBogonsFeature, true);
+      reader.setFeature(org.ccil.cowan.tagsoup.Parser.bogonsEmptyFeature, false);
+    } else {
+      reader = new org.cyberneko.html.parsers.SAXParser();
+      try {
+        reader.setFeature("http://cyberneko.org/html/features/scanner/allow-selfclosing-iframe",
+            true);
+        reader.setFeature("http://cyberneko.org/html/features/augmentations",
+            true);
+        reader.setProperty("http://cyberneko.org/html/properties/default-encoding",
+            defaultCharEncoding);
+        reader.setFeature("http://cyberneko.org/html/features/scanner/ignore-specified-charset",
+            true);
+        reader.setFeature("http://cyberneko.org/html/features/balance-tags/ignore-outside-content",
+            false);
+        reader.setFeature("http://cyberneko.org/html/features/balance-tags/document-fragment",
+            true);
+        reader.setFeature("http://cyberneko.org/html/features/report-errors",
+            LOG.isTraceEnabled());
+      } catch (SAXException e) {}
+    }
+    reader.setContentHandler(handler);
+    reader.setProperty("http://xml.org/sax/properties/lexical-handler", handler);
+    reader.parse(input);
+  }
+
   private DocumentFragment parseTagSoup(InputSource input) throws Exception {
     HTMLDocumentImpl doc = new HTMLDocumentImpl();
     DocumentFragment frag = doc.createDocumentFragment();
@@ -329,6 +384,11 @@ public class HtmlParser implements Parser {
     this.utils = new DOMContentUtils(conf);
     this.cachingPolicy = getConf().get("parser.caching.forbidden.policy",
         Nutch.CACHING_FORBIDDEN_CONTENT);
+    this.streaming = getConf().getBoolean("parser.html.streaming", false);
+    if (streaming && htmlParseFilters.needsDOM()) {
+      LOG.info("Parse filters need a DOM tree, not using streaming extraction");
+      streaming = false;
+    }
   }
 
   public Configuration getConf() {
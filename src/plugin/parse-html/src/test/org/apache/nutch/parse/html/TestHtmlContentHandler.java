@@ -0,0 +1,155 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.parse.html;
+
+import java.io.ByteArrayInputStream;
+import java.net.URL;
+import java.util.ArrayList;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.html.dom.HTMLDocumentImpl;
+import org.apache.nutch.parse.HTMLMetaTags;
+import org.apache.nutch.parse.Outlink;
+import org.apache.nutch.util.NutchConfiguration;
+import org.cyberneko.html.parsers.DOMFragmentParser;
+import org.cyberneko.html.parsers.SAXParser;
+import org.w3c.dom.DocumentFragment;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the streaming extraction of {@link HtmlContentHandler} gives
+ * the same results as {@link DOMContentUtils} and {@link HTMLMetaProcessor}
+ * on a DOM tree.
+ */
+public class TestHtmlContentHandler {
+
+  private static final String[] testPages = {
+    "<html><head><title> title </title><script> script </script>"
+        + "</head><body> body <a href=\"http://www.nutch.org\">"
+        + " anchor </a><!--comment-->"
+        + "</body></html>",
+    "<html><head><title> </title>"
+        + "</head><body> "
+        + "<a href=\"/\"> separate this "
+        + "<a href=\"ok\"> from this"
+        + "</a></a>"
+        + "</body></html>",
+    "<html><head><title> my title </title>"
+        + "</head><body> body "
+        + "<ul>"
+        + "<li> <a href=\"/\"> home"
+        + "<li> <a href=\"1\"> 1"
+        + "<li> <a href=\"2\"> 2"
+        + "</ul>"
+        + "</body></html>",
+    "<html><head><base href=\"http://www.example.com/base/\">"
+        + "<link rel=\"stylesheet\" href=\"style.css\">"
+        + "<meta name=\"keywords\" content=\"one, two\">"
+        + "<meta http-equiv=\"refresh\" content=\"5; url=next.html\">"
+        + "<title>base <b>and</b> meta</title></head>"
+        + "<body><img src=\"logo.gif\"><a href=\"x.html\">x<!-- c -->y</a>"
+        + "<a href=\"n.html\" rel=\"nofollow\">n</a>"
+        + "<form method=\"post\" action=\"/post\"><p>post</p></form>"
+        + "<form action=\"/get\"><p>get</p></form>"
+        + "<style> p {} </style><iframe src=\"frame.html\"></iframe>"
+        + "</body></html>",
+    "<html><head><meta name=\"robots\" content=\"noindex,nofollow\">"
+        + "<title>robots</title></head><body>text <a href=\"a\">a</a>"
+        + "</body></html>",
+    "no markup at all, only text <a href=\"a\"></a> and an empty link",
+  };
+
+  private Configuration conf;
+  private DOMContentUtils utils;
+  private URL base;
+
+  @Before
+  public void setup() throws Exception {
+    conf = NutchConfiguration.create();
+    conf.setBoolean("parser.html.form.use_action", true);
+    utils = new DOMContentUtils(conf);
+    base = new URL("http://www.nutch.org/docs/");
+  }
+
+  @Test
+  public void testNeko() throws Exception {
+    for (String page : testPages) {
+      DOMFragmentParser parser = new DOMFragmentParser();
+      parser.setFeature("http://cyberneko.org/html/features/balance-tags/document-fragment",
+          true);
+      DocumentFragment root = new HTMLDocumentImpl().createDocumentFragment();
+      parser.parse(input(page), root);
+
+      SAXParser reader = new SAXParser();
+      reader.setFeature("http://cyberneko.org/html/features/balance-tags/document-fragment",
+          true);
+      assertSameContent(page, root, reader);
+    }
+  }
+
+  @Test
+  public void testTagSoup() throws Exception {
+    for (String page : testPages) {
+      HTMLDocumentImpl doc = new HTMLDocumentImpl();
+      DocumentFragment root = doc.createDocumentFragment();
+      DOMBuilder builder = new DOMBuilder(doc, root);
+      org.ccil.cowan.tagsoup.Parser parser = new org.ccil.cowan.tagsoup.Parser();
+      parser.setContentHandler(builder);
+      parser.setProperty("http://xml.org/sax/properties/lexical-handler", builder);
+      parser.parse(input(page));
+
+      assertSameContent(page, root, new org.ccil.cowan.tagsoup.Parser());
+    }
+  }
+
+  private void assertSameContent(String page, DocumentFragment root,
+      XMLReader reader) throws Exception {
+    HTMLMetaTags domMeta = new HTMLMetaTags();
+    HTMLMetaProcessor.getMetaTags(domMeta, root, base);
+    StringBuilder domText = new StringBuilder();
+    utils.getText(domText, root);
+    StringBuilder domTitle = new StringBuilder();
+    utils.getTitle(domTitle, root);
+    URL domBase = utils.getBase(root);
+    ArrayList<Outlink> domLinks = new ArrayList<Outlink>();
+    utils.getOutlinks(domBase != null ? domBase : base, domLinks, root);
+
+    HTMLMetaTags meta = new HTMLMetaTags();
+    HtmlContentHandler handler =
+        new HtmlContentHandler(utils.getLinkParams(), meta, base);
+    reader.setContentHandler(handler);
+    reader.setProperty("http://xml.org/sax/properties/lexical-handler", handler);
+    reader.parse(input(page));
+    ArrayList<Outlink> links = new ArrayList<Outlink>();
+    handler.getOutlinks(handler.getBase() != null ? handler.getBase() : base,
+        links);
+
+    assertEquals(page, domText.toString(), handler.getText());
+    assertEquals(page, domTitle.toString(), handler.getTitle());
+    assertEquals(page, domBase, handler.getBase());
+    assertEquals(page, domLinks, links);
+    assertEquals(page, domMeta.toString(), meta.toString());
+  }
+
+  private static InputSource input(String page) {
+    return new InputSource(new ByteArrayInputStream(page.getBytes()));
+  }
+}
@@ -18,11 +18,11 @@
 package org.apache.nutch.protocol.ftp;
 
 import crawlercommons.robots.BaseRobotRules;
-import crawlercommons.robots.SimpleRobotRules;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.nutch.protocol.Protocol;
 import org.apache.nutch.protocol.ProtocolOutput;
 import org.apache.nutch.protocol.ProtocolStatusCodes;
+import org.apache.nutch.protocol.RobotRulesCache;
 import org.apache.nutch.protocol.RobotRulesParser;
 import org.apache.nutch.storage.WebPage;
 import org.slf4j.Logger;
@@ -57,42 +57,43 @@ public class FtpRobotRulesParser extends RobotRulesParser {
    *  
    *  @return robotRules A {@link BaseRobotRules} object for the rules
    */
-  public BaseRobotRules getRobotRulesSet(Protocol ftp, URL url) {
+  public BaseRobotRules getRobotRulesSet(final Protocol ftp, final URL url) {
 
     String protocol = url.getProtocol().toLowerCase();  // normalize to lower case
     String host = url.getHost().toLowerCase();          // normalize to lower case
 
-    BaseRobotRules robotRules = (SimpleRobotRules) CACHE.get(protocol + ":" + host);
-
-    boolean cacheRule = true;
-
-    if (robotRules == null) {                     // cache miss
+    try {
+      return CACHE.get(protocol + ":" + host, new RobotRulesCache.Loader() {
+        public RobotRulesCache.Result load() {
+          return fetchRules(ftp, url);
+        }
+      });
+    } catch (Exception e) {
+      LOG.info("Couldn't get robots.txt for " + url + ": " + e.toString());
+      return EMPTY_RULES;
+    }
+  }
 
-      if (LOG.isTraceEnabled())
-        LOG.trace("cache miss " + url);
+  private RobotRulesCache.Result fetchRules(Protocol ftp, URL url) {
+    if (LOG.isTraceEnabled())
+      LOG.trace("cache miss " + url);
 
-      try {
-        String robotsUrl = new URL(url, "/robots.txt").toString();        
-        ProtocolOutput output = ((Ftp)ftp).getProtocolOutput(robotsUrl, WebPage.newBuilder().build());
-        int statusCode = output.getStatus().getCode();
+    try {
+      String robotsUrl = new URL(url, "/robots.txt").toString();        
+      ProtocolOutput output = ((Ftp)ftp).getProtocolOutput(robotsUrl, WebPage.newBuilder().build());
+      int statusCode = output.getStatus().getCode();
 
-        if (statusCode == ProtocolStatusCodes.SUCCESS) {
-          robotRules =  parseRules(url.toString(), output.getContent().getContent(), 
-                                  CONTENT_TYPE, agentNames);
-        } else {                                       
-          robotRules = EMPTY_RULES;                 // use default rules
-        }
-      } catch (Throwable t) {
-        if (LOG.isInfoEnabled()) {
-          LOG.info("Couldn't get robots.txt for " + url + ": " + t.toString());
-        }
-        cacheRule = false;
-        robotRules = EMPTY_RULES;
+      if (statusCode == ProtocolStatusCodes.SUCCESS) {
+        return RobotRulesCache.Result.of(parseRules(url.toString(),
+            output.getContent().getContent(), CONTENT_TYPE, agentNames));
+      } else {                                       
+        return RobotRulesCache.Result.of(EMPTY_RULES); // use default rules
       }
-
-      if (cacheRule)
-        CACHE.put(protocol + ":" + host, robotRules);  // cache rules for host
+    } catch (Throwable t) {
+      if (LOG.isInfoEnabled()) {
+        LOG.info("Couldn't get robots.txt for " + url + ": " + t.toString());
+      }
+      return RobotRulesCache.Result.failed(EMPTY_RULES);
     }
-    return robotRules;
   }
 }
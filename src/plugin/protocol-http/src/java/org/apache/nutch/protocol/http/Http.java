@@ -40,8 +40,14 @@ public class Http extends HttpBase {
   static {
     FIELDS.add(WebPage.Field.MODIFIED_TIME);
     FIELDS.add(WebPage.Field.HEADERS);
+    FIELDS.add(WebPage.Field.STATUS);
   }
 
+  /** Number of requests between two log lines with connection pool stats. */
+  private static final long POOL_LOG_INTERVAL = 1000;
+
+  private HttpConnectionPool connectionPool = null;
+
   public Http() {
     super(LOG);
   }
@@ -49,6 +55,13 @@ public class Http extends HttpBase {
   @Override
   public void setConf(Configuration conf) {
     super.setConf(conf);
+    if (conf.getBoolean("http.keep.alive", false)) {
+      int maxPerHost = conf.getInt("http.keep.alive.max.per.host", 2);
+      long idleTimeout = conf.getLong("http.keep.alive.idle.timeout", 10000);
+      connectionPool = new HttpConnectionPool(maxPerHost, idleTimeout);
+      LOG.info("http.keep.alive = true, max.per.host = " + maxPerHost
+          + ", idle.timeout = " + idleTimeout);
+    }
 //    Level logLevel = Level.WARNING;
 //    if (conf.getBoolean("http.verbose", false)) {
 //      logLevel = Level.FINE;
@@ -65,7 +78,23 @@ public class Http extends HttpBase {
   @Override
   protected Response getResponse(URL url, WebPage page, boolean redirect)
     throws ProtocolException, IOException {
-    return new HttpResponse(this, url, page);
+    HttpResponse response = new HttpResponse(this, url, page);
+    if (connectionPool != null && LOG.isInfoEnabled()) {
+      long requests = connectionPool.getHits() + connectionPool.getMisses();
+      if (requests % POOL_LOG_INTERVAL == 0) {
+        LOG.info("Connection pool: " + connectionPool);
+      }
+    }
+    return response;
+  }
+
+  /**
+   * Returns the pool of persistent connections shared by all threads using
+   * this instance, or <code>null</code> if <code>http.keep.alive</code> is
+   * disabled.
+   */
+  public HttpConnectionPool getConnectionPool() {
+    return connectionPool;
   }
 
   public Collection<WebPage.Field> getFields() {
@@ -0,0 +1,209 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.http;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of idle persistent (keep-alive) connections, keyed by
+ * <code>scheme://host:port</code> of the socket end point. Connections are
+ * handed out most recently used first, at most <code>maxPerHost</code> idle
+ * connections are kept per key and connections idle for longer than
+ * <code>idleTimeout</code> milliseconds are closed.
+ * <p>
+ * The pool is shared by all fetcher threads using the same {@link Http}
+ * instance.
+ */
+public class HttpConnectionPool {
+
+  private static class IdleConnection {
+    final Socket socket;
+    final long since;
+
+    IdleConnection(Socket socket, long since) {
+      this.socket = socket;
+      this.since = since;
+    }
+  }
+
+  private final Map<String, LinkedList<IdleConnection>> idle =
+      new HashMap<String, LinkedList<IdleConnection>>();
+
+  private final int maxPerHost;
+  private final long idleTimeout;
+  private long lastSweep = System.currentTimeMillis();
+
+  private final AtomicLong hits = new AtomicLong(0);
+  private final AtomicLong misses = new AtomicLong(0);
+  private final AtomicLong evictions = new AtomicLong(0);
+
+  public HttpConnectionPool(int maxPerHost, long idleTimeout) {
+    this.maxPerHost = maxPerHost;
+    this.idleTimeout = idleTimeout;
+  }
+
+  public static String getKey(String scheme, String host, int port) {
+    return scheme + "://" + host.toLowerCase() + ":" + port;
+  }
+
+  /**
+   * Returns an idle connection to the given end point, or <code>null</code>
+   * if there is none and a new one has to be opened.
+   */
+  public Socket acquire(String key) {
+    Socket socket = null;
+    long now = System.currentTimeMillis();
+    synchronized (this) {
+      sweep(now);
+      LinkedList<IdleConnection> list = idle.get(key);
+      while (list != null && !list.isEmpty() && socket == null) {
+        IdleConnection conn = list.removeFirst();
+        if (now - conn.since < idleTimeout && isUsable(conn.socket)) {
+          socket = conn.socket;
+        } else {
+          close(conn.socket);
+          evictions.incrementAndGet();
+        }
+      }
+      if (list != null && list.isEmpty()) {
+        idle.remove(key);
+      }
+    }
+    if (socket != null) {
+      hits.incrementAndGet();
+    } else {
+      misses.incrementAndGet();
+    }
+    return socket;
+  }
+
+  /**
+   * Hands a connection back after its response has been read completely.
+   * The connection is closed instead if the end point already has
+   * <code>maxPerHost</code> idle connections.
+   */
+  public void release(String key, Socket socket) {
+    if (!isUsable(socket)) {
+      close(socket);
+      return;
+    }
+    long now = System.currentTimeMillis();
+    synchronized (this) {
+      sweep(now);
+      LinkedList<IdleConnection> list = idle.get(key);
+      if (list == null) {
+        list = new LinkedList<IdleConnection>();
+        idle.put(key, list);
+      }
+      if (list.size() < maxPerHost) {
+        list.addFirst(new IdleConnection(socket, now));
+        return;
+      }
+    }
+    close(socket);
+  }
+
+  /** Closes all idle connections. */
+  public synchronized void clear() {
+    for (LinkedList<IdleConnection> list : idle.values()) {
+      for (IdleConnection conn : list) {
+        close(conn.socket);
+      }
+    }
+    idle.clear();
+  }
+
+  public synchronized int getIdleCount() {
+    int count = 0;
+    for (LinkedList<IdleConnection> list : idle.values()) {
+      count += list.size();
+    }
+    return count;
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  @Override
+  public String toString() {
+    long h = hits.get();
+    long total = h + misses.get();
+    return "hits=" + h + ", misses=" + misses.get() + ", evictions="
+        + evictions.get() + ", reuse="
+        + (total == 0 ? 0 : Math.round(h * 1000.0 / total) / 10.0) + "%";
+  }
+
+  // evicts connections idle for too long, at most once per idleTimeout
+  private void sweep(long now) {
+    if (now - lastSweep < idleTimeout) {
+      return;
+    }
+    lastSweep = now;
+    Iterator<LinkedList<IdleConnection>> lists = idle.values().iterator();
+    while (lists.hasNext()) {
+      LinkedList<IdleConnection> list = lists.next();
+      Iterator<IdleConnection> it = list.iterator();
+      while (it.hasNext()) {
+        IdleConnection conn = it.next();
+        if (now - conn.since >= idleTimeout) {
+          it.remove();
+          close(conn.socket);
+          evictions.incrementAndGet();
+        }
+      }
+      if (list.isEmpty()) {
+        lists.remove();
+      }
+    }
+  }
+
+  private static boolean isUsable(Socket socket) {
+    if (socket.isClosed() || !socket.isConnected()
+        || socket.isInputShutdown() || socket.isOutputShutdown()) {
+      return false;
+    }
+    try {
+      // an idle connection must not have pending data
+      return socket.getInputStream().available() == 0;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private static void close(Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException e) {
+      // ignore
+    }
+  }
+}
@@ -20,11 +20,13 @@ package org.apache.nutch.protocol.http;
 
 import org.apache.avro.util.Utf8;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.metadata.HttpHeaders;
 import org.apache.nutch.metadata.Metadata;
 import org.apache.nutch.metadata.SpellCheckedMetadata;
-import org.apache.nutch.net.protocols.HttpDateFormat;
+import org.apache.nutch.net.protocols.ConditionalGet;
 import org.apache.nutch.net.protocols.Response;
 import org.apache.nutch.protocol.ProtocolException;
+import org.apache.nutch.protocol.http.api.ContentBuffer;
 import org.apache.nutch.protocol.http.api.HttpBase;
 import org.apache.nutch.protocol.http.api.HttpException;
 import org.apache.nutch.storage.WebPage;
@@ -49,6 +51,10 @@ public class HttpResponse implements Response {
   private byte[] content;
   private int code;
   private final Metadata headers = new SpellCheckedMetadata();
+  // whether the status line announced HTTP/1.1
+  private boolean http11 = false;
+  // whether the body was read up to its end as given by its framing
+  private boolean bodyComplete = false;
 
   protected enum Scheme {
     HTTP,
@@ -95,137 +101,201 @@ public class HttpResponse implements Response {
       port= url.getPort();
       portString= ":" + port;
     }
-    Socket socket = null;
+    String sockHost = http.useProxy() ? http.getProxyHost() : host;
+    int sockPort = http.useProxy() ? http.getProxyPort() : port;
+    conf = http.getConf();
+
+    HttpConnectionPool pool = (http instanceof Http) ?
+        ((Http) http).getConnectionPool() : null;
+    String poolKey = null;
+    if (pool != null) {
+      poolKey = HttpConnectionPool.getKey(url.getProtocol(), sockHost, sockPort);
+    }
 
+    for (int attempt = 0; ; attempt++) {
+      Socket socket = (pool != null) ? pool.acquire(poolKey) : null;
+      boolean reused = socket != null;
+      boolean release = false;
+      code = 0;
+      try {
+        if (socket == null) {
+          socket = openSocket(scheme, sockHost, sockPort);
+        }
+        release = exchange(socket, page, host, portString, path, pool != null);
+        break;
+      } catch (IOException e) {
+        // a pooled connection may have been closed by the server while idle,
+        // retry once on a new connection if no response was seen yet
+        if (!reused || code != 0 || attempt > 0) {
+          throw e;
+        }
+        if (Http.LOG.isDebugEnabled()) {
+          Http.LOG.debug("Stale pooled connection for " + poolKey + ", retrying: " + e);
+        }
+      } finally {
+        if (socket != null) {
+          if (release) {
+            pool.release(poolKey, socket);
+          } else {
+            socket.close();
+          }
+        }
+      }
+    }
+
+  }
+
+  private Socket openSocket(Scheme scheme, String sockHost, int sockPort)
+      throws IOException {
+    Socket socket = new Socket();               // create the socket
     try {
-      socket = new Socket();                    // create the socket
       socket.setSoTimeout(http.getTimeout());
 
-
       // connect
-      String sockHost = http.useProxy() ? http.getProxyHost() : host;
-      int sockPort = http.useProxy() ? http.getProxyPort() : port;
       InetSocketAddress sockAddr= new InetSocketAddress(sockHost, sockPort);
       socket.connect(sockAddr, http.getTimeout());
-      
+
       if (scheme == Scheme.HTTPS) {
         SSLSocketFactory factory = (SSLSocketFactory)SSLSocketFactory.getDefault();
         SSLSocket sslsocket = (SSLSocket)factory.createSocket(socket, sockHost, sockPort, true);
         sslsocket.setUseClientMode(true);
-        
-        // Get the protocols and ciphers supported by this JVM    
+
+        // Get the protocols and ciphers supported by this JVM
         Set<String> protocols = new HashSet<String>(Arrays.asList(sslsocket.getSupportedProtocols()));
         Set<String> ciphers = new HashSet<String>(Arrays.asList(sslsocket.getSupportedCipherSuites()));
-        
+
         // Intersect with preferred protocols and ciphers
         protocols.retainAll(http.getTlsPreferredProtocols());
         ciphers.retainAll(http.getTlsPreferredCipherSuites());
-        
+
         sslsocket.setEnabledProtocols(protocols.toArray(new String[protocols.size()]));
         sslsocket.setEnabledCipherSuites(ciphers.toArray(new String[ciphers.size()]));
-        
+
         sslsocket.startHandshake();
         socket = sslsocket;
       }
-      
-      conf = http.getConf();
-      if (sockAddr != null
-          && conf.getBoolean("store.ip.address", false) == true) {
-        String ipString = sockAddr.getAddress().getHostAddress(); //get the ip address
-        page.getMetadata().put(new Utf8("_ip_"),
-          ByteBuffer.wrap(ipString.getBytes()));
-      }
+      return socket;
+    } catch (IOException e) {
+      socket.close();
+      throw e;
+    }
+  }
 
-      // make request
-      OutputStream req = socket.getOutputStream();
+  /**
+   * Sends the request and reads the response over the given connection.
+   *
+   * @return true if the connection can be kept open for another request,
+   * i.e. keep-alive was requested and granted and the response body was
+   * consumed completely according to its framing.
+   */
+  private boolean exchange(Socket socket, WebPage page, String host,
+      String portString, String path, boolean keepAlive)
+      throws IOException, HttpException {
+
+    if (conf.getBoolean("store.ip.address", false) == true
+        && socket.getInetAddress() != null) {
+      String ipString = socket.getInetAddress().getHostAddress(); //get the ip address
+      page.getMetadata().put(new Utf8("_ip_"),
+        ByteBuffer.wrap(ipString.getBytes()));
+    }
 
-      StringBuffer reqStr = new StringBuffer("GET ");
-      if (http.useProxy()) {
-      	reqStr.append(url.getProtocol()+"://"+host+portString+path);
-      } else {
-      	reqStr.append(path);
-      }
+    // make request
+    OutputStream req = socket.getOutputStream();
+
+    StringBuffer reqStr = new StringBuffer("GET ");
+    if (http.useProxy()) {
+    	reqStr.append(url.getProtocol()+"://"+host+portString+path);
+    } else {
+    	reqStr.append(path);
+    }
 
+    if (keepAlive) {
+      reqStr.append(" HTTP/1.1\r\n");
+    } else {
       reqStr.append(" HTTP/1.0\r\n");
+    }
 
-      reqStr.append("Host: ");
-      reqStr.append(host);
-      reqStr.append(portString);
-      reqStr.append("\r\n");
+    reqStr.append("Host: ");
+    reqStr.append(host);
+    reqStr.append(portString);
+    reqStr.append("\r\n");
 
-      reqStr.append("Accept-Encoding: x-gzip, gzip\r\n");
+    if (keepAlive) {
+      reqStr.append("Connection: keep-alive\r\n");
+    }
 
-      reqStr.append("Accept: ");
-      reqStr.append(this.http.getAccept());
-      reqStr.append("\r\n");
+    reqStr.append("Accept-Encoding: x-gzip, gzip\r\n");
 
-      String userAgent = http.getUserAgent();
-      if ((userAgent == null) || (userAgent.length() == 0)) {
-        if (Http.LOG.isErrorEnabled()) { Http.LOG.error("User-agent is not set!"); }
-      } else {
-        reqStr.append("User-Agent: ");
-        reqStr.append(userAgent);
-        reqStr.append("\r\n");
-      }
+    reqStr.append("Accept: ");
+    reqStr.append(this.http.getAccept());
+    reqStr.append("\r\n");
 
-//      if (page.isReadable(WebPage.Field.MODIFIED_TIME.getIndex())) {
-        reqStr.append("If-Modified-Since: " +
-                      HttpDateFormat.toString(page.getModifiedTime()));
-        reqStr.append("\r\n");
-//      }
+    String userAgent = http.getUserAgent();
+    if ((userAgent == null) || (userAgent.length() == 0)) {
+      if (Http.LOG.isErrorEnabled()) { Http.LOG.error("User-agent is not set!"); }
+    } else {
+      reqStr.append("User-Agent: ");
+      reqStr.append(userAgent);
       reqStr.append("\r\n");
+    }
 
-      byte[] reqBytes= reqStr.toString().getBytes();
+    String ifModifiedSince = ConditionalGet.getIfModifiedSince(page);
+    if (ifModifiedSince != null) {
+      reqStr.append("If-Modified-Since: ");
+      reqStr.append(ifModifiedSince);
+      reqStr.append("\r\n");
+    }
+    String ifNoneMatch = ConditionalGet.getIfNoneMatch(page);
+    if (ifNoneMatch != null) {
+      reqStr.append("If-None-Match: ");
+      reqStr.append(ifNoneMatch);
+      reqStr.append("\r\n");
+    }
+    reqStr.append("\r\n");
 
-      req.write(reqBytes);
-      req.flush();
+    byte[] reqBytes= reqStr.toString().getBytes();
 
-      PushbackInputStream in =                  // process response
-        new PushbackInputStream(
-          new BufferedInputStream(socket.getInputStream(), Http.BUFFER_SIZE),
-          Http.BUFFER_SIZE) ;
+    req.write(reqBytes);
+    req.flush();
 
-      StringBuffer line = new StringBuffer();
+    PushbackInputStream in =                  // process response
+      new PushbackInputStream(
+        new BufferedInputStream(socket.getInputStream(), Http.BUFFER_SIZE),
+        Http.BUFFER_SIZE) ;
 
-      boolean haveSeenNonContinueStatus= false;
-      while (!haveSeenNonContinueStatus) {
-        // parse status code line
-        this.code = parseStatusLine(in, line);
-        // parse headers
-        parseHeaders(in, line);
-        haveSeenNonContinueStatus= code != 100; // 100 is "Continue"
-      }
+    StringBuffer line = new StringBuffer();
 
-      String transferEncoding = getHeader(Response.TRANSFER_ENCODING);
-      if (transferEncoding != null
-          && "chunked".equalsIgnoreCase(transferEncoding.trim())) {
-        readChunkedContent(in, line);
-      } else {
-        readPlainContent(in);
-      }
+    boolean haveSeenNonContinueStatus= false;
+    while (!haveSeenNonContinueStatus) {
+      // parse status code line
+      this.code = parseStatusLine(in, line);
+      // parse headers
+      parseHeaders(in, line);
+      haveSeenNonContinueStatus= code != 100; // 100 is "Continue"
+    }
 
-      String contentEncoding = getHeader(Response.CONTENT_ENCODING);
-      if ("gzip".equals(contentEncoding) || "x-gzip".equals(contentEncoding)) {
-        content = http.processGzipEncoded(content, url);
-      } else {
-        if (Http.LOG.isTraceEnabled()) {
-          Http.LOG.trace("fetched " + content.length + " bytes from " + url);
-        }
-      }
+    if (code == 204 || code == 304) {
+      // responses which never carry a body
+      content = new byte[0];
+      bodyComplete = true;
+    } else {
+      readContent(in, line);
+    }
+    if (Http.LOG.isTraceEnabled()) {
+      Http.LOG.trace("fetched " + content.length + " bytes from " + url);
+    }
 
-      // add headers in metadata to row
-      if (page.getHeaders() != null) {
-        page.getHeaders().clear();
-      }
-      for (String key : headers.names()) {
-        page.getHeaders().put(new Utf8(key), new Utf8(headers.get(key)));
-      }
+    // add headers in metadata to row
+    ConditionalGet.setHeaders(page, code, headers);
 
-    } finally {
-      if (socket != null)
-        socket.close();
+    if (!keepAlive || !bodyComplete || in.available() > 0) {
+      return false;
     }
-
+    String connection = getHeader(HttpHeaders.CONNECTION);
+    if (http11) {
+      return connection == null || !"close".equalsIgnoreCase(connection.trim());
+    }
+    return connection != null && "keep-alive".equalsIgnoreCase(connection.trim());
   }
 
 
@@ -258,137 +328,181 @@ public class HttpResponse implements Response {
    * ------------------------- */
 
 
-  private void readPlainContent(InputStream in)
-    throws HttpException, IOException {
+  /**
+   * Reads the body up to the content limit, decoding its content encoding on
+   * the way.
+   */
+  private void readContent(PushbackInputStream in, StringBuffer line)
+      throws HttpException, IOException {
 
-    int contentLength = Integer.MAX_VALUE;    // get content length
-    String contentLengthString = headers.get(Response.CONTENT_LENGTH);
-    if (contentLengthString != null) {
-      contentLengthString = contentLengthString.trim();
-      try {
-        if (!contentLengthString.isEmpty())
-          contentLength = Integer.parseInt(contentLengthString);
-      } catch (NumberFormatException e) {
-        throw new HttpException("bad content length: "+contentLengthString);
+    int contentLength = -1;
+    BodyInputStream body = null;
+    String transferEncoding = getHeader(Response.TRANSFER_ENCODING);
+    if (transferEncoding != null
+        && "chunked".equalsIgnoreCase(transferEncoding.trim())) {
+      body = new ChunkedInputStream(in, line);
+    } else {
+      String contentLengthString = headers.get(Response.CONTENT_LENGTH);
+      if (contentLengthString != null) {
+        contentLengthString = contentLengthString.trim();
+        try {
+          if (!contentLengthString.isEmpty()) {
+            contentLength = Integer.parseInt(contentLengthString);
+          }
+        } catch (NumberFormatException e) {
+          throw new HttpException("bad content length: "+contentLengthString);
+        }
+      }
+      if (contentLength >= 0) {
+        body = new FixedLengthInputStream(in, contentLength);
       }
     }
-    if (http.getMaxContent() >= 0
-      && contentLength > http.getMaxContent())   // limit download size
-      contentLength  = http.getMaxContent();
 
-    ByteArrayOutputStream out = new ByteArrayOutputStream(Http.BUFFER_SIZE);
-    byte[] bytes = new byte[Http.BUFFER_SIZE];
-    int length = 0;
-    // read content
-    int i = in.read(bytes);
-    while (i != -1) {
-      out.write(bytes, 0, i);
-      length += i;
-      if (length >= contentLength) {
-        break;
-      }
-      if ((length + Http.BUFFER_SIZE) > contentLength) {
-        // reading next chunk may hit contentLength,
-        // must limit number of bytes read
-        i = in.read(bytes, 0, (contentLength - length));
-      } else {
-        i = in.read(bytes);
+    ContentBuffer buffer = ContentBuffer.get();
+    content = buffer.read(body != null ? body : in,
+        getHeader(Response.CONTENT_ENCODING), contentLength,
+        http.getMaxContent());
+
+    // without framing the body ends with the connection
+    if (body != null) {
+      try {
+        skipRest(body);
+      } catch (IOException e) {
+        // the connection is not reused
       }
+      bodyComplete = body.isAtEnd();
     }
-    content = out.toByteArray();
   }
 
   /**
-   * 
-   * @param in
-   * @param line
-   * @throws HttpException
-   * @throws IOException
+   * Reads what is left of a body after a truncated or compressed content,
+   * if it is short, so that the connection can be reused.
    */
-  @SuppressWarnings("unused")
-  private void readChunkedContent(PushbackInputStream in, StringBuffer line)
-      throws HttpException, IOException {
-    boolean doneChunks = false;
-    int contentBytesRead = 0;
+  private static void skipRest(InputStream body) throws IOException {
     byte[] bytes = new byte[Http.BUFFER_SIZE];
-    ByteArrayOutputStream out = new ByteArrayOutputStream(Http.BUFFER_SIZE);
-
-    while (!doneChunks) {
-      if (Http.LOG.isTraceEnabled()) {
-        Http.LOG.trace("Http: starting chunk");
-      }
+    int skipped = 0;
+    int i;
+    while (skipped < bytes.length
+        && (i = body.read(bytes, 0, bytes.length - skipped)) != -1) {
+      skipped += i;
+    }
+  }
 
-      readLine(in, line, false);
+  /** The body of a response, which knows where it ends. */
+  private static abstract class BodyInputStream extends InputStream {
 
-      String chunkLenStr;
-      // if (LOG.isTraceEnabled()) { LOG.trace("chunk-header: '" + line + "'");
-      // }
+    /** Whether the body was read up to its end. */
+    abstract boolean isAtEnd();
 
-      int pos = line.indexOf(";");
-      if (pos < 0) {
-        chunkLenStr = line.toString();
-      } else {
-        chunkLenStr = line.substring(0, pos);
-        // if (LOG.isTraceEnabled()) { LOG.trace("got chunk-ext: " +
-        // line.substring(pos+1)); }
-      }
-      chunkLenStr = chunkLenStr.trim();
-      int chunkLen;
-      try {
-        chunkLen = Integer.parseInt(chunkLenStr, 16);
-      } catch (NumberFormatException e) {
-        throw new HttpException("bad chunk length: " + line.toString());
-      }
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+    }
+  }
 
-      if (chunkLen == 0) {
-        doneChunks = true;
-        break;
-      }
+  /** A body of the length given by <code>Content-Length</code>. */
+  private static class FixedLengthInputStream extends BodyInputStream {
+    private final InputStream in;
+    private int remaining;
 
-      if (http.getMaxContent() >= 0
-          && (contentBytesRead + chunkLen) > http.getMaxContent())
-        chunkLen = http.getMaxContent() - contentBytesRead;
+    FixedLengthInputStream(InputStream in, int length) {
+      this.in = in;
+      this.remaining = length;
+    }
 
-      // read one chunk
-      int chunkBytesRead = 0;
-      while (chunkBytesRead < chunkLen) {
+    @Override
+    boolean isAtEnd() {
+      return remaining == 0;
+    }
 
-        int toRead = (chunkLen - chunkBytesRead) < Http.BUFFER_SIZE ? (chunkLen - chunkBytesRead)
-            : Http.BUFFER_SIZE;
-        int len = in.read(bytes, 0, toRead);
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (remaining == 0) {
+        return -1;
+      }
+      int i = in.read(b, off, Math.min(len, remaining));
+      if (i > 0) {
+        remaining -= i;
+      }
+      return i;
+    }
+  }
 
-        if (len == -1)
-          throw new HttpException("chunk eof after " + contentBytesRead
-              + " bytes in successful chunks" + " and " + chunkBytesRead
-              + " in current chunk");
+  /** A body in chunked transfer encoding, trailers are added to the headers. */
+  private class ChunkedInputStream extends BodyInputStream {
+    private final PushbackInputStream in;
+    private final StringBuffer line;
+    private int chunkRemaining;
+    private int contentBytesRead;
+    private boolean started;
+    private boolean doneChunks;
+
+    ChunkedInputStream(PushbackInputStream in, StringBuffer line) {
+      this.in = in;
+      this.line = line;
+    }
 
-        // DANGER!!! Will printed GZIPed stuff right to your
-        // terminal!
-        // if (LOG.isTraceEnabled()) { LOG.trace("read: " + new String(bytes, 0,
-        // len)); }
+    @Override
+    boolean isAtEnd() {
+      return doneChunks;
+    }
 
-        out.write(bytes, 0, len);
-        chunkBytesRead += len;
+    /** Moves to the next chunk, returns false after the last one. */
+    private boolean nextChunk() throws IOException {
+      if (started) {
+        // the line break after the previous chunk
+        readLine(in, line, false);
+      }
+      started = true;
+      if (Http.LOG.isTraceEnabled()) {
+        Http.LOG.trace("Http: starting chunk");
       }
-
       readLine(in, line, false);
+      int pos = line.indexOf(";");
+      String chunkLenStr = pos < 0 ? line.toString() : line.substring(0, pos);
+      try {
+        chunkRemaining = Integer.parseInt(chunkLenStr.trim(), 16);
+      } catch (NumberFormatException e) {
+        throw new IOException("bad chunk length: " + line.toString());
+      }
+      if (chunkRemaining < 0) {
+        throw new IOException("bad chunk length: " + line.toString());
+      }
+      if (chunkRemaining == 0) {
+        doneChunks = true;
+        try {
+          parseHeaders(in, line);
+        } catch (HttpException e) {
+          throw new IOException(e.getMessage());
+        }
+        return false;
+      }
+      return true;
     }
 
-    if (!doneChunks) {
-      if (contentBytesRead != http.getMaxContent())
-        throw new HttpException("chunk eof: !doneChunk && didn't max out");
-      return;
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (doneChunks || (chunkRemaining == 0 && !nextChunk())) {
+        return -1;
+      }
+      int i = in.read(b, off, Math.min(len, chunkRemaining));
+      if (i == -1) {
+        throw new EOFException("chunk eof after " + contentBytesRead
+            + " bytes, " + chunkRemaining + " bytes missing in current chunk");
+      }
+      chunkRemaining -= i;
+      contentBytesRead += i;
+      return i;
     }
-
-    content = out.toByteArray();
-    parseHeaders(in, line);
-
   }
-  
+
   private int parseStatusLine(PushbackInputStream in, StringBuffer line)
     throws IOException, HttpException {
     readLine(in, line, false);
 
+    http11 = line.indexOf("HTTP/1.1") == 0;
+
     int codeStart = line.indexOf(" ");
     int codeEnd = line.indexOf(" ", codeStart+1);
 
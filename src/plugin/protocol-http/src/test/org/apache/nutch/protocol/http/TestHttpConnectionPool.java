@@ -0,0 +1,275 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.http;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.avro.util.Utf8;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.crawl.CrawlStatus;
+import org.apache.nutch.protocol.ProtocolStatusCodes;
+import org.apache.nutch.protocol.ProtocolOutput;
+import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.NutchConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for the keep-alive connection pool of protocol-http.
+ */
+public class TestHttpConnectionPool {
+
+  private ServerSocket server;
+  private Thread serverThread;
+  private final AtomicInteger accepted = new AtomicInteger(0);
+
+  /** Responses served in turn on every connection, until one says close. */
+  private String[] responses;
+
+  /** The request and header lines received. */
+  private final List<String> requests = Collections
+      .synchronizedList(new ArrayList<String>());
+
+  @Before
+  public void setUp() throws Exception {
+    server = new ServerSocket(0);
+    serverThread = new Thread() {
+      @Override
+      public void run() {
+        try {
+          while (true) {
+            Socket socket = server.accept();
+            accepted.incrementAndGet();
+            serve(socket);
+          }
+        } catch (IOException e) {
+          // server closed
+        }
+      }
+    };
+    serverThread.setDaemon(true);
+    serverThread.start();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    server.close();
+  }
+
+  private void serve(Socket socket) throws IOException {
+    BufferedReader in = new BufferedReader(new InputStreamReader(
+        socket.getInputStream(), "ISO-8859-1"));
+    OutputStream out = socket.getOutputStream();
+    int i = 0;
+    try {
+      while (true) {
+        String line;
+        // skip request line and headers
+        while ((line = in.readLine()) != null && line.length() > 0) {
+          requests.add(line);
+        }
+        if (line == null) {
+          return;
+        }
+        String response = responses[i++ % responses.length];
+        out.write(response.getBytes("ISO-8859-1"));
+        out.flush();
+        if (response.contains("Connection: close")) {
+          return;
+        }
+      }
+    } finally {
+      socket.close();
+    }
+  }
+
+  private Http createHttp(boolean keepAlive) {
+    return createHttp(keepAlive, 64 * 1024);
+  }
+
+  private Http createHttp(boolean keepAlive, int contentLimit) {
+    Configuration conf = NutchConfiguration.create();
+    conf.set("http.agent.name", "test");
+    conf.setBoolean("http.keep.alive", keepAlive);
+    conf.setInt("http.content.limit", contentLimit);
+    Http http = new Http();
+    http.setConf(conf);
+    return http;
+  }
+
+  private String fetch(Http http, String path) throws Exception {
+    String url = "http://127.0.0.1:" + server.getLocalPort() + path;
+    ProtocolOutput out = http.getProtocolOutput(url,
+        WebPage.newBuilder().build());
+    return new String(out.getContent().getContent(), "UTF-8");
+  }
+
+  @Test
+  public void testContentLengthReuse() throws Exception {
+    responses = new String[] {
+        "HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nContent-Length: 5\r\n\r\nhello" };
+    Http http = createHttp(true);
+    for (int i = 0; i < 3; i++) {
+      assertEquals("hello", fetch(http, "/" + i));
+    }
+    assertEquals(1, accepted.get());
+    assertEquals(2, http.getConnectionPool().getHits());
+    assertEquals(1, http.getConnectionPool().getMisses());
+  }
+
+  @Test
+  public void testChunkedReuse() throws Exception {
+    responses = new String[] {
+        "HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nTransfer-Encoding: chunked\r\n\r\n"
+        + "3\r\nabc\r\n2\r\nde\r\n0\r\n\r\n" };
+    Http http = createHttp(true);
+    assertEquals("abcde", fetch(http, "/a"));
+    assertEquals("abcde", fetch(http, "/b"));
+    assertEquals(1, accepted.get());
+  }
+
+  @Test
+  public void testGzipChunkedReuse() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+    gzip.write("compressed content".getBytes("UTF-8"));
+    gzip.close();
+    String body = new String(bytes.toByteArray(), "ISO-8859-1");
+    responses = new String[] {
+        "HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nContent-Encoding: gzip\r\n"
+        + "Transfer-Encoding: chunked\r\n\r\n"
+        + Integer.toHexString(5) + "\r\n" + body.substring(0, 5) + "\r\n"
+        + Integer.toHexString(body.length() - 5) + "\r\n" + body.substring(5)
+        + "\r\n0\r\n\r\n" };
+    Http http = createHttp(true);
+    assertEquals("compressed content", fetch(http, "/a"));
+    assertEquals("compressed content", fetch(http, "/b"));
+    assertEquals(1, accepted.get());
+  }
+
+  @Test
+  public void testTruncated() throws Exception {
+    responses = new String[] {
+        "HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nContent-Length: 10\r\n\r\n0123456789" };
+    Http http = createHttp(true, 4);
+    assertEquals("0123", fetch(http, "/a"));
+    // the rest of a short body is skipped, the connection is reused
+    assertEquals("0123", fetch(http, "/b"));
+    assertEquals(1, accepted.get());
+  }
+
+  @Test
+  public void testNotModified() throws Exception {
+    responses = new String[] {
+        "HTTP/1.1 304 Not Modified\r\nETag: \"v2\"\r\n\r\n",
+        "HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nContent-Length: 2\r\n\r\nok" };
+    Http http = createHttp(true);
+    WebPage page = WebPage.newBuilder().build();
+    page.setStatus((int) CrawlStatus.STATUS_FETCHED);
+    page.setModifiedTime(1413102600000L);
+    page.getHeaders().put(new Utf8("ETag"), new Utf8("\"v1\""));
+    page.getHeaders().put(new Utf8("Content-Type"), new Utf8("text/plain"));
+    String url = "http://127.0.0.1:" + server.getLocalPort() + "/a";
+    ProtocolOutput out = http.getProtocolOutput(url, page);
+    assertEquals(ProtocolStatusCodes.NOTMODIFIED, out.getStatus().getCode().intValue());
+    assertEquals(0, out.getContent().getContent().length);
+    assertTrue(requests.contains("If-None-Match: \"v1\""));
+    assertTrue(requests.contains("If-Modified-Since: Sun, 12 Oct 2014 08:30:00 GMT"));
+    // the headers of the 304 update the stored ones
+    assertEquals(new Utf8("\"v2\""), page.getHeaders().get(new Utf8("ETag")));
+    assertEquals(new Utf8("text/plain"),
+        page.getHeaders().get(new Utf8("Content-Type")));
+
+    // the body-less response leaves the connection reusable
+    assertEquals("ok", fetch(http, "/b"));
+    assertEquals(1, accepted.get());
+    assertFalse(requests.contains("If-None-Match: \"v2\""));
+  }
+
+  @Test
+  public void testConnectionClose() throws Exception {
+    responses = new String[] {
+        "HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nContent-Length: 2\r\nConnection: close\r\n\r\nok" };
+    Http http = createHttp(true);
+    assertEquals("ok", fetch(http, "/a"));
+    assertEquals("ok", fetch(http, "/b"));
+    assertEquals(2, accepted.get());
+    assertEquals(0, http.getConnectionPool().getHits());
+  }
+
+  @Test
+  public void testUnframedBodyNotReused() throws Exception {
+    // no Content-Length: body ends with the connection
+    responses = new String[] {
+        "HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nConnection: close\r\n\r\nbody" };
+    Http http = createHttp(true);
+    assertEquals("body", fetch(http, "/a"));
+    assertEquals(0, http.getConnectionPool().getIdleCount());
+  }
+
+  @Test
+  public void testDisabled() throws Exception {
+    responses = new String[] {
+        "HTTP/1.0 200 OK\r\nContent-Type: text/plain\r\nConnection: close\r\n\r\nold" };
+    Http http = createHttp(false);
+    assertNull(http.getConnectionPool());
+    assertEquals("old", fetch(http, "/a"));
+    assertEquals("old", fetch(http, "/b"));
+    assertEquals(2, accepted.get());
+  }
+
+  @Test
+  public void testMaxPerHostAndEviction() throws Exception {
+    HttpConnectionPool pool = new HttpConnectionPool(1, 60000);
+    String key = HttpConnectionPool.getKey("http", "127.0.0.1",
+        server.getLocalPort());
+    responses = new String[] { "" };
+    Socket s1 = new Socket("127.0.0.1", server.getLocalPort());
+    Socket s2 = new Socket("127.0.0.1", server.getLocalPort());
+    pool.release(key, s1);
+    pool.release(key, s2);
+    assertEquals(1, pool.getIdleCount());
+    assertTrue(s2.isClosed());
+    assertSame(s1, pool.acquire(key));
+    assertNull(pool.acquire(key));
+    assertEquals(1, pool.getHits());
+    assertEquals(1, pool.getMisses());
+    s1.close();
+
+    pool = new HttpConnectionPool(2, 0);
+    Socket s3 = new Socket("127.0.0.1", server.getLocalPort());
+    pool.release(key, s3);
+    // idle timeout of 0 evicts at once
+    assertNull(pool.acquire(key));
+    assertTrue(s3.isClosed());
+    assertEquals(1, pool.getEvictions());
+  }
+}
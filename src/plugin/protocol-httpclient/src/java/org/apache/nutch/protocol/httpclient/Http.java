@@ -94,6 +94,7 @@ public class Http extends HttpBase {
 	static {
 		FIELDS.add(WebPage.Field.MODIFIED_TIME);
 		FIELDS.add(WebPage.Field.HEADERS);
+		FIELDS.add(WebPage.Field.STATUS);
 	}
 
 	@Override
@@ -17,13 +17,11 @@
 package org.apache.nutch.protocol.httpclient;
 
 // JDK imports
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 
 // HTTP Client imports
-import org.apache.avro.util.Utf8;
 import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpVersion;
 import org.apache.commons.httpclient.cookie.CookiePolicy;
@@ -34,9 +32,9 @@ import org.apache.commons.httpclient.HttpException;
 // Nutch imports
 import org.apache.nutch.metadata.Metadata;
 import org.apache.nutch.metadata.SpellCheckedMetadata;
-import org.apache.nutch.net.protocols.HttpDateFormat;
+import org.apache.nutch.net.protocols.ConditionalGet;
 import org.apache.nutch.net.protocols.Response;
-import org.apache.nutch.protocol.http.api.HttpBase;
+import org.apache.nutch.protocol.http.api.ContentBuffer;
 import org.apache.nutch.storage.WebPage;
 
 /**
@@ -71,9 +69,13 @@ public class HttpResponse implements Response {
     GetMethod get = new GetMethod(url.toString());
     get.setFollowRedirects(followRedirects);
     get.setDoAuthentication(true);
-    if (page.getModifiedTime() > 0) {
-      get.setRequestHeader("If-Modified-Since",
-          HttpDateFormat.toString(page.getModifiedTime()));
+    String ifModifiedSince = ConditionalGet.getIfModifiedSince(page);
+    if (ifModifiedSince != null) {
+      get.setRequestHeader("If-Modified-Since", ifModifiedSince);
+    }
+    String ifNoneMatch = ConditionalGet.getIfNoneMatch(page);
+    if (ifNoneMatch != null) {
+      get.setRequestHeader("If-None-Match", ifNoneMatch);
     }
 
     // Set HTTP parameters
@@ -100,8 +102,7 @@ public class HttpResponse implements Response {
         headers.set(heads[i].getName(), heads[i].getValue());
       }
       
-      // Limit download size
-      int contentLength = Integer.MAX_VALUE;
+      int contentLength = -1;
       String contentLengthString = headers.get(Response.CONTENT_LENGTH);
       if (contentLengthString != null) {
         try {
@@ -111,26 +112,19 @@ public class HttpResponse implements Response {
               contentLengthString);
         }
       }
-      if (http.getMaxContent() >= 0 &&
-          contentLength > http.getMaxContent()) {
-        contentLength = http.getMaxContent();
-      }
 
       // always read content. Sometimes content is useful to find a cause
-      // for error.
+      // for error. 304 responses have no body. The content is decoded
+      // while reading, and reading stops at the download size limit.
+      String contentEncoding = headers.get(Response.CONTENT_ENCODING);
       InputStream in = get.getResponseBodyAsStream();
       try {
-        byte[] buffer = new byte[HttpBase.BUFFER_SIZE];
-        int bufferFilled = 0;
-        int totalRead = 0;
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        while ((bufferFilled = in.read(buffer, 0, buffer.length)) != -1
-            && totalRead + bufferFilled <= contentLength) {
-          totalRead += bufferFilled;
-          out.write(buffer, 0, bufferFilled);
+        if (code == 304 || in == null) {
+          content = new byte[0];
+        } else {
+          content = ContentBuffer.get().read(in, contentEncoding,
+              contentLength, http.getMaxContent());
         }
-
-        content = out.toByteArray();
       } catch (Exception e) {
         if (code == 200) throw new IOException(e.toString());
         // for codes other than 200 OK, we are fine with empty content
@@ -153,31 +147,11 @@ public class HttpResponse implements Response {
         if (getHeader(Response.LOCATION) != null)
           fetchTrace.append("; Location: " + getHeader(Response.LOCATION));
       }
-      // Extract gzip, x-gzip and deflate content
-      if (content != null) {
-        // check if we have to uncompress it
-        String contentEncoding = headers.get(Response.CONTENT_ENCODING);
-        if (contentEncoding != null && Http.LOG.isTraceEnabled())
-          fetchTrace.append("; Content-Encoding: " + contentEncoding);
-        if ("gzip".equals(contentEncoding) ||
-            "x-gzip".equals(contentEncoding)) {
-          content = http.processGzipEncoded(content, url);
-          if (Http.LOG.isTraceEnabled())
-            fetchTrace.append("; extracted to " + content.length + " bytes");
-        } else if ("deflate".equals(contentEncoding)) {
-          content = http.processDeflateEncoded(content, url);
-          if (Http.LOG.isTraceEnabled())
-            fetchTrace.append("; extracted to " + content.length + " bytes");
-        }
-      }
+      if (contentEncoding != null && Http.LOG.isTraceEnabled())
+        fetchTrace.append("; Content-Encoding: " + contentEncoding);
       
       // add headers in metadata to row
-	  if (page.getHeaders() != null) {
-	    page.getHeaders().clear();
-	  }
-	  for (String key : headers.names()) {
-	    page.getHeaders().put(new Utf8(key), new Utf8(headers.get(key)));
-	  }
+      ConditionalGet.setHeaders(page, code, headers);
 
       // Logger trace message
       if (Http.LOG.isTraceEnabled()) {
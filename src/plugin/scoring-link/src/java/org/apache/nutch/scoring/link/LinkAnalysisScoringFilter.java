@@ -16,6 +16,7 @@
  */
 package org.apache.nutch.scoring.link;
 
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
@@ -26,8 +27,15 @@ import org.apache.nutch.indexer.NutchDocument;
 import org.apache.nutch.scoring.ScoreDatum;
 import org.apache.nutch.scoring.ScoringFilter;
 import org.apache.nutch.scoring.ScoringFilterException;
+import org.apache.nutch.scoring.webgraph.LinkRankJob;
 import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.Bytes;
 
+/**
+ * Uses the rank computed by the {@link LinkRankJob} to sort pages for
+ * generation and to boost them in the index. Pages which have not been
+ * ranked yet fall back to their score.
+ */
 public class LinkAnalysisScoringFilter implements ScoringFilter {
 
 	private Configuration conf;
@@ -71,7 +79,7 @@ public class LinkAnalysisScoringFilter implements ScoringFilter {
 	@Override
 	public float generatorSortValue(String url, WebPage page, float initSort)
 			throws ScoringFilterException {
-		return page.getScore() * initSort;
+		return getRank(page) * initSort;
 	}
 
 	@Override
@@ -88,7 +96,15 @@ public class LinkAnalysisScoringFilter implements ScoringFilter {
 	@Override
 	public float indexerScore(String url, NutchDocument doc, WebPage page,
 			float initScore) throws ScoringFilterException {
-		return (normalizedScore * page.getScore());
+		return (normalizedScore * getRank(page));
+	}
+
+	private float getRank(WebPage page) {
+		ByteBuffer rank = page.getMetadata().get(LinkRankJob.LINK_RANK);
+		if (rank == null || rank.remaining() != Bytes.SIZEOF_FLOAT) {
+			return page.getScore();
+		}
+		return Bytes.toFloat(rank.array(), rank.arrayOffset() + rank.position());
 	}
 
 }
@@ -17,6 +17,6 @@
 
 /**
  * Scoring filter used in conjunction with
- * {@link org.apache.nutch.scoring.webgraph.WebGraph}.
+ * {@link org.apache.nutch.scoring.webgraph.LinkRankJob}.
  */
 package org.apache.nutch.scoring.link;
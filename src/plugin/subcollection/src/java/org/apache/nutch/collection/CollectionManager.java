@@ -53,6 +53,42 @@ public class CollectionManager extends Configured {
 
 	transient URL configfile;
 
+	/** The patterns of all collections, compiled for getSubCollections */
+	private transient volatile CompiledCollections compiled;
+
+	/**
+	 * The blacklist and whitelist patterns of all collections in one matcher.
+	 * The id of a whitelist pattern is twice the index of its collection, the
+	 * id of a blacklist pattern one more.
+	 */
+	private static class CompiledCollections {
+		final Subcollection[] collections;
+		final PatternMatcher matcher;
+		final int modifications;
+
+		CompiledCollections(Collection<Subcollection> all, int modifications) {
+			this.collections = all.toArray(new Subcollection[all.size()]);
+			this.modifications = modifications;
+			List<String> patterns = new ArrayList<String>();
+			List<Integer> ids = new ArrayList<Integer>();
+			for (int i = 0; i < collections.length; i++) {
+				for (String pattern : collections[i].whiteList) {
+					patterns.add(pattern);
+					ids.add(2 * i);
+				}
+				for (String pattern : collections[i].blackList) {
+					patterns.add(pattern);
+					ids.add(2 * i + 1);
+				}
+			}
+			int[] idArray = new int[ids.size()];
+			for (int i = 0; i < idArray.length; i++) {
+				idArray[i] = ids.get(i);
+			}
+			this.matcher = new PatternMatcher(patterns, idArray);
+		}
+	}
+
 	public CollectionManager(Configuration conf) {
 		super(conf);
 		init();
@@ -101,6 +137,7 @@ public class CollectionManager extends Configured {
 				subCol.initialize(scElem);
 				collectionMap.put(subCol.name, subCol);
 			}
+			compiled = null;
 		} else if (LOG.isInfoEnabled()) {
 			LOG.info("Cannot find collections");
 		}
@@ -145,6 +182,7 @@ public class CollectionManager extends Configured {
 		final Subcollection subCol = getSubColection(id);
 		if (subCol != null) {
 			collectionMap.remove(id);
+			compiled = null;
 		}
 	}
 
@@ -161,13 +199,36 @@ public class CollectionManager extends Configured {
 		if (!collectionMap.containsKey(id)) {
 			subCol = new Subcollection(id, name, getConf());
 			collectionMap.put(id, subCol);
+			compiled = null;
 		}
 
 		return subCol;
 	}
 
 	/**
-	 * Return names of collections url is part of
+	 * Returns the patterns of all collections compiled, compiling them again
+	 * if collections or their lists changed.
+	 */
+	private CompiledCollections getCompiled() {
+		CompiledCollections current = compiled;
+		int modifications = Subcollection.MODIFICATIONS.get();
+		if (current == null || current.modifications != modifications) {
+			synchronized (this) {
+				current = compiled;
+				if (current == null || current.modifications != modifications) {
+					current = new CompiledCollections(collectionMap.values(),
+							modifications);
+					compiled = current;
+				}
+			}
+		}
+		return current;
+	}
+
+	/**
+	 * Return names of collections url is part of. The patterns of all
+	 * collections are matched in a single pass over the url, with the same
+	 * result as {@link Subcollection#filter(String)} for every collection.
 	 * 
 	 * @param url
 	 *            The url to test against Collections
@@ -175,12 +236,14 @@ public class CollectionManager extends Configured {
 	 */
 	public List<String> getSubCollections(final String url) {
 		List<String> collections = new ArrayList<String>();
-		final Iterator<Subcollection> iterator = collectionMap.values().iterator();
+		final CompiledCollections current = getCompiled();
+		final boolean[] matched = new boolean[2 * current.collections.length];
+		current.matcher.match(url, matched);
 
-		while (iterator.hasNext()) {
-			final Subcollection subCol = iterator.next();
-			if (subCol.filter(url) != null) {
-				collections.add(subCol.name);
+		for (int i = 0; i < current.collections.length; i++) {
+			// whitelisted and not blacklisted
+			if (matched[2 * i] && !matched[2 * i + 1]) {
+				collections.add(current.collections[i].name);
 			}
 		}
 		if (LOG.isTraceEnabled()) {
@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.collection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Finds which of a set of patterns occur in a text in a single pass over the
+ * text, however many patterns there are (Aho-Corasick).
+ * <p>
+ * Every pattern is given an id, several patterns may share an id. A matcher
+ * is not changed by matching and can be used by several threads.
+ */
+class PatternMatcher {
+
+  private static final int[] NONE = new int[0];
+
+  /** The characters leading to the children of a node, sorted */
+  private final char[][] labels;
+  /** The children of a node, in the order of their labels */
+  private final int[][] children;
+  /** The node of the longest proper suffix which is in the trie */
+  private final int[] fail;
+  /** The ids of the patterns ending at a node */
+  private final int[][] outputs;
+
+  /**
+   * @param patterns
+   *          the patterns
+   * @param ids
+   *          the id of each pattern
+   */
+  PatternMatcher(List<String> patterns, int[] ids) {
+    // the trie of all patterns
+    List<Map<Character, Integer>> trie = new ArrayList<Map<Character, Integer>>();
+    List<List<Integer>> found = new ArrayList<List<Integer>>();
+    trie.add(new TreeMap<Character, Integer>());
+    found.add(new ArrayList<Integer>());
+    for (int p = 0; p < patterns.size(); p++) {
+      String pattern = patterns.get(p);
+      int node = 0;
+      for (int i = 0; i < pattern.length(); i++) {
+        Integer child = trie.get(node).get(pattern.charAt(i));
+        if (child == null) {
+          child = trie.size();
+          trie.get(node).put(pattern.charAt(i), child);
+          trie.add(new TreeMap<Character, Integer>());
+          found.add(new ArrayList<Integer>());
+        }
+        node = child;
+      }
+      found.get(node).add(ids[p]);
+    }
+
+    int size = trie.size();
+    labels = new char[size][];
+    children = new int[size][];
+    for (int node = 0; node < size; node++) {
+      Map<Character, Integer> map = trie.get(node);
+      labels[node] = new char[map.size()];
+      children[node] = new int[map.size()];
+      int i = 0;
+      for (Map.Entry<Character, Integer> child : map.entrySet()) {
+        labels[node][i] = child.getKey();
+        children[node][i] = child.getValue();
+        i++;
+      }
+    }
+
+    // failure links, breadth first so that the links of shorter prefixes
+    // and the patterns found through them are known
+    fail = new int[size];
+    outputs = new int[size][];
+    outputs[0] = toArray(found.get(0));
+    LinkedList<Integer> queue = new LinkedList<Integer>();
+    for (int child : children[0]) {
+      queue.add(child);
+    }
+    while (!queue.isEmpty()) {
+      int node = queue.removeFirst();
+      if (outputs[node] == null) {
+        outputs[node] = merge(found.get(node), outputs[fail[node]]);
+      }
+      for (int i = 0; i < labels[node].length; i++) {
+        int child = children[node][i];
+        int f = fail[node];
+        int next;
+        while ((next = child(f, labels[node][i])) < 0 && f != 0) {
+          f = fail[f];
+        }
+        fail[child] = next < 0 || next == child ? 0 : next;
+        queue.add(child);
+      }
+    }
+  }
+
+  private static int[] toArray(List<Integer> list) {
+    if (list.isEmpty()) {
+      return NONE;
+    }
+    int[] array = new int[list.size()];
+    for (int i = 0; i < array.length; i++) {
+      array[i] = list.get(i);
+    }
+    return array;
+  }
+
+  private static int[] merge(List<Integer> own, int[] inherited) {
+    if (own.isEmpty()) {
+      return inherited;
+    }
+    int[] merged = Arrays.copyOf(toArray(own), own.size() + inherited.length);
+    System.arraycopy(inherited, 0, merged, own.size(), inherited.length);
+    return merged;
+  }
+
+  private int child(int node, char c) {
+    int i = Arrays.binarySearch(labels[node], c);
+    return i < 0 ? -1 : children[node][i];
+  }
+
+  /**
+   * Marks the ids of the patterns occurring in a text.
+   *
+   * @param text
+   *          the text
+   * @param matched
+   *          set to true at the id of every pattern found
+   */
+  void match(String text, boolean[] matched) {
+    // the empty pattern is found in every text
+    for (int id : outputs[0]) {
+      matched[id] = true;
+    }
+    int node = 0;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      int next;
+      while ((next = child(node, c)) < 0 && node != 0) {
+        node = fail[node];
+      }
+      node = next < 0 ? 0 : next;
+      for (int id : outputs[node]) {
+        matched[id] = true;
+      }
+    }
+  }
+}
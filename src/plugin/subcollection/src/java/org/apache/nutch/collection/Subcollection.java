@@ -19,6 +19,7 @@ package org.apache.nutch.collection;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.StringTokenizer;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
@@ -40,6 +41,12 @@ public class Subcollection extends Configured implements URLFilter{
   public static final String TAG_NAME="name";
   public static final String TAG_ID="id";
 
+  /**
+   * Counts changes to the lists of all subcollections, for the
+   * CollectionManager to know when to compile them again
+   */
+  static final AtomicInteger MODIFICATIONS = new AtomicInteger();
+
   ArrayList<String> blackList = new ArrayList<String>();
 
   ArrayList<String> whiteList = new ArrayList<String>();
@@ -126,6 +133,7 @@ public class Subcollection extends Configured implements URLFilter{
    */
   public void setWhiteList(ArrayList<String> whiteList) {
     this.whiteList = whiteList;
+    MODIFICATIONS.incrementAndGet();
   }
 
   /**
@@ -198,6 +206,7 @@ public class Subcollection extends Configured implements URLFilter{
       String line = (String) st.nextElement();
       list.add(line.trim());
     }
+    MODIFICATIONS.incrementAndGet();
   }
 
   /**
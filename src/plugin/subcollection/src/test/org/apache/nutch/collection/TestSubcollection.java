@@ -18,7 +18,10 @@ package org.apache.nutch.collection;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 
 import org.apache.nutch.util.NutchConfiguration;
 
@@ -106,4 +109,54 @@ public class TestSubcollection {
     //no match
     assertEquals(null, collection.filter("http://www.google.com/"));
   }
+
+  @Test
+  public void testPatternMatcher() {
+    PatternMatcher matcher = new PatternMatcher(Arrays.asList("he", "she",
+        "his", "hers", "s"), new int[] { 0, 1, 2, 3, 3 });
+    boolean[] matched = new boolean[4];
+    matcher.match("ushers", matched);
+    assertTrue(matched[0]);
+    assertTrue(matched[1]);
+    assertFalse(matched[2]);
+    assertTrue(matched[3]);
+
+    matched = new boolean[4];
+    matcher.match("xyz", matched);
+    assertFalse(matched[0] || matched[1] || matched[2] || matched[3]);
+  }
+
+  @Test
+  public void testGetSubCollections() throws Exception {
+    CollectionManager cm = new CollectionManager();
+    Subcollection nutch = cm.createSubCollection("nutch", "nutch");
+    nutch.setWhiteList("nutch.apache.org\nwiki.apache.org/nutch/");
+    nutch.setBlackList(".jpg");
+    Subcollection apache = cm.createSubCollection("apache", "apache");
+    apache.setWhiteList("apache.org");
+    apache.setBlackList("wiki.apache.org/nutch/old\n/private/");
+    cm.createSubCollection("empty", "empty");
+
+    String[] urls = { "http://nutch.apache.org/", "http://nutch.apache.org/a.jpg",
+        "http://wiki.apache.org/nutch/old/page", "http://www.apache.org/private/",
+        "http://www.example.com/", "http://wiki.apache.org/nutch/" };
+    for (String url : urls) {
+      List<String> expected = new ArrayList<String>();
+      for (Subcollection collection : cm.getAll()) {
+        if (collection.filter(url) != null) {
+          expected.add(collection.getName());
+        }
+      }
+      assertEquals(url, expected, cm.getSubCollections(url));
+    }
+    assertEquals(Arrays.asList("nutch"),
+        cm.getSubCollections("http://wiki.apache.org/nutch/old/page"));
+
+    // changed lists are compiled again
+    apache.setBlackList("");
+    assertTrue(cm.getSubCollections("http://www.apache.org/private/")
+        .contains("apache"));
+    cm.deleteSubCollection("apache");
+    assertEquals(0, cm.getSubCollections("http://www.apache.org/").size());
+  }
 }
@@ -20,12 +20,19 @@ package org.apache.nutch.urlfilter.automaton;
 import java.io.Reader;
 import java.io.IOException;
 import java.io.StringReader;
+import java.util.List;
 import java.util.regex.PatternSyntaxException;
 
+// Logging imports
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 // Hadoop imports
 import org.apache.hadoop.conf.Configuration;
 
 // Automaton imports
+import dk.brics.automaton.Automaton;
+import dk.brics.automaton.BasicAutomata;
 import dk.brics.automaton.RegExp;
 import dk.brics.automaton.RunAutomaton;
 import org.apache.nutch.net.*;
@@ -37,6 +44,13 @@ import org.apache.nutch.urlfilter.api.RegexURLFilterBase;
  * RegexURLFilterBase implementation based on the
  * <a href="http://www.brics.dk/automaton/">dk.brics.automaton</a>
  * Finite-State Automata for Java<sup>TM</sup>.
+ * <p>
+ * Unless <code>urlfilter.automaton.compile</code> is false, all rules are
+ * compiled into a single automaton which accepts exactly the URLs the first
+ * matching rule accepts, so that a URL is filtered in one pass over its
+ * characters however many rules there are. If the automaton would grow
+ * beyond <code>urlfilter.automaton.compile.max.states</code> states, the
+ * rules are tried one by one.
  *
  * @author J&eacute;r&ocirc;me Charron
  * @see <a href="http://www.brics.dk/automaton/">dk.brics.automaton</a>
@@ -44,6 +58,15 @@ import org.apache.nutch.urlfilter.api.RegexURLFilterBase;
 public class AutomatonURLFilter extends RegexURLFilterBase {
   public static final String URLFILTER_AUTOMATON_FILE = "urlfilter.automaton.file";
   public static final String URLFILTER_AUTOMATON_RULES = "urlfilter.automaton.rules";
+  public static final String URLFILTER_AUTOMATON_COMPILE = "urlfilter.automaton.compile";
+  public static final String URLFILTER_AUTOMATON_MAX_STATES = "urlfilter.automaton.compile.max.states";
+
+  private static final Logger LOG = LoggerFactory.getLogger(AutomatonURLFilter.class);
+
+  private static final int DEFAULT_MAX_STATES = 100000;
+
+  /** All rules in one automaton, or null if the rules are tried in turn */
+  private RunAutomaton compiled;
 
   public AutomatonURLFilter() {
     super();
@@ -52,13 +75,82 @@ public class AutomatonURLFilter extends RegexURLFilterBase {
   public AutomatonURLFilter(String filename)
     throws IOException, PatternSyntaxException {
     super(filename);
+    compiled = compile(getRules(), DEFAULT_MAX_STATES);
   }
 
   AutomatonURLFilter(Reader reader)
+    throws IOException, IllegalArgumentException {
+    this(reader, true);
+  }
+
+  AutomatonURLFilter(Reader reader, boolean compile)
     throws IOException, IllegalArgumentException {
     super(reader);
+    if (compile) {
+      compiled = compile(getRules(), DEFAULT_MAX_STATES);
+    }
+  }
+
+  /**
+   * Compiles rules into an automaton accepting the URLs the first matching
+   * rule accepts.
+   *
+   * @return the automaton, or null if it has more than
+   *         <code>maxStates</code> states
+   */
+  static RunAutomaton compile(List<RegexRule> rules, int maxStates) {
+    // no rule matching rejects, every rule decides where it matches
+    // and leaves the rest to the rules after it
+    Automaton accepted = BasicAutomata.makeEmpty();
+    for (int i = rules.size() - 1; i >= 0; i--) {
+      accepted = ((Rule) rules.get(i)).prepend(accepted);
+      accepted.minimize();
+      if (accepted.getNumberOfStates() > maxStates) {
+        LOG.warn("Not compiling " + rules.size() + " rules into a single"
+            + " automaton of more than " + maxStates + " states");
+        return null;
+      }
+    }
+    if (LOG.isInfoEnabled()) {
+      LOG.info("Compiled " + rules.size() + " rules into an automaton of "
+          + accepted.getNumberOfStates() + " states");
+    }
+    return new RunAutomaton(accepted);
   }
 
+  /* -------------------------- *
+   * <implementation:URLFilter> *
+   * -------------------------- */
+
+  // Inherited Javadoc
+  public String filter(String url) {
+    if (compiled == null) {
+      return super.filter(url);
+    }
+    return compiled.run(url) ? url : null;
+  }
+
+  /* --------------------------- *
+   * </implementation:URLFilter> *
+   * --------------------------- */
+
+  /* ----------------------------- *
+   * <implementation:Configurable> *
+   * ----------------------------- */
+
+  public void setConf(Configuration conf) {
+    super.setConf(conf);
+    compiled = null;
+    if (conf.getBoolean(URLFILTER_AUTOMATON_COMPILE, true)) {
+      compiled = compile(getRules(),
+          conf.getInt(URLFILTER_AUTOMATON_MAX_STATES, DEFAULT_MAX_STATES));
+    }
+  }
+
+  /* ------------------------------ *
+   * </implementation:Configurable> *
+   * ------------------------------ */
+
   
   /* ----------------------------------- *
    * <implementation:RegexURLFilterBase> *
@@ -92,17 +184,27 @@ public class AutomatonURLFilter extends RegexURLFilterBase {
   }
 
 
-  private class Rule extends RegexRule {
+  private static class Rule extends RegexRule {
     
-    private RunAutomaton automaton;
+    private Automaton automaton;
+    private RunAutomaton runAutomaton;
     
     Rule(boolean sign, String regex) {
       super(sign, regex);
-      automaton = new RunAutomaton(new RegExp(regex, RegExp.ALL).toAutomaton());
+      automaton = new RegExp(regex, RegExp.ALL).toAutomaton();
+      runAutomaton = new RunAutomaton(automaton);
     }
 
     protected boolean match(String url) {
-      return automaton.run(url);
+      return runAutomaton.run(url);
+    }
+
+    /**
+     * The URLs accepted by this rule, followed by rules accepting
+     * <code>rest</code>.
+     */
+    Automaton prepend(Automaton rest) {
+      return accept() ? automaton.union(rest) : rest.minus(automaton);
     }
   }
   
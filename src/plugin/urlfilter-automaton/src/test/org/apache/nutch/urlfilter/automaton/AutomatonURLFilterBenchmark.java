@@ -0,0 +1,108 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.urlfilter.automaton;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the time it takes to filter URLs with the compiled automaton and
+ * with the rules tried one by one. Usage:
+ * <pre>
+ * AutomatonURLFilterBenchmark &lt;rules file&gt; &lt;urls file&gt; [&lt;rounds&gt;]
+ * </pre>
+ * Lines of the URL file may start with the <code>+</code> or
+ * <code>-</code> of the sample files, which is skipped. Each round filters
+ * every URL 100 times; the first rounds warm up the JVM.
+ */
+public class AutomatonURLFilterBenchmark {
+
+  private static final int REPEAT = 100;
+
+  private static long round(AutomatonURLFilter filter, String[] urls) {
+    long start = System.nanoTime();
+    int accepted = 0;
+    for (int i = 0; i < REPEAT; i++) {
+      for (String url : urls) {
+        if (filter.filter(url) != null) {
+          accepted++;
+        }
+      }
+    }
+    long time = System.nanoTime() - start;
+    if (accepted < 0) {
+      // keep the loop from being optimized away
+      System.out.println(accepted);
+    }
+    return time;
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("Usage: AutomatonURLFilterBenchmark <rules file>"
+          + " <urls file> [<rounds>]");
+      System.exit(-1);
+    }
+    int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+    List<String> list = new ArrayList<String>();
+    BufferedReader in = new BufferedReader(new FileReader(args[1]));
+    String line;
+    while ((line = in.readLine()) != null) {
+      if (line.startsWith("+") || line.startsWith("-")) {
+        line = line.substring(1);
+      }
+      if (line.length() > 0) {
+        list.add(line);
+      }
+    }
+    in.close();
+    String[] urls = list.toArray(new String[list.size()]);
+
+    long start = System.nanoTime();
+    AutomatonURLFilter sequential = new AutomatonURLFilter(new FileReader(
+        args[0]), false);
+    long sequentialSetup = System.nanoTime() - start;
+    start = System.nanoTime();
+    AutomatonURLFilter compiled = new AutomatonURLFilter(new FileReader(
+        args[0]), true);
+    long compiledSetup = System.nanoTime() - start;
+
+    long sequentialTime = 0;
+    long compiledTime = 0;
+    int measured = 0;
+    for (int i = 0; i < rounds; i++) {
+      long s = round(sequential, urls);
+      long c = round(compiled, urls);
+      // the first half of the rounds warms up
+      if (i >= rounds / 2) {
+        sequentialTime += s;
+        compiledTime += c;
+        measured++;
+      }
+    }
+    long filtered = (long) measured * REPEAT * urls.length;
+    System.out.println(urls.length + " urls, " + measured + " measured rounds");
+    System.out.println("sequential: setup " + sequentialSetup / 1000000
+        + " ms, " + sequentialTime / filtered + " ns/url");
+    System.out.println("compiled:   setup " + compiledSetup / 1000000
+        + " ms, " + compiledTime / filtered + " ns/url");
+  }
+}
@@ -17,8 +17,12 @@
 package org.apache.nutch.urlfilter.automaton;
 
 // JDK imports
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
+import java.io.StringReader;
 
 import org.apache.nutch.net.*;
 
@@ -56,4 +60,42 @@ public class TestAutomatonURLFilter extends RegexURLFilterBaseTest {
 //    bench(800, "Benchmarks");
   }
 
+  @Test
+  public void testCompiled() throws IOException {
+    String samples = System.getProperty("test.data", ".");
+    for (String file : new String[] { "Reidin", "WholeWebCrawling",
+        "IntranetCrawling", "Benchmarks" }) {
+      File rules = new File(samples, file + ".rules");
+      AutomatonURLFilter compiled = new AutomatonURLFilter(
+          new FileReader(rules), true);
+      AutomatonURLFilter sequential = new AutomatonURLFilter(
+          new FileReader(rules), false);
+      BufferedReader urls = new BufferedReader(new FileReader(new File(
+          samples, file + ".urls")));
+      String line;
+      while ((line = urls.readLine()) != null) {
+        if (line.length() > 1) {
+          String url = line.substring(1);
+          assertEquals(url, sequential.filter(url), compiled.filter(url));
+        }
+      }
+      urls.close();
+    }
+  }
+
+  @Test
+  public void testFirstMatch() throws IOException {
+    AutomatonURLFilter filter = new AutomatonURLFilter(new StringReader(
+        "-.*\\.gif\n+http://a\\.com/.*\n-http://.*\\.com/.*\n+.*\n"));
+    assertEquals("http://a.com/x", filter.filter("http://a.com/x"));
+    assertNull(filter.filter("http://a.com/x.gif"));
+    assertNull(filter.filter("http://b.com/x"));
+    assertEquals("http://b.org/x", filter.filter("http://b.org/x"));
+
+    // nothing matches
+    filter = new AutomatonURLFilter(new StringReader("+http://a\\.com/.*\n"));
+    assertNull(filter.filter("http://b.com/"));
+    assertEquals("http://a.com/", filter.filter("http://a.com/"));
+  }
+
 }
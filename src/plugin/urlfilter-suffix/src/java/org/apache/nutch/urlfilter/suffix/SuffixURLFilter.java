@@ -22,6 +22,7 @@ import org.apache.nutch.net.*;
 
 import org.apache.nutch.util.NutchConfiguration;
 import org.apache.nutch.util.SuffixStringMatcher;
+import org.apache.nutch.util.URLUtil;
 
 import org.apache.nutch.plugin.Extension;
 import org.apache.nutch.plugin.PluginRepository;
@@ -151,7 +152,7 @@ public class SuffixURLFilter implements URLFilter {
     else _url = url;
     if (filterFromPath) {
       try {
-        URL pUrl = new URL(_url);
+        URL pUrl = URLUtil.toURL(_url);
         _url = pUrl.getPath();
       } catch (MalformedURLException e) {
         // don't care
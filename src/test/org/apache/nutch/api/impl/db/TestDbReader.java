@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.apache.nutch.api.impl.db;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.avro.util.Utf8;
+import org.apache.gora.memory.store.MemStore;
+import org.apache.gora.store.DataStore;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.api.model.request.DbFilter;
+import org.apache.nutch.metadata.Nutch;
+import org.apache.nutch.storage.Mark;
+import org.apache.nutch.storage.StorageUtils;
+import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.NutchConfiguration;
+import org.apache.nutch.util.TableUtil;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests for the paging of DbReader. */
+public class TestDbReader {
+
+  private DataStore<String, WebPage> store;
+  private DbReader reader;
+
+  @Before
+  public void setUp() throws Exception {
+    Configuration conf = NutchConfiguration.create();
+    conf.set("storage.data.store.class", MemStore.class.getName());
+    store = StorageUtils.createWebStore(conf, String.class, WebPage.class);
+    reader = new DbReader(store, conf);
+    // rows 0, 3, 6 and 9 were not updated yet
+    for (int i = 0; i < 10; i++) {
+      WebPage page = WebPage.newBuilder().build();
+      if (i % 3 != 0) {
+        Mark.UPDATEDB_MARK.putMark(page, new Utf8(i % 2 == 0 ? "b1" : "b2"));
+      }
+      store.put(TableUtil.reverseUrl("http://example.com/" + i), page);
+    }
+    store.flush();
+  }
+
+  /** Reads all pages of the query, returns the URLs of every page. */
+  private List<List<String>> readPages(String batchId, int pageSize) {
+    List<List<String>> pages = new ArrayList<List<String>>();
+    String nextKey = null;
+    do {
+      DbFilter filter = new DbFilter();
+      filter.setBatchId(batchId);
+      filter.setLimit(pageSize);
+      filter.setContinuationKey(nextKey);
+      DbIterator iterator = reader.runQuery(filter);
+      List<String> urls = new ArrayList<String>();
+      while (iterator.hasNext()) {
+        Map<String, Object> row = iterator.next();
+        urls.add(((String) row.get("url")).substring(19));
+      }
+      pages.add(urls);
+      nextKey = iterator.getNextKey();
+    } while (nextKey != null && pages.size() < 10);
+    return pages;
+  }
+
+  @Test
+  public void testPages() {
+    assertEquals("[[0, 1, 2, 3], [4, 5, 6, 7], [8, 9]]",
+        readPages(null, 4).toString());
+  }
+
+  @Test
+  public void testPagesWithSkippedRows() {
+    // rows without update mark do not count against the page size
+    assertEquals("[[1, 2], [4, 5], [7, 8]]",
+        readPages(Nutch.ALL_BATCH_ID_STR, 2).toString());
+    assertEquals("[[2, 4], [8]]", readPages("b1", 2).toString());
+  }
+}
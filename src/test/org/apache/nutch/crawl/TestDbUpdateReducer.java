@@ -0,0 +1,173 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.apache.nutch.crawl;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.avro.util.Utf8;
+import org.apache.gora.memory.store.MemStore;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.counters.GenericCounter;
+import org.apache.nutch.metadata.Nutch;
+import org.apache.nutch.scoring.ScoreDatum;
+import org.apache.nutch.storage.Mark;
+import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.NutchConfiguration;
+import org.apache.nutch.util.TableUtil;
+import org.apache.nutch.util.WebPageWritable;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/** Unit tests for DbUpdateReducer. */
+public class TestDbUpdateReducer {
+
+  private static final long FETCH_TIME = 1413102600000L;
+  private static final long MODIFIED_TIME = 1400000000000L;
+
+  private Configuration conf;
+  private DbUpdateReducer reducer;
+  private DbUpdateReducer.Context context;
+  private Map<String, WebPage> written = new HashMap<String, WebPage>();
+
+  @Before
+  @SuppressWarnings("unchecked")
+  public void setUp() throws Exception {
+    conf = NutchConfiguration.create();
+    conf.set(Nutch.BATCH_NAME_KEY, "b1");
+    conf.set("storage.data.store.class", MemStore.class.getName());
+    context = mock(DbUpdateReducer.Context.class);
+    when(context.getConfiguration()).thenReturn(conf);
+    when(context.getCounter(anyString(), anyString())).thenAnswer(
+        new Answer<GenericCounter>() {
+      public GenericCounter answer(InvocationOnMock invocation) {
+        return new GenericCounter();
+      }
+    });
+    doAnswer(new Answer<Object>() {
+      public Object answer(InvocationOnMock invocation) {
+        Object[] args = invocation.getArguments();
+        written.put(TableUtil.unreverseUrl((String) args[0]),
+            (WebPage) args[1]);
+        return null;
+      }
+    }).when(context).write(anyString(), any(WebPage.class));
+    reducer = new DbUpdateReducer();
+    reducer.setup(context);
+  }
+
+  private void reduce(String url, WebPage page, String... inlinks)
+      throws Exception {
+    List<NutchWritable> values = new ArrayList<NutchWritable>();
+    if (page != null) {
+      values.add(new NutchWritable(new WebPageWritable(conf, page)));
+    }
+    for (String inlink : inlinks) {
+      values.add(new NutchWritable(new ScoreDatum(0.0f, inlink, "anchor", 1)));
+    }
+    reducer.reduce(new UrlWithScore(TableUtil.reverseUrl(url), 0.0f), values,
+        context);
+  }
+
+  /** A page of batch b1, fetched with the given status. */
+  private static WebPage fetched(byte status, String signature) {
+    WebPage page = WebPage.newBuilder().build();
+    page.setStatus((int) status);
+    page.setFetchTime(FETCH_TIME);
+    page.setFetchInterval(3600);
+    page.setModifiedTime(MODIFIED_TIME);
+    page.setPrevSignature(ByteBuffer.wrap("old".getBytes()));
+    page.setSignature(ByteBuffer.wrap(signature.getBytes()));
+    Mark.GENERATE_MARK.putMark(page, new Utf8("b1"));
+    Mark.FETCH_MARK.putMark(page, new Utf8("b1"));
+    Mark.PARSE_MARK.putMark(page, new Utf8("b1"));
+    return page;
+  }
+
+  /** Stores a row outside the batch. */
+  private void putLinkTarget(String url, String generateMark)
+      throws Exception {
+    WebPage page = WebPage.newBuilder().build();
+    page.setStatus((int) CrawlStatus.STATUS_FETCHED);
+    page.setFetchTime(FETCH_TIME);
+    if (generateMark != null) {
+      Mark.GENERATE_MARK.putMark(page, new Utf8(generateMark));
+    }
+    reducer.store.put(TableUtil.reverseUrl(url), page);
+  }
+
+  @Test
+  public void testFetched() throws Exception {
+    reduce("http://a.com/", fetched(CrawlStatus.STATUS_FETCHED, "new"),
+        "http://b.com/");
+    WebPage page = written.get("http://a.com/");
+    // changed, the server does not say when
+    assertEquals(FETCH_TIME, page.getModifiedTime().longValue());
+    assertEquals(MODIFIED_TIME, page.getPrevModifiedTime().longValue());
+    assertEquals(FETCH_TIME + 3600 * 1000L, page.getFetchTime().longValue());
+    assertEquals(1, page.getInlinks().size());
+    // the marks of the batch are moved on
+    assertNull(Mark.GENERATE_MARK.checkMark(page));
+    assertNull(Mark.FETCH_MARK.checkMark(page));
+    assertNull(Mark.PARSE_MARK.checkMark(page));
+    assertEquals(new Utf8("b1"), Mark.UPDATEDB_MARK.checkMark(page));
+  }
+
+  @Test
+  public void testNotModified() throws Exception {
+    // the signatures of a 304 are those of the content fetched before
+    reduce("http://a.com/", fetched(CrawlStatus.STATUS_NOTMODIFIED, "new"));
+    WebPage page = written.get("http://a.com/");
+    assertEquals(MODIFIED_TIME, page.getModifiedTime().longValue());
+    assertEquals(FETCH_TIME + 3600 * 1000L, page.getFetchTime().longValue());
+    assertEquals(new Utf8("b1"), Mark.UPDATEDB_MARK.checkMark(page));
+  }
+
+  @Test
+  public void testLinkTargets() throws Exception {
+    putLinkTarget("http://a.com/", "b0");
+    putLinkTarget("http://c.com/", null);
+    reduce("http://a.com/", null, "http://b.com/");
+    reduce("http://c.com/", null, "http://b.com/");
+    reduce("http://e.com/", null, "http://b.com/");
+
+    // rows outside the batch only get their inlinks updated
+    WebPage page = written.get("http://a.com/");
+    assertEquals(new Utf8("anchor"), page.getInlinks().get(
+        new Utf8("http://b.com/")));
+    assertEquals("2", page.getMarkers().get(DbUpdaterJob.DISTANCE).toString());
+    assertEquals(new Utf8("b0"), Mark.GENERATE_MARK.checkMark(page));
+    assertFalse(page.isDirty(WebPage.Field.STATUS.getIndex()));
+    assertFalse(page.isDirty(WebPage.Field.FETCH_TIME.getIndex()));
+    assertTrue(page.isDirty(WebPage.Field.INLINKS.getIndex()));
+    assertFalse(written.get("http://c.com/").isDirty(WebPage.Field.STATUS.getIndex()));
+
+    // not in the table
+    page = written.get("http://e.com/");
+    assertEquals(CrawlStatus.STATUS_UNFETCHED, page.getStatus().intValue());
+    assertTrue(page.isDirty(WebPage.Field.STATUS.getIndex()));
+  }
+}
@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.apache.nutch.crawl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.avro.util.Utf8;
+import org.apache.nutch.crawl.GeneratorMapper.Candidate;
+import org.apache.nutch.crawl.GeneratorMapper.MapSelection;
+import org.apache.nutch.storage.WebPage;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests for the map-side selection of GeneratorMapper. */
+public class TestGeneratorMapper {
+
+  private static int add(MapSelection selection, String host, String path,
+      float score) {
+    WebPage page = WebPage.newBuilder().build();
+    page.setScore(score);
+    page.getMarkers().put(new Utf8("dist"), new Utf8("1"));
+    String url = "http://" + host + "/" + path;
+    return selection.add(host, url, url, score, page);
+  }
+
+  private static List<String> urls(List<Candidate> candidates) {
+    List<String> urls = new ArrayList<String>();
+    for (Candidate candidate : candidates) {
+      urls.add(candidate.url);
+    }
+    return urls;
+  }
+
+  @Test
+  public void testTopN() {
+    MapSelection selection = new MapSelection(3, -1);
+    assertEquals(0, add(selection, "a.com", "1", 1f));
+    assertEquals(0, add(selection, "a.com", "2", 2f));
+    assertEquals(0, add(selection, "b.com", "3", 3f));
+    // the worst row is evicted, or the new row dropped
+    assertEquals(1, add(selection, "b.com", "4", 4f));
+    assertEquals(1, add(selection, "c.com", "5", 0.5f));
+    assertEquals(3, selection.size());
+
+    List<Candidate> candidates = selection.drain();
+    assertEquals("[http://b.com/4, http://b.com/3, http://a.com/2]",
+        urls(candidates).toString());
+    // only the markers are kept
+    WebPage page = candidates.get(0).page;
+    assertEquals(new Utf8("1"), page.getMarkers().get(new Utf8("dist")));
+    assertEquals(0f, page.getScore(), 0f);
+    assertEquals(0, selection.size());
+  }
+
+  @Test
+  public void testMaxCount() {
+    MapSelection selection = new MapSelection(Long.MAX_VALUE, 2);
+    assertEquals(0, add(selection, "a.com", "1", 1f));
+    assertEquals(0, add(selection, "a.com", "2", 2f));
+    assertEquals(0, add(selection, "b.com", "1", 1f));
+    assertEquals(1, add(selection, "a.com", "3", 3f));
+    assertEquals(1, add(selection, "a.com", "4", 0.5f));
+    assertEquals(3, selection.size());
+    assertEquals("[http://a.com/3, http://a.com/2, http://b.com/1]",
+        urls(selection.drain()).toString());
+  }
+
+  @Test
+  public void testTopNAndMaxCount() {
+    MapSelection selection = new MapSelection(3, 2);
+    add(selection, "a.com", "1", 5f);
+    add(selection, "a.com", "2", 4f);
+    add(selection, "b.com", "1", 1f);
+    // evicts a row of its host, not the worst row
+    assertEquals(1, add(selection, "a.com", "3", 6f));
+    // evicts the worst row, of another host
+    assertEquals(1, add(selection, "c.com", "1", 2f));
+    // same URL and score as a row held, another row key
+    assertEquals(1, selection.add("c.com", "com.c:http/1-2", "http://c.com/1",
+        2f, WebPage.newBuilder().build()));
+    assertEquals(3, selection.size());
+    assertEquals("[http://a.com/3, http://a.com/1, http://c.com/1]",
+        urls(selection.drain()).toString());
+  }
+}
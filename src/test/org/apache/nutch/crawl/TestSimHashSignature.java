@@ -0,0 +1,109 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.crawl;
+
+import java.nio.ByteBuffer;
+
+import org.apache.avro.util.Utf8;
+import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.NutchConfiguration;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests for SimHashSignature. */
+public class TestSimHashSignature {
+
+  private static final String TEXT = "Apache Nutch is a highly extensible and "
+      + "scalable open source web crawler software project. Stemming from "
+      + "Apache Lucene, the project has diversified and now comprises two "
+      + "codebases, namely Nutch 1.x, a well matured, production ready "
+      + "crawler, and Nutch 2.x, an emerging alternative taking direct "
+      + "inspiration from 1.x, but which differs in one key area; storage is "
+      + "abstracted away from any specific underlying data store by using "
+      + "Apache Gora for handling object to persistent mappings.";
+
+  private SimHashSignature signature;
+
+  @Before
+  public void setUp() {
+    signature = new SimHashSignature();
+    signature.setConf(NutchConfiguration.create());
+  }
+
+  private long fingerprint(String text) {
+    WebPage page = WebPage.newBuilder().build();
+    page.setText(new Utf8(text));
+    byte[] bytes = signature.calculate(page);
+    assertEquals(SimHashSignature.LENGTH, bytes.length);
+    return SimHashSignature.toLong(bytes, 0);
+  }
+
+  @Test
+  public void testNearDuplicates() {
+    long a = fingerprint(TEXT);
+    long b = fingerprint(TEXT + " Last modified: 2014-10-12");
+    long c = fingerprint("Copyright 2014 The Apache Software Foundation. "
+        + "Welcome to the home page of some other project, which has "
+        + "nothing in common with a web crawler apart from a few words.");
+    assertEquals(a, fingerprint(TEXT.toUpperCase()));
+    assertTrue(SimHashSignature.distance(a, b) <= 3);
+    assertTrue(SimHashSignature.distance(a, c) > 10);
+  }
+
+  @Test
+  public void testUtf8MatchesString() {
+    String text = "Größere Übersetzungen, naïve café 𐐀bc, 漢字テキスト";
+    long fromString = SimHashSignature.simHash(text, 2);
+    assertEquals(fromString, fingerprint(text));
+    assertTrue(fromString != 0L);
+  }
+
+  @Test
+  public void testFallback() {
+    WebPage page = WebPage.newBuilder().build();
+    page.setContent(ByteBuffer.wrap("<html></html>".getBytes()));
+    page.setText(new Utf8("a b , ."));
+    assertEquals(16, signature.calculate(page).length);
+  }
+
+  @Test
+  public void testBands() {
+    long a = 0x0123456789abcdefL;
+    // three bits flipped in different bands leave one band unchanged
+    long b = a ^ (1L << 3) ^ (1L << 20) ^ (1L << 40);
+    int same = 0;
+    for (int i = 0; i < 4; i++) {
+      if (DeduplicationJob.band(a, i, 4) == DeduplicationJob.band(b, i, 4)) {
+        same++;
+      }
+    }
+    assertEquals(1, same);
+    assertEquals(a, DeduplicationJob.band(a, 0, 1));
+    assertEquals(a >>> 54, DeduplicationJob.band(a, 6, 7));
+  }
+
+  @Test
+  public void testComparatorDistance() {
+    ByteBuffer a = ByteBuffer.wrap(SimHashSignature.toBytes(0xf0L));
+    ByteBuffer b = ByteBuffer.wrap(SimHashSignature.toBytes(0x0fL));
+    assertEquals(8, SignatureComparator.distance(a, b));
+    assertEquals(0, SignatureComparator.distance(a, a));
+    assertEquals(-1, SignatureComparator.distance(a, ByteBuffer.wrap(new byte[4])));
+  }
+}
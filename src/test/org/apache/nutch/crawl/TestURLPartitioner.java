@@ -22,6 +22,7 @@ import org.apache.nutch.crawl.GeneratorJob.SelectorEntry;
 import org.apache.nutch.crawl.URLPartitioner.FetchEntryPartitioner;
 import org.apache.nutch.crawl.URLPartitioner.SelectorEntryPartitioner;
 import org.apache.nutch.fetcher.FetchEntry;
+import org.apache.nutch.net.FileHostResolver;
 import org.apache.nutch.storage.WebPage;
 import org.apache.nutch.util.NutchConfiguration;
 import org.apache.nutch.util.TableUtil;
@@ -122,6 +123,29 @@ public class TestURLPartitioner {
     assertEquals("partitions should be same because of same ip", 
         partitionWithoutWWW, partitionWithWWW);
   }
+
+  /**
+   * tests partitioning by IP with hosts resolved from a file
+   */
+  @Test
+  public void testModeIPFromFile() {
+    URLPartitioner partitioner = new URLPartitioner();
+    Configuration conf = NutchConfiguration.create();
+    conf.set(URLPartitioner.PARTITION_MODE_KEY, URLPartitioner.PARTITION_MODE_IP);
+    conf.set("dns.resolver.class", FileHostResolver.class.getName());
+    partitioner.setConf(conf);
+
+    int numReduceTasks = 100;
+
+    int partitionOrg = partitioner.getPartition("http://www.example.org/", numReduceTasks);
+    int partitionCom = partitioner.getPartition("http://www.example.com/", numReduceTasks);
+    assertEquals("partitions should be same because of same ip",
+        partitionOrg, partitionCom);
+
+    int partitionNet = partitioner.getPartition("http://www.example.net/", numReduceTasks);
+    assertNotSame("partitions should differ because of different ip",
+        partitionOrg, partitionNet);
+  }
   
   /**
    * Test the seed functionality, using host partitioner.
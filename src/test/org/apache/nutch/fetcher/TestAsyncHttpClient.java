@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.apache.nutch.fetcher;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.protocol.ProtocolOutput;
+import org.apache.nutch.protocol.ProtocolStatusCodes;
+import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.CrawlTestUtil;
+import org.mortbay.jetty.Server;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the non-blocking HTTP client of the async fetcher engine.
+ */
+public class TestAsyncHttpClient {
+
+  private Configuration conf;
+  private Server server;
+  private int port;
+  private AsyncHttpClient client;
+
+  @Before
+  public void setUp() throws Exception {
+    conf = CrawlTestUtil.createConfiguration();
+    port = conf.getInt("content.server.port", 50000);
+    server = CrawlTestUtil.getServer(port,
+        System.getProperty("test.data", "build/test/data") + "/fetch-test-site");
+    server.start();
+    client = new AsyncHttpClient(conf);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    client.close();
+    server.stop();
+  }
+
+  @Test
+  public void testFetch() throws Exception {
+    final BlockingQueue<ProtocolOutput> results =
+        new LinkedBlockingQueue<ProtocolOutput>();
+    AsyncHttpClient.Callback callback = new AsyncHttpClient.Callback() {
+      public void completed(ProtocolOutput output) {
+        results.add(output);
+      }
+    };
+    String[] pages = { "index.html", "pagea.html", "pageb.html" };
+    for (String page : pages) {
+      client.fetch("http://127.0.0.1:" + port + "/" + page,
+          WebPage.newBuilder().build(), callback);
+    }
+    client.fetch("http://127.0.0.1:" + port + "/nonexisting.html",
+        WebPage.newBuilder().build(), callback);
+
+    int success = 0, notFound = 0;
+    for (int i = 0; i < pages.length + 1; i++) {
+      ProtocolOutput output = results.poll(10, TimeUnit.SECONDS);
+      assertNotNull("timed out waiting for fetch", output);
+      int code = output.getStatus().getCode();
+      if (code == ProtocolStatusCodes.SUCCESS) {
+        success++;
+        assertTrue(output.getContent().getContent().length > 0);
+        assertEquals("text/html", output.getContent().getContentType());
+      } else if (code == ProtocolStatusCodes.NOTFOUND) {
+        notFound++;
+      }
+    }
+    assertEquals(pages.length, success);
+    assertEquals(1, notFound);
+    assertNoneInFlight();
+  }
+
+  @Test
+  public void testConnectionFailure() throws Exception {
+    final BlockingQueue<ProtocolOutput> results =
+        new LinkedBlockingQueue<ProtocolOutput>();
+    // nothing listens on port 1
+    client.fetch("http://127.0.0.1:1/", WebPage.newBuilder().build(),
+        new AsyncHttpClient.Callback() {
+          public void completed(ProtocolOutput output) {
+            results.add(output);
+          }
+        });
+    ProtocolOutput output = results.poll(20, TimeUnit.SECONDS);
+    assertNotNull(output);
+    assertEquals(ProtocolStatusCodes.EXCEPTION, (int) output.getStatus().getCode());
+    assertNoneInFlight();
+  }
+
+  private void assertNoneInFlight() throws InterruptedException {
+    // the counter is decremented right after the callback returns
+    for (int i = 0; i < 100 && client.getInFlight() > 0; i++) {
+      Thread.sleep(10);
+    }
+    assertEquals(0, client.getInFlight());
+  }
+}
@@ -0,0 +1,269 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.fetcher;
+
+import org.apache.gora.memory.store.MemStore;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.fetcher.FetcherReducer.FetchItem;
+import org.apache.nutch.fetcher.FetcherReducer.FetchItemQueue;
+import org.apache.nutch.fetcher.FetcherReducer.FetchItemQueues;
+import org.apache.nutch.storage.Host;
+import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.NutchConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests for the fetch queues of FetcherReducer. */
+public class TestFetchItemQueues {
+
+  private Configuration conf;
+
+  @Before
+  public void setUp() {
+    conf = NutchConfiguration.create();
+    conf.setFloat("fetcher.server.delay", 0.5f);
+  }
+
+  private FetchItemQueues queues(String scheduler) throws Exception {
+    conf.set("fetcher.queue.scheduler", scheduler);
+    FetchItemQueues queues = new FetchItemQueues(conf);
+    queues.addFetchItem("http://a.com/1", WebPage.newBuilder().build());
+    queues.addFetchItem("http://a.com/2", WebPage.newBuilder().build());
+    queues.addFetchItem("http://b.com/1", WebPage.newBuilder().build());
+    return queues;
+  }
+
+  /** Takes an item, waiting for it if the scheduler can. */
+  private static FetchItem take(FetchItemQueues queues) throws Exception {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (System.currentTimeMillis() < deadline) {
+      FetchItem item = queues.getFetchItem();
+      if (item == null) {
+        item = queues.awaitFetchItem(50);
+      }
+      if (item != null) {
+        return item;
+      }
+    }
+    return null;
+  }
+
+  private void testPoliteness(String scheduler) throws Exception {
+    FetchItemQueues queues = queues(scheduler);
+    assertEquals(3, queues.getTotalSize());
+    assertEquals(2, queues.getQueueCount());
+
+    FetchItem first = queues.getFetchItem();
+    FetchItem second = queues.getFetchItem();
+    assertNotNull(first);
+    assertNotNull(second);
+    assertFalse(first.queueID.equals(second.queueID));
+    // a.com is busy
+    assertNull(queues.getFetchItem());
+    assertEquals(1, queues.getTotalSize());
+
+    FetchItem a1 = first.url.equals("http://a.com/1") ? first : second;
+    FetchItem b1 = a1 == first ? second : first;
+    long finished = System.currentTimeMillis();
+    queues.finishFetchItem(a1);
+    queues.finishFetchItem(b1);
+    // a.com waits for its crawl delay
+    assertNull(queues.getFetchItem());
+    FetchItem a2 = take(queues);
+    assertEquals("http://a.com/2", a2.url);
+    assertTrue(System.currentTimeMillis() - finished >= 450);
+    assertEquals(0, queues.getTotalSize());
+    queues.finishFetchItem(a2);
+  }
+
+  @Test
+  public void testScanScheduler() throws Exception {
+    testPoliteness(FetchItemQueues.SCHEDULER_SCAN);
+  }
+
+  @Test
+  public void testDelayScheduler() throws Exception {
+    testPoliteness(FetchItemQueues.SCHEDULER_DELAY);
+  }
+
+  @Test
+  public void testDelaySchedulerReaping() throws Exception {
+    FetchItemQueues queues = queues(FetchItemQueues.SCHEDULER_DELAY);
+    for (int i = 0; i < 3; i++) {
+      queues.finishFetchItem(take(queues));
+    }
+    // empty queues are only reaped once their crawl delay has passed,
+    // a.com was fetched last
+    assertNull(queues.awaitFetchItem(100));
+    assertTrue(queues.queues.containsKey("http://a.com"));
+    assertNull(queues.awaitFetchItem(1000));
+    assertEquals(0, queues.getQueueCount());
+
+    // a host coming back still waits for its crawl delay
+    queues.addFetchItem("http://b.com/2", WebPage.newBuilder().build());
+    assertEquals(1, queues.getQueueCount());
+    FetchItem b2 = take(queues);
+    assertEquals("http://b.com/2", b2.url);
+    queues.finishFetchItem(b2);
+    queues.addFetchItem("http://b.com/3", WebPage.newBuilder().build());
+    assertNull(queues.getFetchItem());
+    long start = System.currentTimeMillis();
+    assertEquals("http://b.com/3", take(queues).url);
+    assertTrue(System.currentTimeMillis() - start >= 400);
+  }
+
+  private FetchItemQueues adaptiveQueues() throws Exception {
+    conf.setBoolean("fetcher.queue.adaptive", true);
+    return new FetchItemQueues(conf);
+  }
+
+  @Test
+  public void testAdaptiveDelay() throws Exception {
+    FetchItemQueues policy = adaptiveQueues();
+    FetchItemQueue fiq = new FetchItemQueue(conf, 1, 1000, 0);
+    fiq.adapt(1000, false, policy);
+    assertEquals(2000, fiq.crawlDelay);
+    assertEquals(2000, fiq.minCrawlDelay);
+    // errors stretch the delay
+    fiq.adapt(1000, true, policy);
+    assertEquals(2000 * 1.6, fiq.crawlDelay, 1);
+    // kept between the bounds
+    fiq.adapt(200000, false, policy);
+    assertEquals(30000, fiq.crawlDelay);
+    fiq = new FetchItemQueue(conf, 1, 1000, 0);
+    fiq.adapt(10, false, policy);
+    assertEquals(500, fiq.crawlDelay);
+
+    // never below the Crawl-Delay of robots.txt
+    policy.setRobotsDelay(fiq, 5000);
+    assertEquals(5000, fiq.crawlDelay);
+    fiq.adapt(10, false, policy);
+    assertEquals(5000, fiq.crawlDelay);
+    assertEquals(1, fiq.maxThreads);
+  }
+
+  @Test
+  public void testAdaptiveThreads() throws Exception {
+    FetchItemQueues policy = adaptiveQueues();
+    FetchItemQueue fiq = new FetchItemQueue(conf, 1, 1000, 0);
+    // one more thread every ten good responses, up to the maximum
+    for (int i = 0; i < 9; i++) {
+      fiq.adapt(100, false, policy);
+    }
+    assertEquals(1, fiq.maxThreads);
+    fiq.adapt(100, false, policy);
+    assertEquals(2, fiq.maxThreads);
+    for (int i = 0; i < 40; i++) {
+      fiq.adapt(100, false, policy);
+    }
+    assertEquals(4, fiq.maxThreads);
+    // halved on errors
+    fiq.adapt(100, true, policy);
+    assertEquals(2, fiq.maxThreads);
+    fiq.adapt(100, true, policy);
+    assertEquals(1, fiq.maxThreads);
+    fiq.adapt(100, true, policy);
+    assertEquals(1, fiq.maxThreads);
+
+    // a host with a Crawl-Delay gets a single thread
+    fiq = new FetchItemQueue(conf, 1, 1000, 0);
+    fiq.robotsDelay = 1000;
+    for (int i = 0; i < 20; i++) {
+      fiq.adapt(100, false, policy);
+    }
+    assertEquals(1, fiq.maxThreads);
+  }
+
+  @Test
+  public void testAdaptiveRecreate() throws Exception {
+    FetchItemQueues queues = adaptiveQueues();
+    queues.addFetchItem("http://a.com/1", WebPage.newBuilder().build());
+    FetchItem a1 = queues.getFetchItem();
+    queues.recordResponse(a1, 2000, false);
+    queues.finishFetchItem(a1);
+    assertEquals(4000, queues.queues.get("http://a.com").crawlDelay);
+
+    // the queue is reaped, a new one starts from what was learnt
+    queues.queues.remove("http://a.com");
+    queues.addFetchItem("http://a.com/2", WebPage.newBuilder().build());
+    FetchItemQueue fiq = queues.queues.get("http://a.com");
+    assertEquals(4000, fiq.crawlDelay);
+    assertEquals(1, fiq.samples);
+    assertEquals(2000, fiq.avgResponseTime, 0);
+  }
+
+  @Test
+  public void testAdaptiveMaxHosts() throws Exception {
+    conf.setInt("fetcher.queue.adaptive.max.hosts", 2);
+    FetchItemQueues queues = adaptiveQueues();
+    for (String host : new String[] { "a", "b", "c", "d" }) {
+      queues.addFetchItem("http://" + host + ".com/1",
+          WebPage.newBuilder().build());
+    }
+    FetchItem[] items = new FetchItem[4];
+    for (int i = 0; i < 4; i++) {
+      items[i] = queues.getFetchItem();
+    }
+    for (int i = 0; i < 3; i++) {
+      queues.recordResponse(items[i], 100, false);
+    }
+    assertEquals(2, queues.adaptedQueues.size());
+    assertFalse(queues.adaptedQueues.containsKey(items[0].queueID));
+
+    // the host fetched least recently is forgotten first
+    queues.recordResponse(items[1], 100, false);
+    queues.recordResponse(items[3], 100, false);
+    assertEquals(2, queues.adaptedQueues.size());
+    assertTrue(queues.adaptedQueues.containsKey(items[1].queueID));
+    assertTrue(queues.adaptedQueues.containsKey(items[3].queueID));
+  }
+
+  @Test
+  public void testAdaptiveStore() throws Exception {
+    conf.set("storage.data.store.class", MemStore.class.getName());
+    conf.setBoolean("fetcher.queue.use.host.settings", true);
+    conf.setBoolean("fetcher.queue.adaptive.store", true);
+    conf.setInt("fetcher.queue.adaptive.max.hosts", 1);
+    FetchItemQueues queues = adaptiveQueues();
+    queues.addFetchItem("http://a.com/1", WebPage.newBuilder().build());
+    queues.addFetchItem("http://b.com/1", WebPage.newBuilder().build());
+    queues.addFetchItem("http://c.com/1", WebPage.newBuilder().build());
+    FetchItem a = queues.getFetchItem();
+    FetchItem b = queues.getFetchItem();
+    FetchItem c = queues.getFetchItem();
+    queues.recordResponse(a, 2000, false);
+    queues.recordResponse(b, 2000, false);
+
+    // the evicted host is written to the host table the settings are read from
+    Host host = queues.hostDb.getByHostName(a.queueID.substring(7));
+    assertNotNull(host);
+    assertNull(queues.hostDb.getByHostName(b.queueID.substring(7)));
+    queues.storeAdaptedSettings();
+    assertNotNull(queues.hostDb.getByHostName(b.queueID.substring(7)));
+
+    // nothing is written once the host table is closed
+    queues.close();
+    assertNull(queues.hostDb);
+    queues.recordResponse(c, 2000, false);
+    queues.recordResponse(a, 2000, false);
+    queues.storeAdaptedSettings();
+    queues.addFetchItem("http://d.com/1", WebPage.newBuilder().build());
+    assertNotNull(queues.queues.get("http://d.com"));
+    queues.close();
+  }
+}
@@ -0,0 +1,105 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.fetcher;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.OutputCommitter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.TaskType;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.apache.nutch.crawl.GeneratorJob;
+import org.apache.nutch.util.NutchConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests for the WARC files committed by FetcherOutputFormat. */
+public class TestFetcherOutputFormat {
+
+  private Configuration conf;
+  private FileSystem fs;
+  private Path dir = new Path("build/test/fetcher-warc");
+
+  @Before
+  public void setUp() throws IOException {
+    conf = NutchConfiguration.create();
+    conf.set(FetcherOutputFormat.WARC_DIR, dir.toString());
+    conf.set(GeneratorJob.BATCH_ID, "1234-5678");
+    fs = FileSystem.getLocal(conf);
+    fs.delete(dir, true);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    fs.delete(dir, true);
+  }
+
+  private TaskAttemptContext attempt(int task, int attempt) {
+    return new TaskAttemptContextImpl(conf, new TaskAttemptID("fetch", 1,
+        TaskType.REDUCE, task, attempt));
+  }
+
+  private void write(TaskAttemptContext context) throws Exception {
+    Path workPath = FetcherOutputFormat.getWarcWorkPath(context);
+    assertTrue(workPath.toString().contains("_temporary"));
+    fs.create(new Path(workPath, "fetch-0000"
+        + context.getTaskAttemptID().getTaskID().getId() + ".idx")).close();
+  }
+
+  @Test
+  public void testGetWarcDir() {
+    assertEquals(new Path(dir, "1234-5678"),
+        FetcherOutputFormat.getWarcDir(conf));
+    conf.set(FetcherOutputFormat.WARC_DIR, "");
+    assertNull(FetcherOutputFormat.getWarcDir(conf));
+  }
+
+  @Test
+  public void testCommit() throws Exception {
+    FetcherOutputFormat format = new FetcherOutputFormat();
+    TaskAttemptContext failed = attempt(0, 0);
+    OutputCommitter committer = format.getOutputCommitter(failed);
+    committer.setupJob(failed);
+
+    // the first attempt of task 0 fails, the second one succeeds
+    committer.setupTask(failed);
+    write(failed);
+    committer.abortTask(failed);
+
+    for (TaskAttemptContext context : new TaskAttemptContext[] {
+        attempt(0, 1), attempt(1, 0) }) {
+      OutputCommitter taskCommitter = format.getOutputCommitter(context);
+      taskCommitter.setupTask(context);
+      write(context);
+      assertFalse(fs.exists(new Path(FetcherOutputFormat.getWarcDir(conf),
+          "fetch-00000.idx")));
+      taskCommitter.commitTask(context);
+    }
+    committer.commitJob(failed);
+
+    Path warcDir = FetcherOutputFormat.getWarcDir(conf);
+    assertTrue(fs.exists(new Path(warcDir, "fetch-00000.idx")));
+    assertTrue(fs.exists(new Path(warcDir, "fetch-00001.idx")));
+    assertFalse(fs.exists(new Path(warcDir, "_temporary")));
+  }
+}
@@ -0,0 +1,188 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.fetcher;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.avro.util.Utf8;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.apache.nutch.fetcher.FetcherReducer.ParseStage;
+import org.apache.nutch.parse.ParseUtil;
+import org.apache.nutch.storage.WebPage;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/** Unit tests for the parse stage of FetcherReducer. */
+public class TestParseStage {
+
+  private ParseUtil parseUtil;
+  private TaskInputOutputContext<?, ?, String, WebPage> context;
+  private List<String> written = new CopyOnWriteArrayList<String>();
+  // the parse of page a waits for this latch
+  private CountDownLatch parsing = new CountDownLatch(0);
+
+  @Before
+  @SuppressWarnings("unchecked")
+  public void setUp() throws Exception {
+    parseUtil = mock(ParseUtil.class);
+    doAnswer(new Answer<Object>() {
+      public Object answer(InvocationOnMock invocation) throws Exception {
+        WebPage page = (WebPage) invocation.getArguments()[1];
+        if ("a".equals(invocation.getArguments()[0])) {
+          parsing.await();
+        }
+        if (page.getContent().remaining() == 0) {
+          throw new RuntimeException("nothing to parse");
+        }
+        page.setTitle(new Utf8("parsed"));
+        return null;
+      }
+    }).when(parseUtil).process(anyString(), any(WebPage.class));
+    context = mock(TaskInputOutputContext.class);
+    doAnswer(new Answer<Object>() {
+      public Object answer(InvocationOnMock invocation) {
+        WebPage page = (WebPage) invocation.getArguments()[1];
+        written.add(invocation.getArguments()[0] + " " + page.getTitle() + " "
+            + page.getContent().remaining());
+        return null;
+      }
+    }).when(context).write(anyString(), any(WebPage.class));
+  }
+
+  private static WebPage page(String content) {
+    WebPage page = WebPage.newBuilder().build();
+    page.setContent(ByteBuffer.wrap(content.getBytes()));
+    return page;
+  }
+
+  private static void join(ParseStage stage) throws InterruptedException {
+    stage.finish();
+    for (Thread thread : stage.getThreads()) {
+      thread.join(5000);
+      assertFalse(thread.isAlive());
+    }
+  }
+
+  @Test
+  public void testParse() throws Exception {
+    ParseStage stage = new ParseStage(parseUtil, context, 2, 10, 60000);
+    stage.start();
+    stage.put("a", page("content"), false);
+    // the content is removed after the parse
+    stage.put("b", page("content"), true);
+    // errors do not stop the page from being written
+    stage.put("c", page(""), false);
+    join(stage);
+    assertEquals(3, stage.getParsed());
+    assertEquals(3, written.size());
+    assertTrue(written.contains("a parsed 7"));
+    assertTrue(written.contains("b parsed 0"));
+    assertTrue(written.contains("c null 0"));
+  }
+
+  @Test
+  public void testBlocksWhenFull() throws Exception {
+    parsing = new CountDownLatch(1);
+    final ParseStage stage = new ParseStage(parseUtil, context, 1, 1, 60000);
+    stage.start();
+    stage.put("a", page("a"), false);
+    // the parser thread takes the first page, the second one fills the queue
+    long deadline = System.currentTimeMillis() + 5000;
+    while (stage.getQueueSize() > 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    stage.put("b", page("b"), false);
+    assertEquals(1, stage.getQueueSize());
+
+    final CountDownLatch put = new CountDownLatch(1);
+    Thread fetcher = new Thread() {
+      public void run() {
+        try {
+          stage.put("c", page("c"), false);
+          put.countDown();
+        } catch (Exception e) {
+        }
+      }
+    };
+    fetcher.start();
+    assertFalse(put.await(300, TimeUnit.MILLISECONDS));
+    assertEquals(0, stage.getParsed());
+
+    parsing.countDown();
+    assertTrue(put.await(5, TimeUnit.SECONDS));
+    join(stage);
+    assertEquals(3, stage.getParsed());
+    assertEquals(3, written.size());
+  }
+
+  @Test
+  public void testParseInlineWhenFullTooLong() throws Exception {
+    parsing = new CountDownLatch(1);
+    ParseStage stage = new ParseStage(parseUtil, context, 1, 1, 300);
+    stage.start();
+    stage.put("a", page("a"), false);
+    long deadline = System.currentTimeMillis() + 5000;
+    while (stage.getQueueSize() > 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    stage.put("b", page("b"), false);
+    // the parser thread hangs, the page is parsed by the caller
+    long start = System.currentTimeMillis();
+    stage.put("c", page("c"), false);
+    assertTrue(System.currentTimeMillis() - start >= 300);
+    assertEquals("[c parsed 1]", written.toString());
+
+    parsing.countDown();
+    join(stage);
+    assertEquals(3, stage.getParsed());
+    assertEquals(3, written.size());
+  }
+
+  @Test
+  public void testParseInlineWithoutParserThreads() throws Exception {
+    // the parser thread dies on the first write
+    doThrow(new IOException("disk full")).doAnswer(new Answer<Object>() {
+      public Object answer(InvocationOnMock invocation) {
+        written.add((String) invocation.getArguments()[0]);
+        return null;
+      }
+    }).when(context).write(anyString(), any(WebPage.class));
+    ParseStage stage = new ParseStage(parseUtil, context, 1, 10, 60000);
+    stage.start();
+    stage.put("a", page("a"), false);
+    stage.getThreads().get(0).join(5000);
+    assertFalse(stage.isAlive());
+
+    long start = System.currentTimeMillis();
+    stage.put("b", page("b"), false);
+    assertTrue(System.currentTimeMillis() - start < 5000);
+    assertEquals("[b]", written.toString());
+    stage.finish();
+    assertEquals(0, stage.drain());
+  }
+}
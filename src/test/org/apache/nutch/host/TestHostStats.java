@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.apache.nutch.host;
+
+import org.apache.avro.util.Utf8;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.nutch.crawl.CrawlStatus;
+import org.apache.nutch.storage.Host;
+import org.apache.nutch.storage.WebPage;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests for HostStats. */
+public class TestHostStats {
+
+  private static WebPage page(int status, String... outlinks) {
+    WebPage page = WebPage.newBuilder().build();
+    page.setStatus(status);
+    for (String outlink : outlinks) {
+      page.getOutlinks().put(new Utf8(outlink), new Utf8());
+    }
+    return page;
+  }
+
+  @Test
+  public void testAdd() throws Exception {
+    HostStats stats = new HostStats();
+    stats.addPage(page(CrawlStatus.STATUS_FETCHED, "http://a.com/1",
+        "http://a.com/2", "http://b.com/"));
+    stats.addPage(page(CrawlStatus.STATUS_UNFETCHED));
+    WebPage linked = page(CrawlStatus.STATUS_FETCHED, "http://b.com/2");
+    linked.getInlinks().put(new Utf8("http://c.com/"), new Utf8());
+    HostStats other = new HostStats();
+    other.addPage(linked);
+
+    // as the stats of a map task are shuffled
+    DataOutputBuffer out = new DataOutputBuffer();
+    other.write(out);
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(out.getData(), out.getLength());
+    other.readFields(in);
+    stats.add(other);
+
+    assertEquals(3, stats.getPages());
+    assertEquals(2, stats.getFetched());
+    assertEquals(Integer.valueOf(2), stats.getOutlinks().get("a.com"));
+    assertEquals(Integer.valueOf(2), stats.getOutlinks().get("b.com"));
+    assertEquals(Integer.valueOf(1), stats.getInlinks().get("c.com"));
+
+    Host host = HostDbUpdateReducer.toHost(stats);
+    assertEquals(new Utf8("2"), host.getOutlinks().get(new Utf8("a.com")));
+    assertEquals(new Utf8("1"), host.getInlinks().get(new Utf8("c.com")));
+    assertEquals(1, host.getInlinks().size());
+  }
+
+  @Test
+  public void testLimitLinkHosts() {
+    HostStats stats = new HostStats();
+    stats.addPage(page(CrawlStatus.STATUS_FETCHED, "http://a.com/1",
+        "http://a.com/2", "http://b.com/", "http://c.com/1", "http://c.com/2",
+        "http://c.com/3"));
+    stats.limitLinkHosts(-1);
+    assertEquals(3, stats.getLinkHostCount());
+    stats.limitLinkHosts(2);
+    assertEquals(2, stats.getLinkHostCount());
+    assertTrue(stats.getOutlinks().containsKey("a.com"));
+    assertTrue(stats.getOutlinks().containsKey("c.com"));
+  }
+}
@@ -0,0 +1,135 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.net;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.util.NutchConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests for CachingHostResolver. */
+public class TestCachingHostResolver {
+
+  /** Counts the lookups passed to a {@link FileHostResolver}. */
+  private static class CountingResolver extends FileHostResolver {
+    final AtomicInteger calls = new AtomicInteger(0);
+
+    @Override
+    public InetAddress resolve(String host) throws UnknownHostException {
+      calls.incrementAndGet();
+      return super.resolve(host);
+    }
+  }
+
+  private Configuration conf;
+  private CountingResolver file;
+
+  @Before
+  public void setUp() {
+    conf = NutchConfiguration.create();
+    file = new CountingResolver();
+    file.setConf(conf);
+  }
+
+  @Test
+  public void testFileResolver() throws Exception {
+    assertEquals("192.168.0.1",
+        file.resolve("www.example.com").getHostAddress());
+    assertEquals("192.168.0.1",
+        file.resolve("WWW.Example.ORG").getHostAddress());
+    try {
+      file.resolve("www.unknown.test");
+      fail("host is not in the file");
+    } catch (UnknownHostException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testCache() throws Exception {
+    CachingHostResolver resolver = new CachingHostResolver(file);
+    resolver.setConf(conf);
+    for (int i = 0; i < 3; i++) {
+      assertEquals("10.0.0.2",
+          resolver.resolve("www.example.net").getHostAddress());
+    }
+    assertEquals(1, file.calls.get());
+    assertEquals(2, resolver.getHits());
+    assertEquals(1, resolver.getMisses());
+  }
+
+  @Test
+  public void testNegativeCache() throws Exception {
+    CachingHostResolver resolver = new CachingHostResolver(file);
+    resolver.setConf(conf);
+    for (int i = 0; i < 2; i++) {
+      try {
+        resolver.resolve("www.unknown.test");
+        fail("host is not in the file");
+      } catch (UnknownHostException e) {
+        // expected
+      }
+    }
+    assertEquals(1, file.calls.get());
+    assertEquals(1, resolver.getFailures());
+
+    conf.setLong("dns.cache.negative.ttl", 0);
+    resolver.setConf(conf);
+    for (int i = 0; i < 2; i++) {
+      try {
+        resolver.resolve("www.unknown.test");
+      } catch (UnknownHostException e) {
+        // expected
+      }
+    }
+    // failures are not kept with a negative TTL of 0
+    assertEquals(3, file.calls.get());
+  }
+
+  @Test
+  public void testBounded() throws Exception {
+    conf.setInt("dns.cache.size", 2);
+    CachingHostResolver resolver = new CachingHostResolver(file);
+    resolver.setConf(conf);
+    for (String host : Arrays.asList("localhost.test", "www.example.com",
+        "www.example.org", "www.example.net")) {
+      resolver.resolve(host);
+    }
+    assertTrue(resolver.size() <= 2);
+  }
+
+  @Test
+  public void testPrefetch() throws Exception {
+    CachingHostResolver resolver = new CachingHostResolver(file);
+    resolver.setConf(conf);
+    resolver.prefetch(Arrays.asList("www.example.com", "www.example.net",
+        "www.example.com", "www.unknown.test"));
+    for (int i = 0; i < 100 && resolver.getMisses() < 3; i++) {
+      Thread.sleep(10);
+    }
+    assertEquals(3, file.calls.get());
+    assertEquals("192.168.0.1",
+        resolver.resolve("www.example.com").getHostAddress());
+    assertEquals(3, file.calls.get());
+  }
+}
@@ -0,0 +1,77 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.net;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.util.NutchConfiguration;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests for URLCache. */
+public class TestURLCache {
+
+  @Test
+  public void testLookup() {
+    URLCache cache = new URLCache("test", 1000);
+    long a = URLCache.fingerprint("outlink", "http://example.com/a");
+    long b = URLCache.fingerprint("outlink", "http://example.com/b");
+    assertFalse(a == b);
+    assertFalse(a == URLCache.fingerprint("inject", "http://example.com/a"));
+    assertEquals(0, a & 3);
+
+    assertEquals(0, cache.lookup(a));
+    cache.put(a, URLCache.SAME);
+    cache.put(b, URLCache.NULL);
+    assertEquals(URLCache.SAME, cache.lookup(a));
+    assertEquals(URLCache.NULL, cache.lookup(b));
+
+    assertNull(cache.lookupChanged(a));
+    cache.putChanged(a, "http://example.com/A");
+    assertEquals(URLCache.CHANGED, cache.lookup(a));
+    assertEquals("http://example.com/A", cache.lookupChanged(a));
+    assertNull(cache.lookupChanged(b));
+    assertEquals(3, cache.getHits());
+    assertEquals(1, cache.getMisses());
+  }
+
+  @Test
+  public void testBounded() {
+    URLCache cache = new URLCache("test", 16);
+    for (int i = 0; i < 1000; i++) {
+      cache.put(URLCache.fingerprint(null, "http://example.com/" + i),
+          URLCache.SAME);
+    }
+    int cached = 0;
+    for (int i = 0; i < 1000; i++) {
+      if (cache.lookup(URLCache.fingerprint(null, "http://example.com/" + i)) != 0) {
+        cached++;
+      }
+    }
+    assertTrue(cached > 0 && cached <= 16);
+  }
+
+  @Test
+  public void testConfiguration() {
+    Configuration conf = NutchConfiguration.create();
+    assertNull(URLCache.getFilterCache(conf));
+    conf.setInt(URLCache.FILTER_CACHE_SIZE, 100);
+    URLCache cache = URLCache.getFilterCache(conf);
+    assertNotNull(cache);
+    assertSame(cache, URLCache.getFilterCache(conf));
+    assertNull(URLCache.getNormalizerCache(conf));
+  }
+}
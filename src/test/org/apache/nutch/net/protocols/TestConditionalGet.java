@@ -0,0 +1,96 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.net.protocols;
+
+import org.apache.avro.util.Utf8;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.nutch.crawl.CrawlStatus;
+import org.apache.nutch.fetcher.FetcherJob;
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.metadata.SpellCheckedMetadata;
+import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.NutchConfiguration;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests for ConditionalGet. */
+public class TestConditionalGet {
+
+  private static WebPage fetchedPage() {
+    WebPage page = WebPage.newBuilder().build();
+    page.setStatus((int) CrawlStatus.STATUS_FETCHED);
+    page.setModifiedTime(1413102600000L);
+    page.getHeaders().put(new Utf8("Etag"), new Utf8("\"abc\""));
+    page.getHeaders().put(new Utf8("Content-Type"), new Utf8("text/html"));
+    return page;
+  }
+
+  @Test
+  public void testConditions() {
+    WebPage page = fetchedPage();
+    assertEquals("Sun, 12 Oct 2014 08:30:00 GMT",
+        ConditionalGet.getIfModifiedSince(page));
+    assertEquals("\"abc\"", ConditionalGet.getIfNoneMatch(page));
+
+    page.setStatus((int) CrawlStatus.STATUS_NOTMODIFIED);
+    assertEquals("\"abc\"", ConditionalGet.getIfNoneMatch(page));
+
+    // nothing known to compare with
+    page.setModifiedTime(0L);
+    assertNull(ConditionalGet.getIfModifiedSince(page));
+    page.setStatus((int) CrawlStatus.STATUS_UNFETCHED);
+    assertNull(ConditionalGet.getIfNoneMatch(page));
+    assertNull(ConditionalGet.getIfNoneMatch(WebPage.newBuilder().build()));
+  }
+
+  /** The conditions of a page as the fetcher reads it from the web table. */
+  @Test
+  public void testFetcherFields() throws Exception {
+    WebPage stored = fetchedPage();
+    WebPage page = WebPage.newBuilder().build();
+    Configuration conf = NutchConfiguration.create();
+    conf.addResource("crawl-tests.xml");
+    Job job = Job.getInstance(conf);
+    for (WebPage.Field field : new FetcherJob().getFields(job)) {
+      page.put(field.getIndex(), stored.get(field.getIndex()));
+    }
+    assertEquals("Sun, 12 Oct 2014 08:30:00 GMT",
+        ConditionalGet.getIfModifiedSince(page));
+    assertEquals("\"abc\"", ConditionalGet.getIfNoneMatch(page));
+  }
+
+  @Test
+  public void testHeaders() {
+    WebPage page = fetchedPage();
+    Metadata headers = new SpellCheckedMetadata();
+    headers.set("ETag", "\"def\"");
+    headers.set("Date", "Mon, 13 Oct 2014 08:30:00 GMT");
+
+    // a 304 response updates the stored headers
+    ConditionalGet.setHeaders(page, 304, headers);
+    assertEquals(3, page.getHeaders().size());
+    assertEquals("\"def\"", ConditionalGet.getIfNoneMatch(page));
+    assertEquals(new Utf8("text/html"),
+        page.getHeaders().get(new Utf8("Content-Type")));
+
+    // other responses replace them
+    ConditionalGet.setHeaders(page, 200, headers);
+    assertEquals(2, page.getHeaders().size());
+    assertNull(page.getHeaders().get(new Utf8("Content-Type")));
+  }
+}
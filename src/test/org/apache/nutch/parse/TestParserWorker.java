@@ -0,0 +1,93 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.parse;
+
+import java.nio.ByteBuffer;
+
+import org.apache.avro.util.Utf8;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.nutch.storage.ParseStatus;
+import org.apache.nutch.storage.WebPage;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests for the protocol of ParserWorker. */
+public class TestParserWorker {
+
+  private static DataInputBuffer toInput(DataOutputBuffer out) {
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(out.getData(), out.getLength());
+    return in;
+  }
+
+  @Test
+  public void testParse() throws Exception {
+    ParseStatus status = ParseStatus.newBuilder().build();
+    status.setMajorCode((int) ParseStatusCodes.SUCCESS);
+    status.getArgs().add(new Utf8("arg"));
+    Parse parse = new Parse("text", "title", new Outlink[] {
+        new Outlink("http://example.com/a", "a"),
+        new Outlink("http://example.com/b", "b") }, status);
+
+    DataOutputBuffer out = new DataOutputBuffer();
+    ParserWorker.writeParse(out, parse);
+    ParserWorker.writeParse(out, new Parse());
+    DataInputBuffer in = toInput(out);
+
+    Parse read = ParserWorker.readParse(in);
+    assertEquals("text", read.getText());
+    assertEquals("title", read.getTitle());
+    assertEquals(2, read.getOutlinks().length);
+    assertEquals(parse.getOutlinks()[1], read.getOutlinks()[1]);
+    assertEquals(ParseStatusCodes.SUCCESS, read.getParseStatus()
+        .getMajorCode().intValue());
+    assertEquals("arg", read.getParseStatus().getArgs().get(0).toString());
+
+    read = ParserWorker.readParse(in);
+    assertNull(read.getText());
+    assertNull(read.getOutlinks());
+    assertNull(read.getParseStatus());
+  }
+
+  @Test
+  public void testPageChanges() throws Exception {
+    WebPage page = WebPage.newBuilder().build();
+    page.setContent(ByteBuffer.wrap("<html/>".getBytes()));
+    page.setContentType(new Utf8("text/html"));
+    page.getMetadata().put(new Utf8("a"), ByteBuffer.wrap(new byte[] { 1 }));
+    page.clearDirty();
+
+    DataOutputBuffer out = new DataOutputBuffer();
+    ParserWorker.writeRequest(out, "http://example.com/", page);
+    DataInputBuffer in = toInput(out);
+    assertEquals(0, in.readByte());
+    assertEquals("http://example.com/", Text.readString(in));
+    WebPage parsed = ParserWorker.readPage(in);
+    assertEquals(page.getContentType(), parsed.getContentType());
+
+    // as a parse filter in the worker would
+    parsed.getMetadata().put(new Utf8("b"), ByteBuffer.wrap(new byte[] { 2 }));
+    parsed.setContent(null);
+    ParserWorkerPool.copyChanges(parsed, page, true);
+    assertNotNull(page.getContent());
+    assertEquals(2, page.getMetadata().size());
+    assertTrue(page.isDirty(WebPage.Field.METADATA.getIndex()));
+    assertFalse(page.isDirty(WebPage.Field.CONTENT_TYPE.getIndex()));
+  }
+}
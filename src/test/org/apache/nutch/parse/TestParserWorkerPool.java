@@ -0,0 +1,140 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.parse;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Collections;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.NutchConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests for ParserWorkerPool, with workers in child JVMs. */
+public class TestParserWorkerPool {
+
+  /**
+   * Parses the content as the title, takes forever for "sleep" and fails for
+   * "fail".
+   */
+  public static class TestParser implements Parser {
+    private Configuration conf;
+
+    @Override
+    public Parse getParse(String url, WebPage page) {
+      String content = new String(page.getContent().array());
+      if (content.equals("sleep")) {
+        while (true) {
+          try {
+            Thread.sleep(1000);
+          } catch (InterruptedException e) {
+            // keep sleeping
+          }
+        }
+      } else if (content.equals("fail")) {
+        throw new RuntimeException("failed");
+      }
+      Parse parse = ParseStatusUtils.getEmptyParse(0, "", conf);
+      parse.getParseStatus().setMajorCode((int) ParseStatusCodes.SUCCESS);
+      parse.setTitle(content);
+      return parse;
+    }
+
+    @Override
+    public Collection<WebPage.Field> getFields() {
+      return Collections.emptySet();
+    }
+
+    @Override
+    public void setConf(Configuration conf) {
+      this.conf = conf;
+    }
+
+    @Override
+    public Configuration getConf() {
+      return conf;
+    }
+  }
+
+  private ParserWorkerPool pool;
+
+  @Before
+  public void setUp() {
+    Configuration conf = NutchConfiguration.create();
+    conf.setInt("parser.timeout", 2);
+    conf.setInt(ParserWorkerPool.WORKERS, 1);
+    conf.set(ParserWorkerPool.WORKER_HEAP, "64m");
+    pool = new ParserWorkerPool(conf, ParserWorkerPool.buildCommand(conf,
+        TestParser.class.getName()));
+  }
+
+  @After
+  public void tearDown() {
+    pool.close();
+  }
+
+  private Parse parse(String content) throws Exception {
+    WebPage page = WebPage.newBuilder().build();
+    page.setContent(ByteBuffer.wrap(content.getBytes()));
+    return pool.parse("http://example.com/", page);
+  }
+
+  @Test
+  public void testTimeout() throws Exception {
+    assertEquals("a", parse("a").getTitle());
+
+    // the worker is killed, and another one started for the next parse
+    Parse parse = parse("sleep");
+    assertFalse(ParseStatusUtils.isSuccess(parse.getParseStatus()));
+    assertEquals(1, pool.getTimeouts());
+    assertEquals(1, pool.getKills());
+    assertEquals("b", parse("b").getTitle());
+    assertEquals(1, pool.getRestarts());
+  }
+
+  @Test
+  public void testError() throws Exception {
+    try {
+      parse("fail");
+      fail();
+    } catch (ParseException e) {
+      assertTrue(e.getMessage().contains("failed"));
+    }
+    // the deadline of the failed parse does not kill the worker later
+    Thread.sleep(2500);
+    assertEquals("a", parse("a").getTitle());
+    assertEquals(0, pool.getTimeouts());
+    assertEquals(0, pool.getKills());
+    assertEquals(0, pool.getRestarts());
+  }
+
+  @Test
+  public void testClose() throws Exception {
+    assertEquals("a", parse("a").getTitle());
+    pool.close();
+    try {
+      parse("b");
+      fail();
+    } catch (ParseException e) {
+      // closed
+    }
+  }
+}
@@ -0,0 +1,122 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import crawlercommons.robots.BaseRobotRules;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests for RobotRulesCache. */
+public class TestRobotRulesCache {
+
+  private static class CountingLoader implements RobotRulesCache.Loader {
+    final AtomicInteger calls = new AtomicInteger(0);
+    final boolean fail;
+
+    CountingLoader(boolean fail) {
+      this.fail = fail;
+    }
+
+    public RobotRulesCache.Result load() throws Exception {
+      calls.incrementAndGet();
+      return fail ? RobotRulesCache.Result.failed(RobotRulesParser.EMPTY_RULES)
+          : RobotRulesCache.Result.of(RobotRulesParser.FORBID_ALL_RULES);
+    }
+  }
+
+  @Test
+  public void testHitAndMiss() throws Exception {
+    RobotRulesCache cache = new RobotRulesCache(10, 60000, 60000);
+    CountingLoader loader = new CountingLoader(false);
+    assertSame(RobotRulesParser.FORBID_ALL_RULES, cache.get("http:a:80", loader));
+    assertSame(RobotRulesParser.FORBID_ALL_RULES, cache.get("http:a:80", loader));
+    assertEquals(1, loader.calls.get());
+    assertEquals(1, cache.getHits());
+    assertEquals(1, cache.getMisses());
+  }
+
+  @Test
+  public void testBounded() throws Exception {
+    RobotRulesCache cache = new RobotRulesCache(2, 60000, 60000);
+    CountingLoader loader = new CountingLoader(false);
+    for (int i = 0; i < 5; i++) {
+      cache.get("http:host" + i + ":80", loader);
+    }
+    assertTrue(cache.size() <= 2);
+    assertTrue(cache.getEvictions() >= 3);
+  }
+
+  @Test
+  public void testNegativeTtl() throws Exception {
+    RobotRulesCache cache = new RobotRulesCache(10, 60000, 0);
+    CountingLoader failing = new CountingLoader(true);
+    cache.get("http:down:80", failing);
+    cache.get("http:down:80", failing);
+    // failures are not kept with a negative TTL of 0
+    assertEquals(2, failing.calls.get());
+
+    CountingLoader loader = new CountingLoader(false);
+    cache.get("http:up:80", loader);
+    cache.get("http:up:80", loader);
+    assertEquals(1, loader.calls.get());
+  }
+
+  @Test
+  public void testSingleFlight() throws Exception {
+    final RobotRulesCache cache = new RobotRulesCache(10, 60000, 60000);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger calls = new AtomicInteger(0);
+    final RobotRulesCache.Loader slow = new RobotRulesCache.Loader() {
+      public RobotRulesCache.Result load() throws Exception {
+        calls.incrementAndGet();
+        release.await();
+        return RobotRulesCache.Result.of(RobotRulesParser.EMPTY_RULES);
+      }
+    };
+    final BaseRobotRules[] results = new BaseRobotRules[8];
+    Thread[] threads = new Thread[results.length];
+    for (int i = 0; i < threads.length; i++) {
+      final int n = i;
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            results[n] = cache.get("http:slow:80", slow);
+          } catch (Exception e) {
+            // leaves the result null
+          }
+        }
+      };
+      threads[i].start();
+    }
+    Thread.sleep(200);
+    release.countDown();
+    for (Thread t : threads) {
+      t.join(10000);
+    }
+    assertEquals(1, calls.get());
+    for (BaseRobotRules rules : results) {
+      assertSame(RobotRulesParser.EMPTY_RULES, rules);
+    }
+    assertEquals(1, cache.getMisses());
+    assertEquals(results.length - 1, cache.getHits());
+  }
+}
@@ -0,0 +1,65 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.scoring.webgraph;
+
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.nutch.util.WritableTestUtils;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests for the records of the LinkRankJob. */
+public class TestNode {
+
+  @Test
+  public void testNode() throws Exception {
+    Node node = (Node) WritableTestUtils.writeRead(
+        new Node(0.25f, new int[] { 3, 7, 11 }, true), null);
+    assertFalse(node.isContribution());
+    assertTrue(node.isPage());
+    assertEquals(0.25f, node.getRank(), 0f);
+    assertArrayEquals(new int[] { 3, 7, 11 }, node.getOutlinks());
+
+    // a dangling outlink target
+    node = (Node) WritableTestUtils.writeRead(new Node(0.5f, new int[0],
+        false), null);
+    assertFalse(node.isContribution());
+    assertFalse(node.isPage());
+    assertEquals(0, node.getOutlinks().length);
+  }
+
+  @Test
+  public void testContribution() throws Exception {
+    Node node = (Node) WritableTestUtils.writeRead(Node.contribution(0.125f),
+        null);
+    assertTrue(node.isContribution());
+    assertFalse(node.isPage());
+    assertEquals(0.125f, node.getRank(), 0f);
+  }
+
+  @Test
+  public void testUrlOrRank() throws Exception {
+    LinkRankJob.UrlOrRank url = (LinkRankJob.UrlOrRank) WritableTestUtils
+        .writeRead(new LinkRankJob.UrlOrRank(new Text("org.apache:http/")),
+            null);
+    assertEquals(new Text("org.apache:http/"), url.get());
+    LinkRankJob.UrlOrRank rank = (LinkRankJob.UrlOrRank) WritableTestUtils
+        .writeRead(new LinkRankJob.UrlOrRank(new FloatWritable(2f)), null);
+    assertEquals(new FloatWritable(2f), rank.get());
+  }
+}
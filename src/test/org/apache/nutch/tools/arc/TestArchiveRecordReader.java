@@ -0,0 +1,187 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.tools.arc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests for ArchiveRecordReader and ArchiveRecord. */
+public class TestArchiveRecordReader {
+
+  private static final int RECORDS = 50;
+
+  private FileSystem fs;
+  private Path dir = new Path("build/test/archive");
+
+  @Before
+  public void setUp() throws IOException {
+    fs = FileSystem.getLocal(new Configuration());
+    fs.mkdirs(dir);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    fs.delete(dir, true);
+  }
+
+  private static byte[] warcResponse(int i, byte[] body) throws IOException {
+    ByteArrayOutputStream http = new ByteArrayOutputStream();
+    http.write(("HTTP/1.1 200 OK\r\nContent-Type: text/html\r\n"
+        + "X-Page: " + i + "\r\n\r\n").getBytes("US-ASCII"));
+    http.write(body);
+    ByteArrayOutputStream record = new ByteArrayOutputStream();
+    record.write(("WARC/1.0\r\nWARC-Type: response\r\n"
+        + "WARC-Target-URI: http://example.com/" + i + ".html\r\n"
+        + "WARC-Date: 2014-10-12T08:30:00Z\r\n"
+        + "Content-Type: application/http; msgtype=response\r\n"
+        + "Content-Length: " + http.size() + "\r\n\r\n").getBytes("US-ASCII"));
+    record.write(http.toByteArray());
+    record.write("\r\n\r\n".getBytes("US-ASCII"));
+    return record.toByteArray();
+  }
+
+  private Path writeWarcGz(String name) throws IOException {
+    Path file = new Path(dir, name);
+    OutputStream out = fs.create(file);
+    Random random = new Random(42);
+    out.write(gzip(("WARC/1.0\r\nWARC-Type: warcinfo\r\n"
+        + "Content-Length: 0\r\n\r\n\r\n\r\n").getBytes("US-ASCII")));
+    for (int i = 0; i < RECORDS; i++) {
+      // incompressible bodies are stored as is, so the compressed stream
+      // contains what looks like a gzip header
+      byte[] body = new byte[1000 + random.nextInt(5000)];
+      random.nextBytes(body);
+      body[100] = (byte) 0x1f;
+      body[101] = (byte) 0x8b;
+      body[102] = 8;
+      out.write(gzip(warcResponse(i, body)));
+    }
+    out.close();
+    return file;
+  }
+
+  private static byte[] gzip(byte[] data) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+    gzip.write(data);
+    gzip.close();
+    return bytes.toByteArray();
+  }
+
+  private List<String> read(Path file, boolean compressed, long start,
+      long end) throws IOException {
+    ArchiveRecordReader reader = new ArchiveRecordReader();
+    reader.initialize(fs.open(file), compressed, start, end);
+    List<String> urls = new ArrayList<String>();
+    while (reader.nextKeyValue()) {
+      ArchiveRecord record = reader.getCurrentValue();
+      if (record.hasContent()) {
+        urls.add(record.getUrl());
+        assertEquals(200, record.getHttpStatus());
+        assertEquals("text/html", record.getContentType());
+        assertEquals("http://example.com/" + record.getHeader("x-page")
+            + ".html", record.getUrl());
+      }
+    }
+    reader.close();
+    return urls;
+  }
+
+  @Test
+  public void testCompressed() throws IOException {
+    Path file = writeWarcGz("test.warc.gz");
+    List<String> urls = read(file, true, 0, fs.getFileStatus(file).getLen());
+    assertEquals(RECORDS, urls.size());
+    assertEquals("http://example.com/0.html", urls.get(0));
+  }
+
+  @Test
+  public void testSplits() throws IOException {
+    Path file = writeWarcGz("split.warc.gz");
+    long length = fs.getFileStatus(file).getLen();
+    for (int splits : new int[] { 2, 3, 7, 40 }) {
+      List<String> urls = new ArrayList<String>();
+      long size = length / splits + 1;
+      for (long start = 0; start < length; start += size) {
+        urls.addAll(read(file, true, start, Math.min(length, start + size)));
+      }
+      assertEquals("records with " + splits + " splits", RECORDS, urls.size());
+      for (int i = 0; i < RECORDS; i++) {
+        assertEquals("http://example.com/" + i + ".html", urls.get(i));
+      }
+    }
+  }
+
+  @Test
+  public void testArc() throws IOException {
+    Path file = new Path(dir, "test.arc");
+    OutputStream out = fs.create(file);
+    String version = "1 0 Test\nURL IP-address Archive-date Content-type Archive-length\n";
+    out.write(("filedesc://test.arc 0.0.0.0 20141012083000 text/plain "
+        + version.length() + "\n" + version + "\n").getBytes("US-ASCII"));
+    for (int i = 0; i < 3; i++) {
+      String response = "HTTP/1.0 200 OK\nContent-Type: text/html\n\n<html>" + i
+          + "</html>";
+      out.write(("http://example.com/" + i + ".html 127.0.0.1 20141012083000 "
+          + "text/html " + response.length() + "\n" + response + "\n")
+          .getBytes("US-ASCII"));
+    }
+    out.close();
+    ArchiveRecordReader reader = new ArchiveRecordReader();
+    reader.initialize(fs.open(file), false, 0, fs.getFileStatus(file).getLen());
+    assertTrue(reader.nextKeyValue());
+    assertEquals(ArchiveRecord.TYPE_FILEDESC, reader.getCurrentValue().getType());
+    for (int i = 0; i < 3; i++) {
+      assertTrue(reader.nextKeyValue());
+      ArchiveRecord record = reader.getCurrentValue();
+      assertEquals("http://example.com/" + i + ".html", record.getUrl());
+      assertEquals("<html>" + i + "</html>", new String(record.getContent(), "US-ASCII"));
+      assertEquals(1413102600000L, record.getDate());
+    }
+    assertFalse(reader.nextKeyValue());
+    reader.close();
+  }
+
+  @Test
+  public void testChunked() throws IOException {
+    String http = "HTTP/1.1 404 Not Found\r\nTransfer-Encoding: chunked\r\n"
+        + "Content-Type: text/plain\r\n\r\n5\r\nHello\r\n7;ext=1\r\n, World\r\n0\r\n\r\n";
+    String warc = "WARC/1.0\r\nWARC-Type: response\r\n"
+        + "WARC-Target-URI: <http://example.com/>\r\n"
+        + "Content-Type: application/http;msgtype=response\r\n"
+        + "Content-Length: " + http.length() + "\r\n\r\n" + http;
+    ArchiveRecord record = new ArchiveRecord();
+    byte[] data = warc.getBytes("US-ASCII");
+    record.parse(data, data.length);
+    assertEquals("http://example.com/", record.getUrl());
+    assertEquals(404, record.getHttpStatus());
+    assertEquals("Hello, World", new String(record.getContent(), "US-ASCII"));
+  }
+}
@@ -0,0 +1,146 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.tools.arc;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.avro.util.Utf8;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.nutch.crawl.CrawlStatus;
+import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.NutchConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests for WarcFileWriter and WarcWriter. */
+public class TestWarcFileWriter {
+
+  private Configuration conf;
+  private FileSystem fs;
+  private Path dir = new Path("build/test/warc");
+
+  @Before
+  public void setUp() throws IOException {
+    conf = NutchConfiguration.create();
+    conf.setLong(WarcFileWriter.FILE_SIZE_KEY, 4096);
+    fs = FileSystem.getLocal(conf);
+    fs.delete(dir, true);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    fs.delete(dir, true);
+  }
+
+  private static WebPage page(int i, byte status) {
+    WebPage page = WebPage.newBuilder().build();
+    page.setStatus((int) status);
+    page.setFetchTime(1413102600000L + i * 1000L);
+    page.setContentType(new Utf8("text/html"));
+    page.getHeaders().put(new Utf8("Content-Type"), new Utf8("text/html"));
+    page.getHeaders().put(new Utf8("Content-Encoding"), new Utf8("gzip"));
+    page.getHeaders().put(new Utf8("Content-Length"), new Utf8("12"));
+    StringBuilder html = new StringBuilder("<html>" + i);
+    for (int j = 0; j < 100; j++) {
+      html.append(" word").append(i * j);
+    }
+    page.setContent(ByteBuffer.wrap(html.append("</html>").toString()
+        .getBytes()));
+    return page;
+  }
+
+  @Test
+  public void testRollAndIndex() throws Exception {
+    WarcFileWriter writer = new WarcFileWriter(conf, fs, dir, "part");
+    for (int i = 0; i < 20; i++) {
+      assertTrue(writer.write("http://example.com/" + i,
+          page(i, CrawlStatus.STATUS_FETCHED)));
+    }
+    assertFalse(writer.write("http://example.com/gone",
+        page(0, CrawlStatus.STATUS_GONE)));
+    writer.close();
+    assertEquals(20, writer.getRecords());
+
+    FileStatus[] files = fs.globStatus(new Path(dir, "part-*.warc.gz"));
+    assertTrue("files rolled", files.length > 1);
+
+    // every index entry points to the start of its record
+    BufferedReader index = new BufferedReader(new InputStreamReader(
+        fs.open(new Path(dir, "part.idx")), "UTF-8"));
+    String line;
+    int i = 0;
+    while ((line = index.readLine()) != null) {
+      String[] fields = line.split("\t");
+      assertEquals("http://example.com/" + i, fields[0]);
+      long offset = Long.parseLong(fields[3]);
+      ArchiveRecordReader reader = new ArchiveRecordReader();
+      reader.initialize(fs.open(new Path(dir, fields[2])), true, offset,
+          offset + 1);
+      assertTrue(reader.nextKeyValue());
+      assertEquals(offset, reader.getCurrentKey().get());
+      assertEquals(Long.parseLong(fields[4]), reader.getBytesRead());
+      ArchiveRecord record = reader.getCurrentValue();
+      assertEquals("http://example.com/" + i, record.getUrl());
+      assertEquals(1413102600000L + i * 1000L, record.getDate());
+      assertEquals(ByteBuffer.wrap(record.getContent()), page(i,
+          CrawlStatus.STATUS_FETCHED).getContent());
+      assertNull(record.getHeader("Content-Encoding"));
+      assertEquals(Integer.toString(record.getContent().length),
+          record.getHeader("Content-Length"));
+      assertFalse(reader.nextKeyValue());
+      reader.close();
+      i++;
+    }
+    index.close();
+    assertEquals(20, i);
+  }
+
+  @Test
+  public void testReadBack() throws Exception {
+    WarcFileWriter writer = new WarcFileWriter(conf, fs, dir, "redirects");
+    WebPage page = page(1, CrawlStatus.STATUS_REDIR_PERM);
+    page.getHeaders().put(new Utf8("Location"), new Utf8("http://example.com/"));
+    writer.write("http://example.com/old", page);
+    writer.close();
+
+    Path file = new Path(dir, "redirects-00000.warc.gz");
+    ArchiveRecordReader reader = new ArchiveRecordReader();
+    reader.initialize(fs.open(file), true, 0, fs.getFileStatus(file).getLen());
+    List<ArchiveRecord> records = new ArrayList<ArchiveRecord>();
+    while (reader.nextKeyValue()) {
+      assertTrue(records.isEmpty() || reader.getCurrentValue().hasContent());
+      if (reader.getCurrentValue().hasContent()) {
+        records.add(reader.getCurrentValue());
+      }
+    }
+    reader.close();
+    assertEquals(1, records.size());
+    assertEquals(301, records.get(0).getHttpStatus());
+    assertEquals("http://example.com/", records.get(0).getHeader("Location"));
+    assertEquals("text/html", records.get(0).getContentType());
+  }
+}